@@ -0,0 +1,449 @@
+package org.rrd4j.cached;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDbPool;
+import org.rrd4j.core.RrdUpdateService;
+import org.rrd4j.core.Util;
+
+/**
+ * <p>A server speaking the text protocol of rrdcached, so that the agents written for RRDTool can update RRDs
+ * stored by rrd4j. The updates are queued for each file by a {@link RrdUpdateService}, and written in batches
+ * through a {@link RrdDbPool}, once they are old enough or when a client asks for a flush.</p>
+ * <p>The supported commands are UPDATE, FLUSH, FLUSHALL, BATCH, STATS, HELP and QUIT. The file names are resolved
+ * against a base path, and the names going out of it are refused. Java 8 can't listen on a Unix domain socket, so
+ * the server listens on TCP, on the loopback address by default.</p>
+ * <p>The updates are checked when they are written, not when they are received: an update with a bad time, or for a
+ * missing file, is accepted, and the error is returned by the next FLUSH of the file, or by FLUSHALL.</p>
+ * <pre>
+ * RrdCachedServer server = RrdCachedServer.getBuilder().setBasePath(Paths.get("/var/lib/rrd")).build();
+ * ...
+ * server.close();
+ * </pre>
+ *
+ * @since 3.10
+ */
+public class RrdCachedServer implements Closeable {
+
+    /**
+     * The port used by rrdcached.
+     */
+    public static final int DEFAULT_PORT = 42217;
+
+    /**
+     * Builder for {@link RrdCachedServer} instances.
+     *
+     * @since 3.10
+     */
+    public static class Builder {
+        private RrdDbPool pool = null;
+        private RrdBackendFactory factory = null;
+        private Path basePath = Paths.get("").toAbsolutePath();
+        private InetAddress address = InetAddress.getLoopbackAddress();
+        private int port = DEFAULT_PORT;
+        private long maxDelay = TimeUnit.SECONDS.toNanos(300);
+
+        private Builder() {
+        }
+
+        /**
+         * @param pool the pool used to open the RRDs, {@link RrdDbPool#getInstance()} if not set
+         * @return the same builder
+         */
+        public Builder setPool(RrdDbPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * @param factory the factory giving the URI of a file name, {@link RrdBackendFactory#getDefaultFactory()} if
+         *                not set
+         * @return the same builder
+         */
+        public Builder setFactory(RrdBackendFactory factory) {
+            this.factory = factory;
+            return this;
+        }
+
+        /**
+         * @param basePath the path used to resolve the file names, the current directory by default
+         * @return the same builder
+         */
+        public Builder setBasePath(Path basePath) {
+            this.basePath = basePath.toAbsolutePath().normalize();
+            return this;
+        }
+
+        /**
+         * @param address the address to listen on, the loopback address by default
+         * @return the same builder
+         */
+        public Builder setAddress(InetAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * @param port the port to listen on, {@link #DEFAULT_PORT} by default, 0 for any free port
+         * @return the same builder
+         */
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param maxDelay the longest time an update is queued before being written, 300 seconds by default
+         * @param unit the unit of the delay
+         * @return the same builder
+         */
+        public Builder setMaxDelay(long maxDelay, TimeUnit unit) {
+            this.maxDelay = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * Creates the server and starts listening.
+         *
+         * @return a new server
+         * @throws java.io.IOException if the server can't listen on the port
+         */
+        public RrdCachedServer build() throws IOException {
+            return new RrdCachedServer(this);
+        }
+    }
+
+    /**
+     * @return a new builder
+     */
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    private static final String[] HELP = {
+            "UPDATE <filename> <values> [<values> ...]",
+            "FLUSH <filename>",
+            "FLUSHALL",
+            "BATCH",
+            "STATS",
+            "HELP",
+            "QUIT",
+    };
+
+    private class Connection implements Runnable {
+        private final Socket socket;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket;
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                 Writer writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String command = getCommand(line);
+                    if ("QUIT".equals(command)) {
+                        break;
+                    } else if ("BATCH".equals(command)) {
+                        writer.write("0 Go ahead.  End with dot '.' on its own line.\n");
+                        writer.flush();
+                        writer.write(batch(reader));
+                    } else {
+                        writer.write(execute(line));
+                    }
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                // The client went away, or the server is closing
+            } finally {
+                synchronized (connections) {
+                    connections.remove(socket);
+                }
+            }
+        }
+    }
+
+    private final RrdUpdateService service;
+    private final RrdBackendFactory factory;
+    private final Path basePath;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> connections = new HashSet<>();
+    private final AtomicLong updatesReceived = new AtomicLong();
+    private final AtomicLong flushesReceived = new AtomicLong();
+    private volatile boolean closed = false;
+
+    private RrdCachedServer(Builder builder) throws IOException {
+        this.factory = builder.factory != null ? builder.factory : RrdBackendFactory.getDefaultFactory();
+        this.basePath = builder.basePath;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(builder.address, builder.port));
+        this.service = RrdUpdateService.getBuilder()
+                .setPool(builder.pool)
+                .setMaxDelay(builder.maxDelay, TimeUnit.NANOSECONDS)
+                .build();
+        this.acceptor = new Thread(this::accept, "rrd4j-cached-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                synchronized (connections) {
+                    if (closed) {
+                        socket.close();
+                        break;
+                    }
+                    connections.add(socket);
+                }
+                Thread thread = new Thread(new Connection(socket), "rrd4j-cached-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // The server socket was closed, or the client went away
+            }
+        }
+    }
+
+    private static String getCommand(String line) {
+        int space = line.indexOf(' ');
+        return (space < 0 ? line : line.substring(0, space)).trim().toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Executes the commands of a batch, up to the line holding a single dot.
+     *
+     * @return the number of errors, followed by one line for each error, starting with the number of the command.
+     */
+    private String batch(BufferedReader reader) throws IOException {
+        List<String> errors = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null && !".".equals(line)) {
+            lineNumber++;
+            String response = execute(line);
+            if (response.startsWith("-")) {
+                errors.add(lineNumber + " " + response.substring(response.indexOf(' ') + 1));
+            }
+        }
+        StringBuilder response = new StringBuilder();
+        response.append(errors.size()).append(" errors\n");
+        for (String error : errors) {
+            response.append(error);
+        }
+        return response.toString();
+    }
+
+    /**
+     * Executes a command.
+     *
+     * @param line the command and its arguments, separated by spaces
+     * @return the response of rrdcached: the status, which is the number of lines following, or negative for an
+     * error, a message, and the following lines.
+     */
+    String execute(String line) {
+        String[] words = line.trim().split("\\s+");
+        try {
+            switch (getCommand(line)) {
+            case "UPDATE":
+                return update(words);
+            case "FLUSH":
+                if (words.length != 2) {
+                    throw new IllegalArgumentException("Usage: FLUSH <filename>");
+                }
+                flushesReceived.incrementAndGet();
+                service.flush(getUri(words[1]));
+                return "0 Successfully flushed " + words[1] + ".\n";
+            case "FLUSHALL":
+                flushesReceived.incrementAndGet();
+                service.flush();
+                return "0 Started flush.\n";
+            case "STATS":
+                return "5 Statistics follow\n"
+                        + "QueueLength: " + service.getPendingSamples() + "\n"
+                        + "UpdatesReceived: " + updatesReceived.get() + "\n"
+                        + "FlushesReceived: " + flushesReceived.get() + "\n"
+                        + "UpdatesWritten: " + service.getStoredSamples() + "\n"
+                        + "UpdatesDropped: " + service.getFailedSamples() + "\n";
+            case "HELP":
+                StringBuilder help = new StringBuilder();
+                help.append(HELP.length).append(" Command overview\n");
+                for (String usage : HELP) {
+                    help.append(usage).append("\n");
+                }
+                return help.toString();
+            default:
+                return "-1 Unknown command: " + words[0] + "\n";
+            }
+        } catch (IOException | RuntimeException e) {
+            return "-1 " + e.getMessage() + "\n";
+        }
+    }
+
+    private String update(String[] words) {
+        if (words.length < 3) {
+            throw new IllegalArgumentException("Usage: UPDATE <filename> <values> [<values> ...]");
+        }
+        URI uri = getUri(words[1]);
+        // Parse all the updates first, so that none is queued if one is invalid
+        long[] times = new long[words.length - 2];
+        double[][] values = new double[words.length - 2][];
+        for (int i = 0; i < times.length; i++) {
+            String[] tokens = words[i + 2].split(":");
+            if (tokens.length < 2) {
+                throw new IllegalArgumentException("Invalid update: " + words[i + 2]);
+            }
+            times[i] = parseTime(tokens[0]);
+            values[i] = new double[tokens.length - 1];
+            for (int j = 1; j < tokens.length; j++) {
+                values[i][j - 1] = "U".equals(tokens[j]) ? Double.NaN : parseValue(tokens[j]);
+            }
+        }
+        for (int i = 0; i < times.length; i++) {
+            service.update(uri, times[i], values[i]);
+        }
+        updatesReceived.addAndGet(times.length);
+        return "0 errors, enqueued " + times.length + " value(s).\n";
+    }
+
+    private static long parseTime(String token) {
+        if ("N".equals(token)) {
+            return Util.getTime();
+        }
+        try {
+            return (long) Math.floor(Double.parseDouble(token));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid timestamp: " + token);
+        }
+    }
+
+    private static double parseValue(String token) {
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value: " + token);
+        }
+    }
+
+    /**
+     * @param fileName a file name, relative to the base path or absolute
+     * @return the URI of the file
+     * @throws java.lang.IllegalArgumentException if the file is out of the base path
+     */
+    URI getUri(String fileName) {
+        Path path = basePath.resolve(fileName).normalize();
+        if (!path.startsWith(basePath)) {
+            throw new IllegalArgumentException("Access denied: " + fileName);
+        }
+        return factory.getUri(path.toString());
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops listening, disconnects the clients, and writes all the queued updates.
+     *
+     * @throws java.io.IOException if some updates were dropped since the previous flush
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                socket.close();
+            }
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Close interrupted", e);
+        }
+        service.close();
+    }
+
+    /**
+     * <p>Starts a server until the process is killed:</p>
+     * <pre>
+     * java -cp rrd4j-{version}.jar org.rrd4j.cached.RrdCachedServer [-l [address:]port] [-b base path] [-w seconds]
+     * </pre>
+     *
+     * @param args the options
+     * @throws java.io.IOException if the server can't listen on the port
+     */
+    public static void main(String[] args) throws IOException {
+        Builder builder = getBuilder();
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                usage();
+            }
+            String option = args[i];
+            String value = args[++i];
+            if ("-l".equals(option)) {
+                int colon = value.lastIndexOf(':');
+                if (colon >= 0) {
+                    builder.setAddress(InetAddress.getByName(value.substring(0, colon)));
+                }
+                builder.setPort(Integer.parseInt(value.substring(colon + 1)));
+            } else if ("-b".equals(option)) {
+                builder.setBasePath(Paths.get(value));
+            } else if ("-w".equals(option)) {
+                builder.setMaxDelay(Long.parseLong(value), TimeUnit.SECONDS);
+            } else {
+                usage();
+            }
+        }
+        RrdCachedServer server = builder.build();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }));
+        System.out.println("Listening on port " + server.getPort());
+        try {
+            server.acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -cp rrd4j.jar org.rrd4j.cached.RrdCachedServer [-l [address:]port] [-b base path] [-w seconds]");
+        System.exit(1);
+    }
+
+}
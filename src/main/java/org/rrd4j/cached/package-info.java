@@ -0,0 +1,4 @@
+/**
+ * RRD4J server compatible with the rrdcached protocol.
+ */
+package org.rrd4j.cached;
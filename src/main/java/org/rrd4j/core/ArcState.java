@@ -5,37 +5,33 @@ import java.io.IOException;
 /**
  * Class to represent internal RRD archive state for a single datasource. Objects of this
  * class are never manipulated directly, it's up to Rrd4j to manage internal archive states.
+ * It's a view of the state kept by its archive.
  *
  * @author Sasa Markovic
  */
 public class ArcState implements RrdUpdater<ArcState> {
     private final Archive parentArc;
+    private final int dsIndex;
 
-    private final RrdDouble<ArcState> accumValue;
-    private final RrdLong<ArcState> nanSteps;
-
-    ArcState(Archive parentArc, boolean shouldInitialize) throws IOException {
+    ArcState(Archive parentArc, int dsIndex) {
         this.parentArc = parentArc;
-        accumValue = new RrdDouble<>(this);
-        nanSteps = new RrdLong<>(this);
-        if (shouldInitialize) {
-            Header header = parentArc.getParentDb().getHeader();
-            long step = header.getStep();
-            long lastUpdateTime = header.getLastUpdateTime();
-            long arcStep = parentArc.getArcStep();
-            long initNanSteps = (Util.normalize(lastUpdateTime, step) -
-                    Util.normalize(lastUpdateTime, arcStep)) / step;
-            accumValue.set(Double.NaN);
-            nanSteps.set(initNanSteps);
-        }
+        this.dsIndex = dsIndex;
+    }
+
+    static long getInitNanSteps(long lastUpdateTime, long step, long arcStep) {
+        return (Util.normalize(lastUpdateTime, step) - Util.normalize(lastUpdateTime, arcStep)) / step;
+    }
+
+    long getNanStepsPointer() {
+        return parentArc.getNanStepsPointer(dsIndex);
     }
 
     String dump() throws IOException {
-        return "accumValue:" + accumValue.get() + " nanSteps:" + nanSteps.get() + "\n";
+        return "accumValue:" + getAccumValue() + " nanSteps:" + getNanSteps() + "\n";
     }
 
     void setNanSteps(long value) throws IOException {
-        nanSteps.set(value);
+        parentArc.setNanSteps(dsIndex, value);
     }
 
     /**
@@ -45,11 +41,11 @@ public class ArcState implements RrdUpdater<ArcState> {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     public long getNanSteps() throws IOException {
-        return nanSteps.get();
+        return parentArc.getNanSteps(dsIndex);
     }
 
     void setAccumValue(double value) throws IOException {
-        accumValue.set(value);
+        parentArc.setAccumValue(dsIndex, value);
     }
 
     /**
@@ -59,7 +55,7 @@ public class ArcState implements RrdUpdater<ArcState> {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     public double getAccumValue() throws IOException {
-        return accumValue.get();
+        return parentArc.getAccumValue(dsIndex);
     }
 
     /**
@@ -73,8 +69,8 @@ public class ArcState implements RrdUpdater<ArcState> {
 
     void appendXml(XmlWriter writer) throws IOException {
         writer.startTag("ds");
-        writer.writeTag("value", accumValue.get());
-        writer.writeTag("unknown_datapoints", nanSteps.get());
+        writer.writeTag("value", getAccumValue());
+        writer.writeTag("unknown_datapoints", getNanSteps());
         writer.closeTag(); // ds
     }
 
@@ -84,8 +80,8 @@ public class ArcState implements RrdUpdater<ArcState> {
      * Copies object's internal state to another ArcState object.
      */
     public void copyStateTo(ArcState arcState) throws IOException {
-        arcState.accumValue.set(accumValue.get());
-        arcState.nanSteps.set(nanSteps.get());
+        arcState.setAccumValue(getAccumValue());
+        arcState.setNanSteps(getNanSteps());
     }
 
     /**
@@ -102,7 +98,9 @@ public class ArcState implements RrdUpdater<ArcState> {
      * Required to implement RrdUpdater interface. You should never call this method directly.
      *
      * @return Allocator object
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     public RrdAllocator getRrdAllocator() {
         return parentArc.getRrdAllocator();
     }
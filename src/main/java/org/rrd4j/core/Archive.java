@@ -3,6 +3,7 @@ package org.rrd4j.core;
 import org.rrd4j.ConsolFun;
 
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 
 /**
  * Class to represent single RRD archive in a RRD with its internal state.
@@ -17,75 +18,110 @@ import java.io.IOException;
  */
 public class Archive implements RrdUpdater<Archive> {
     private final RrdDb parentDb;
+    private final int arcIndex;
 
     // definition
     private final RrdEnum<Archive, ConsolFun> consolFun;
     protected final RrdDouble<Archive> xff;
-    protected final RrdInt<Archive> steps;
-    protected final RrdInt<Archive> rows;
+    private final int steps;
+    private final int rows;
 
     // state
     private final Robin[] robins;
-    private final ArcState[] states;
+    private final RrdDoubleMatrix<Archive> matrix;
 
-    Archive(RrdDb parentDb, ArcDef arcDef) throws IOException {
+    // The robin pointers and archive states of each datasource are read and written through the state cache of the RRD
+
+    Archive(RrdDb parentDb, int arcIndex, ArcDef arcDef) throws IOException {
         this.parentDb = parentDb;
-        consolFun = new RrdEnum<>(this, false, ConsolFun.class); // Don't cache, as the enum type should be used instead
-        xff = new RrdDouble<>(this);
-        steps = new RrdInt<>(this, true);             // constant, may be cached
-        rows = new RrdInt<>(this, true);              // constant, may be cached
+        this.arcIndex = arcIndex;
+        RrdLayout layout = parentDb.getLayout();
+        long definition = layout.getArcDefinition(arcIndex);
+        consolFun = new RrdEnum<>(this, definition + RrdLayout.CONSOL_FUN, false, ConsolFun.class); // Don't cache, as the enum type should be used instead
+        xff = new RrdDouble<>(this, definition + RrdLayout.XFF);
+        steps = layout.getSteps(arcIndex);
+        rows = layout.getRows(arcIndex);
+        int n = layout.getDsCount();
         boolean shouldInitialize = arcDef != null;
         if (shouldInitialize) {
             consolFun.set(arcDef.getConsolFun());
             xff.set(arcDef.getXff());
-            steps.set(arcDef.getSteps());
-            rows.set(arcDef.getRows());
+            getRrdBackend().writeInt(definition + RrdLayout.STEPS, steps);
+            getRrdBackend().writeInt(definition + RrdLayout.ROWS, rows);
+            Header header = parentDb.getHeader();
+            long initNanSteps = ArcState.getInitNanSteps(header.getLastUpdateTime(), header.getStep(), getArcStep());
+            for (int i = 0; i < n; i++) {
+                //Purge old pointers content, avoid problems with file reuse
+                setRobinPointer(i, 0);
+                setAccumValue(i, Double.NaN);
+                setNanSteps(i, initNanSteps);
+            }
         }
-        int n = parentDb.getHeader().getDsCount();
-        int numRows = rows.get();
-        states = new ArcState[n];
-        int version = parentDb.getHeader().getVersion();
+        int version = layout.getVersion();
         if (version == 1) {
             robins = new RobinArray[n];
+            matrix = null;
             for (int i = 0; i < n; i++) {
-                states[i] = new ArcState(this, shouldInitialize);
-                robins[i] = new RobinArray(this, numRows, shouldInitialize);
+                robins[i] = new RobinArray(this, i, rows, shouldInitialize);
             }
         } else {
-            @SuppressWarnings("unchecked")
-            RrdInt<Archive>[] pointers = new RrdInt[n];
             robins = new RobinMatrix[n];
+            // Version 3 stores the archived values as floats, version 4 puts them after the state and definitions
+            matrix = new RrdDoubleMatrix<>(this, layout.getRobinValues(arcIndex, 0), rows, n, shouldInitialize, version == 3);
             for (int i = 0; i < n; i++) {
-                pointers[i] = new RrdInt<>(this);
-                //Purge old pointers content, avoid problems with file reuse
-                if(shouldInitialize) {
-                    pointers[i].set(0);
-                }
-                states[i] = new ArcState(this, shouldInitialize);
-            }
-            RrdDoubleMatrix<Archive> values = new RrdDoubleMatrix<>(this, numRows, n, shouldInitialize);
-            for (int i = 0; i < n; i++) {
-                robins[i] = new RobinMatrix(this, values, pointers[i], i);
+                robins[i] = new RobinMatrix(this, matrix, i);
             }
         }
     }
 
     // read from XML
     Archive(RrdDb parentDb, DataImporter reader, int arcIndex) throws IOException {
-        this(parentDb, new ArcDef(
+        this(parentDb, arcIndex, new ArcDef(
                 reader.getConsolFun(arcIndex), reader.getXff(arcIndex),
                 reader.getSteps(arcIndex), reader.getRows(arcIndex)));
         int n = parentDb.getHeader().getDsCount();
         for (int i = 0; i < n; i++) {
             // restore state
-            states[i].setAccumValue(reader.getStateAccumValue(arcIndex, i));
-            states[i].setNanSteps(reader.getStateNanSteps(arcIndex, i));
+            setAccumValue(i, reader.getStateAccumValue(arcIndex, i));
+            setNanSteps(i, reader.getStateNanSteps(arcIndex, i));
             // restore robins
             double[] values = reader.getValues(arcIndex, i);
             robins[i].update(values);
         }
     }
 
+    int getRobinPointer(int dsIndex) throws IOException {
+        return parentDb.getStateCache().getRobinPointer(arcIndex, dsIndex);
+    }
+
+    void setRobinPointer(int dsIndex, int value) throws IOException {
+        parentDb.getStateCache().setRobinPointer(arcIndex, dsIndex, value);
+    }
+
+    double getAccumValue(int dsIndex) throws IOException {
+        return parentDb.getStateCache().getAccumValue(arcIndex, dsIndex);
+    }
+
+    void setAccumValue(int dsIndex, double value) throws IOException {
+        parentDb.getStateCache().setAccumValue(arcIndex, dsIndex, value);
+    }
+
+    long getNanSteps(int dsIndex) throws IOException {
+        return parentDb.getStateCache().getNanSteps(arcIndex, dsIndex);
+    }
+
+    void setNanSteps(int dsIndex, long value) throws IOException {
+        parentDb.getStateCache().setNanSteps(arcIndex, dsIndex, value);
+    }
+
+    long getNanStepsPointer(int dsIndex) {
+        return parentDb.getLayout().getArcState(arcIndex, dsIndex) + RrdLayout.NAN_STEPS;
+    }
+
+    int getArcIndex() {
+        return arcIndex;
+    }
+
     /**
      * Returns archive time step in seconds. Archive step is equal to RRD step
      * multiplied with the number of archive steps.
@@ -94,7 +130,7 @@ public class Archive implements RrdUpdater<Archive> {
      * @throws java.io.IOException Thrown in case of I/O error.
      */
     public long getArcStep() throws IOException {
-        return parentDb.getHeader().getStep() * steps.get();
+        return parentDb.getHeader().getStep() * steps;
     }
 
     String dump() throws IOException {
@@ -104,9 +140,9 @@ public class Archive implements RrdUpdater<Archive> {
         .append(":")
         .append(xff.get())
         .append(":")
-        .append(steps.get())
+        .append(steps)
         .append(":")
-        .append(rows.get())
+        .append(rows)
         .append("\n")
         .append("interval [")
         .append(getStartTime())
@@ -114,7 +150,7 @@ public class Archive implements RrdUpdater<Archive> {
         .append(getEndTime())
         .append("]" + "\n");
         for (int i = 0; i < robins.length; i++) {
-            sb.append(states[i].dump());
+            sb.append(getArcState(i).dump());
             sb.append(robins[i].dump());
         }
         return sb.toString();
@@ -124,77 +160,84 @@ public class Archive implements RrdUpdater<Archive> {
         return parentDb;
     }
 
-    void archive(int dsIndex, double value, long numUpdates) throws IOException {
+    void archive(int dsIndex, double value, long numUpdates, RrdBatchUpdate batch) throws IOException {
         Robin robin = robins[dsIndex];
-        ArcState state = states[dsIndex];
         long step = parentDb.getHeader().getStep();
         long lastUpdateTime = parentDb.getHeader().getLastUpdateTime();
         long updateTime = Util.normalize(lastUpdateTime, step) + step;
         long arcStep = getArcStep();
         // finish current step
         while (numUpdates > 0) {
-            accumulate(state, value);
+            accumulate(dsIndex, value);
             numUpdates--;
             if (updateTime % arcStep == 0) {
-                finalizeStep(state, robin);
+                finalizeStep(dsIndex, robin, batch);
                 break;
             } else {
                 updateTime += step;
             }
         }
         // update robin in bulk
-        int bulkUpdateCount = (int) Math.min(numUpdates / steps.get(), rows.get());
-        robin.bulkStore(value, bulkUpdateCount);
+        int bulkUpdateCount = (int) Math.min(numUpdates / steps, rows);
+        if (batch != null) {
+            batch.addRows(arcIndex, dsIndex, value, bulkUpdateCount);
+        } else {
+            robin.bulkStore(value, bulkUpdateCount);
+        }
         // update remaining steps
-        long remainingUpdates = numUpdates % steps.get();
+        long remainingUpdates = numUpdates % steps;
         for (long i = 0; i < remainingUpdates; i++) {
-            accumulate(state, value);
+            accumulate(dsIndex, value);
         }
     }
 
-    private void accumulate(ArcState state, double value) throws IOException {
+    private void accumulate(int dsIndex, double value) throws IOException {
         if (Double.isNaN(value)) {
-            state.setNanSteps(state.getNanSteps() + 1);
+            setNanSteps(dsIndex, getNanSteps(dsIndex) + 1);
         } else {
             switch (consolFun.get()) {
             case MIN:
-                state.setAccumValue(Util.min(state.getAccumValue(), value));
+                setAccumValue(dsIndex, Util.min(getAccumValue(dsIndex), value));
                 break;
             case MAX:
-                state.setAccumValue(Util.max(state.getAccumValue(), value));
+                setAccumValue(dsIndex, Util.max(getAccumValue(dsIndex), value));
                 break;
             case FIRST:
-                if (Double.isNaN(state.getAccumValue())) {
-                    state.setAccumValue(value);
+                if (Double.isNaN(getAccumValue(dsIndex))) {
+                    setAccumValue(dsIndex, value);
                 }
                 break;
             case LAST:
-                state.setAccumValue(value);
+                setAccumValue(dsIndex, value);
                 break;
             case AVERAGE:
             case TOTAL:
-                state.setAccumValue(Util.sum(state.getAccumValue(), value));
+                setAccumValue(dsIndex, Util.sum(getAccumValue(dsIndex), value));
                 break;
             }
         }
     }
 
-    private void finalizeStep(ArcState state, Robin robin) throws IOException {
+    private void finalizeStep(int dsIndex, Robin robin, RrdBatchUpdate batch) throws IOException {
         // should store
-        long arcSteps = steps.get();
+        long arcSteps = steps;
         double arcXff = xff.get();
-        long nanSteps = state.getNanSteps();
-        double accumValue = state.getAccumValue();
+        long nanSteps = getNanSteps(dsIndex);
+        double accumValue = getAccumValue(dsIndex);
+        double row = Double.NaN;
         if (nanSteps <= arcXff * arcSteps && !Double.isNaN(accumValue)) {
             if (consolFun.get() == ConsolFun.AVERAGE) {
                 accumValue /= (arcSteps - nanSteps);
             }
-            robin.store(accumValue);
+            row = accumValue;
+        }
+        if (batch != null) {
+            batch.addRows(arcIndex, dsIndex, row, 1);
         } else {
-            robin.store(Double.NaN);
+            robin.store(row);
         }
-        state.setAccumValue(Double.NaN);
-        state.setNanSteps(0);
+        setAccumValue(dsIndex, Double.NaN);
+        setNanSteps(dsIndex, 0);
     }
 
     /**
@@ -224,7 +267,7 @@ public class Archive implements RrdUpdater<Archive> {
      * @throws java.io.IOException Thrown in case of I/O error.
      */
     public int getSteps() throws IOException {
-        return steps.get();
+        return steps;
     }
 
     /**
@@ -234,7 +277,7 @@ public class Archive implements RrdUpdater<Archive> {
      * @throws java.io.IOException Thrown in case of I/O error.
      */
     public int getRows() throws IOException {
-        return rows.get();
+        return rows;
     }
 
     /**
@@ -246,7 +289,7 @@ public class Archive implements RrdUpdater<Archive> {
     public long getStartTime() throws IOException {
         long endTime = getEndTime();
         long arcStep = getArcStep();
-        long numRows = rows.get();
+        long numRows = rows;
         return endTime - (numRows - 1) * arcStep;
     }
 
@@ -265,13 +308,13 @@ public class Archive implements RrdUpdater<Archive> {
     /**
      * Returns the underlying archive state object. Each datasource has its
      * corresponding ArcState object (archive states are managed independently
-     * for each RRD datasource).
+     * for each RRD datasource). It's a view of the state kept by the archive.
      *
      * @param dsIndex Datasource index
      * @return Underlying archive state object
      */
     public ArcState getArcState(int dsIndex) {
-        return states[dsIndex];
+        return new ArcState(this, dsIndex);
     }
 
     /**
@@ -285,7 +328,41 @@ public class Archive implements RrdUpdater<Archive> {
         return robins[dsIndex];
     }
 
+    /**
+     * Returns where the archived values are stored in the backend.
+     *
+     * @return for each region of doubles, its offset, its length in bytes and its number of interleaved columns. Values
+     * stored as floats are not reported.
+     */
+    long[][] getValueRegions() {
+        if (matrix != null && matrix.isSinglePrecision()) {
+            return new long[0][];
+        } else if (matrix != null) {
+            return new long[][] {{matrix.getPointer(), matrix.getByteCount(), robins.length}};
+        } else {
+            long[][] regions = new long[robins.length][];
+            for (int i = 0; i < robins.length; i++) {
+                regions[i] = ((RobinArray) robins[i]).getValueRegion();
+            }
+            return regions;
+        }
+    }
+
     FetchData fetchData(FetchRequest request) throws IOException {
+        FetchData fetchData = new FetchData(this, request);
+        String[] dsToFetch = fetchData.getDsNames();
+        fetchData.fill(getStartTime(), (index, count) -> {
+            int[] dsIndexes = new int[dsToFetch.length];
+            for (int i = 0; i < dsToFetch.length; i++) {
+                dsIndexes[i] = parentDb.getDsIndex(dsToFetch[i]);
+            }
+            // When most of the datasources are requested, reading whole rows is faster
+            return getValues(dsIndexes, index, count, 2 * dsToFetch.length > robins.length);
+        });
+        return fetchData;
+    }
+
+    FetchView fetchView(FetchRequest request) throws IOException {
         long arcStep = getArcStep();
         long fetchStart = Util.normalize(request.getFetchStart(), arcStep);
         long fetchEnd = Util.normalize(request.getFetchEnd(), arcStep);
@@ -300,57 +377,100 @@ public class Archive implements RrdUpdater<Archive> {
         }
         int dsCount = dsToFetch.length;
         int ptsCount = (int) ((fetchEnd - fetchStart) / arcStep + 1);
-        long[] timestamps = new long[ptsCount];
-        double[][] values = new double[dsCount][ptsCount];
         long matchStartTime = Math.max(fetchStart, startTime);
         long matchEndTime = Math.min(fetchEnd, endTime);
-        double[][] robinValues = null;
-        if (matchStartTime <= matchEndTime) {
-            // preload robin values
-            int matchCount = (int) ((matchEndTime - matchStartTime) / arcStep + 1);
-            int matchStartIndex = (int) ((matchStartTime - startTime) / arcStep);
-            robinValues = new double[dsCount][];
-            for (int i = 0; i < dsCount; i++) {
-                int dsIndex = parentDb.getDsIndex(dsToFetch[i]);
-                robinValues[i] = robins[dsIndex].getValues(matchStartIndex, matchCount);
-            }
+        if (matchStartTime > matchEndTime || dsCount == 0) {
+            return new FetchView(null, dsToFetch, fetchStart, arcStep, ptsCount, 0, 0, new DoubleBuffer[0], dsCount, new int[dsCount]);
+        }
+        int matchCount = (int) ((matchEndTime - matchStartTime) / arcStep + 1);
+        int matchStartIndex = (int) ((matchStartTime - startTime) / arcStep);
+        int matchOffset = (int) ((matchStartTime - fetchStart) / arcStep);
+        int[] dsIndexes = new int[dsCount];
+        for (int i = 0; i < dsCount; i++) {
+            dsIndexes[i] = parentDb.getDsIndex(dsToFetch[i]);
         }
-        for (int ptIndex = 0; ptIndex < ptsCount; ptIndex++) {
-            long time = fetchStart + ptIndex * arcStep;
-            timestamps[ptIndex] = time;
+        if (robins instanceof RobinMatrix[]) {
+            RobinMatrix[] selected = new RobinMatrix[dsCount];
+            int[] columns = new int[dsCount];
             for (int i = 0; i < dsCount; i++) {
-                double value = Double.NaN;
-                if (time >= matchStartTime && time <= matchEndTime) {
-                    // inbound time
-                    int robinValueIndex = (int) ((time - matchStartTime) / arcStep);
-                    assert robinValues != null;
-                    value = robinValues[i][robinValueIndex];
+                selected[i] = (RobinMatrix) robins[dsIndexes[i]];
+                columns[i] = selected[i].getColumn();
+            }
+            // The storage is kept until the view is closed
+            RrdBackend backend = parentDb.getRrdBackend();
+            backend.acquireView();
+            boolean pinned = false;
+            try {
+                DoubleBuffer[] segments = RobinMatrix.getRowViews(selected, matchStartIndex, matchCount);
+                if (segments != null) {
+                    FetchView view = new FetchView(backend, dsToFetch, fetchStart, arcStep, ptsCount, matchOffset, matchCount, segments, robins.length, columns);
+                    pinned = true;
+                    return view;
+                }
+            } finally {
+                if (!pinned) {
+                    backend.releaseView();
                 }
-                values[i][ptIndex] = value;
             }
         }
-        FetchData fetchData = new FetchData(this, request);
-        fetchData.setTimestamps(timestamps);
-        fetchData.setValues(values);
-        return fetchData;
+        // No view available, the values are copied in rows
+        double[][] robinValues = getValues(dsIndexes, matchStartIndex, matchCount, 2 * dsCount > robins.length);
+        double[] rowValues = new double[matchCount * dsCount];
+        int[] columns = new int[dsCount];
+        for (int i = 0; i < dsCount; i++) {
+            columns[i] = i;
+            for (int j = 0; j < matchCount; j++) {
+                rowValues[j * dsCount + i] = robinValues[i][j];
+            }
+        }
+        DoubleBuffer[] segments = {DoubleBuffer.wrap(rowValues).asReadOnlyBuffer()};
+        return new FetchView(null, dsToFetch, fetchStart, arcStep, ptsCount, matchOffset, matchCount, segments, dsCount, columns);
+    }
+
+    /**
+     * Reads the values of many datasources.
+     *
+     * @param dsIndexes the datasources to read
+     * @param index the index of the first value, relative to the oldest one
+     * @param count the number of values
+     * @param byRows try to read whole rows in a single pass, instead of each datasource in turn
+     * @return the values for each datasource
+     * @throws IOException if the read fails
+     */
+    double[][] getValues(int[] dsIndexes, int index, int count, boolean byRows) throws IOException {
+        double[][] values = null;
+        if (byRows && dsIndexes.length > 0 && robins instanceof RobinMatrix[]) {
+            RobinMatrix[] selected = new RobinMatrix[dsIndexes.length];
+            for (int i = 0; i < dsIndexes.length; i++) {
+                selected[i] = (RobinMatrix) robins[dsIndexes[i]];
+            }
+            values = RobinMatrix.getRowValues(selected, index, count);
+        }
+        if (values == null) {
+            values = new double[dsIndexes.length][];
+            for (int i = 0; i < dsIndexes.length; i++) {
+                values[i] = robins[dsIndexes[i]].getValues(index, count);
+            }
+        }
+        return values;
     }
 
     void appendXml(XmlWriter writer) throws IOException {
         writer.startTag("rra");
         writer.writeTag("cf", consolFun.name());
         writer.writeComment(getArcStep() + " seconds");
-        writer.writeTag("pdp_per_row", steps.get());
+        writer.writeTag("pdp_per_row", steps);
         writer.startTag("params");
         writer.writeTag("xff", xff.get());
         writer.closeTag(); // params
         writer.startTag("cdp_prep");
-        for (ArcState state : states) {
-            state.appendXml(writer);
+        for (int i = 0; i < robins.length; i++) {
+            getArcState(i).appendXml(writer);
         }
         writer.closeTag(); // cdp_prep
         writer.startTag("database");
         long startTime = getStartTime();
-        for (int i = 0; i < rows.get(); i++) {
+        for (int i = 0; i < rows; i++) {
             long time = startTime + i * getArcStep();
             writer.writeComment(writer.formatTimestamp(time) + " / " + time);
             writer.startTag("row");
@@ -372,14 +492,14 @@ public class Archive implements RrdUpdater<Archive> {
         if (arc.consolFun.get() != consolFun.get()) {
             throw new IllegalArgumentException("Incompatible consolidation functions");
         }
-        if (arc.steps.get() != steps.get()) {
+        if (arc.steps != steps) {
             throw new IllegalArgumentException("Incompatible number of steps");
         }
         int count = parentDb.getHeader().getDsCount();
         for (int i = 0; i < count; i++) {
             int j = Util.getMatchingDatasourceIndex(parentDb, i, arc.parentDb);
             if (j >= 0) {
-                states[i].copyStateTo(arc.states[j]);
+                getArcState(i).copyStateTo(arc.getArcState(j));
                 robins[i].copyStateTo(arc.robins[j]);
             }
         }
@@ -412,7 +532,9 @@ public class Archive implements RrdUpdater<Archive> {
      * Required to implement RrdUpdater interface. You should never call this method directly.
      *
      * @return Allocator object
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     public RrdAllocator getRrdAllocator() {
         return parentDb.getRrdAllocator();
     }
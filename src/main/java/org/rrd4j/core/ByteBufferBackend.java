@@ -1,13 +1,21 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.util.Arrays;
+import java.nio.DoubleBuffer;
+import java.util.BitSet;
 
 /**
  * A backend that store and provides access to data using a {@link java.nio.ByteBuffer}, using java internal methods for
  * long, integer and others types.
+ * <p>
+ * Reads and writes don't lock the backend. Single values are read and written with the absolute methods of the
+ * buffers, and bulk operations use a duplicate of the buffer, so that concurrent threads never share a position.
+ * Concurrent fetches don't wait for each other, and don't wait for an update; the consistency of values modified
+ * together by an update is checked by {@link RrdDb}.
  * 
  * @author Fabrice Bacchella
  * @since 3.4
@@ -15,17 +23,81 @@ import java.util.Arrays;
  */
 public abstract class ByteBufferBackend extends RrdBackend {
 
+    /**
+     * The default size of the pages used to track modified parts of the buffer, in bytes.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    /**
+     * The largest chunk that can be used, a single chunk can then address the whole range of a {@link ByteBuffer}.
+     *
+     * @since 3.10
+     */
+    protected static final int MAX_CHUNK_SHIFT = 31;
+
     private volatile boolean dirty = false;
 
-    private ByteBuffer byteBuffer;
+    // The views given by getDoubleView still in use, the close is deferred until they are all released
+    private final Object viewLock = new Object();
+    private int views = 0;
+    private boolean closing = false;
+
+    private final int pageSize;
+    private final BitSet dirtyPages = new BitSet();
+    private long dirtyBytes = 0;
+    private long flushedBytes = 0;
+
+    private ByteBuffer[] chunks;
+    private int chunkShift;
+    private long chunkMask;
 
     protected ByteBufferBackend(String path) {
+        this(path, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Creates a backend that tracks the modified parts of the buffer using pages of the given size.
+     *
+     * @param path the backend path
+     * @param pageSize the size of the dirty tracking pages, in bytes
+     * @since 3.10
+     */
+    protected ByteBufferBackend(String path, int pageSize) {
         super(path);
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Illegal page size: " + pageSize);
+        }
+        this.pageSize = pageSize;
     }
 
     protected void setByteBuffer(ByteBuffer byteBuffer) {
-        this.byteBuffer = byteBuffer;
-        byteBuffer.order(BYTEORDER);
+        setByteBuffers(new ByteBuffer[] {byteBuffer}, MAX_CHUNK_SHIFT);
+    }
+
+    /**
+     * Used when the data can't be held in a single {@link ByteBuffer}. The data is split in consecutive chunks, all of
+     * them, except the last one, must have a capacity of exactly <code>2^chunkShift</code> bytes. Operations that cross
+     * a chunk boundary are slower, as they are done through byte arrays.
+     *
+     * @param chunks the chunks
+     * @param chunkShift the binary logarithm of the chunk size, at most {@link #MAX_CHUNK_SHIFT}
+     * @since 3.10
+     */
+    protected void setByteBuffers(ByteBuffer[] chunks, int chunkShift) {
+        if (chunkShift <= 0 || chunkShift > MAX_CHUNK_SHIFT) {
+            throw new IllegalArgumentException("Illegal chunk shift: " + chunkShift);
+        }
+        for (int i = 0; i < chunks.length - 1; i++) {
+            if (chunks[i].capacity() != 1L << chunkShift) {
+                throw new IllegalArgumentException("Invalid size for chunk " + i + ": " + chunks[i].capacity());
+            }
+        }
+        for (ByteBuffer chunk : chunks) {
+            chunk.order(BYTEORDER);
+        }
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1L << chunkShift) - 1;
+        this.chunks = chunks;
     }
 
     /**
@@ -34,74 +106,108 @@ public abstract class ByteBufferBackend extends RrdBackend {
      * @param offset Starting file offset
      * @param b      Bytes to be written.
      * @throws java.io.IOException if any.
-     * @throws java.lang.IllegalArgumentException if offset is bigger that the possible mapping position (2GiB).
+     * @throws java.lang.IllegalArgumentException if offset is outside of the buffers.
      */
-    protected synchronized void write(long offset, byte[] b) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        byteBuffer.put(b, (int) offset, b.length);
-        dirty = true;
+    protected void write(long offset, byte[] b) throws IOException {
+        int done = 0;
+        while (done < b.length) {
+            ByteBuffer byteBuffer = getChunk(offset + done);
+            int position = (int) ((offset + done) & chunkMask);
+            int length = Math.min(b.length - done, byteBuffer.capacity() - position);
+            if (length <= 0) {
+                throw new BufferOverflowException();
+            }
+            getView(byteBuffer, position).put(b, done, length);
+            done += length;
+        }
+        markDirty(offset, b.length);
     }
 
     @Override
     protected void writeShort(long offset, short value) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        byteBuffer.putShort((int)offset, value);
-        dirty = true;
+        ByteBuffer byteBuffer = getChunk(offset, 2);
+        if (byteBuffer != null) {
+            byteBuffer.putShort((int) (offset & chunkMask), value);
+            markDirty(offset, 2);
+        } else {
+            super.writeShort(offset, value);
+        }
     }
 
     @Override
     protected void writeInt(long offset, int value) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        byteBuffer.putInt((int)offset, value);
-        dirty = true;
+        ByteBuffer byteBuffer = getChunk(offset, 4);
+        if (byteBuffer != null) {
+            byteBuffer.putInt((int) (offset & chunkMask), value);
+            markDirty(offset, 4);
+        } else {
+            super.writeInt(offset, value);
+        }
     }
 
     @Override
     protected void writeLong(long offset, long value) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        byteBuffer.putLong((int)offset, value);
-        dirty = true;
+        ByteBuffer byteBuffer = getChunk(offset, 8);
+        if (byteBuffer != null) {
+            byteBuffer.putLong((int) (offset & chunkMask), value);
+            markDirty(offset, 8);
+        } else {
+            super.writeLong(offset, value);
+        }
     }
 
     @Override
     protected void writeDouble(long offset, double value) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        byteBuffer.putDouble((int)offset, value);
-        dirty = true;
+        ByteBuffer byteBuffer = getChunk(offset, 8);
+        if (byteBuffer != null) {
+            byteBuffer.putDouble((int) (offset & chunkMask), value);
+            markDirty(offset, 8);
+        } else {
+            super.writeDouble(offset, value);
+        }
     }
 
     @Override
-    protected void writeDouble(long offset, double value, int count)
-            throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        double[] values = new double[count];
-        Arrays.fill(values, value);
-        // position must be set in the original ByteByffer, as DoubleBuffer uses a "double" offset
-        byteBuffer.position((int)offset);
-        byteBuffer.asDoubleBuffer().put(values, 0, count);
-        dirty = true;
+    protected void writeDouble(long offset, double value, int count) throws IOException {
+        // Filled with absolute puts, so that nothing is allocated, even for big archives
+        writeStridedDouble(offset, 8, value, count);
     }
 
     @Override
     protected void writeDouble(long offset, double[] values) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        // position must be set in the original ByteByffer, as DoubleBuffer uses a "double" offset
-        byteBuffer.position((int)offset);
-        byteBuffer.asDoubleBuffer().put(values, 0, values.length);
-        dirty = true;
+        int done = 0;
+        while (done < values.length) {
+            long current = offset + 8L * done;
+            ByteBuffer byteBuffer = getChunk(current);
+            int position = (int) (current & chunkMask);
+            int length = Math.min(values.length - done, (byteBuffer.capacity() - position) / 8);
+            if (length > 0) {
+                // position must be set in the ByteByffer, as DoubleBuffer uses a "double" offset
+                getView(byteBuffer, position).asDoubleBuffer().put(values, done, length);
+                markDirty(current, 8L * length);
+                done += length;
+            } else {
+                // This value crosses a chunk boundary
+                super.writeDouble(current, values[done]);
+                done++;
+            }
+        }
     }
 
     @Override
     protected void writeString(long offset, String value, int length) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        byteBuffer.position((int)offset);
-        CharBuffer cbuff = byteBuffer.asCharBuffer();
-        cbuff.limit(length);
-        cbuff.put(value);
-        while (cbuff.position() < cbuff.limit()) {
-            cbuff.put(' ');
+        ByteBuffer byteBuffer = getChunk(offset, 2L * length);
+        if (byteBuffer != null) {
+            CharBuffer cbuff = getView(byteBuffer, (int) (offset & chunkMask)).asCharBuffer();
+            cbuff.limit(length);
+            cbuff.put(value);
+            while (cbuff.position() < cbuff.limit()) {
+                cbuff.put(' ');
+            }
+            markDirty(offset, 2L * length);
+        } else {
+            super.writeString(offset, value, length);
         }
-        dirty = true;
     }
 
     /**
@@ -110,81 +216,386 @@ public abstract class ByteBufferBackend extends RrdBackend {
      * @param offset Starting file offset
      * @param b      Buffer which receives bytes read from the file.
      * @throws java.io.IOException Thrown in case of I/O error.
-     * @throws java.lang.IllegalArgumentException if offset is bigger that the possible mapping position (2GiB).
+     * @throws java.lang.IllegalArgumentException if offset is outside of the buffers.
      */
-    protected synchronized void read(long offset, byte[] b) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        byteBuffer.position((int)offset);
-        byteBuffer.get(b);
+    protected void read(long offset, byte[] b) throws IOException {
+        int done = 0;
+        while (done < b.length) {
+            ByteBuffer byteBuffer = getChunk(offset + done);
+            int position = (int) ((offset + done) & chunkMask);
+            int length = Math.min(b.length - done, byteBuffer.capacity() - position);
+            if (length <= 0) {
+                throw new BufferUnderflowException();
+            }
+            getView(byteBuffer, position).get(b, done, length);
+            done += length;
+        }
     }
 
     @Override
     protected short readShort(long offset) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        return byteBuffer.getShort((int)offset);
+        ByteBuffer byteBuffer = getChunk(offset, 2);
+        return byteBuffer != null ? byteBuffer.getShort((int) (offset & chunkMask)) : super.readShort(offset);
     }
 
     @Override
     protected int readInt(long offset) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        return byteBuffer.getInt((int)offset);
+        ByteBuffer byteBuffer = getChunk(offset, 4);
+        return byteBuffer != null ? byteBuffer.getInt((int) (offset & chunkMask)) : super.readInt(offset);
     }
 
     @Override
     protected long readLong(long offset) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        return byteBuffer.getLong((int)offset);
+        ByteBuffer byteBuffer = getChunk(offset, 8);
+        return byteBuffer != null ? byteBuffer.getLong((int) (offset & chunkMask)) : super.readLong(offset);
     }
 
     @Override
     public double readDouble(long offset) throws IOException {
-        checkOffsetAndByteBuffer(offset);
-        return byteBuffer.getDouble((int)offset);
+        ByteBuffer byteBuffer = getChunk(offset, 8);
+        return byteBuffer != null ? byteBuffer.getDouble((int) (offset & chunkMask)) : super.readDouble(offset);
     }
 
     @Override
     public double[] readDouble(long offset, int count) throws IOException {
-        checkOffsetAndByteBuffer(offset);
         double[] values = new double[count];
-        // position must be set in the original ByteByffer, as DoubleBuffer is a "double" offset
-        byteBuffer.position((int)offset);
-        byteBuffer.asDoubleBuffer().get(values, 0, count);
+        int done = 0;
+        while (done < count) {
+            long current = offset + 8L * done;
+            ByteBuffer byteBuffer = getChunk(current);
+            int position = (int) (current & chunkMask);
+            int length = Math.min(count - done, (byteBuffer.capacity() - position) / 8);
+            if (length > 0) {
+                // position must be set in the ByteByffer, as DoubleBuffer is a "double" offset
+                getView(byteBuffer, position).asDoubleBuffer().get(values, done, length);
+                done += length;
+            } else {
+                // This value crosses a chunk boundary
+                values[done++] = super.readDouble(current);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    protected double[] readStridedDouble(long offset, long stride, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            long current = offset + i * stride;
+            ByteBuffer byteBuffer = getChunk(current, 8);
+            values[i] = byteBuffer != null ? byteBuffer.getDouble((int) (current & chunkMask)) : super.readDouble(current);
+        }
+        return values;
+    }
+
+    @Override
+    protected void writeStridedDouble(long offset, long stride, double[] values) throws IOException {
+        int crossing = 0;
+        for (int i = 0; i < values.length; i++) {
+            long current = offset + i * stride;
+            ByteBuffer byteBuffer = getChunk(current, 8);
+            if (byteBuffer != null) {
+                byteBuffer.putDouble((int) (current & chunkMask), values[i]);
+            } else {
+                // Already marked as dirty by write
+                super.writeDouble(current, values[i]);
+                crossing++;
+            }
+        }
+        markStridedDirty(offset, stride, values.length, crossing, 8);
+    }
+
+    @Override
+    protected void writeStridedDouble(long offset, long stride, double value, int count) throws IOException {
+        int crossing = 0;
+        for (int i = 0; i < count; i++) {
+            long current = offset + i * stride;
+            ByteBuffer byteBuffer = getChunk(current, 8);
+            if (byteBuffer != null) {
+                byteBuffer.putDouble((int) (current & chunkMask), value);
+            } else {
+                // Already marked as dirty by write
+                super.writeDouble(current, value);
+                crossing++;
+            }
+        }
+        markStridedDirty(offset, stride, count, crossing, 8);
+    }
+
+    @Override
+    protected double[] readStridedFloat(long offset, long stride, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            long current = offset + i * stride;
+            ByteBuffer byteBuffer = getChunk(current, 4);
+            values[i] = byteBuffer != null ? byteBuffer.getFloat((int) (current & chunkMask)) : super.readFloat(current);
+        }
         return values;
     }
 
     @Override
-    protected CharBuffer getCharBuffer(long offset, int size) throws RrdException {
-        checkOffsetAndByteBuffer(offset);
-        byteBuffer.position((int)offset);
-        CharBuffer cbuffer = byteBuffer.asCharBuffer();
-        cbuffer.limit(size);
-        return cbuffer;
+    protected void writeStridedFloat(long offset, long stride, double[] values) throws IOException {
+        int crossing = 0;
+        for (int i = 0; i < values.length; i++) {
+            long current = offset + i * stride;
+            ByteBuffer byteBuffer = getChunk(current, 4);
+            if (byteBuffer != null) {
+                byteBuffer.putFloat((int) (current & chunkMask), (float) values[i]);
+            } else {
+                // Already marked as dirty by write
+                super.writeFloat(current, (float) values[i]);
+                crossing++;
+            }
+        }
+        markStridedDirty(offset, stride, values.length, crossing, 4);
+    }
+
+    @Override
+    protected void writeStridedFloat(long offset, long stride, double value, int count) throws IOException {
+        float floatValue = (float) value;
+        int crossing = 0;
+        for (int i = 0; i < count; i++) {
+            long current = offset + i * stride;
+            ByteBuffer byteBuffer = getChunk(current, 4);
+            if (byteBuffer != null) {
+                byteBuffer.putFloat((int) (current & chunkMask), floatValue);
+            } else {
+                // Already marked as dirty by write
+                super.writeFloat(current, floatValue);
+                crossing++;
+            }
+        }
+        markStridedDirty(offset, stride, count, crossing, 4);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * No view is available if the values cross a chunk boundary. While views are acquired, the close of the backend
+     * is deferred until they are released, so that the storage is never unmapped or freed while a view reads it.
+     */
+    @Override
+    protected DoubleBuffer getDoubleView(long offset, int count) throws IOException {
+        ByteBuffer byteBuffer = getChunk(offset, 8L * count);
+        if (byteBuffer != null) {
+            int position = (int) (offset & chunkMask);
+            ByteBuffer view = getView(byteBuffer, position);
+            view.limit(position + 8 * count);
+            return view.slice().order(BYTEORDER).asDoubleBuffer().asReadOnlyBuffer();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    protected CharBuffer getCharBuffer(long offset, int size) throws IOException {
+        ByteBuffer byteBuffer = getChunk(offset, 2L * size);
+        if (byteBuffer != null) {
+            CharBuffer cbuffer = getView(byteBuffer, (int) (offset & chunkMask)).asCharBuffer();
+            cbuffer.limit(size);
+            return cbuffer;
+        } else {
+            return super.getCharBuffer(offset, size);
+        }
     }
 
     protected void close() throws IOException {
-        byteBuffer = null;
+        chunks = null;
     }
 
     /**
-     * Ensure that the conversion from long offset to integer offset will not overflow
+     * {@inheritDoc}
+     *
+     * @return <code>true</code>, reads and writes use absolute positions or duplicates of the buffers.
+     */
+    @Override
+    protected boolean isConcurrentReadAllowed() {
+        return true;
+    }
+
+    /**
+     * Find the chunk holding an offset, and ensure that the conversion from long offset to integer offset in the chunk
+     * will not overflow.
      * @param offset
-     * @throws RrdException 
+     * @throws RrdException
      */
-    private void checkOffsetAndByteBuffer(long offset) throws RrdException {
-        if (offset < 0 || offset > Integer.MAX_VALUE) {
-            throw new IllegalArgumentException("Illegal offset: " + offset);
-        }
-        if (byteBuffer == null) {
+    private ByteBuffer getChunk(long offset) throws RrdException {
+        if (chunks == null) {
             throw new RrdException("Empty rrd");
         }
+        long chunk = offset >>> chunkShift;
+        if (offset < 0 || chunk >= chunks.length) {
+            throw new IllegalArgumentException("Illegal offset: " + offset);
+        }
+        return chunks[(int) chunk];
+    }
+
+    /**
+     * Returns a view of a chunk, with its own position, for the relative bulk operations.
+     */
+    private static ByteBuffer getView(ByteBuffer byteBuffer, int position) {
+        ByteBuffer view = byteBuffer.duplicate().order(BYTEORDER);
+        view.position(position);
+        return view;
+    }
+
+    /**
+     * Find the chunk holding a range of bytes.
+     *
+     * @return the chunk, or null if the range crosses a chunk boundary.
+     */
+    private ByteBuffer getChunk(long offset, long length) throws RrdException {
+        ByteBuffer byteBuffer = getChunk(offset);
+        return (offset & chunkMask) + length <= (1L << chunkShift) ? byteBuffer : null;
     }
 
     protected boolean isDirty() {
         return dirty;
     }
 
+    /**
+     * Marks a range as modified, so that its pages are returned by the next {@link #takeDirtyPages()}. It's used to
+     * write again the pages that failed to be written.
+     *
+     * @param offset the start of the range, in bytes
+     * @param length the length of the range, in bytes
+     * @since 3.10
+     */
+    protected void markDirty(long offset, long length) {
+        dirty = true;
+        if (length <= 0) {
+            return;
+        }
+        synchronized (dirtyPages) {
+            dirtyPages.set((int) (offset / pageSize), (int) ((offset + length - 1) / pageSize) + 1);
+            dirtyBytes += length;
+        }
+    }
+
+    private void markStridedDirty(long offset, long stride, int count, int alreadyMarked, int size) {
+        dirty = true;
+        if (count <= 0) {
+            return;
+        }
+        synchronized (dirtyPages) {
+            if (stride < pageSize) {
+                // Every page in the region is written
+                dirtyPages.set((int) (offset / pageSize), (int) ((offset + (count - 1) * stride + size - 1) / pageSize) + 1);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    long current = offset + i * stride;
+                    dirtyPages.set((int) (current / pageSize), (int) ((current + size - 1) / pageSize) + 1);
+                }
+            }
+            dirtyBytes += (long) size * (count - alreadyMarked);
+        }
+    }
+
+    /**
+     * Returns the pages modified since the previous call and resets the tracking. A set bit
+     * <code>n</code> means that the bytes from <code>n * getPageSize()</code>
+     * to <code>(n + 1) * getPageSize()</code> were written.
+     *
+     * @return the dirty pages, never null.
+     * @since 3.10
+     */
+    protected BitSet takeDirtyPages() {
+        synchronized (dirtyPages) {
+            BitSet pages = (BitSet) dirtyPages.clone();
+            dirtyPages.clear();
+            return pages;
+        }
+    }
+
+    /**
+     * @return the size of the pages used for dirty tracking, in bytes.
+     * @since 3.10
+     */
+    protected int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Used by subclasses to account for bytes written to the underlying storage.
+     *
+     * @param bytes the number of bytes flushed.
+     * @since 3.10
+     */
+    protected void addFlushedBytes(long bytes) {
+        synchronized (dirtyPages) {
+            flushedBytes += bytes;
+        }
+    }
+
+    /**
+     * @return the number of bytes written to this backend since it was opened.
+     * @since 3.10
+     */
+    public long getDirtyBytes() {
+        synchronized (dirtyPages) {
+            return dirtyBytes;
+        }
+    }
+
+    /**
+     * @return the number of bytes flushed to the underlying storage since it was opened.
+     * @since 3.10
+     */
+    public long getFlushedBytes() {
+        synchronized (dirtyPages) {
+            return flushedBytes;
+        }
+    }
+
+    @Override
+    void acquireView() {
+        synchronized (viewLock) {
+            if (closing) {
+                throw new IllegalStateException("Backend " + getPath() + " already closed");
+            }
+            views++;
+        }
+    }
+
+    @Override
+    void releaseView() throws IOException {
+        synchronized (viewLock) {
+            if (--views > 0 || !closing) {
+                return;
+            }
+        }
+        doClose();
+    }
+
+    /**
+     * @return true if some views given by {@link #getDoubleView(long, int)} are still in use.
+     */
+    boolean hasViews() {
+        synchronized (viewLock) {
+            return views > 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If views are still in use, the backend is closed when the last one is released.
+     */
     @Override
     protected void rrdClose() throws IOException {
+        synchronized (viewLock) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            if (views > 0) {
+                return;
+            }
+        }
+        doClose();
+    }
+
+    private void doClose() throws IOException {
         super.rrdClose();
         dirty = false;
     }
@@ -69,7 +69,7 @@ public abstract class DataImporter implements Closeable {
         for (int i = 0 ; i < dsNames.length; i++) {
             dsNames[i] = getDsName(i);
         }
-        return RrdDef.calculateSize(dsCount, arcCount, rowCount, dsNames);
+        return RrdDef.calculateSize(2, dsCount, arcCount, rowCount, dsNames);
     }
 
     void release() throws IOException {
@@ -14,12 +14,13 @@ import org.rrd4j.DsType;
  * @author Sasa Markovic
  */
 public class Datasource implements RrdUpdater<Datasource> {
-    private static final double MAX_32_BIT = Math.pow(2, 32);
-    private static final double MAX_64_BIT = Math.pow(2, 64);
+    static final double MAX_32_BIT = Math.pow(2, 32);
+    static final double MAX_64_BIT = Math.pow(2, 64);
     private static final String INVALID_MIN_MAX_VALUES = "Invalid min/max values: ";
     private double accumLastValue;
 
     private final RrdDb parentDb;
+    private final int index;
 
     // definition
     private final RrdString<Datasource> dsName;
@@ -27,22 +28,18 @@ public class Datasource implements RrdUpdater<Datasource> {
     private final RrdLong<Datasource> heartbeat;
     private final RrdDouble<Datasource> minValue, maxValue;
 
-    // state variables
-    private final RrdDouble<Datasource> lastValue;
-    private final RrdLong<Datasource> nanSeconds;
-    private final RrdDouble<Datasource> accumValue;
+    // state variables are read and written through the state cache of the RRD
 
-    Datasource(RrdDb parentDb, DsDef dsDef) throws IOException {
+    Datasource(RrdDb parentDb, int dsIndex, DsDef dsDef) throws IOException {
         boolean shouldInitialize = dsDef != null;
         this.parentDb = parentDb;
-        dsName = new RrdString<>(this);
-        dsType = new RrdEnum<>(this, DsType.class);
-        heartbeat = new RrdLong<>(this);
-        minValue = new RrdDouble<>(this);
-        maxValue = new RrdDouble<>(this);
-        lastValue = new RrdDouble<>(this);
-        accumValue = new RrdDouble<>(this);
-        nanSeconds = new RrdLong<>(this);
+        this.index = dsIndex;
+        long definition = parentDb.getLayout().getDsDefinition(dsIndex);
+        dsName = new RrdString<>(this, definition + RrdLayout.DS_NAME);
+        dsType = new RrdEnum<>(this, definition + RrdLayout.DS_TYPE, DsType.class);
+        heartbeat = new RrdLong<>(this, definition + RrdLayout.HEARTBEAT);
+        minValue = new RrdDouble<>(this, definition + RrdLayout.MIN_VALUE);
+        maxValue = new RrdDouble<>(this, definition + RrdLayout.MAX_VALUE);
         accumLastValue = Double.NaN;
         if (shouldInitialize) {
             dsName.set(dsDef.getDsName());
@@ -50,32 +47,32 @@ public class Datasource implements RrdUpdater<Datasource> {
             heartbeat.set(dsDef.getHeartbeat());
             minValue.set(dsDef.getMinValue());
             maxValue.set(dsDef.getMaxValue());
-            lastValue.set(Double.NaN);
-            accumValue.set(0.0);
+            setLastValue(Double.NaN);
+            setAccumValue(0.0);
             Header header = parentDb.getHeader();
-            nanSeconds.set(header.getLastUpdateTime() % header.getStep());
+            setNanSeconds(header.getLastUpdateTime() % header.getStep());
         }
     }
 
     Datasource(RrdDb parentDb, DataImporter reader, int dsIndex) throws IOException {
-        this(parentDb, null);
+        this(parentDb, dsIndex, null);
         dsName.set(reader.getDsName(dsIndex));
         dsType.set(reader.getDsType(dsIndex));
         heartbeat.set(reader.getHeartbeat(dsIndex));
         minValue.set(reader.getMinValue(dsIndex));
         maxValue.set(reader.getMaxValue(dsIndex));
-        lastValue.set(reader.getLastValue(dsIndex));
-        accumValue.set(reader.getAccumValue(dsIndex));
-        nanSeconds.set(reader.getNanSeconds(dsIndex));
+        setLastValue(reader.getLastValue(dsIndex));
+        setAccumValue(reader.getAccumValue(dsIndex));
+        setNanSeconds(reader.getNanSeconds(dsIndex));
     }
 
     String dump() throws IOException {
         return "== DATASOURCE ==\n" +
                 "DS:" + dsName.get() + ":" + dsType.name() + ":" +
                 heartbeat.get() + ":" + minValue.get() + ":" +
-                maxValue.get() + "\nlastValue:" + lastValue.get() +
-                " nanSeconds:" + nanSeconds.get() +
-                " accumValue:" + accumValue.get() + "\n";
+                maxValue.get() + "\nlastValue:" + getLastValue() +
+                " nanSeconds:" + getNanSeconds() +
+                " accumValue:" + getAccumValue() + "\n";
     }
 
     /**
@@ -135,7 +132,11 @@ public class Datasource implements RrdUpdater<Datasource> {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     public double getLastValue() throws IOException {
-        return lastValue.get();
+        return parentDb.getStateCache().getLastValue(index);
+    }
+
+    private void setLastValue(double value) throws IOException {
+        parentDb.getStateCache().setLastValue(index, value);
     }
 
     /**
@@ -145,7 +146,15 @@ public class Datasource implements RrdUpdater<Datasource> {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     public double getAccumValue() throws IOException {
-        return accumValue.get();
+        return parentDb.getStateCache().getAccumValue(index);
+    }
+
+    private void setAccumValue(double value) throws IOException {
+        parentDb.getStateCache().setAccumValue(index, value);
+    }
+
+    long getNanSecondsPointer() {
+        return parentDb.getLayout().getDsState(index) + RrdLayout.NAN_SECONDS;
     }
 
     /**
@@ -155,16 +164,35 @@ public class Datasource implements RrdUpdater<Datasource> {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     public long getNanSeconds() throws IOException {
-        return nanSeconds.get();
+        return parentDb.getStateCache().getNanSeconds(index);
+    }
+
+    private void setNanSeconds(long value) throws IOException {
+        parentDb.getStateCache().setNanSeconds(index, value);
     }
 
-    final void process(long newTime, double newValue) throws IOException {
+    double getAccumLastValue() {
+        return accumLastValue;
+    }
+
+    void setAccumLastValue(double accumLastValue) {
+        this.accumLastValue = accumLastValue;
+    }
+
+    /**
+     * Applies a new value of the datasource.
+     *
+     * @param newTime the time of the sample, after the last update time
+     * @param newValue the value of the sample
+     * @param batch collects the rows finalized by a batch of samples, null to store them at once
+     */
+    final void process(long newTime, double newValue, RrdBatchUpdate batch) throws IOException {
         Header header = parentDb.getHeader();
         long step = header.getStep();
         long oldTime = header.getLastUpdateTime();
         long startTime = Util.normalize(oldTime, step);
         long endTime = startTime + step;
-        double oldValue = lastValue.get();
+        double oldValue = getLastValue();
         double updateValue = calculateUpdateValue(oldTime, oldValue, newTime, newValue);
         if (newTime < endTime) {
             accumulate(oldTime, newTime, updateValue);
@@ -180,11 +208,11 @@ public class Datasource implements RrdUpdater<Datasource> {
             long numSteps = (boundaryTime - endTime) / step + 1L;
 
             // ACTION!
-            parentDb.archive(this, value, lastCalculateValue, numSteps);
+            parentDb.archive(index, value, lastCalculateValue, numSteps, batch);
 
             // cleanup
-            nanSeconds.set(0);
-            accumValue.set(0.0);
+            setNanSeconds(0);
+            setAccumValue(0.0);
             accumLastValue = Double.NaN;
 
             accumulate(boundaryTime, newTime, updateValue);
@@ -236,25 +264,25 @@ public class Datasource implements RrdUpdater<Datasource> {
                 }
             }
         }
-        lastValue.set(newValue);
+        setLastValue(newValue);
         return updateValue;
     }
 
     private void accumulate(long oldTime, long newTime, double updateValue) throws IOException {
         if (Double.isNaN(updateValue)) {
-            nanSeconds.set(nanSeconds.get() + (newTime - oldTime));
+            setNanSeconds(getNanSeconds() + (newTime - oldTime));
         }
         else {
-            accumValue.set(accumValue.get() + updateValue * (newTime - oldTime));
+            setAccumValue(getAccumValue() + updateValue * (newTime - oldTime));
             accumLastValue = updateValue;
         }
     }
 
     private double calculateTotal(long startTime, long boundaryTime) throws IOException {
         double totalValue = Double.NaN;
-        long validSeconds = boundaryTime - startTime - nanSeconds.get();
-        if (nanSeconds.get() <= heartbeat.get() && validSeconds > 0) {
-            totalValue = accumValue.get() / validSeconds;
+        long validSeconds = boundaryTime - startTime - getNanSeconds();
+        if (getNanSeconds() <= heartbeat.get() && validSeconds > 0) {
+            totalValue = getAccumValue() / validSeconds;
         }
         // IMPORTANT:
         // if datasource name ends with "!", we'll send zeros instead of NaNs
@@ -267,8 +295,8 @@ public class Datasource implements RrdUpdater<Datasource> {
 
     private double calculateLastTotal(long startTime, long boundaryTime) throws IOException {
         double totalValue = Double.NaN;
-        long validSeconds = boundaryTime - startTime - nanSeconds.get();
-        if (nanSeconds.get() <= heartbeat.get() && validSeconds > 0) {
+        long validSeconds = boundaryTime - startTime - getNanSeconds();
+        if (getNanSeconds() <= heartbeat.get() && validSeconds > 0) {
             totalValue = accumLastValue;
         }
 
@@ -286,9 +314,9 @@ public class Datasource implements RrdUpdater<Datasource> {
         writer.writeTag("min", minValue.get());
         writer.writeTag("max", maxValue.get());
         writer.writeComment("PDP Status");
-        writer.writeTag("last_ds", lastValue.get(), "UNKN");
-        writer.writeTag("value", accumValue.get());
-        writer.writeTag("unknown_sec", nanSeconds.get());
+        writer.writeTag("last_ds", getLastValue(), "UNKN");
+        writer.writeTag("value", getAccumValue());
+        writer.writeTag("unknown_sec", getNanSeconds());
         writer.closeTag();  // ds
     }
 
@@ -304,9 +332,9 @@ public class Datasource implements RrdUpdater<Datasource> {
         if (datasource.dsType.get() != dsType.get()) {
             throw new IllegalArgumentException("Incompatible datasource types");
         }
-        datasource.lastValue.set(lastValue.get());
-        datasource.nanSeconds.set(nanSeconds.get());
-        datasource.accumValue.set(accumValue.get());
+        datasource.setLastValue(getLastValue());
+        datasource.setNanSeconds(getNanSeconds());
+        datasource.setAccumValue(getAccumValue());
     }
 
     /**
@@ -362,8 +390,8 @@ public class Datasource implements RrdUpdater<Datasource> {
         // set datasource type
         dsType.set(newDsType);
         // reset datasource status
-        lastValue.set(Double.NaN);
-        accumValue.set(0.0);
+        setLastValue(Double.NaN);
+        setAccumValue(0.0);
         // reset archive status
         int dsIndex = parentDb.getDsIndex(dsName.get());
         Archive[] archives = parentDb.getArchives();
@@ -471,7 +499,9 @@ public class Datasource implements RrdUpdater<Datasource> {
      * Required to implement RrdUpdater interface. You should never call this method directly.
      *
      * @return Allocator object
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     public RrdAllocator getRrdAllocator() {
         return parentDb.getRrdAllocator();
     }
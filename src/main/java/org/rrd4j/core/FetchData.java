@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 import org.rrd4j.ConsolFun;
 import org.rrd4j.data.Aggregates;
@@ -53,17 +54,79 @@ public class FetchData {
     private final long arcStep;
     private final long arcEndTime;
 
+    /**
+     * Reads the values of the fetched datasources in an archive.
+     */
+    interface ValuesReader {
+        /**
+         * @param index the index of the first value, relative to the oldest one
+         * @param count the number of values
+         * @return the values for each fetched datasource
+         * @throws IOException if the read fails
+         */
+        double[][] read(int index, int count) throws IOException;
+    }
+
     FetchData(Archive matchingArchive, FetchRequest request) throws IOException {
+        this(matchingArchive, request, matchingArchive.getParentDb().getDsNames(), matchingArchive.getArcStep(), matchingArchive.getEndTime());
+    }
+
+    FetchData(Archive matchingArchive, FetchRequest request, String[] allDsNames, long arcStep, long arcEndTime) {
         this.matchingArchive = matchingArchive;
-        this.arcStep = matchingArchive.getArcStep();
-        this.arcEndTime = matchingArchive.getEndTime();
+        this.arcStep = arcStep;
+        this.arcEndTime = arcEndTime;
         this.dsNames = request.getFilter();
         if (this.dsNames == null) {
-            this.dsNames = matchingArchive.getParentDb().getDsNames();
+            this.dsNames = allDsNames;
         }
         this.request = request;
     }
 
+    /**
+     * Fills the timestamps and the values for the request, reading the values stored in the matching archive.
+     *
+     * @param startTime the timestamp of the oldest row of the archive
+     * @param reader reads the values of the fetched datasources, called only if the archive covers the request
+     * @throws IOException if the values can't be read
+     */
+    void fill(long startTime, ValuesReader reader) throws IOException {
+        long fetchStart = Util.normalize(request.getFetchStart(), arcStep);
+        long fetchEnd = Util.normalize(request.getFetchEnd(), arcStep);
+        if (fetchEnd < request.getFetchEnd()) {
+            fetchEnd += arcStep;
+        }
+        int dsCount = dsNames.length;
+        int ptsCount = (int) ((fetchEnd - fetchStart) / arcStep + 1);
+        timestamps = new long[ptsCount];
+        values = new double[dsCount][];
+        for (int ptIndex = 0; ptIndex < ptsCount; ptIndex++) {
+            timestamps[ptIndex] = fetchStart + ptIndex * arcStep;
+        }
+        long matchStartTime = Math.max(fetchStart, startTime);
+        long matchEndTime = Math.min(fetchEnd, arcEndTime);
+        if (matchStartTime <= matchEndTime) {
+            // robin values are read column by column, and copied in the inbound part of each row
+            int matchCount = (int) ((matchEndTime - matchStartTime) / arcStep + 1);
+            int matchStartIndex = (int) ((matchStartTime - startTime) / arcStep);
+            int matchOffset = (int) ((matchStartTime - fetchStart) / arcStep);
+            double[][] robinValues = reader.read(matchStartIndex, matchCount);
+            for (int i = 0; i < dsCount; i++) {
+                if (matchCount == ptsCount) {
+                    values[i] = robinValues[i];
+                } else {
+                    values[i] = new double[ptsCount];
+                    Arrays.fill(values[i], Double.NaN);
+                    System.arraycopy(robinValues[i], 0, values[i], matchOffset, matchCount);
+                }
+            }
+        } else {
+            for (int i = 0; i < dsCount; i++) {
+                values[i] = new double[ptsCount];
+                Arrays.fill(values[i], Double.NaN);
+            }
+        }
+    }
+
     void setTimestamps(long[] timestamps) {
         this.timestamps = timestamps;
     }
@@ -200,7 +263,7 @@ public class FetchData {
      * timestamps specified in the fetch request. All datasource values are obtained
      * from round robin archives belonging to this archive.
      *
-     * @return Matching archive.
+     * @return Matching archive, or null if the data was fetched by a {@link RrdReader}.
      */
     public Archive getMatchingArchive() {
         return matchingArchive;
@@ -413,7 +476,7 @@ public class FetchData {
     public void exportXml(XmlWriter writer) {
         writer.startTag("fetch_data");
         writer.startTag("request");
-        writer.writeTag("file", request.getParentDb().getPath());
+        writer.writeTag("file", request.getPath());
         writer.writeComment(request.getFetchStart());
         writer.writeTag("start", request.getFetchStart());
         writer.writeComment(request.getFetchEnd());
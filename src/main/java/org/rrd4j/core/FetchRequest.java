@@ -4,6 +4,9 @@ import org.rrd4j.ConsolFun;
 
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Class to represent fetch request. For the complete explanation of all
@@ -12,12 +15,14 @@ import java.util.Set;
  * <p>
  * You cannot create <code>FetchRequest</code> directly (no public constructor
  * is provided). Use {@link org.rrd4j.core.RrdDb#createFetchRequest(ConsolFun, long, long, long)
- * createFetchRequest()} method of your {@link org.rrd4j.core.RrdDb RrdDb} object.
+ * createFetchRequest()} method of your {@link org.rrd4j.core.RrdDb RrdDb} object, or of a
+ * {@link org.rrd4j.core.RrdReader RrdReader}.
  *
  * @author Sasa Markovic
  */
 public class FetchRequest {
     private final RrdDb parentDb;
+    private final RrdReader reader;
     private final ConsolFun consolFun;
     private final long fetchStart;
     private final long fetchEnd;
@@ -25,6 +30,14 @@ public class FetchRequest {
     private String[] filter;
 
     FetchRequest(RrdDb parentDb, ConsolFun consolFun, long fetchStart, long fetchEnd, long resolution) {
+        this(parentDb, null, consolFun, fetchStart, fetchEnd, resolution);
+    }
+
+    FetchRequest(RrdReader reader, ConsolFun consolFun, long fetchStart, long fetchEnd, long resolution) {
+        this(null, reader, consolFun, fetchStart, fetchEnd, resolution);
+    }
+
+    private FetchRequest(RrdDb parentDb, RrdReader reader, ConsolFun consolFun, long fetchStart, long fetchEnd, long resolution) {
         if (consolFun == null) {
             throw new IllegalArgumentException("Null consolidation function in fetch request");
         }
@@ -43,6 +56,7 @@ public class FetchRequest {
         }
 
         this.parentDb = parentDb;
+        this.reader = reader;
         this.consolFun = consolFun;
         this.fetchStart = fetchStart;
         this.fetchEnd = fetchEnd;
@@ -143,11 +157,15 @@ public class FetchRequest {
      * @return Fetch request dump.
      */
     public String dump() {
-        return "fetch \"" + parentDb.getRrdBackend().getPath() +
+        return "fetch \"" + getPath() +
                 "\" " + consolFun + " --start " + fetchStart + " --end " + fetchEnd +
                 (resolution > 1 ? " --resolution " + resolution : "");
     }
 
+    String getPath() {
+        return parentDb != null ? parentDb.getRrdBackend().getPath() : reader.getPath();
+    }
+
     String getRrdToolCommand() {
         return dump();
     }
@@ -160,16 +178,72 @@ public class FetchRequest {
      * @throws java.io.IOException Thrown in case of I/O error.
      */
     public FetchData fetchData() throws IOException {
-        return parentDb.fetchData(this);
+        return parentDb != null ? parentDb.fetchData(this) : reader.fetchData(this);
+    }
+
+    /**
+     * Returns data from the database corresponding to the given consolidation
+     * function and a time interval, as a future.
+     * <p>
+     * The fetch is done by the given executor, the calling thread never waits for it. The executor's thread does the
+     * reads of the backend, and is blocked while they wait for the disk.
+     *
+     * @param executor the executor running the fetch.
+     * @return a future of the FetchData object, completed exceptionally if the fetch failed or was rejected by the
+     * executor.
+     * @since 3.10
+     */
+    public CompletableFuture<FetchData> fetchDataAsync(Executor executor) {
+        CompletableFuture<FetchData> fetched = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    fetched.complete(fetchData());
+                } catch (IOException | RuntimeException e) {
+                    fetched.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fetched.completeExceptionally(e);
+        }
+        return fetched;
+    }
+
+    /**
+     * Returns a read-only view of the data fetched from the corresponding RRD, without copying the values
+     * when the backend allows it. See {@link org.rrd4j.core.FetchView} for its limitations.
+     *
+     * @return FetchView object, valid until it's closed.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     * @throws java.lang.UnsupportedOperationException if the request was created by a {@link org.rrd4j.core.RrdReader}.
+     * @since 3.10
+     */
+    public FetchView fetchView() throws IOException {
+        if (parentDb == null) {
+            throw new UnsupportedOperationException("No view for a request created by a RrdReader");
+        }
+        return parentDb.fetchView(this);
     }
 
     /**
      * Returns the underlying RrdDb object.
      *
-     * @return RrdDb object used to create this FetchRequest object.
+     * @return RrdDb object used to create this FetchRequest object, or null if it was created by a
+     * {@link org.rrd4j.core.RrdReader}.
      */
     public RrdDb getParentDb() {
         return parentDb;
     }
 
+    /**
+     * Returns the underlying RrdReader object.
+     *
+     * @return RrdReader object used to create this FetchRequest object, or null if it was created by a
+     * {@link org.rrd4j.core.RrdDb}.
+     * @since 3.10
+     */
+    public RrdReader getReader() {
+        return reader;
+    }
+
 }
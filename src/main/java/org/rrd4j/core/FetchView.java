@@ -0,0 +1,251 @@
+package org.rrd4j.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Class used to read data fetched from the RRD without copying it. Object of this class is created when the method
+ * {@link org.rrd4j.core.FetchRequest#fetchView() fetchView()} is called on a
+ * {@link org.rrd4j.core.FetchRequest FetchRequest} object.
+ * <p>
+ * It provides the same table as {@link org.rrd4j.core.FetchData}, but timestamps are computed and values are read
+ * directly from the storage of the RRD when the backend holds it in a {@link java.nio.ByteBuffer}, like the NIO or
+ * memory backends. Otherwise the values are copied once when the view is created.
+ * <p>
+ * Only the rows stored in the archive are backed by the storage, they are available as one or two read-only
+ * {@link java.nio.DoubleBuffer} segments, two when the archive wraps around. In each segment, the rows are stored
+ * consecutively, {@link #getStride()} values for each row, and the value of the i-th datasource of a row is at
+ * {@link #getColumn(int) getColumn(i)} in it. The other rows are filled with NaN.
+ * <p>
+ * The view reads the current content of the archive, it's not a snapshot, and should be used for short read-only
+ * processing. It keeps the storage of the RRD, so it must be closed once done: if the RRD is closed meanwhile, its
+ * backend is only closed, and its storage released, when its last view is closed. The values accessors fail once the
+ * view is closed, and the segments must not be used any more.
+ *
+ * @since 3.10
+ */
+public class FetchView implements Closeable {
+    private final StampedLock closeLock = new StampedLock();
+    // Null when the values were copied
+    private final RrdBackend backend;
+    private boolean closed = false;
+    private final String[] dsNames;
+    private final long fetchStart;
+    private final long arcStep;
+    private final int rowCount;
+    private final int matchOffset;
+    private final int matchCount;
+    private final DoubleBuffer[] segments;
+    private final int firstSegmentRows;
+    private final int stride;
+    private final int[] columns;
+
+    FetchView(RrdBackend backend, String[] dsNames, long fetchStart, long arcStep, int rowCount,
+              int matchOffset, int matchCount, DoubleBuffer[] segments, int stride, int[] columns) {
+        this.backend = backend;
+        this.dsNames = dsNames;
+        this.fetchStart = fetchStart;
+        this.arcStep = arcStep;
+        this.rowCount = rowCount;
+        this.matchOffset = matchOffset;
+        this.matchCount = matchCount;
+        this.segments = segments;
+        this.firstSegmentRows = segments.length > 0 ? segments[0].capacity() / stride : 0;
+        this.stride = stride;
+        this.columns = columns;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("View already closed");
+        }
+    }
+
+    /**
+     * Returns the number of rows in the view.
+     *
+     * @return Number of rows.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of datasources in the view.
+     *
+     * @return Number of datasources.
+     */
+    public int getColumnCount() {
+        return dsNames.length;
+    }
+
+    /**
+     * Returns the datasource names, in the order of the columns.
+     *
+     * @return array of datasource names
+     */
+    public String[] getDsNames() {
+        return Arrays.copyOf(dsNames, dsNames.length);
+    }
+
+    /**
+     * Returns the step of the timestamps.
+     *
+     * @return the step, in seconds
+     */
+    public long getStep() {
+        return arcStep;
+    }
+
+    /**
+     * Returns the timestamp of a row.
+     *
+     * @param row the row index
+     * @return the timestamp, in seconds
+     */
+    public long getTimestamp(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Invalid row: " + row);
+        }
+        return fetchStart + row * arcStep;
+    }
+
+    /**
+     * Returns the value of a datasource for a row.
+     *
+     * @param dsIndex the index of the datasource in the view
+     * @param row the row index
+     * @return the value, NaN if the row is not stored in the archive
+     */
+    public double getValue(int dsIndex, int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Invalid row: " + row);
+        }
+        int matchRow = row - matchOffset;
+        if (matchRow < 0 || matchRow >= matchCount) {
+            return Double.NaN;
+        }
+        // The view can't be closed while the storage is read
+        long stamp = closeLock.readLock();
+        try {
+            checkOpen();
+            if (matchRow < firstSegmentRows) {
+                return segments[0].get(matchRow * stride + columns[dsIndex]);
+            } else {
+                return segments[1].get((matchRow - firstSegmentRows) * stride + columns[dsIndex]);
+            }
+        } finally {
+            closeLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the value of a datasource for a row.
+     *
+     * @param dsName the datasource name
+     * @param row the row index
+     * @return the value, NaN if the row is not stored in the archive
+     */
+    public double getValue(String dsName, int row) {
+        return getValue(getDsIndex(dsName), row);
+    }
+
+    /**
+     * Returns the index of a datasource in the view.
+     *
+     * @param dsName the datasource name
+     * @return the index of the datasource
+     * @throws java.lang.IllegalArgumentException if the datasource is not in the view
+     */
+    public int getDsIndex(String dsName) {
+        for (int i = 0; i < dsNames.length; i++) {
+            if (dsNames[i].equals(dsName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Datasource [" + dsName + "] not found in the view");
+    }
+
+    /**
+     * Returns the index of the first row stored in the archive. The rows before it are filled with NaN.
+     *
+     * @return the row index
+     */
+    public int getFirstStoredRow() {
+        return matchOffset;
+    }
+
+    /**
+     * Returns the number of consecutive rows stored in the archive.
+     *
+     * @return the number of rows
+     */
+    public int getStoredRowCount() {
+        return matchCount;
+    }
+
+    /**
+     * Returns the segments holding the rows stored in the archive. There is zero, one or two segments, the second one
+     * is used when the archive wraps around.
+     *
+     * @return read-only buffers, that must not be used after the view is closed.
+     */
+    public DoubleBuffer[] getSegments() {
+        long stamp = closeLock.readLock();
+        try {
+            checkOpen();
+            DoubleBuffer[] duplicates = new DoubleBuffer[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                duplicates[i] = segments[i].duplicate();
+            }
+            return duplicates;
+        } finally {
+            closeLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of values for a row in the segments.
+     *
+     * @return the stride between rows
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the position of the value of a datasource inside a row of the segments.
+     *
+     * @param dsIndex the index of the datasource in the view
+     * @return the position in the row
+     */
+    public int getColumn(int dsIndex) {
+        return columns[dsIndex];
+    }
+
+    /**
+     * Releases the storage of the RRD kept by the view. If the RRD was closed meanwhile and this was its last view, its
+     * backend is closed now. Closing an already closed view has no effect.
+     *
+     * @throws java.io.IOException if the backend failed to close.
+     */
+    @Override
+    public void close() throws IOException {
+        long stamp = closeLock.writeLock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.unlockWrite(stamp);
+        }
+        if (backend != null) {
+            backend.releaseView();
+        }
+    }
+
+}
@@ -21,7 +21,7 @@ public class Header implements RrdUpdater<Header> {
     static final String DEFAULT_SIGNATURE = "RRD4J, version 0.1";
     static final String RRDTOOL_VERSION1 = "0001";
     static final String RRDTOOL_VERSION3 = "0003";
-    private static final String[] VERSIONS = {"version 0.1", "version 0.2"};
+    private static final String[] VERSIONS = {"version 0.1", "version 0.2", "version 0.3", "version 0.4"};
 
     private final RrdDb parentDb;
     private int version = -1;
@@ -30,7 +30,6 @@ public class Header implements RrdUpdater<Header> {
     private final RrdLong<Header> step;
     private final RrdInt<Header> dsCount;
     private final RrdInt<Header> arcCount;
-    private final RrdLong<Header> lastUpdateTime;
 
     Header(RrdDb parentDb, RrdDef rrdDef) throws IOException {
         this.parentDb = parentDb;
@@ -44,18 +43,18 @@ public class Header implements RrdUpdater<Header> {
             initSignature = DEFAULT_SIGNATURE;
         }
 
-        signature = new RrdString<>(this);     // NOT constant, may be cached
-        step = new RrdLong<>(this, true);      // constant, may be cached
-        dsCount = new RrdInt<>(this, true);    // constant, may be cached
-        arcCount = new RrdInt<>(this, true);   // constant, may be cached
-        lastUpdateTime = new RrdLong<>(this);
+        signature = new RrdString<>(this, RrdLayout.SIGNATURE);        // NOT constant, may be cached
+        step = new RrdLong<>(this, RrdLayout.STEP, true);              // constant, may be cached
+        dsCount = new RrdInt<>(this, RrdLayout.DS_COUNT, true);        // constant, may be cached
+        arcCount = new RrdInt<>(this, RrdLayout.ARC_COUNT, true);      // constant, may be cached
+        // the last update time is read and written through the state cache of the RRD, not yet built
 
         if (rrdDef != null) {
             signature.set(initSignature);
             step.set(rrdDef.getStep());
             dsCount.set(rrdDef.getDsCount());
             arcCount.set(rrdDef.getArcCount());
-            lastUpdateTime.set(rrdDef.getStartTime());
+            getRrdBackend().writeLong(RrdLayout.LAST_UPDATE_TIME, rrdDef.getStartTime());
         }
     }
 
@@ -76,7 +75,7 @@ public class Header implements RrdUpdater<Header> {
         step.set(reader.getStep());
         dsCount.set(reader.getDsCount());
         arcCount.set(reader.getArcCount());
-        lastUpdateTime.set(reader.getLastUpdateTime());
+        getRrdBackend().writeLong(RrdLayout.LAST_UPDATE_TIME, reader.getLastUpdateTime());
     }
 
     /**
@@ -115,6 +114,10 @@ public class Header implements RrdUpdater<Header> {
         }
     }
 
+    long getLastUpdateTimePointer() {
+        return RrdLayout.LAST_UPDATE_TIME;
+    }
+
     /**
      * Returns the last update time of the RRD.
      *
@@ -122,7 +125,7 @@ public class Header implements RrdUpdater<Header> {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     public long getLastUpdateTime() throws IOException {
-        return lastUpdateTime.get();
+        return parentDb.getStateCache().getLastUpdateTime();
     }
 
     /**
@@ -156,7 +159,7 @@ public class Header implements RrdUpdater<Header> {
     }
 
     void setLastUpdateTime(long lastUpdateTime) throws IOException {
-        this.lastUpdateTime.set(lastUpdateTime);
+        parentDb.getStateCache().setLastUpdateTime(lastUpdateTime);
     }
 
     String dump() throws IOException {
@@ -173,8 +176,8 @@ public class Header implements RrdUpdater<Header> {
         writer.writeTag("version", RRDTOOL_VERSION3);
         writer.writeComment("Seconds");
         writer.writeTag("step", step.get());
-        writer.writeComment(lastUpdateTime.get());
-        writer.writeTag("lastupdate", lastUpdateTime.get());
+        writer.writeComment(getLastUpdateTime());
+        writer.writeTag("lastupdate", getLastUpdateTime());
     }
 
     /**
@@ -183,7 +186,7 @@ public class Header implements RrdUpdater<Header> {
      * Copies object's internal state to another Header object.
      */
     public void copyStateTo(Header header) throws IOException {
-        header.lastUpdateTime.set(lastUpdateTime.get());
+        header.setLastUpdateTime(getLastUpdateTime());
     }
 
     /**
@@ -204,19 +207,27 @@ public class Header implements RrdUpdater<Header> {
      */
     public int getVersion() throws IOException {
         if(version < 0) {
-            for(int i=0; i < VERSIONS.length; i++) {
-                if(signature.get().endsWith(VERSIONS[i])) {
-                    version = i + 1;
-                    break;
-                }
-            }
+            version = getVersion(signature.get());
         }
         return version;
     }
 
+    static int getVersion(String signature) {
+        for(int i=0; i < VERSIONS.length; i++) {
+            if(signature.endsWith(VERSIONS[i])) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isRrd4jSignature(String signature) {
+        return signature.startsWith(SIGNATURE) || signature.startsWith("JR"); // backwards compatible with JRobin
+    }
+
     boolean isRrd4jHeader() {
         try {
-            return signature.get().startsWith(SIGNATURE) || signature.get().startsWith("JR"); // backwards compatible with JRobin
+            return isRrd4jSignature(signature.get());
         } catch (IOException ioe) {
             return false;
         }
@@ -232,7 +243,9 @@ public class Header implements RrdUpdater<Header> {
      * Required to implement RrdUpdater interface. You should never call this method directly.
      *
      * @return Allocator object
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     public RrdAllocator getRrdAllocator() {
         return parentDb.getRrdAllocator();
     }
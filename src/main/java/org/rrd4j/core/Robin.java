@@ -104,7 +104,9 @@ public interface Robin extends RrdUpdater<Robin> {
      * Required to implement RrdUpdater interface. You should never call this method directly.
      *
      * @return Allocator object
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     RrdAllocator getRrdAllocator();
 
     /**
@@ -140,6 +142,16 @@ public interface Robin extends RrdUpdater<Robin> {
      */
     void bulkStore(double newValue, int bulkCount) throws IOException;
 
+    /**
+     * Stores a run of values, the oldest first, as many calls to {@link #store(double)} would do, but with at most
+     * two writes. If there are more values than rows, only the last ones are kept.
+     *
+     * @param newValues the values to store
+     * @throws java.io.IOException Thrown in case of I/O specific error.
+     * @since 3.10
+     */
+    void store(double[] newValues) throws IOException;
+
     /**
      * <p>getValues.</p>
      *
@@ -17,21 +17,33 @@ import java.util.Arrays;
  */
 class RobinArray implements Robin {
     private final Archive parentArc;
-    private final RrdInt<Robin> pointer;
+    private final int dsIndex;
     private final RrdDoubleArray<Robin> values;
     private final int rows;
 
-    RobinArray(Archive parentArc, int rows, boolean shouldInitialize) throws IOException {
+    RobinArray(Archive parentArc, int dsIndex, int rows, boolean shouldInitialize) throws IOException {
         this.parentArc = parentArc;
-        this.pointer = new RrdInt<>(this);
-        this.values = new RrdDoubleArray<>(this, rows);
+        this.dsIndex = dsIndex;
+        long pointer = parentArc.getParentDb().getLayout().getRobinValues(parentArc.getArcIndex(), dsIndex);
+        this.values = new RrdDoubleArray<>(this, pointer, rows);
         this.rows = rows;
         if (shouldInitialize) {
-            pointer.set(0);
             values.set(0, Double.NaN, rows);
         }
     }
 
+    private int getPointer() throws IOException {
+        return parentArc.getRobinPointer(dsIndex);
+    }
+
+    private void setPointer(int value) throws IOException {
+        parentArc.setRobinPointer(dsIndex, value);
+    }
+
+    long[] getValueRegion() {
+        return new long[] {values.getPointer(), values.getByteCount(), 1};
+    }
+
     /* (non-Javadoc)
      * @see org.rrd4j.core.Robin#getValues()
      */
@@ -48,30 +60,58 @@ class RobinArray implements Robin {
     // stores single value
     /** {@inheritDoc} */
     public void store(double newValue) throws IOException {
-        int position = pointer.get();
+        int position = getPointer();
         values.set(position, newValue);
-        pointer.set((position + 1) % rows);
+        setPointer((position + 1) % rows);
     }
 
     // stores the same value several times
     /** {@inheritDoc} */
     public void bulkStore(double newValue, int bulkCount) throws IOException {
         assert bulkCount <= rows: "Invalid number of bulk updates: " + bulkCount + " rows=" + rows;
+        if (bulkCount == 0) {
+            return;
+        }
 
-        int position = pointer.get();
+        int position = getPointer();
 
         // update tail
         int tailUpdateCount = Math.min(rows - position, bulkCount);
 
         values.set(position, newValue, tailUpdateCount);
-        pointer.set((position + tailUpdateCount) % rows);
+        setPointer((position + tailUpdateCount) % rows);
 
         // do we need to update from the start?
         int headUpdateCount = bulkCount - tailUpdateCount;
         if (headUpdateCount > 0) {
             values.set(0, newValue, headUpdateCount);
-            pointer.set(headUpdateCount);
+            setPointer(headUpdateCount);
+        }
+    }
+
+    // stores a run of values, wrapping around at most once
+    /** {@inheritDoc} */
+    public void store(double[] newValues) throws IOException {
+        int skipped = Math.max(0, newValues.length - rows);
+        int count = newValues.length - skipped;
+        if (count == 0) {
+            return;
+        }
+        int position = (int) ((getPointer() + (long) skipped) % rows);
+
+        // update tail
+        int tailUpdateCount = Math.min(rows - position, count);
+        if (skipped == 0 && tailUpdateCount == count) {
+            values.set(position, newValues);
+        } else {
+            values.set(position, Arrays.copyOfRange(newValues, skipped, skipped + tailUpdateCount));
+        }
+
+        // do we need to update from the start?
+        if (tailUpdateCount < count) {
+            values.set(0, Arrays.copyOfRange(newValues, skipped + tailUpdateCount, newValues.length));
         }
+        setPointer((position + count) % rows);
     }
 
     /**
@@ -83,7 +123,7 @@ class RobinArray implements Robin {
     public void update(double[] newValues) throws IOException {
         assert rows == newValues.length: "Invalid number of robin values supplied (" + newValues.length +
         "), exactly " + rows + " needed";
-        pointer.set(0);
+        setPointer(0);
         values.writeDouble(0, newValues);
     }
 
@@ -116,7 +156,7 @@ class RobinArray implements Robin {
      * @throws java.io.IOException if any.
      */
     public String dump() throws IOException {
-        StringBuilder buffer = new StringBuilder("Robin " + pointer.get() + "/" + rows + ": ");
+        StringBuilder buffer = new StringBuilder("Robin " + getPointer() + "/" + rows + ": ");
         double[] values = getValues();
         for (double value : values) {
             buffer.append(Util.formatDouble(value, true)).append(" ");
@@ -130,7 +170,7 @@ class RobinArray implements Robin {
      */
     /** {@inheritDoc} */
     public double getValue(int index) throws IOException {
-        int arrayIndex = (pointer.get() + index) % rows;
+        int arrayIndex = (getPointer() + index) % rows;
         return values.get(arrayIndex);
     }
 
@@ -139,7 +179,7 @@ class RobinArray implements Robin {
      */
     /** {@inheritDoc} */
     public void setValue(int index, double value) throws IOException {
-        int arrayIndex = (pointer.get() + index) % rows;
+        int arrayIndex = (getPointer() + index) % rows;
         values.set(arrayIndex, value);
     }
 
@@ -147,7 +187,7 @@ class RobinArray implements Robin {
     public double[] getValues(int index, int count) throws IOException {
         assert count <= rows: "Too many values requested: " + count + " rows=" + rows;
 
-        int startIndex = (pointer.get() + index) % rows;
+        int startIndex = (getPointer() + index) % rows;
         int tailReadCount = Math.min(rows - startIndex, count);
         double[] tailValues = values.get(startIndex, tailReadCount);
         if (tailReadCount < count) {
@@ -239,7 +279,9 @@ class RobinArray implements Robin {
      * <p>getRrdAllocator.</p>
      *
      * @return a {@link org.rrd4j.core.RrdAllocator} object.
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     public RrdAllocator getRrdAllocator() {
         return parentArc.getRrdAllocator();
     }
@@ -1,6 +1,7 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 
 /**
@@ -17,19 +18,25 @@ import java.util.Arrays;
  */
 class RobinMatrix implements Robin {
     private final Archive parentArc;
-    private final RrdInt<Archive> pointer;
     private final RrdDoubleMatrix<Archive> values;
     private final int rows;
     private final int column;
 
-    RobinMatrix(Archive parentArc, RrdDoubleMatrix<Archive> values, RrdInt<Archive> pointer, int column) {
+    RobinMatrix(Archive parentArc, RrdDoubleMatrix<Archive> values, int column) {
         this.parentArc = parentArc;
-        this.pointer = pointer; 
         this.values = values;
         this.rows = values.getRows();
         this.column = column;
     }
 
+    private int getPointer() throws IOException {
+        return parentArc.getRobinPointer(column);
+    }
+
+    private void setPointer(int value) throws IOException {
+        parentArc.setRobinPointer(column, value);
+    }
+
     /**
      * Fetches all archived values.
      *
@@ -43,30 +50,58 @@ class RobinMatrix implements Robin {
     // stores single value
     /** {@inheritDoc} */
     public void store(double newValue) throws IOException {
-        int position = pointer.get();
+        int position = getPointer();
         values.set(column, position, newValue);
-        pointer.set((position + 1) % rows);
+        setPointer((position + 1) % rows);
     }
 
     // stores the same value several times
     /** {@inheritDoc} */
     public void bulkStore(double newValue, int bulkCount) throws IOException {
         assert bulkCount <= rows: "Invalid number of bulk updates: " + bulkCount + " rows=" + rows;
+        if (bulkCount == 0) {
+            return;
+        }
 
-        int position = pointer.get();
+        int position = getPointer();
 
         // update tail
         int tailUpdateCount = Math.min(rows - position, bulkCount);
 
         values.set(column, position, newValue, tailUpdateCount);
-        pointer.set((position + tailUpdateCount) % rows);
+        setPointer((position + tailUpdateCount) % rows);
 
         // do we need to update from the start?
         int headUpdateCount = bulkCount - tailUpdateCount;
         if (headUpdateCount > 0) {
             values.set(column, 0, newValue, headUpdateCount);
-            pointer.set(headUpdateCount);
+            setPointer(headUpdateCount);
+        }
+    }
+
+    // stores a run of values, wrapping around at most once
+    /** {@inheritDoc} */
+    public void store(double[] newValues) throws IOException {
+        int skipped = Math.max(0, newValues.length - rows);
+        int count = newValues.length - skipped;
+        if (count == 0) {
+            return;
+        }
+        int position = (int) ((getPointer() + (long) skipped) % rows);
+
+        // update tail
+        int tailUpdateCount = Math.min(rows - position, count);
+        if (skipped == 0 && tailUpdateCount == count) {
+            values.set(column, position, newValues);
+        } else {
+            values.set(column, position, Arrays.copyOfRange(newValues, skipped, skipped + tailUpdateCount));
+        }
+
+        // do we need to update from the start?
+        if (tailUpdateCount < count) {
+            values.set(column, 0, Arrays.copyOfRange(newValues, skipped + tailUpdateCount, newValues.length));
         }
+        setPointer((position + count) % rows);
     }
 
     /**
@@ -78,7 +113,7 @@ class RobinMatrix implements Robin {
     public void update(double[] newValues) throws IOException {
         assert rows == newValues.length: "Invalid number of robin values supplied (" + newValues.length +
         "), exactly " + rows + " needed";
-        pointer.set(0);
+        setPointer(0);
         values.set(column, 0, newValues);
     }
 
@@ -113,7 +148,7 @@ class RobinMatrix implements Robin {
      * @throws java.io.IOException if any.
      */
     public String dump() throws IOException {
-        StringBuilder buffer = new StringBuilder("Robin " + pointer.get() + "/" + rows + ": ");
+        StringBuilder buffer = new StringBuilder("Robin " + getPointer() + "/" + rows + ": ");
         double[] values = getValues();
         for (double value : values) {
             buffer.append(Util.formatDouble(value, true)).append(" ");
@@ -128,7 +163,7 @@ class RobinMatrix implements Robin {
      * Returns the i-th value from the Robin archive.
      */
     public double getValue(int index) throws IOException {
-        int arrayIndex = (pointer.get() + index) % rows;
+        int arrayIndex = (getPointer() + index) % rows;
         return values.get(column, arrayIndex);
     }
 
@@ -138,7 +173,7 @@ class RobinMatrix implements Robin {
      * Sets the i-th value in the Robin archive.
      */
     public void setValue(int index, double value) throws IOException {
-        int arrayIndex = (pointer.get() + index) % rows;
+        int arrayIndex = (getPointer() + index) % rows;
         values.set(column, arrayIndex, value);
     }
 
@@ -146,20 +181,15 @@ class RobinMatrix implements Robin {
     public double[] getValues(int index, int count) throws IOException {
         assert count <= rows: "Too many values requested: " + count + " rows=" + rows;
 
-        int startIndex = (pointer.get() + index) % rows;
+        int startIndex = (getPointer() + index) % rows;
         int tailReadCount = Math.min(rows - startIndex, count);
         double[] tailValues = values.get(column, startIndex, tailReadCount);
         if (tailReadCount < count) {
             int headReadCount = count - tailReadCount;
             double[] headValues = values.get(column, 0, headReadCount);
             double[] values = new double[count];
-            int k = 0;
-            for (double tailValue : tailValues) {
-                values[k++] = tailValue;
-            }
-            for (double headValue : headValues) {
-                values[k++] = headValue;
-            }
+            System.arraycopy(tailValues, 0, values, 0, tailReadCount);
+            System.arraycopy(headValues, 0, values, tailReadCount, headReadCount);
             return values;
         }
         else {
@@ -167,6 +197,75 @@ class RobinMatrix implements Robin {
         }
     }
 
+    /**
+     * Reads the values of many robins sharing the same matrix, using contiguous reads of whole rows instead of one
+     * strided read for each robin.
+     *
+     * @param robins the robins to read
+     * @param index the index of the first value, relative to the oldest one
+     * @param count the number of values
+     * @return the values for each robin, or null if the robins don't share the same matrix and pointer.
+     * @throws IOException if the read fails
+     */
+    static double[][] getRowValues(RobinMatrix[] robins, int index, int count) throws IOException {
+        RobinMatrix first = robins[0];
+        assert count <= first.rows: "Too many values requested: " + count + " rows=" + first.rows;
+
+        int position = first.getPointer();
+        int[] columns = new int[robins.length];
+        for (int i = 0; i < robins.length; i++) {
+            if (robins[i].values != first.values || (i > 0 && robins[i].getPointer() != position)) {
+                return null;
+            }
+            columns[i] = robins[i].column;
+        }
+        double[][] values = new double[robins.length][count];
+        int startIndex = (position + index) % first.rows;
+        int tailReadCount = Math.min(first.rows - startIndex, count);
+        first.values.getRows(columns, startIndex, tailReadCount, values, 0);
+        if (tailReadCount < count) {
+            first.values.getRows(columns, 0, count - tailReadCount, values, tailReadCount);
+        }
+        return values;
+    }
+
+    /**
+     * Returns read-only views of the rows of many robins sharing the same matrix, without copying them.
+     *
+     * @param robins the robins to read
+     * @param index the index of the first value, relative to the oldest one
+     * @param count the number of values
+     * @return one view, or two if the values wrap around the end of the matrix. Null if the robins don't share the
+     * same matrix and pointer, or if the backend can't provide views.
+     * @throws IOException if the backend fails
+     */
+    static DoubleBuffer[] getRowViews(RobinMatrix[] robins, int index, int count) throws IOException {
+        RobinMatrix first = robins[0];
+        assert count <= first.rows: "Too many values requested: " + count + " rows=" + first.rows;
+
+        int position = first.getPointer();
+        for (int i = 1; i < robins.length; i++) {
+            if (robins[i].values != first.values || robins[i].getPointer() != position) {
+                return null;
+            }
+        }
+        int startIndex = (position + index) % first.rows;
+        int tailReadCount = Math.min(first.rows - startIndex, count);
+        DoubleBuffer tail = first.values.getRowsView(startIndex, tailReadCount);
+        if (tail == null) {
+            return null;
+        } else if (tailReadCount < count) {
+            DoubleBuffer head = first.values.getRowsView(0, count - tailReadCount);
+            return head != null ? new DoubleBuffer[] {tail, head} : null;
+        } else {
+            return new DoubleBuffer[] {tail};
+        }
+    }
+
+    int getColumn() {
+        return column;
+    }
+
     /**
      * Returns the Archive object to which this Robin object belongs.
      *
@@ -206,15 +305,22 @@ class RobinMatrix implements Robin {
      * will be silently replaced with <code>NaN</code>.
      */
     public void filterValues(double minValue, double maxValue) throws IOException {
+        double[] columnValues = values.get(column, 0, rows);
+        boolean filtered = false;
         for (int i = 0; i < rows; i++) {
-            double value = values.get(column, i);
+            double value = columnValues[i];
             if (!Double.isNaN(minValue) && !Double.isNaN(value) && minValue > value) {
-                values.set(column, i, Double.NaN);
+                columnValues[i] = Double.NaN;
+                filtered = true;
             }
             if (!Double.isNaN(maxValue) && !Double.isNaN(value) && maxValue < value) {
-                values.set(column, i, Double.NaN);
+                columnValues[i] = Double.NaN;
+                filtered = true;
             }
         }
+        if (filtered) {
+            values.set(column, 0, columnValues);
+        }
     }
 
     /**
@@ -231,7 +337,9 @@ class RobinMatrix implements Robin {
      * Required to implement RrdUpdater interface. You should never call this method directly.
      *
      * @return Allocator object
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     public RrdAllocator getRrdAllocator() {
         return parentArc.getRrdAllocator();
     }
@@ -2,12 +2,28 @@ package org.rrd4j.core;
 
 /**
  * An internal usage class.
+ * <p>
+ * Up to the version 3, the offsets are given sequentially. The version 4 groups the primitives in three areas: the
+ * header and all the state modified by an update, the constant definitions, and the archived values starting on a page
+ * boundary. An update then writes to the first page and to a row of each archive.
+ * <p>
+ * The offsets are computed once for each structure of RRD, and shared by all the RRDs having it.
  *
  * @author Sasa Markovic
  */
 public class RrdAllocator {
+    static final int STATE = 1, VALUES = 2;
+
+    /**
+     * The page size used to align the archived values in the version 4.
+     */
+    static final int PAGE_SIZE = 4096;
+
     private long allocationPointer = 0L;
-    
+    private long statePointer = -1;
+    private long stateEnd = -1;
+    private long valuesPointer = -1;
+
     RrdAllocator() {
         super();
     }
@@ -17,4 +33,54 @@ public class RrdAllocator {
         allocationPointer += byteCount;
         return pointer;
     }
+
+    long allocate(long byteCount, int area) {
+        long pointer;
+        if (area == STATE && statePointer >= 0) {
+            pointer = statePointer;
+            statePointer += byteCount;
+            assert statePointer <= stateEnd : "State area overflow";
+        } else if (area == VALUES && valuesPointer >= 0) {
+            pointer = valuesPointer;
+            valuesPointer += byteCount;
+        } else {
+            pointer = allocate(byteCount);
+        }
+        return pointer;
+    }
+
+    /**
+     * Prepares the areas used by the version 4, must be called once the header is allocated.
+     *
+     * @param version the RRD version
+     * @param dsCount the number of datasources
+     * @param arcCount the number of archives
+     */
+    void layout(int version, int dsCount, int arcCount) {
+        if (version == 4) {
+            assert allocationPointer == RrdLayout.HEADER_SIZE : "Unexpected header size " + allocationPointer;
+            statePointer = allocationPointer;
+            stateEnd = statePointer + getStateSize(dsCount, arcCount);
+            allocationPointer = stateEnd;
+            valuesPointer = getValuesOffset(dsCount, arcCount);
+        }
+    }
+
+    static long getStateSize(int dsCount, int arcCount) {
+        return RrdLayout.DS_STATE_SIZE * dsCount
+                + (RrdLayout.ROBIN_POINTER_SIZE + RrdLayout.ARC_STATE_SIZE) * dsCount * arcCount;
+    }
+
+    /**
+     * Returns where the archived values start in the version 4.
+     *
+     * @param dsCount the number of datasources
+     * @param arcCount the number of archives
+     * @return the first page boundary after the header, the state and the definitions
+     */
+    static long getValuesOffset(int dsCount, int arcCount) {
+        long end = RrdLayout.HEADER_SIZE + getStateSize(dsCount, arcCount) + RrdLayout.DS_DEFINITION_SIZE * dsCount
+                + RrdLayout.ARC_DEFINITION_SIZE * arcCount;
+        return (end + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
 }
@@ -0,0 +1,255 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Backend which is used to store RRD data to ordinary disk files using an
+ * {@link java.nio.channels.AsynchronousFileChannel}.
+ * <p>
+ * The content of the file is read in memory when the backend is opened, so reads never wait for the disk. Each update
+ * is done in memory, then the pages it modified are written to the file without blocking the updating thread. The
+ * future returned by {@link Sample#updateAsync()} completes once they are written. The writes of an update are issued
+ * after the ones of the previous update completed, but they are concurrent and the file is only forced to the disk when
+ * the backend is closed, so nothing is guaranteed about its content after a crash.
+ * <p>
+ * If a write fails, the future of its update completes exceptionally, and the pages are written again with the next
+ * update, or when the backend is closed.
+ *
+ * @since 3.10
+ */
+public class RrdAsyncFileBackend extends ByteBufferBackend implements RrdFileBackend {
+
+    private final AsynchronousFileChannel channel;
+    private final boolean readOnly;
+    private ByteBuffer content;
+    private long length;
+
+    // The writes of the last update, completed after the ones of the previous updates, guarded by this
+    private CompletableFuture<Void> pendingWrites = CompletableFuture.completedFuture(null);
+
+    /**
+     * Creates a backend for the given file path, and reads its content.
+     *
+     * @param path     Path to a file
+     * @param readOnly True, if file should be open in a read-only mode. False otherwise
+     * @param executor the executor used by the channel for the completion handlers, the default one if null
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected RrdAsyncFileBackend(String path, boolean readOnly, ExecutorService executor) throws IOException {
+        super(path);
+        Set<StandardOpenOption> options = new HashSet<>(3);
+        options.add(StandardOpenOption.READ);
+        options.add(StandardOpenOption.CREATE);
+        if (!readOnly) {
+            options.add(StandardOpenOption.WRITE);
+        }
+        this.readOnly = readOnly;
+        channel = AsynchronousFileChannel.open(Paths.get(path), options, executor);
+        try {
+            length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new RrdBackendException("File too big for the asynchronous backend: " + path);
+            }
+            content = ByteBuffer.allocate((int) length);
+            while (content.hasRemaining()) {
+                if (channel.read(content, content.position()).get() < 0) {
+                    throw new RrdBackendException("File truncated while reading: " + path);
+                }
+            }
+            content.clear();
+            if (length > 0) {
+                setByteBuffer(content);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channel.close();
+            throw new RrdBackendException("Interrupted while reading " + path, e);
+        } catch (ExecutionException e) {
+            channel.close();
+            throw toIOException(e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The file is resized asynchronously, after the pending writes.
+     */
+    @Override
+    protected synchronized void setLength(long newLength) throws IOException {
+        if (newLength < 0 || newLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal length: " + newLength);
+        }
+        ByteBuffer newContent = ByteBuffer.allocate((int) newLength);
+        content.rewind();
+        content.limit((int) Math.min(length, newLength));
+        newContent.put(content);
+        newContent.clear();
+        content = newContent;
+        length = newLength;
+        setByteBuffer(content);
+        CompletableFuture<Void> previous = pendingWrites;
+        if (newLength > 0) {
+            // Writing the last byte extends the file, the untouched pages are written later if needed
+            byte[] last = new byte[1];
+            read(newLength - 1, last);
+            pendingWrites = previous.exceptionally(e -> null).thenCompose(v -> {
+                try {
+                    channel.truncate(newLength);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+                return writeAsync(newLength - 1, last);
+            });
+        } else {
+            pendingWrites = previous.exceptionally(e -> null).thenRun(() -> {
+                try {
+                    channel.truncate(0);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+    }
+
+    @Override
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Starts writing the pages modified by the update, without waiting for them.
+     */
+    @Override
+    protected synchronized void updateDone() {
+        if (readOnly) {
+            return;
+        }
+        BitSet pages = takeDirtyPages();
+        if (pages.isEmpty()) {
+            return;
+        }
+        // The modified bytes are copied now, as they can change before being written
+        int pageSize = getPageSize();
+        List<Long> offsets = new ArrayList<>();
+        List<byte[]> blocks = new ArrayList<>();
+        for (int start = pages.nextSetBit(0); start >= 0; start = pages.nextSetBit(pages.nextClearBit(start))) {
+            long offset = (long) start * pageSize;
+            long end = Math.min((long) pages.nextClearBit(start) * pageSize, length);
+            if (offset >= end) {
+                break;
+            }
+            ByteBuffer block = content.duplicate();
+            block.position((int) offset).limit((int) end);
+            byte[] bytes = new byte[(int) (end - offset)];
+            block.get(bytes);
+            offsets.add(offset);
+            blocks.add(bytes);
+        }
+        // A failure of the previous writes was reported by their own future, it doesn't block the next ones
+        pendingWrites = pendingWrites.exceptionally(e -> null).thenCompose(v -> {
+            CompletableFuture<?>[] writes = new CompletableFuture<?>[blocks.size()];
+            for (int i = 0; i < writes.length; i++) {
+                long offset = offsets.get(i);
+                int size = blocks.get(i).length;
+                writes[i] = writeAsync(offset, blocks.get(i)).whenComplete((r, e) -> {
+                    if (e != null) {
+                        // Written again by the next update
+                        markDirty(offset, size);
+                    }
+                });
+            }
+            return CompletableFuture.allOf(writes);
+        });
+    }
+
+    /**
+     * Writes bytes to the file, package-private so that the tests can simulate failures.
+     */
+    CompletableFuture<Void> writeAsync(long offset, byte[] bytes) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        ByteBuffer source = ByteBuffer.wrap(bytes);
+        channel.write(source, offset, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                if (source.hasRemaining()) {
+                    channel.write(source, offset + source.position(), null, this);
+                } else {
+                    addFlushedBytes(bytes.length);
+                    written.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                written.completeExceptionally(exc);
+            }
+        });
+        return written;
+    }
+
+    @Override
+    protected synchronized CompletableFuture<Void> getPendingWrites() {
+        return pendingWrites;
+    }
+
+    /**
+     * Waits for the pending writes, forces the file to the disk and closes it. The pages that failed to be written are
+     * tried once more.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    @Override
+    protected void close() throws IOException {
+        try {
+            updateDone();
+            getPendingWrites().exceptionally(e -> null).get();
+            // The failed pages are marked dirty again once the previous writes are done
+            updateDone();
+            getPendingWrites().get();
+            if (!readOnly) {
+                channel.force(true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RrdBackendException("Interrupted while closing " + getPath(), e);
+        } catch (ExecutionException e) {
+            throw toIOException(e);
+        } finally {
+            channel.close();
+            super.close();
+        }
+    }
+
+    private static IOException toIOException(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else {
+            return new RrdBackendException(cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return Paths.get(getPath()).toAbsolutePath().normalize().toString();
+    }
+
+}
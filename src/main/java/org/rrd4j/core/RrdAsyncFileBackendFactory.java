@@ -0,0 +1,46 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Factory class which creates actual {@link org.rrd4j.core.RrdAsyncFileBackend} objects. The RRD files are read in
+ * memory when opened, and written with an {@link java.nio.channels.AsynchronousFileChannel}, so
+ * {@link Sample#updateAsync()} never blocks the calling thread on disk I/O. Many updates can then be in flight without
+ * a thread for each one. The open reads the whole file synchronously, and the fetches read the memory copy.
+ *
+ * @since 3.10
+ */
+@RrdBackendAnnotation(name="ASYNC", shouldValidateHeader=true)
+public class RrdAsyncFileBackendFactory extends RrdFileBackendFactory {
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a factory that uses the default thread pool of the asynchronous channels.
+     */
+    public RrdAsyncFileBackendFactory() {
+        this(null);
+    }
+
+    /**
+     * Creates a factory whose channels run their completion handlers in the given executor. The executor is not shut
+     * down when the factory is closed.
+     *
+     * @param executor the executor, the default thread pool of the asynchronous channels if null
+     */
+    public RrdAsyncFileBackendFactory(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates RrdAsyncFileBackend object for the given file path.
+     */
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        return new RrdAsyncFileBackend(path, readOnly, executor);
+    }
+
+}
@@ -6,6 +6,9 @@ import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>Base implementation class for all backend classes. Each Round Robin Database object
@@ -56,6 +59,9 @@ public abstract class RrdBackend {
      */
     protected static final ByteOrder BYTEORDER = ByteOrder.BIG_ENDIAN;
 
+    // The size of the blocks used by the default strided operations
+    private static final int STRIDED_BLOCK_SIZE = 64 * 1024;
+
     private static final char STARTPRIVATEAREA = '\ue000';
     private static final char ENDPRIVATEAREA = '\uf8ff';
     private static final int STARTPRIVATEAREACODEPOINT = Character.codePointAt(new char[]{STARTPRIVATEAREA}, 0);
@@ -159,6 +165,39 @@ public abstract class RrdBackend {
      */
     protected abstract void close() throws IOException;
 
+    /**
+     * Called by {@link RrdDb} after all the writes of an update are done. A backend can use it as a transaction
+     * boundary. The default implementation does nothing.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error
+     * @since 3.10
+     */
+    protected void updateDone() throws IOException {
+    }
+
+    /**
+     * Called by {@link RrdDb} instead of {@link #updateDone()} when an update failed, after only some of its writes were
+     * done. A backend that uses updates as transactions can discard these writes. The default implementation does
+     * nothing, the writes already done are kept.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error
+     * @since 3.10
+     */
+    protected void updateFailed() throws IOException {
+    }
+
+    /**
+     * Returns a future completed when all the writes done until now have reached the storage. It's used by the
+     * asynchronous entry points, like {@link Sample#updateAsync()}. The default implementation returns a completed
+     * future, as the writes are done synchronously.
+     *
+     * @return a future, completed exceptionally if a write failed.
+     * @since 3.10
+     */
+    protected CompletableFuture<Void> getPendingWrites() {
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Closes the underlying backend. Call by {@code RrdDb#close()} when it's closed. All subclass must keep calling it.
      *
@@ -187,6 +226,21 @@ public abstract class RrdBackend {
         return factory.cachingAllowed;
     }
 
+    /**
+     * Tells if many threads can read at the same time, while another one writes. If <code>true</code> is returned,
+     * {@link RrdDb} fetches without locking, and checks afterward that no update was done meanwhile. Otherwise, fetches
+     * and updates are serialized.
+     * <p>
+     * A fetch without locking can also run while the RRD is closed, the backend must keep its storage readable until
+     * the fetch is done.
+     *
+     * @return <code>true</code> if concurrent reads are safe. By default, the method returns <code>false</code>.
+     * @since 3.10
+     */
+    protected boolean isConcurrentReadAllowed() {
+        return false;
+    }
+
     /**
      * Reads all RRD bytes from the underlying storage.
      *
@@ -194,7 +248,11 @@ public abstract class RrdBackend {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     public final byte[] readAll() throws IOException {
-        byte[] b = new byte[(int) getLength()];
+        long length = getLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new RrdBackendException("RRD too big to be read in an array: " + length);
+        }
+        byte[] b = new byte[(int) length];
         read(0, b);
         return b;
     }
@@ -336,6 +394,255 @@ public abstract class RrdBackend {
         return values;
     }
 
+    /**
+     * Reads values spread at a regular interval, like a column in a matrix of doubles.
+     * <p>
+     * The default implementation reads the whole region in a few blocks, and extracts the values from them.
+     *
+     * @param offset the offset of the first value
+     * @param stride the distance between the start of two consecutive values, in bytes, at least 8
+     * @param count the number of values
+     * @return the values
+     * @throws IOException if the read fails
+     * @since 3.10
+     */
+    protected double[] readStridedDouble(long offset, long stride, int count) throws IOException {
+        if (stride == 8) {
+            return readDouble(offset, count);
+        }
+        double[] values = new double[count];
+        int blockCount = getStridedBlockCount(stride);
+        for (int done = 0; done < count; done += blockCount) {
+            int length = Math.min(blockCount, count - done);
+            ByteBuffer block = ByteBuffer.allocate((int) ((length - 1) * stride + 8));
+            block.order(BYTEORDER);
+            read(offset + done * stride, block.array());
+            for (int i = 0; i < length; i++) {
+                values[done + i] = block.getDouble((int) (i * stride));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Tells if the default strided writes can read the whole region in a few blocks, update them and write them back.
+     * The values between the ones written, the other columns of the matrix, are then written again with the content
+     * read, so it must only be allowed when nothing else can modify them meanwhile, and when rewriting them is harmless.
+     * Otherwise, each value is written with its own write.
+     *
+     * @return <code>true</code> if the strided writes can rewrite whole blocks. By default, the method returns
+     *         <code>false</code>.
+     * @since 3.10
+     */
+    protected boolean isStridedBlockWriteAllowed() {
+        return false;
+    }
+
+    /**
+     * Writes values spread at a regular interval, like a column in a matrix of doubles.
+     * <p>
+     * The default implementation writes each value, or, if {@link #isStridedBlockWriteAllowed()}, reads the whole
+     * region in a few blocks, updates them and writes them back.
+     *
+     * @param offset the offset of the first value
+     * @param stride the distance between the start of two consecutive values, in bytes, at least 8
+     * @param values the values
+     * @throws IOException if the write fails
+     * @since 3.10
+     */
+    protected void writeStridedDouble(long offset, long stride, double[] values) throws IOException {
+        if (stride == 8) {
+            writeDouble(offset, values);
+            return;
+        }
+        if (!isStridedBlockWriteAllowed()) {
+            for (int i = 0; i < values.length; i++) {
+                writeDouble(offset + i * stride, values[i]);
+            }
+            return;
+        }
+        int blockCount = getStridedBlockCount(stride);
+        for (int done = 0; done < values.length; done += blockCount) {
+            int length = Math.min(blockCount, values.length - done);
+            ByteBuffer block = ByteBuffer.allocate((int) ((length - 1) * stride + 8));
+            block.order(BYTEORDER);
+            long blockOffset = offset + done * stride;
+            read(blockOffset, block.array());
+            for (int i = 0; i < length; i++) {
+                block.putDouble((int) (i * stride), values[done + i]);
+            }
+            write(blockOffset, block.array());
+        }
+    }
+
+    /**
+     * Writes the same value many times at a regular interval, like in a column in a matrix of doubles.
+     *
+     * @param offset the offset of the first value
+     * @param stride the distance between the start of two consecutive values, in bytes, at least 8
+     * @param value the value
+     * @param count the number of values
+     * @throws IOException if the write fails
+     * @since 3.10
+     */
+    protected void writeStridedDouble(long offset, long stride, double value, int count) throws IOException {
+        if (stride == 8) {
+            writeDouble(offset, value, count);
+        } else {
+            double[] values = new double[count];
+            Arrays.fill(values, value);
+            writeStridedDouble(offset, stride, values);
+        }
+    }
+
+    /**
+     * Reads a single precision value, used by the RRD version 3.
+     *
+     * @param offset the offset of the value
+     * @return the value
+     * @throws IOException if the read fails
+     * @since 3.10
+     */
+    protected float readFloat(long offset) throws IOException {
+        return Float.intBitsToFloat(readInt(offset));
+    }
+
+    /**
+     * Writes a single precision value, used by the RRD version 3.
+     *
+     * @param offset the offset of the value
+     * @param value the value
+     * @throws IOException if the write fails
+     * @since 3.10
+     */
+    protected void writeFloat(long offset, float value) throws IOException {
+        writeInt(offset, Float.floatToRawIntBits(value));
+    }
+
+    /**
+     * Reads single precision values spread at a regular interval, like a column in a matrix of floats.
+     * <p>
+     * The default implementation reads the whole region in a few blocks, and extracts the values from them.
+     *
+     * @param offset the offset of the first value
+     * @param stride the distance between the start of two consecutive values, in bytes, at least 4
+     * @param count the number of values
+     * @return the values, widened to doubles
+     * @throws IOException if the read fails
+     * @since 3.10
+     */
+    protected double[] readStridedFloat(long offset, long stride, int count) throws IOException {
+        double[] values = new double[count];
+        int blockCount = getStridedBlockCount(stride);
+        for (int done = 0; done < count; done += blockCount) {
+            int length = Math.min(blockCount, count - done);
+            ByteBuffer block = ByteBuffer.allocate((int) ((length - 1) * stride + 4));
+            block.order(BYTEORDER);
+            read(offset + done * stride, block.array());
+            for (int i = 0; i < length; i++) {
+                values[done + i] = block.getFloat((int) (i * stride));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes single precision values spread at a regular interval, like a column in a matrix of floats.
+     * <p>
+     * The default implementation writes each value, or, if {@link #isStridedBlockWriteAllowed()}, reads the whole
+     * region in a few blocks, updates them and writes them back. Consecutive values are always written in blocks.
+     *
+     * @param offset the offset of the first value
+     * @param stride the distance between the start of two consecutive values, in bytes, at least 4
+     * @param values the values, narrowed to floats
+     * @throws IOException if the write fails
+     * @since 3.10
+     */
+    protected void writeStridedFloat(long offset, long stride, double[] values) throws IOException {
+        if (stride != 4 && !isStridedBlockWriteAllowed()) {
+            for (int i = 0; i < values.length; i++) {
+                writeFloat(offset + i * stride, (float) values[i]);
+            }
+            return;
+        }
+        int blockCount = getStridedBlockCount(stride);
+        for (int done = 0; done < values.length; done += blockCount) {
+            int length = Math.min(blockCount, values.length - done);
+            ByteBuffer block = ByteBuffer.allocate((int) ((length - 1) * stride + 4));
+            block.order(BYTEORDER);
+            long blockOffset = offset + done * stride;
+            if (stride != 4) {
+                // Consecutive values overwrite the whole block
+                read(blockOffset, block.array());
+            }
+            for (int i = 0; i < length; i++) {
+                block.putFloat((int) (i * stride), (float) values[done + i]);
+            }
+            write(blockOffset, block.array());
+        }
+    }
+
+    /**
+     * Writes the same single precision value many times at a regular interval, like in a column in a matrix of
+     * floats.
+     *
+     * @param offset the offset of the first value
+     * @param stride the distance between the start of two consecutive values, in bytes, at least 4
+     * @param value the value, narrowed to a float
+     * @param count the number of values
+     * @throws IOException if the write fails
+     * @since 3.10
+     */
+    protected void writeStridedFloat(long offset, long stride, double value, int count) throws IOException {
+        double[] values = new double[Math.min(count, getStridedBlockCount(stride))];
+        Arrays.fill(values, value);
+        for (int done = 0; done < count; done += values.length) {
+            if (count - done < values.length) {
+                values = Arrays.copyOf(values, count - done);
+            }
+            writeStridedFloat(offset + done * stride, stride, values);
+        }
+    }
+
+    /**
+     * The number of values read or written at once by the default strided operations.
+     */
+    private static int getStridedBlockCount(long stride) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, STRIDED_BLOCK_SIZE / stride));
+    }
+
+    /**
+     * Returns a read-only view of consecutive doubles, without copying them. The view must only be used between
+     * {@link #acquireView()} and {@link #releaseView()}, the storage might be released otherwise.
+     * <p>
+     * The default implementation returns null, as the backend doesn't hold the data in a {@link ByteBuffer}.
+     *
+     * @param offset the offset of the first value
+     * @param count the number of values
+     * @return a view, or null if not available
+     * @throws IOException if the backend fails
+     * @since 3.10
+     */
+    protected DoubleBuffer getDoubleView(long offset, int count) throws IOException {
+        return null;
+    }
+
+    /**
+     * Keeps the storage of the views returned by {@link #getDoubleView(long, int)} valid until
+     * {@link #releaseView()} is called, even if the backend is closed meanwhile. It's also held by the fetches done
+     * without locking. The default implementation does nothing, as there is no view.
+     */
+    void acquireView() {
+    }
+
+    /**
+     * Releases the storage kept by {@link #acquireView()}.
+     *
+     * @throws IOException if the backend was closed meanwhile, and failed to close now
+     */
+    void releaseView() throws IOException {
+    }
+
     /**
      * Extract a CharBuffer from the backend, used by readString
      * 
@@ -55,9 +55,14 @@ import java.util.stream.Stream;
  * <li>{@link org.rrd4j.core.RrdBerkeleyDbBackend}: objects of this class are created from the 
  * {@link org.rrd4j.core.RrdBerkeleyDbBackendFactory} class. It stores RRD data to ordinary disk files 
  * using <a href="http://www.oracle.com/technetwork/database/berkeleydb/overview/index-093405.html">Oracle Berkeley DB</a> Java Edition.
+ * {@link org.rrd4j.core.RrdBerkeleyDbPagedBackendFactory} stores them in pages, and writes only the modified ones.
  * 
  * <li>{@link RrdMongoDBNewBackend}: objects of this class are created from the {@link RrdMongoDBNewBackendFactory} class.
  * It stores data in a {@link com.mongodb.DBCollection} from <a href="http://www.mongodb.org/">MongoDB</a>.
+ *
+ * <li>{@link RrdChunkedBackend}: objects of this class are created from the {@link RrdChunkedBackendFactory} class, or
+ * from {@link RrdMongoDBChunkedBackendFactory} for MongoDB. It splits RRDs in fixed-size chunks stored in a
+ * {@link RrdChunkStore}, and writes only the modified chunks.
  * </ul>
  * <p>
  * Each backend factory used to be identified by its {@link #getName() name}. Constructors
@@ -0,0 +1,82 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Collects the rows finalized by a batch of samples, so that each robin is written once with a single
+ * {@link Robin#store(double[])}. The samples are applied by the same code as a single update,
+ * {@link Datasource#process(long, double, RrdBatchUpdate)}, while the {@link RrdStateCache} keeps the state of the
+ * datasources and archives in memory until the end of the batch.
+ * <p>
+ * Used by {@link RrdDb#storeBatch(long[], double[][])}, that checks the samples and holds the locks.
+ */
+final class RrdBatchUpdate {
+    private final RrdDb parentDb;
+    private final int[] rows;
+
+    // indexed by archive then datasource
+    private final double[][][] pendingRows;
+    private final int[][] pendingCounts;
+
+    RrdBatchUpdate(RrdDb parentDb) throws IOException {
+        this.parentDb = parentDb;
+        Header header = parentDb.getHeader();
+        int dsCount = header.getDsCount();
+        int arcCount = header.getArcCount();
+        rows = new int[arcCount];
+        pendingRows = new double[arcCount][dsCount][];
+        pendingCounts = new int[arcCount][dsCount];
+        for (int i = 0; i < arcCount; i++) {
+            rows[i] = parentDb.getArchive(i).getRows();
+            for (int j = 0; j < dsCount; j++) {
+                pendingRows[i][j] = new double[Math.min(rows[i], 16)];
+            }
+        }
+    }
+
+    /**
+     * Adds rows holding the same value to a robin.
+     */
+    void addRows(int arcIndex, int dsIndex, double value, int count) {
+        for (int i = 0; i < count; i++) {
+            addRow(arcIndex, dsIndex, value);
+        }
+    }
+
+    private void addRow(int arcIndex, int dsIndex, double value) {
+        double[] pending = pendingRows[arcIndex][dsIndex];
+        int count = pendingCounts[arcIndex][dsIndex];
+        if (count == pending.length) {
+            int arcRows = rows[arcIndex];
+            if (pending.length < 2 * arcRows) {
+                pending = Arrays.copyOf(pending, Math.min(2 * pending.length, 2 * arcRows));
+            } else {
+                // a full round of rows would be overwritten by the next ones, it's dropped and the robin
+                // pointer ends at the same place
+                System.arraycopy(pending, arcRows, pending, 0, arcRows);
+                count = arcRows;
+            }
+            pendingRows[arcIndex][dsIndex] = pending;
+        }
+        pending[count] = value;
+        pendingCounts[arcIndex][dsIndex] = count + 1;
+    }
+
+    /**
+     * Writes the finalized rows.
+     */
+    void write() throws IOException {
+        for (int i = 0; i < pendingRows.length; i++) {
+            Archive archive = parentDb.getArchive(i);
+            for (int j = 0; j < pendingRows[i].length; j++) {
+                int count = pendingCounts[i][j];
+                if (count > 0) {
+                    double[] pending = pendingRows[i][j];
+                    archive.getRobin(j).store(count == pending.length ? pending : Arrays.copyOf(pending, count));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Backend which stores a RRD in fixed-size pages of a
+ * <a href="http://www.oracle.com/technology/products/berkeley-db/je/index.html">Oracle Berkeley DB Java Edition</a>
+ * database. Objects of this class are created by {@link RrdBerkeleyDbPagedBackendFactory}, see it for more details.
+ * <p>
+ * Pages are read only when some of their bytes are, and kept until the backend is closed. Only the modified pages
+ * are written when it's closed.
+ *
+ * @since 3.10
+ */
+public class RrdBerkeleyDbPagedBackend extends RrdBackend {
+
+    private final RrdBerkeleyDbPagedBackendFactory pageStore;
+    private final boolean readOnly;
+    private final Map<Integer, byte[]> pages = new HashMap<>();
+    private final BitSet dirtyPages = new BitSet();
+    private int pageSize;
+    private long length;
+    private boolean created = false;
+
+    /**
+     * Creates a backend, reading only the length and the page size of the RRD if it exists.
+     *
+     * @param path      the RRD path
+     * @param pageStore the factory that reads and writes the pages
+     * @param readOnly  true, if the RRD should be open in a read-only mode
+     * @throws IOException if the database can't be read
+     */
+    protected RrdBerkeleyDbPagedBackend(String path, RrdBerkeleyDbPagedBackendFactory pageStore, boolean readOnly) throws IOException {
+        super(path);
+        this.pageStore = pageStore;
+        this.readOnly = readOnly;
+        long[] meta = pageStore.readMeta(path);
+        if (meta != null) {
+            length = meta[0];
+            pageSize = (int) meta[1];
+        } else {
+            pageSize = pageStore.getPageSize();
+        }
+    }
+
+    private int getPageLength(int page) {
+        return (int) Math.min(pageSize, length - (long) page * pageSize);
+    }
+
+    private byte[] getPage(int page) throws IOException {
+        byte[] bytes = pages.get(page);
+        if (bytes == null) {
+            if (created) {
+                bytes = new byte[getPageLength(page)];
+            } else {
+                bytes = pageStore.readPage(getPath(), page);
+                if (bytes == null || bytes.length != getPageLength(page)) {
+                    throw new RrdBackendException("Missing or invalid page " + page + " of RRD " + getPath());
+                }
+            }
+            pages.put(page, bytes);
+        }
+        return bytes;
+    }
+
+    private void checkRange(long offset, int count) throws IOException {
+        if (offset < 0 || offset + count > length) {
+            throw new RrdBackendException("Not enough bytes available in RRD " + getPath() + " at offset " + offset);
+        }
+    }
+
+    @Override
+    protected synchronized void write(long offset, byte[] b) throws IOException {
+        checkRange(offset, b.length);
+        int done = 0;
+        while (done < b.length) {
+            int page = (int) ((offset + done) / pageSize);
+            int position = (int) ((offset + done) % pageSize);
+            int count = Math.min(b.length - done, pageSize - position);
+            System.arraycopy(b, done, getPage(page), position, count);
+            dirtyPages.set(page);
+            done += count;
+        }
+    }
+
+    @Override
+    protected synchronized void read(long offset, byte[] b) throws IOException {
+        checkRange(offset, b.length);
+        int done = 0;
+        while (done < b.length) {
+            int page = (int) ((offset + done) / pageSize);
+            int position = (int) ((offset + done) % pageSize);
+            int count = Math.min(b.length - done, pageSize - position);
+            System.arraycopy(getPage(page), position, b, done, count);
+            done += count;
+        }
+    }
+
+    @Override
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The pages of a new RRD are all kept in memory, and all written when the backend is closed.</p>
+     */
+    @Override
+    protected synchronized void setLength(long length) throws IOException {
+        if (length < 0 || length / pageStore.getPageSize() >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal length: " + length);
+        }
+        this.length = length;
+        this.pageSize = pageStore.getPageSize();
+        pages.clear();
+        dirtyPages.clear();
+        created = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Writes the modified pages, or all of them for a new RRD. Nothing is written by a read-only backend.</p>
+     */
+    @Override
+    protected synchronized void close() throws IOException {
+        if (readOnly || (!created && dirtyPages.isEmpty())) {
+            return;
+        }
+        Map<Integer, byte[]> modified = new TreeMap<>();
+        if (created) {
+            int pageCount = (int) ((length + pageSize - 1) / pageSize);
+            for (int i = 0; i < pageCount; i++) {
+                modified.put(i, getPage(i));
+            }
+        } else {
+            for (int i = dirtyPages.nextSetBit(0); i >= 0; i = dirtyPages.nextSetBit(i + 1)) {
+                modified.put(i, pages.get(i));
+            }
+        }
+        pageStore.writePages(getPath(), created ? new long[] {length, pageSize} : null, modified);
+        dirtyPages.clear();
+        created = false;
+    }
+
+    /**
+     * @return the number of pages read or created since the backend was opened
+     */
+    public synchronized int getLoadedPages() {
+        return pages.size();
+    }
+
+}
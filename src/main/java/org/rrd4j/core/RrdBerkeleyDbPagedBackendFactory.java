@@ -0,0 +1,346 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.Transaction;
+
+/**
+ * {@link org.rrd4j.core.RrdBackendFactory} that uses
+ * <a href="http://www.oracle.com/technetwork/database/berkeleydb/overview/index.html">Oracle Berkeley DB Java Edition</a>
+ * to store RRDs in fixed-size pages, one record per page. Construct a BerkeleyDB {@link com.sleepycat.je.Database}
+ * object and pass it via the constructor. The database should be used only by this factory.
+ * <p>
+ * Unlike {@link RrdBerkeleyDbBackendFactory}, that reads a whole RRD when it's opened and writes it back whole when
+ * it's modified, the pages are read only when needed, and only the modified ones are written. An update usually
+ * modifies a few pages, whatever the size of the RRD, so much less data is appended to the JE log and has to be
+ * cleaned later.
+ * <p>
+ * The records are keyed by the UTF-8 bytes of the path followed by the page number as a 4 bytes big-endian integer.
+ * An additional record, with the page number <code>-1</code>, holds the length and the page size of the RRD, so
+ * changing the page size of the factory only applies to new RRDs.
+ * <p>
+ * By default, the pages modified in a RRD are written when it's closed, in a single transaction if the database is
+ * transactional. With {@link #setMaxPendingPages(int)}, the pages of many closed RRDs are kept and written together in
+ * one transaction, once enough of them are pending, or when {@link #commit()} is called. Pending pages are used when
+ * a RRD is opened again, but are lost if the JVM stops before they are committed.
+ *
+ * @since 3.10
+ */
+@RrdBackendAnnotation(name="BERKELEYPAGED", shouldValidateHeader=false, scheme="berkeley")
+public class RrdBerkeleyDbPagedBackendFactory extends RrdBerkeleyDbBackendFactory {
+
+    /**
+     * The default size of the pages, in bytes.
+     */
+    public static final int DEFAULT_PAGE_SIZE = ByteBufferBackend.DEFAULT_PAGE_SIZE;
+
+    private static final int META_PAGE = -1;
+
+    private static final class PendingRrd {
+        private long[] meta;
+        private final Map<Integer, byte[]> pages = new TreeMap<>();
+    }
+
+    private final Database rrdDatabase;
+    private final int pageSize;
+    private final Map<String, PendingRrd> pending = new HashMap<>();
+    private int pendingPages = 0;
+    private int maxPendingPages = 0;
+    private long pagesRead = 0;
+    private long pagesWritten = 0;
+
+    /**
+     * Creates a factory using pages of {@link #DEFAULT_PAGE_SIZE} bytes.
+     *
+     * @param rrdDatabase a {@link com.sleepycat.je.Database} object.
+     */
+    public RrdBerkeleyDbPagedBackendFactory(Database rrdDatabase) {
+        this(rrdDatabase, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param rrdDatabase a {@link com.sleepycat.je.Database} object.
+     * @param pageSize the size of the pages of new RRDs, in bytes
+     */
+    public RrdBerkeleyDbPagedBackendFactory(Database rrdDatabase, int pageSize) {
+        super(rrdDatabase);
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Illegal page size: " + pageSize);
+        }
+        this.rrdDatabase = rrdDatabase;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the size of the pages of new RRDs, in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the number of modified pages kept before they are written in a single transaction. Lowering it commits the
+     * pending pages.
+     *
+     * @param maxPendingPages the number of pages, 0 to write the pages of each RRD when it's closed
+     * @throws IOException if the pending pages can't be written
+     */
+    public void setMaxPendingPages(int maxPendingPages) throws IOException {
+        if (maxPendingPages < 0) {
+            throw new IllegalArgumentException("Invalid number of pending pages: " + maxPendingPages);
+        }
+        synchronized (pending) {
+            this.maxPendingPages = maxPendingPages;
+            if (pendingPages >= maxPendingPages) {
+                commit();
+            }
+        }
+    }
+
+    /**
+     * @return the number of modified pages kept before they are written
+     */
+    public int getMaxPendingPages() {
+        synchronized (pending) {
+            return maxPendingPages;
+        }
+    }
+
+    private static byte[] key(String path, int page) {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(pathBytes.length + 4).put(pathBytes).putInt(page).array();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates new RrdBerkeleyDbPagedBackend object for the given id (path).
+     */
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        return new RrdBerkeleyDbPagedBackend(path, this, readOnly);
+    }
+
+    /**
+     * @return the length and the page size of a RRD, or null if it doesn't exist
+     */
+    long[] readMeta(String path) throws IOException {
+        synchronized (pending) {
+            PendingRrd rrd = pending.get(path);
+            if (rrd != null && rrd.meta != null) {
+                return rrd.meta;
+            }
+        }
+        byte[] bytes = get(path, META_PAGE);
+        if (bytes == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new long[] {buffer.getLong(), buffer.getInt()};
+    }
+
+    byte[] readPage(String path, int page) throws IOException {
+        synchronized (pending) {
+            PendingRrd rrd = pending.get(path);
+            if (rrd != null && rrd.pages.containsKey(page)) {
+                return rrd.pages.get(page).clone();
+            }
+            pagesRead++;
+        }
+        return get(path, page);
+    }
+
+    private byte[] get(String path, int page) throws IOException {
+        DatabaseEntry theData = new DatabaseEntry();
+        try {
+            if (rrdDatabase.get(null, new DatabaseEntry(key(path, page)), theData, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
+                return null;
+            }
+        } catch (DatabaseException de) {
+            throw new RrdBackendException("BerkeleyDB DatabaseException on " + path + "; " + de.getMessage(), de);
+        }
+        return theData.getData();
+    }
+
+    /**
+     * Writes the modified pages of a closed RRD, or keeps them until the next commit.
+     *
+     * @param path the RRD path
+     * @param meta the length and the page size of the RRD, if it was created
+     * @param pages the modified pages, keyed by page number
+     */
+    void writePages(String path, long[] meta, Map<Integer, byte[]> pages) throws IOException {
+        synchronized (pending) {
+            PendingRrd rrd = pending.computeIfAbsent(path, p -> new PendingRrd());
+            if (meta != null) {
+                // A new RRD replaces the pending pages of a deleted one
+                pendingPages -= rrd.pages.size();
+                rrd.pages.clear();
+                rrd.meta = meta;
+            }
+            for (Map.Entry<Integer, byte[]> e : pages.entrySet()) {
+                if (rrd.pages.put(e.getKey(), e.getValue()) == null) {
+                    pendingPages++;
+                }
+            }
+            if (pendingPages >= maxPendingPages) {
+                commit();
+            }
+        }
+    }
+
+    private Transaction beginTransaction() {
+        return rrdDatabase.getConfig().getTransactional() ? rrdDatabase.getEnvironment().beginTransaction(null, null) : null;
+    }
+
+    /**
+     * Writes all the pending pages in a single transaction, if the database is transactional.
+     *
+     * @throws IOException if the pages can't be written, they are kept pending
+     */
+    public void commit() throws IOException {
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Transaction txn = null;
+            try {
+                txn = beginTransaction();
+                for (Map.Entry<String, PendingRrd> e : pending.entrySet()) {
+                    PendingRrd rrd = e.getValue();
+                    if (rrd.meta != null) {
+                        byte[] meta = ByteBuffer.allocate(12).putLong(rrd.meta[0]).putInt((int) rrd.meta[1]).array();
+                        rrdDatabase.put(txn, new DatabaseEntry(key(e.getKey(), META_PAGE)), new DatabaseEntry(meta));
+                    }
+                    for (Map.Entry<Integer, byte[]> page : rrd.pages.entrySet()) {
+                        rrdDatabase.put(txn, new DatabaseEntry(key(e.getKey(), page.getKey())), new DatabaseEntry(page.getValue()));
+                    }
+                }
+                if (txn != null) {
+                    txn.commit();
+                }
+            } catch (DatabaseException de) {
+                if (txn != null) {
+                    txn.abort();
+                }
+                throw new RrdBackendException("failed to write the pages; " + de.getMessage(), de);
+            }
+            pagesWritten += pendingPages;
+            pending.clear();
+            pendingPages = 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Removes the pages of the RRD, including pending ones.
+     */
+    @Override
+    public void delete(String path) {
+        byte[] prefix = path.getBytes(StandardCharsets.UTF_8);
+        synchronized (pending) {
+            PendingRrd rrd = pending.remove(path);
+            if (rrd != null) {
+                pendingPages -= rrd.pages.size();
+            }
+            Transaction txn = beginTransaction();
+            try {
+                try (Cursor cursor = rrdDatabase.openCursor(txn, null)) {
+                    DatabaseEntry theKey = new DatabaseEntry(key(path, 0));
+                    DatabaseEntry theData = new DatabaseEntry();
+                    theData.setPartial(0, 0, true);
+                    OperationStatus status = cursor.getSearchKeyRange(theKey, theData, LockMode.DEFAULT);
+                    while (status == OperationStatus.SUCCESS) {
+                        byte[] found = theKey.getData();
+                        if (found.length < prefix.length || !Arrays.equals(prefix, Arrays.copyOf(found, prefix.length))) {
+                            break;
+                        }
+                        // Longer paths sharing the prefix are skipped
+                        if (found.length == prefix.length + 4) {
+                            cursor.delete();
+                        }
+                        status = cursor.getNext(theKey, theData, LockMode.DEFAULT);
+                    }
+                }
+                if (txn != null) {
+                    txn.commit();
+                }
+            } catch (DatabaseException de) {
+                if (txn != null) {
+                    txn.abort();
+                }
+                throw new RuntimeException(de.getMessage(), de);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Checks if the RRD with the given id (path) already exists in the database, or is pending.
+     */
+    @Override
+    protected boolean exists(String path) throws IOException {
+        synchronized (pending) {
+            PendingRrd rrd = pending.get(path);
+            if (rrd != null && rrd.meta != null) {
+                return true;
+            }
+        }
+        DatabaseEntry theData = new DatabaseEntry();
+        theData.setPartial(0, 0, true);
+        try {
+            return rrdDatabase.get(null, new DatabaseEntry(key(path, META_PAGE)), theData, LockMode.DEFAULT) == OperationStatus.SUCCESS;
+        } catch (DatabaseException de) {
+            throw new RrdBackendException("BerkeleyDB DatabaseException on " + path + "; " + de.getMessage(), de);
+        }
+    }
+
+    /**
+     * @return the number of pages read from the database
+     */
+    public long getPagesRead() {
+        synchronized (pending) {
+            return pagesRead;
+        }
+    }
+
+    /**
+     * @return the number of pages written to the database
+     */
+    public long getPagesWritten() {
+        synchronized (pending) {
+            return pagesWritten;
+        }
+    }
+
+    /**
+     * Commits the pending pages and closes the database.
+     */
+    @Override
+    public void close() {
+        try {
+            commit();
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            super.close();
+        }
+    }
+
+}
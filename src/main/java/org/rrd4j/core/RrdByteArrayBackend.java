@@ -20,6 +20,17 @@ public abstract class RrdByteArrayBackend extends ByteBufferBackend {
         super(path);
     }
 
+    /**
+     * Creates a backend that tracks the modified parts of the buffer using pages of the given size.
+     *
+     * @param path the backend path
+     * @param pageSize the size of the dirty tracking pages, in bytes
+     * @since 3.10
+     */
+    protected RrdByteArrayBackend(String path, int pageSize) {
+        super(path, pageSize);
+    }
+
     protected void setBuffer(byte[] buffer) {
         this.buffer = buffer;
         setByteBuffer(ByteBuffer.wrap(buffer));
@@ -38,7 +49,7 @@ public abstract class RrdByteArrayBackend extends ByteBufferBackend {
      * @throws java.lang.IllegalArgumentException if offset is bigger that the possible length.
      */
     @Override
-    protected synchronized void read(long offset, byte[] bytes) throws IOException {
+    protected void read(long offset, byte[] bytes) throws IOException {
         if (offset < 0 || offset > Integer.MAX_VALUE) {
             throw new IllegalArgumentException("Illegal offset: " + offset);
         }
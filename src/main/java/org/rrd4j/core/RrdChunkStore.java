@@ -0,0 +1,42 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A storage for RRD images split in fixed-size chunks, used by {@link RrdChunkedBackendFactory}. Each chunk is stored
+ * under the RRD path and its index, so that a RRD can be updated by writing only the chunks that were modified.
+ * <p>
+ * Implementations must be thread-safe, as many backends can use the same store.
+ *
+ * @since 3.10
+ */
+public interface RrdChunkStore {
+
+    /**
+     * Reads all the chunks of a RRD.
+     *
+     * @param path the RRD path
+     * @return the chunks, ordered by index, or null if the RRD doesn't exist
+     * @throws IOException if the chunks can't be read, or some of them are missing
+     */
+    byte[][] load(String path) throws IOException;
+
+    /**
+     * Writes chunks of a RRD, replacing those with the same index, and removes the chunks beyond the new end of the RRD.
+     *
+     * @param path the RRD path
+     * @param chunks the chunks to write, keyed by index
+     * @param chunkCount the number of chunks of the RRD, chunks with a greater or equal index are removed
+     * @throws IOException if the chunks can't be written
+     */
+    void store(String path, Map<Integer, byte[]> chunks, int chunkCount) throws IOException;
+
+    /**
+     * @param path the RRD path
+     * @return true if some chunks of the RRD are stored
+     * @throws IOException if the store can't be queried
+     */
+    boolean exists(String path) throws IOException;
+
+}
@@ -0,0 +1,104 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Backend that keeps a RRD in memory while it's open, and stores it as fixed-size chunks in a {@link RrdChunkStore}.
+ * Objects of this class are created by {@link RrdChunkedBackendFactory}, see it for more details.
+ *
+ * @since 3.10
+ */
+public class RrdChunkedBackend extends RrdByteArrayBackend {
+
+    private final RrdChunkStore store;
+    private final int chunkSize;
+    private final boolean readOnly;
+    // the length of the stored image, or -1 if all the chunks must be written
+    private long storedLength = -1;
+
+    /**
+     * Creates a backend and loads the chunks of the RRD, if it exists.
+     *
+     * @param path      the RRD path
+     * @param store     the store holding the chunks
+     * @param chunkSize the size of the chunks, in bytes
+     * @param readOnly  true, if the RRD should be open in a read-only mode
+     * @throws IOException if the chunks can't be read
+     */
+    protected RrdChunkedBackend(String path, RrdChunkStore store, int chunkSize, boolean readOnly) throws IOException {
+        super(path, chunkSize);
+        this.store = store;
+        this.chunkSize = chunkSize;
+        this.readOnly = readOnly;
+        byte[][] chunks = store.load(path);
+        if (chunks != null) {
+            load(chunks);
+        }
+    }
+
+    private void load(byte[][] chunks) throws IOException {
+        long length = 0;
+        boolean sameSize = true;
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] == null) {
+                throw new RrdBackendException("Missing chunk " + i + " of RRD " + getPath());
+            }
+            // Chunks written with another size are all written again on close
+            sameSize &= i == chunks.length - 1 ? chunks[i].length <= chunkSize : chunks[i].length == chunkSize;
+            length += chunks[i].length;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new RrdBackendException("RRD " + getPath() + " is too big: " + length);
+        }
+        byte[] buffer = new byte[(int) length];
+        int position = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, buffer, position, chunk.length);
+            position += chunk.length;
+        }
+        setBuffer(buffer);
+        storedLength = sameSize ? length : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Writes the chunks modified since the RRD was opened, or all of them if it was created or resized. Nothing is
+     * written by a read-only backend.
+     */
+    @Override
+    protected synchronized void close() throws IOException {
+        if (isDirty() && !readOnly) {
+            BitSet pages = takeDirtyPages();
+            byte[] buffer = getBuffer();
+            int chunkCount = (int) ((buffer.length + (long) chunkSize - 1) / chunkSize);
+            if (storedLength != buffer.length) {
+                pages.set(0, chunkCount);
+            }
+            Map<Integer, byte[]> chunks = new TreeMap<>();
+            long bytes = 0;
+            for (int i = pages.nextSetBit(0); i >= 0 && i < chunkCount; i = pages.nextSetBit(i + 1)) {
+                int start = i * chunkSize;
+                byte[] chunk = Arrays.copyOfRange(buffer, start, Math.min(buffer.length, start + chunkSize));
+                chunks.put(i, chunk);
+                bytes += chunk.length;
+            }
+            store.store(getPath(), chunks, chunkCount);
+            storedLength = buffer.length;
+            addFlushedBytes(bytes);
+        }
+        super.close();
+    }
+
+    /**
+     * @return the size of the chunks, in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+}
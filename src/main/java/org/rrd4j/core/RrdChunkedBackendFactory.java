@@ -0,0 +1,94 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Factory class which creates {@link org.rrd4j.core.RrdChunkedBackend} objects. The RRDs are stored in a
+ * {@link RrdChunkStore}, split in chunks of a fixed size, for example one document or one row per chunk in a database.
+ * <p>
+ * A RRD is fully read when it's opened, and kept in memory until it's closed. Then only the chunks holding modified
+ * bytes are written: an update modifies the header, a row of each archive and their state, so only a few chunks are
+ * written whatever the size of the RRD. A new or resized RRD is written whole.
+ * <p>
+ * Smaller chunks mean less bytes written by each update, but more chunks to read when a RRD is opened. The chunk size
+ * can be changed for existing RRDs: they are written again with the new size the next time they are modified.
+ * <p>
+ * The URI handled by this factory are in the form <code>chunked:/path</code>.
+ *
+ * @since 3.10
+ */
+@RrdBackendAnnotation(name="CHUNKED", shouldValidateHeader=false)
+public class RrdChunkedBackendFactory extends RrdBackendFactory {
+
+    /**
+     * The default size of the chunks, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = ByteBufferBackend.DEFAULT_PAGE_SIZE;
+
+    private final RrdChunkStore store;
+    private final int chunkSize;
+
+    /**
+     * Creates a factory using chunks of {@link #DEFAULT_CHUNK_SIZE} bytes.
+     *
+     * @param store the store holding the chunks
+     */
+    public RrdChunkedBackendFactory(RrdChunkStore store) {
+        this(store, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param store the store holding the chunks
+     * @param chunkSize the size of the chunks, in bytes
+     */
+    public RrdChunkedBackendFactory(RrdChunkStore store, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Illegal chunk size: " + chunkSize);
+        }
+        this.store = store;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates RrdChunkedBackend object.
+     */
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        return new RrdChunkedBackend(path, store, chunkSize, readOnly);
+    }
+
+    @Override
+    public boolean canStore(URI uri) {
+        return uri.getScheme().equals(getScheme());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Method to determine if chunks for the given path are stored.
+     */
+    @Override
+    protected boolean exists(String path) throws IOException {
+        return store.exists(path);
+    }
+
+    /**
+     * @return the store holding the chunks
+     */
+    public RrdChunkStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the size of the chunks, in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+}
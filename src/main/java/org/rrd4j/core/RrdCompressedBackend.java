@@ -0,0 +1,185 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only backend for RRD files compressed by {@link RrdToolkit#compress(String, String)}. The archived values are
+ * stored in blocks of XOR encoded doubles, decoded when they are read. The last decoded blocks are kept in a small
+ * cache. The other parts of the RRD are small and are read in memory when the backend is opened.
+ *
+ * @since 3.10
+ */
+public class RrdCompressedBackend extends RrdBackend implements RrdFileBackend {
+
+    static final byte[] MAGIC = {'R', 'R', 'D', '4', 'J', 'X', 'O', 'R'};
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * A range of the RRD image, stored as is when the stride is 0, as blocks of XOR encoded doubles otherwise.
+     */
+    static final class Segment {
+        final long offset;
+        final long length;
+        final int stride;
+        final int rowsPerBlock;
+        byte[] raw;
+        long[] blockPositions;
+
+        Segment(long offset, long length, int stride, int rowsPerBlock) {
+            this.offset = offset;
+            this.length = length;
+            this.stride = stride;
+            this.rowsPerBlock = rowsPerBlock;
+        }
+
+        int getBlockBytes() {
+            return rowsPerBlock * stride * 8;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final long length;
+    private final Segment[] segments;
+    private final long[] segmentOffsets;
+    private final Map<Long, byte[]> cache;
+
+    /**
+     * Opens a compressed RRD file.
+     *
+     * @param path Path to a file
+     * @param cacheBlocks the number of decoded blocks kept in memory
+     * @throws java.io.IOException Thrown in case of I/O error, or if the file is not a compressed RRD
+     */
+    protected RrdCompressedBackend(String path, int cacheBlocks) throws IOException {
+        super(path);
+        file = new RandomAccessFile(path, "r");
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            file.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic) || file.readInt() != FORMAT_VERSION) {
+                throw new InvalidRrdException("Not a compressed RRD file: " + path);
+            }
+            length = file.readLong();
+            segments = new Segment[file.readInt()];
+            segmentOffsets = new long[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                Segment segment = new Segment(file.readLong(), file.readLong(), file.readInt(), file.readInt());
+                if (segment.stride == 0) {
+                    segment.raw = new byte[(int) segment.length];
+                    file.readFully(segment.raw);
+                } else {
+                    int blockCount = file.readInt();
+                    segment.blockPositions = new long[blockCount + 1];
+                    for (int j = 0; j <= blockCount; j++) {
+                        segment.blockPositions[j] = file.readLong();
+                    }
+                    file.seek(segment.blockPositions[blockCount]);
+                }
+                segments[i] = segment;
+                segmentOffsets[i] = segment.offset;
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        cache = new LinkedHashMap<Long, byte[]>(cacheBlocks + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cacheBlocks;
+            }
+        };
+    }
+
+    /**
+     * Always fails, compressed RRD are read-only.
+     *
+     * @throws RrdBackendException always
+     */
+    @Override
+    protected void write(long offset, byte[] b) throws IOException {
+        throw new RrdBackendException("Compressed RRD is read-only: " + getPath());
+    }
+
+    @Override
+    protected synchronized void read(long offset, byte[] b) throws IOException {
+        if (offset < 0 || offset + b.length > length) {
+            throw new RrdBackendException("Read beyond the end of " + getPath() + ": " + offset);
+        }
+        int index = Arrays.binarySearch(segmentOffsets, offset);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        int done = 0;
+        while (done < b.length) {
+            Segment segment = segments[index++];
+            long position = offset + done - segment.offset;
+            int count = (int) Math.min(b.length - done, segment.length - position);
+            if (segment.stride == 0) {
+                System.arraycopy(segment.raw, (int) position, b, done, count);
+                done += count;
+            } else {
+                int blockBytes = segment.getBlockBytes();
+                while (count > 0) {
+                    int block = (int) (position / blockBytes);
+                    int blockPosition = (int) (position % blockBytes);
+                    byte[] decoded = getBlock(index - 1, segment, block);
+                    int length = Math.min(count, decoded.length - blockPosition);
+                    System.arraycopy(decoded, blockPosition, b, done, length);
+                    done += length;
+                    position += length;
+                    count -= length;
+                }
+            }
+        }
+    }
+
+    private byte[] getBlock(int segmentIndex, Segment segment, int block) throws IOException {
+        Long key = ((long) segmentIndex << 32) | block;
+        byte[] decoded = cache.get(key);
+        if (decoded == null) {
+            long start = segment.blockPositions[block];
+            byte[] encoded = new byte[(int) (segment.blockPositions[block + 1] - start)];
+            file.seek(start);
+            file.readFully(encoded);
+            int count = (int) Math.min(segment.getBlockBytes(), segment.length - (long) block * segment.getBlockBytes()) / 8;
+            double[] values = XorDoubleCodec.decode(encoded, count, segment.stride);
+            ByteBuffer buffer = ByteBuffer.allocate(count * 8).order(BYTEORDER);
+            buffer.asDoubleBuffer().put(values);
+            decoded = buffer.array();
+            cache.put(key, decoded);
+        }
+        return decoded;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Always fails, compressed RRD are read-only.
+     *
+     * @throws RrdBackendException always
+     */
+    @Override
+    protected void setLength(long length) throws IOException {
+        throw new RrdBackendException("Compressed RRD is read-only: " + getPath());
+    }
+
+    @Override
+    protected void close() throws IOException {
+        file.close();
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return Paths.get(getPath()).toAbsolutePath().normalize().toString();
+    }
+
+}
@@ -0,0 +1,141 @@
+package org.rrd4j.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Factory class which creates {@link org.rrd4j.core.RrdCompressedBackend} objects, to read RRD files compressed by
+ * {@link RrdToolkit#compress(String, String)}. It's meant for cold RRDs that are kept for reports: the archived values
+ * use much less disk and page cache, as runs of NaN or of constant values use a bit per value, but the RRDs can't be
+ * updated any more. {@link RrdToolkit#decompress(String, String)} converts them back to ordinary RRD files.
+ *
+ * @since 3.10
+ */
+@RrdBackendAnnotation(name="COMPRESSED", shouldValidateHeader=true)
+public class RrdCompressedBackendFactory extends RrdFileBackendFactory {
+
+    /**
+     * The default number of decoded blocks kept in memory by each backend.
+     */
+    public static final int DEFAULT_CACHE_BLOCKS = 16;
+
+    // The number of values in a block, rounded to whole rows
+    private static final int BLOCK_VALUES = 1024;
+
+    private final int cacheBlocks;
+
+    /**
+     * Creates a factory whose backends cache {@link #DEFAULT_CACHE_BLOCKS} decoded blocks.
+     */
+    public RrdCompressedBackendFactory() {
+        this(DEFAULT_CACHE_BLOCKS);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param cacheBlocks the number of decoded blocks kept in memory by each backend
+     */
+    public RrdCompressedBackendFactory(int cacheBlocks) {
+        this.cacheBlocks = cacheBlocks;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates RrdCompressedBackend object for the given file path. It's always read-only.
+     */
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        return new RrdCompressedBackend(path, cacheBlocks);
+    }
+
+    /**
+     * Writes a compressed copy of a RRD.
+     *
+     * @param source the RRD to compress
+     * @param destPath the path of the compressed file
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    static void compress(RrdDb source, String destPath) throws IOException {
+        byte[] image = source.getBytes();
+        List<long[]> regions = new ArrayList<>();
+        for (int i = 0; i < source.getArcCount(); i++) {
+            regions.addAll(Arrays.asList(source.getArchive(i).getValueRegions()));
+        }
+        regions.sort(Comparator.comparingLong(r -> r[0]));
+
+        // Split the image in raw segments and segments of values
+        List<RrdCompressedBackend.Segment> segments = new ArrayList<>();
+        long cursor = 0;
+        for (long[] region : regions) {
+            if (region[0] > cursor) {
+                segments.add(rawSegment(image, cursor, region[0]));
+            }
+            int stride = (int) region[2];
+            RrdCompressedBackend.Segment segment =
+                    new RrdCompressedBackend.Segment(region[0], region[1], stride, Math.max(1, BLOCK_VALUES / stride));
+            segments.add(segment);
+            cursor = region[0] + region[1];
+        }
+        if (cursor < image.length) {
+            segments.add(rawSegment(image, cursor, image.length));
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(destPath))))) {
+            out.write(RrdCompressedBackend.MAGIC);
+            out.writeInt(RrdCompressedBackend.FORMAT_VERSION);
+            out.writeLong(image.length);
+            out.writeInt(segments.size());
+            for (RrdCompressedBackend.Segment segment : segments) {
+                out.writeLong(segment.offset);
+                out.writeLong(segment.length);
+                out.writeInt(segment.stride);
+                out.writeInt(segment.rowsPerBlock);
+                if (segment.stride == 0) {
+                    out.write(segment.raw);
+                } else {
+                    List<byte[]> blocks = encode(image, segment);
+                    out.writeInt(blocks.size());
+                    long position = out.size() + 8L * (blocks.size() + 1);
+                    for (byte[] block : blocks) {
+                        out.writeLong(position);
+                        position += block.length;
+                    }
+                    out.writeLong(position);
+                    for (byte[] block : blocks) {
+                        out.write(block);
+                    }
+                }
+            }
+        }
+    }
+
+    private static RrdCompressedBackend.Segment rawSegment(byte[] image, long start, long end) {
+        RrdCompressedBackend.Segment segment = new RrdCompressedBackend.Segment(start, end - start, 0, 0);
+        segment.raw = Arrays.copyOfRange(image, (int) start, (int) end);
+        return segment;
+    }
+
+    private static List<byte[]> encode(byte[] image, RrdCompressedBackend.Segment segment) {
+        List<byte[]> blocks = new ArrayList<>();
+        int blockBytes = segment.getBlockBytes();
+        for (long start = 0; start < segment.length; start += blockBytes) {
+            int length = (int) Math.min(blockBytes, segment.length - start);
+            double[] values = new double[length / 8];
+            ByteBuffer.wrap(image, (int) (segment.offset + start), length).order(RrdBackend.BYTEORDER)
+                    .asDoubleBuffer().get(values);
+            blocks.add(XorDoubleCodec.encode(values, segment.stride));
+        }
+        return blocks;
+    }
+
+}
@@ -8,6 +8,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.StampedLock;
 
 import org.rrd4j.ConsolFun;
 
@@ -59,6 +61,8 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
         private RrdDef rrdDef = null;
         private boolean usePool = false;
         private RrdDbPool pool;
+        private RrdImageCache imageCache = null;
+        private int maxPendingUpdates = 0;
 
         private Builder() {
 
@@ -77,8 +81,10 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
                 factory = checkFactory(rrdDef.getUri(), factory);
                 if (usePool) {
                     return resolvePool(pool).requestRrdDb(rrdDef, factory);
+                } else if (imageCache != null) {
+                    return writeBehind(new RrdDb(rrdDef, imageCache.getImage(rrdDef), factory, pool));
                 } else {
-                    return new RrdDb(rrdDef, factory, pool);
+                    return writeBehind(new RrdDb(rrdDef, factory, pool));
                 }
             } else if (path != null || uri != null) {
                 URI rrdUri = buildUri(path, uri, factory);
@@ -91,14 +97,14 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
                     if (usePool) {
                         return resolvePool(pool).requestRrdDb(rrdUri, factory);
                     } else {
-                        return new RrdDb(null, rrdUri, readOnly, factory, pool);
+                        return writeBehind(new RrdDb(null, rrdUri, readOnly, factory, pool));
                     }
                 } else {
                     try (DataImporter rrdImporter = resoleImporter(externalPath, importer)) {
                         if (usePool) {
                             return resolvePool(pool).requestRrdDb(rrdUri, factory, importer);
                         } else {
-                            return new RrdDb(null, rrdUri, null, rrdImporter, factory, pool);
+                            return writeBehind(new RrdDb(null, rrdUri, null, rrdImporter, factory, pool));
                         }
                     }
                 }
@@ -107,6 +113,18 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
             }
         }
 
+        private RrdDb writeBehind(RrdDb rrdDb) throws IOException {
+            if (maxPendingUpdates > 0) {
+                try {
+                    rrdDb.stateCache.setMaxPendingUpdates(maxPendingUpdates);
+                } catch (IOException | RuntimeException e) {
+                    rrdDb.close();
+                    throw e;
+                }
+            }
+            return rrdDb;
+        }
+
         /**
          * Import an external rrd data, import definition must have been done using {@link #setExternalPath(String)}
          * or {@link #setImporter(DataImporter)}.<p>
@@ -274,6 +292,42 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
             return this;
         }
 
+        /**
+         * Creates new RRDs by copying an image of an empty RRD with the same definition, taken from the given cache,
+         * instead of initializing each value. It's not used for RRDs created by a pool.
+         *
+         * @param imageCache the cache of RRD images
+         * @return the same builder.
+         * @since 3.10
+         */
+        public Builder setImageCache(RrdImageCache imageCache) {
+            this.imageCache = imageCache;
+            return this;
+        }
+
+        /**
+         * Keeps the state modified by the updates (the last update time, the datasources and archives states and the
+         * robin pointers) in memory, and writes it to the backend only after the given number of updates, when
+         * {@link RrdDb#flush()} is called, or when the RRD is closed. The archived values are still written by each
+         * update. In the version 4, the whole state is then written at once.
+         * <p>
+         * If the RRD is not closed properly, the last updates are lost, and the archived values can be newer than
+         * the state stored. Writing the state is not atomic either, unless the backend is transactional, like the
+         * journal backend: a crash while it's written can leave a state mixing two updates. It's ignored if the
+         * backend doesn't allow caching, and not used for RRDs obtained from a pool.
+         *
+         * @param maxPendingUpdates the number of updates kept in memory, 0 to write the state at each update
+         * @return the same builder.
+         * @since 3.10
+         */
+        public Builder setWriteBehind(int maxPendingUpdates) {
+            if (maxPendingUpdates < 0) {
+                throw new IllegalArgumentException("Invalid number of pending updates: " + maxPendingUpdates);
+            }
+            this.maxPendingUpdates = maxPendingUpdates;
+            return this;
+        }
+
         private static RrdBackendFactory checkFactory(URI uri, RrdBackendFactory factory) {
             if (factory == null) {
                 return RrdBackendFactory.findFactory(uri);
@@ -331,14 +385,16 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
     static final int XML_BUFFER_CAPACITY = 100000; // bytes
 
     private final RrdBackend backend;
-    private final RrdAllocator allocator = new RrdAllocator();
-
+    private final RrdLayout layout;
+    private final RrdStateCache stateCache;
     private final Header header;
     private final Datasource[] datasources;
     private final Archive[] archives;
     private final RrdDbPool pool;
+    // Held for writing by the updates, fetches are optimistic reads
+    private final StampedLock updateLock = new StampedLock();
 
-    private boolean closed = false;
+    private volatile boolean closed = false;
 
     /**
      * <p>Constructor used to create new RRD object from the definition. If the rrdDef was constructed
@@ -469,19 +525,48 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
             backend.setLength(rrdDef.getEstimatedSize());
             // create header
             header = new Header(this, rrdDef);
+            layout = RrdLayout.get(rrdDef);
+            stateCache = new RrdStateCache(backend, layout);
             // create datasources
             DsDef[] dsDefs = rrdDef.getDsDefs();
             datasources = new Datasource[dsDefs.length];
             for (int i = 0; i < dsDefs.length; i++) {
-                datasources[i] = new Datasource(this, dsDefs[i]);
+                datasources[i] = new Datasource(this, i, dsDefs[i]);
             }
             // create archives
             ArcDef[] arcDefs = rrdDef.getArcDefs();
             archives = new Archive[arcDefs.length];
             for (int i = 0; i < arcDefs.length; i++) {
-                archives[i] = new Archive(this, arcDefs[i]);
+                archives[i] = new Archive(this, i, arcDefs[i]);
             }
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
+            backend.rrdClose();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a new RRD from the image of an empty RRD with the same definition, written at once.
+     */
+    private RrdDb(RrdDef rrdDef, byte[] image, RrdBackendFactory factory, RrdDbPool pool) throws IOException {
+        this.pool = pool;
+        factory = Builder.checkFactory(rrdDef.getUri(), factory);
+        backend = factory.getBackend(this, rrdDef.getUri(), false);
+        try {
+            backend.setLength(image.length);
+            backend.write(0, image);
+            header = new Header(this, (RrdDef) null);
+            layout = RrdLayout.get(rrdDef);
+            stateCache = new RrdStateCache(backend, layout);
+            datasources = new Datasource[rrdDef.getDsCount()];
+            for (int i = 0; i < datasources.length; i++) {
+                datasources[i] = new Datasource(this, i, null);
+            }
+            archives = new Archive[rrdDef.getArcCount()];
+            for (int i = 0; i < archives.length; i++) {
+                archives[i] = new Archive(this, i, null);
+            }
+        } catch (IOException | RuntimeException e) {
             backend.rrdClose();
             throw e;
         }
@@ -632,18 +717,20 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
             if (factory.shouldValidateHeader(rrdUri)) {
                 header.validateHeader();
             }
+            layout = RrdLayout.read(backend, header.getVersion(), header.getDsCount(), header.getArcCount());
+            stateCache = new RrdStateCache(backend, layout);
 
             // restore datasources
             int dsCount = header.getDsCount();
             datasources = new Datasource[dsCount];
             for (int i = 0; i < dsCount; i++) {
-                datasources[i] = new Datasource(this, null);
+                datasources[i] = new Datasource(this, i, null);
             }
             // restore archives
             int arcCount = header.getArcCount();
             archives = new Archive[arcCount];
             for (int i = 0; i < arcCount; i++) {
-                archives[i] = new Archive(this, null);
+                archives[i] = new Archive(this, i, null);
             }
         } catch (IOException e) {
             backend.rrdClose();
@@ -802,6 +889,14 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
             backend.setLength(reader.getEstimatedSize());
             // create header
             header = new Header(this, reader);
+            int[] steps = new int[reader.getArcCount()];
+            int[] rows = new int[reader.getArcCount()];
+            for (int i = 0; i < steps.length; i++) {
+                steps[i] = reader.getSteps(i);
+                rows[i] = reader.getRows(i);
+            }
+            layout = RrdLayout.get(header.getVersion(), reader.getDsCount(), steps, rows);
+            stateCache = new RrdStateCache(backend, layout);
             // create datasources
             datasources = new Datasource[reader.getDsCount()];
             for (int i = 0; i < datasources.length; i++) {
@@ -834,10 +929,34 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
     }
 
     void internalClose() throws IOException {
-        if (!closed) {
-            closed = true;
-            backend.rrdClose();
+        long stamp = updateLock.writeLock();
+        try {
+            if (!closed) {
+                closed = true;
+                // The optimistic fetches in progress keep the storage of the backend until they are done
+                try {
+                    stateCache.flush();
+                } finally {
+                    backend.rrdClose();
+                }
+            }
+        } finally {
+            updateLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Writes to the backend the state kept in memory by the write-behind, see
+     * {@link Builder#setWriteBehind(int)}. It does nothing otherwise.
+     *
+     * @throws java.io.IOException Thrown in case of I/O related error.
+     * @since 3.10
+     */
+    public synchronized void flush() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("RRD already closed, cannot flush it");
         }
+        stateCache.flush();
     }
 
     /**
@@ -926,6 +1045,32 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
         return createSample(Util.getTime());
     }
 
+    /**
+     * Creates an updater that can be kept and used for all the updates of this RRD, designating the datasources by
+     * their index. See {@link SampleUpdater} for an explanation how to use it.
+     *
+     * @return a new updater, with all data source values set to 'unknown'.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     * @since 3.10
+     */
+    public SampleUpdater createSampleUpdater() throws IOException {
+        return new SampleUpdater(this);
+    }
+
+    /**
+     * Creates a buffer accepting samples slightly out of order, and storing them in time order. See
+     * {@link SampleReorderBuffer} for an explanation how to use it.
+     *
+     * @param window the reorder window, in seconds.
+     * @return a new empty buffer.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     * @throws java.lang.IllegalArgumentException if the window is negative.
+     * @since 3.10
+     */
+    public SampleReorderBuffer createReorderBuffer(long window) throws IOException {
+        return new SampleReorderBuffer(this, window);
+    }
+
     /**
      * Prepares fetch request to be executed on this RRD. Use returned
      * <code>FetchRequest</code> object and its {@link org.rrd4j.core.FetchRequest#fetchData() fetchData()}
@@ -960,30 +1105,169 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
         return createFetchRequest(consolFun, fetchStart, fetchEnd, 1);
     }
 
-    final synchronized void store(Sample sample) throws IOException {
+    final void store(Sample sample) throws IOException {
+        store(sample.getTime(), sample.getValues());
+    }
+
+    final synchronized void store(long newTime, double[] newValues) throws IOException {
         if (closed) {
             throw new IllegalStateException("RRD already closed, cannot store this sample");
         }
-        long newTime = sample.getTime();
         long lastTime = header.getLastUpdateTime();
         if (lastTime >= newTime) {
             throw new IllegalArgumentException("Bad sample time: " + newTime +
                     ". Last update time was " + lastTime + ", at least one second step is required");
         }
-        double[] newValues = sample.getValues();
+        long stamp = updateLock.writeLock();
+        try {
+            apply(newTime, newValues, null);
+            stateCache.updateDone();
+        } catch (IOException | RuntimeException e) {
+            try {
+                stateCache.updateFailed();
+                backend.updateFailed();
+            } catch (IOException | RuntimeException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        } finally {
+            updateLock.unlockWrite(stamp);
+        }
+        // Only a complete update is committed
+        backend.updateDone();
+    }
+
+    /**
+     * Stores several samples at once, with the same result as updating them one by one with {@link Sample#update()},
+     * but much faster for long batches. The state of the datasources and archives is read once and written once, and
+     * the rows finalized in each archive are written with one bulk write per datasource.
+     * <p>
+     * All the samples are checked before anything is stored: the times must be strictly increasing and after the
+     * last update time, and each sample must hold one value per datasource, in the order of their definition.
+     *
+     * @param times the timestamps of the samples, in seconds
+     * @param values the values of each sample
+     * @throws java.io.IOException Thrown in case of I/O error.
+     * @throws java.lang.IllegalArgumentException if a sample is invalid, nothing is stored then.
+     * @since 3.10
+     */
+    public synchronized void storeBatch(long[] times, double[][] values) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("RRD already closed, cannot store this batch");
+        }
+        if (times.length != values.length) {
+            throw new IllegalArgumentException("Got " + times.length + " timestamps for " + values.length + " samples");
+        }
+        long lastTime = header.getLastUpdateTime();
+        for (int i = 0; i < times.length; i++) {
+            if (lastTime >= times[i]) {
+                throw new IllegalArgumentException("Bad sample time: " + times[i] +
+                        ". Previous time was " + lastTime + ", at least one second step is required");
+            }
+            if (values[i].length != datasources.length) {
+                throw new IllegalArgumentException("Invalid number of values in sample " + i + ": " +
+                        values[i].length + ", exactly " + datasources.length + " needed");
+            }
+            lastTime = times[i];
+        }
+        if (times.length == 0) {
+            return;
+        }
+        long stamp = updateLock.writeLock();
+        try {
+            // The state is kept in memory until the end of the batch
+            stateCache.startBatch();
+            RrdBatchUpdate batch = new RrdBatchUpdate(this);
+            for (int i = 0; i < times.length; i++) {
+                apply(times[i], values[i], batch);
+            }
+            batch.write();
+            stateCache.endBatch();
+            stateCache.updateDone();
+        } catch (IOException | RuntimeException e) {
+            try {
+                stateCache.updateFailed();
+                backend.updateFailed();
+            } catch (IOException | RuntimeException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        } finally {
+            updateLock.unlockWrite(stamp);
+        }
+        // Only a complete update is committed
+        backend.updateDone();
+    }
+
+    private void apply(long newTime, double[] newValues, RrdBatchUpdate batch) throws IOException {
         for (int i = 0; i < datasources.length; i++) {
             double newValue = newValues[i];
-            datasources[i].process(newTime, newValue);
+            datasources[i].process(newTime, newValue, batch);
         }
         header.setLastUpdateTime(newTime);
     }
 
-    synchronized FetchData fetchData(FetchRequest request) throws IOException {
+    final synchronized CompletableFuture<Void> storeAsync(Sample sample) throws IOException {
+        store(sample);
+        return backend.getPendingWrites();
+    }
+
+    /**
+     * Fetches without locking first, if the backend allows it. If an update or a close happened at the same time, the
+     * values read might be inconsistent, so it's done again, waiting for the update.
+     */
+    FetchData fetchData(FetchRequest request) throws IOException {
+        if (!backend.isConcurrentReadAllowed()) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("RRD already closed, cannot fetch data");
+                }
+                return findMatchingArchive(request).fetchData(request);
+            }
+        }
+        long stamp = updateLock.tryOptimisticRead();
+        if (stamp != 0 && !closed && pinBackend()) {
+            // A close during the fetch is deferred by the backend until the pin is released
+            try {
+                FetchData fetchData = findMatchingArchive(request).fetchData(request);
+                if (updateLock.validate(stamp)) {
+                    return fetchData;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (updateLock.validate(stamp)) {
+                    throw e;
+                }
+            } finally {
+                backend.releaseView();
+            }
+        }
+        stamp = updateLock.readLock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("RRD already closed, cannot fetch data");
+            }
+            return findMatchingArchive(request).fetchData(request);
+        } finally {
+            updateLock.unlockRead(stamp);
+        }
+    }
+
+    private boolean pinBackend() {
+        try {
+            backend.acquireView();
+            return true;
+        } catch (IllegalStateException e) {
+            // Closed meanwhile
+            return false;
+        }
+    }
+
+    synchronized FetchView fetchView(FetchRequest request) throws IOException {
         if (closed) {
             throw new IllegalStateException("RRD already closed, cannot fetch data");
         }
         Archive archive = findMatchingArchive(request);
-        return archive.fetchData(request);
+        return archive.fetchView(request);
     }
 
     /**
@@ -994,43 +1278,66 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
      * @throws java.io.IOException if any.
      */
     public Archive findMatchingArchive(FetchRequest request) throws IOException {
+        ConsolFun[] consolFuns = new ConsolFun[archives.length];
+        long[] arcSteps = new long[archives.length];
+        long[] startTimes = new long[archives.length];
+        for (int i = 0; i < archives.length; i++) {
+            consolFuns[i] = archives[i].getConsolFun();
+            arcSteps[i] = archives[i].getArcStep();
+            startTimes[i] = archives[i].getStartTime();
+        }
+        return archives[findMatchingArchive(request, consolFuns, arcSteps, startTimes)];
+    }
+
+    /**
+     * Finds the archive best matching a fetch request: the one covering the whole request with the closest step, or
+     * else the one covering the largest part of it.
+     *
+     * @param request the fetch request
+     * @param consolFuns the consolidation function of each archive
+     * @param arcSteps the step of each archive
+     * @param startTimes the timestamp of the oldest row of each archive
+     * @return the index of the matching archive
+     * @throws IllegalStateException if no archive uses the consolidation function of the request
+     */
+    static int findMatchingArchive(FetchRequest request, ConsolFun[] consolFuns, long[] arcSteps, long[] startTimes) {
         ConsolFun consolFun = request.getConsolFun();
         long fetchStart = request.getFetchStart();
         long fetchEnd = request.getFetchEnd();
         long resolution = request.getResolution();
-        Archive bestFullMatch = null;
-        Archive bestPartialMatch = null;
+        int bestFullMatch = -1;
+        int bestPartialMatch = -1;
         long bestStepDiff = 0;
         long bestMatch = 0;
-        for (Archive archive : archives) {
-            if (archive.getConsolFun() == consolFun) {
-                long arcStep = archive.getArcStep();
-                long arcStart = archive.getStartTime() - arcStep;
+        for (int i = 0; i < consolFuns.length; i++) {
+            if (consolFuns[i] == consolFun) {
+                long arcStep = arcSteps[i];
+                long arcStart = startTimes[i] - arcStep;
                 long fullMatch = fetchEnd - fetchStart;
                 // we need step difference in either full or partial case
-                long tmpStepDiff = Math.abs(archive.getArcStep() - resolution);
+                long tmpStepDiff = Math.abs(arcStep - resolution);
                 if (arcStart <= fetchStart) {
                     // best full match
-                    if (bestFullMatch == null || tmpStepDiff < bestStepDiff) {
+                    if (bestFullMatch < 0 || tmpStepDiff < bestStepDiff) {
                         bestStepDiff = tmpStepDiff;
-                        bestFullMatch = archive;
+                        bestFullMatch = i;
                     }
                 } else {
                     // best partial match
                     long tmpMatch = fullMatch;
                     tmpMatch -= (arcStart - fetchStart);
-                    if (bestPartialMatch == null ||
+                    if (bestPartialMatch < 0 ||
                             bestMatch < tmpMatch ||
                             (bestMatch == tmpMatch && tmpStepDiff < bestStepDiff)) {
-                        bestPartialMatch = archive;
+                        bestPartialMatch = i;
                         bestMatch = tmpMatch;
                     }
                 }
             }
         }
-        if (bestFullMatch != null) {
+        if (bestFullMatch >= 0) {
             return bestFullMatch;
-        } else if (bestPartialMatch != null) {
+        } else if (bestPartialMatch >= 0) {
             return bestPartialMatch;
         } else {
             throw new IllegalStateException("RRD file does not contain RRA: " + consolFun + " archive");
@@ -1098,13 +1405,12 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
         return buffer.toString();
     }
 
-    final void archive(Datasource datasource, double value, double lastValue, long numUpdates) throws IOException {
-        int dsIndex = getDsIndex(datasource.getName());
+    final void archive(int dsIndex, double value, double lastValue, long numUpdates, RrdBatchUpdate batch) throws IOException {
         for (Archive archive : archives) {
             if (ConsolFun.AVERAGE.equals(archive.getConsolFun())) {
-                archive.archive(dsIndex, value, numUpdates);
+                archive.archive(dsIndex, value, numUpdates, batch);
             } else {
-                archive.archive(dsIndex, lastValue, numUpdates);
+                archive.archive(dsIndex, lastValue, numUpdates, batch);
             }
         }
     }
@@ -1424,11 +1730,35 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
 
     /**
      * Required to implement RrdUpdater interface. You should never call this method directly.
+     * <p>
+     * Since 3.10, the offsets of the primitives come from the layout computed once for each structure of RRD, and
+     * shared by all the RRDs having it. The allocator returned is a new one, not used by this RRD, it doesn't reflect
+     * where its primitives are stored.
      *
      * @return Allocator object
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     public RrdAllocator getRrdAllocator() {
-        return allocator;
+        return new RrdAllocator();
+    }
+
+    /**
+     * Returns the offsets of the fields of this RRD, shared with the RRDs of the same structure.
+     *
+     * @return the layout of this RRD
+     */
+    RrdLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the state modified by the updates, read and written through it.
+     *
+     * @return the state cache of this RRD
+     */
+    RrdStateCache getStateCache() {
+        return stateCache;
     }
 
     /**
@@ -1438,6 +1768,7 @@ public class RrdDb implements RrdUpdater<RrdDb>, Closeable {
      * @throws java.io.IOException Thrown in case of I/O related error.
      */
     public synchronized byte[] getBytes() throws IOException {
+        stateCache.flush();
         return backend.readAll();
     }
 
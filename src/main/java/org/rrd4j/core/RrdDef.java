@@ -29,7 +29,9 @@ import org.rrd4j.DsType;
  * <li> path to RRD that will be created
  * <li> starting timestamp
  * <li> step
- * <li> version, 1 for linear disposition of archives, 2 for matrix disposition
+ * <li> version, 1 for linear disposition of archives, 2 for matrix disposition, 3 for matrix disposition with the
+ *      archived values stored as 4-byte floats, 4 for matrix disposition with the state modified by updates grouped
+ *      at the start of the file
  * <li> one or more datasource definitions
  * <li> one or more archive definitions
  * </ul>
@@ -299,9 +301,14 @@ public class RrdDef {
     }
 
     /**
-     * Sets RRD's file version.
+     * Sets RRD's file version. Version 3 halves the size of the archives by storing their values as floats, when
+     * their precision is enough, as for most counters and gauges. The datasources and archives states are still
+     * stored as doubles.
+     * <p>
+     * Version 4 groups all the state modified by an update in the first page of the file, and starts the archives on a
+     * page boundary, so an update writes fewer pages.
      *
-     * @param version the version to set
+     * @param version the version to set, 1, 2, 3 or 4
      */
     public void setVersion(int version) {
         this.version = version;
@@ -755,18 +762,24 @@ public class RrdDef {
         for (int i = 0; i < dsNames.length ; i++) {
             dsNames[i] = dsDefs.get(i).getDsName();
         }
-        return calculateSize(dsCount, arcCount, rowsCount, dsNames);
+        return calculateSize(version, dsCount, arcCount, rowsCount, dsNames);
     }
 
-    static long calculateSize(int dsCount, int arcCount, int rowsCount, String[] dsNames) {
+    static long calculateSize(int version, int dsCount, int arcCount, int rowsCount, String[] dsNames) {
         int postStorePayload = 0;
         for(String n: dsNames) {
             if (n.length() > RrdPrimitive.STRING_LENGTH) {
                 postStorePayload += n.length() * 2 + Short.SIZE / 8;
             }
         }
+        int valueSize = version == 3 ? 4 : 8;
+        long valuesSize = (long) valueSize * dsCount * rowsCount;
+        if (version == 4) {
+            // The values start on a page boundary
+            return RrdAllocator.getValuesOffset(dsCount, arcCount) + valuesSize + postStorePayload;
+        }
         return (24L + 48L * dsCount + 16L * arcCount +
-                20L * dsCount * arcCount + 8L * dsCount * rowsCount) +
+                20L * dsCount * arcCount + valuesSize) +
                 (1L + 2L * dsCount + arcCount) * 2L * RrdPrimitive.STRING_LENGTH +
                 postStorePayload;
     }
@@ -6,12 +6,12 @@ class RrdDouble<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
     private double cache;
     private boolean cached = false;
 
-    RrdDouble(RrdUpdater<U> updater, boolean isConstant) {
-        super(updater, RrdDouble.RRD_DOUBLE, isConstant);
+    RrdDouble(RrdUpdater<U> updater, long pointer, boolean isConstant) {
+        super(updater, RrdPrimitive.RRD_DOUBLE, pointer, isConstant);
     }
 
-    RrdDouble(RrdUpdater<U> updater) {
-        super(updater, RrdDouble.RRD_DOUBLE, false);
+    RrdDouble(RrdUpdater<U> updater, long pointer) {
+        this(updater, pointer, false);
     }
 
     void set(double value) throws IOException {
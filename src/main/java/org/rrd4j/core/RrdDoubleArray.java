@@ -5,13 +5,14 @@ import java.io.IOException;
 class RrdDoubleArray<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
     private final int length;
 
-    RrdDoubleArray(RrdUpdater<U> updater, int length) {
-        super(updater, RrdPrimitive.RRD_DOUBLE, length, false);
+    RrdDoubleArray(RrdUpdater<U> updater, long pointer, int length) {
+        super(updater, RrdPrimitive.RRD_DOUBLE, length, pointer, false);
         this.length = length;
     }
 
     void set(int index, double value) throws IOException {
-        set(index, value, 1);
+        assert index < length : "Invalid robin index supplied: index=" + index + ", length=" + length;
+        writeDouble(index, value);
     }
 
     void set(int index, double value, int count) throws IOException {
@@ -21,6 +22,12 @@ class RrdDoubleArray<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
         writeDouble(index, value, count);
     }
 
+    void set(int index, double[] values) throws IOException {
+        assert index + values.length <= length : "Invalid robin index supplied: index=" + index +
+                ", count=" + values.length + ", length=" + length;
+        writeDouble(index, values);
+    }
+
     double get(int index) throws IOException {
         assert index < length : "Invalid index supplied: " + index + ", length=" + length;
         return readDouble(index);
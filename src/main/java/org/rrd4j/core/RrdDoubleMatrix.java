@@ -1,30 +1,57 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 
 class RrdDoubleMatrix<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
     private static final String LENGTH = ", length=";
+    private static final int ROWS_BLOCK_SIZE = 8192;
     private final int rows;
     private final int columns;
+    private final boolean singlePrecision;
 
-    RrdDoubleMatrix(RrdUpdater<U> updater, int row, int column, boolean shouldInitialize) throws IOException {
-        super(updater, RrdPrimitive.RRD_DOUBLE, row * column, false);
+    /**
+     * Creates a matrix, storing its values as doubles or as floats.
+     *
+     * @param updater the owner of the matrix
+     * @param pointer the offset of the matrix
+     * @param row the number of rows
+     * @param column the number of columns
+     * @param shouldInitialize fills the matrix with NaN if true
+     * @param singlePrecision stores the values as 4-byte floats instead of 8-byte doubles
+     * @throws IOException if the initialization fails
+     */
+    RrdDoubleMatrix(RrdUpdater<U> updater, long pointer, int row, int column, boolean shouldInitialize, boolean singlePrecision) throws IOException {
+        super(updater, singlePrecision ? RrdPrimitive.RRD_FLOAT : RrdPrimitive.RRD_DOUBLE, row * column, pointer, false);
         this.rows = row;
         this.columns = column;
-        if (shouldInitialize)
-            writeDouble(0, Double.NaN, rows * columns);
+        this.singlePrecision = singlePrecision;
+        if (shouldInitialize) {
+            if (singlePrecision) {
+                writeStridedFloat(0, 1, Double.NaN, rows * columns);
+            } else {
+                writeDouble(0, Double.NaN, rows * columns);
+            }
+        }
     }
 
     void set(int column, int index, double value) throws IOException {
-        writeDouble(columns * index + column, value);
+        if (singlePrecision) {
+            writeFloat(columns * index + column, value);
+        } else {
+            writeDouble(columns * index + column, value);
+        }
     }
 
     void set(int column, int index, double value, int count) throws IOException {
         // rollovers not allowed!
         assert index + count <= rows : "Invalid robin index supplied: index=" + index +
                 ", count=" + count + LENGTH + rows;
-        for (int i = columns * index + column, c = 0; c < count; i += columns, c++)
-            writeDouble(i, value);
+        if (singlePrecision) {
+            writeStridedFloat(columns * index + column, columns, value, count);
+        } else {
+            writeStridedDouble(columns * index + column, columns, value, count);
+        }
     }
 
     /**
@@ -40,23 +67,68 @@ class RrdDoubleMatrix<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
         // rollovers not allowed!
         assert index + count <= rows : "Invalid robin index supplied: index=" + index +
                 ", count=" + count + LENGTH + rows;
-        for (int i = columns * index + column, c = 0; c < count; i += columns, c++)
-            writeDouble(i, newValues[c]);
+        if (singlePrecision) {
+            writeStridedFloat(columns * index + column, columns, newValues);
+        } else {
+            writeStridedDouble(columns * index + column, columns, newValues);
+        }
     }
 
     double get(int column, int index) throws IOException {
         assert index < rows : "Invalid index supplied: " + index + LENGTH + rows;
-        return readDouble(columns * index + column);
+        return singlePrecision ? readFloat(columns * index + column) : readDouble(columns * index + column);
     }
 
     double[] get(int column, int index, int count) throws IOException {
         assert index + count <= rows : "Invalid index/count supplied: " + index +
                 "/" + count + " (length=" + rows + ")";
-        double[] values = new double[count];
-        for (int i = columns * index + column, c = 0; c < count; i += columns, c++) {
-            values[c] = readDouble(i);
+        if (singlePrecision) {
+            return readStridedFloat(columns * index + column, columns, count);
+        } else {
+            return readStridedDouble(columns * index + column, columns, count);
+        }
+    }
+
+    /**
+     * Reads many columns at once, using contiguous reads of whole rows.
+     *
+     * @param selected the columns to read
+     * @param index the first row
+     * @param count the number of rows
+     * @param values the destination, one array for each selected column
+     * @param offset where to store the first row in the destination arrays
+     * @throws IOException if the read fails
+     */
+    void getRows(int[] selected, int index, int count, double[][] values, int offset) throws IOException {
+        assert index + count <= rows : "Invalid index/count supplied: " + index +
+                "/" + count + " (length=" + rows + ")";
+        // Rows are read by blocks, to keep the temporary array small
+        int blockRows = Math.max(1, ROWS_BLOCK_SIZE / columns);
+        for (int done = 0; done < count; done += blockRows) {
+            int length = Math.min(blockRows, count - done);
+            double[] block = singlePrecision ? readStridedFloat(columns * (index + done), 1, columns * length)
+                    : readDouble(columns * (index + done), columns * length);
+            for (int r = 0; r < length; r++) {
+                int rowStart = r * columns;
+                for (int c = 0; c < selected.length; c++) {
+                    values[c][offset + done + r] = block[rowStart + selected[c]];
+                }
+            }
         }
-        return values;
+    }
+
+    /**
+     * Returns a read-only view of whole rows, without copying them.
+     *
+     * @param index the first row
+     * @param count the number of rows
+     * @return the view, or null if the backend can't provide one or if the values are stored as floats
+     * @throws IOException if the backend fails
+     */
+    DoubleBuffer getRowsView(int index, int count) throws IOException {
+        assert index + count <= rows : "Invalid index/count supplied: " + index +
+                "/" + count + " (length=" + rows + ")";
+        return singlePrecision ? null : getDoubleView(columns * index, columns * count);
     }
 
     /**
@@ -76,4 +148,8 @@ class RrdDoubleMatrix<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
     public int getRows() {
         return rows;
     }
+
+    boolean isSinglePrecision() {
+        return singlePrecision;
+    }
 }
@@ -7,13 +7,13 @@ class RrdEnum<U extends RrdUpdater<U>, E extends Enum<E>> extends RrdPrimitive<U
     private E cache;
     private final Class<E> clazz;
 
-    RrdEnum(RrdUpdater<U> updater, boolean isConstant, Class<E> clazz) {
-        super(updater, RrdPrimitive.RRD_STRING, isConstant);
+    RrdEnum(RrdUpdater<U> updater, long pointer, boolean isConstant, Class<E> clazz) {
+        super(updater, RrdPrimitive.RRD_STRING, pointer, isConstant);
         this.clazz = clazz;
     }
 
-    RrdEnum(RrdUpdater<U> updater, Class<E> clazz) {
-        this(updater, false, clazz);
+    RrdEnum(RrdUpdater<U> updater, long pointer, Class<E> clazz) {
+        this(updater, pointer, false, clazz);
     }
 
     void set(E value) throws IOException {
@@ -0,0 +1,222 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A cache of images of empty RRDs, used to quickly create many RRDs with the same definition. The first RRD created
+ * for a definition is built in memory, and its bytes are kept. Each new RRD with the same datasources and archives
+ * is then a copy of these bytes, written at once, with only the fields depending on the start time modified.
+ * <p>
+ * It's used with {@link RrdDb.Builder#setImageCache(RrdImageCache)}:
+ * <pre>
+ * RrdImageCache cache = new RrdImageCache();
+ * for (RrdDef def: defs) {
+ *     try (RrdDb rrdDb = RrdDb.getBuilder().setRrdDef(def).setImageCache(cache).build()) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * or with {@link #createAll(Collection, RrdBackendFactory, int)} to create many RRDs in parallel.
+ *
+ * @since 3.10
+ */
+public class RrdImageCache {
+
+    /**
+     * The default number of images kept by a cache.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private static final class Image {
+        private final byte[] bytes;
+        private final long lastUpdateTimePointer;
+        private final long[] nanSecondsPointers;
+        private final long[] nanStepsPointers;
+        private final long[] arcSteps;
+
+        private Image(RrdDb rrdDb) throws IOException {
+            bytes = rrdDb.getBytes();
+            lastUpdateTimePointer = rrdDb.getHeader().getLastUpdateTimePointer();
+            nanSecondsPointers = new long[rrdDb.getDsCount()];
+            for (int i = 0; i < nanSecondsPointers.length; i++) {
+                nanSecondsPointers[i] = rrdDb.getDatasource(i).getNanSecondsPointer();
+            }
+            nanStepsPointers = new long[rrdDb.getDsCount() * rrdDb.getArcCount()];
+            arcSteps = new long[nanStepsPointers.length];
+            for (int i = 0; i < rrdDb.getArcCount(); i++) {
+                Archive archive = rrdDb.getArchive(i);
+                for (int j = 0; j < rrdDb.getDsCount(); j++) {
+                    nanStepsPointers[i * rrdDb.getDsCount() + j] = archive.getArcState(j).getNanStepsPointer();
+                    arcSteps[i * rrdDb.getDsCount() + j] = archive.getArcStep();
+                }
+            }
+        }
+
+        private byte[] stamp(long startTime, long step) {
+            byte[] copy = bytes.clone();
+            ByteBuffer buffer = ByteBuffer.wrap(copy).order(RrdBackend.BYTEORDER);
+            buffer.putLong((int) lastUpdateTimePointer, startTime);
+            for (long pointer : nanSecondsPointers) {
+                buffer.putLong((int) pointer, startTime % step);
+            }
+            for (int i = 0; i < nanStepsPointers.length; i++) {
+                buffer.putLong((int) nanStepsPointers[i], ArcState.getInitNanSteps(startTime, step, arcSteps[i]));
+            }
+            return copy;
+        }
+    }
+
+    private final Map<String, Image> images;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Creates a cache keeping {@link #DEFAULT_CAPACITY} images.
+     */
+    public RrdImageCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity the number of images kept, the least recently used are dropped first
+     */
+    public RrdImageCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        images = new LinkedHashMap<String, Image>(capacity + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the bytes of a new RRD for the given definition.
+     *
+     * @param rrdDef the definition
+     * @return the bytes to write
+     * @throws IOException if the image can't be built
+     */
+    byte[] getImage(RrdDef rrdDef) throws IOException {
+        String key = getKey(rrdDef);
+        Image image;
+        synchronized (this) {
+            image = images.get(key);
+            if (image == null) {
+                misses++;
+                image = buildImage(rrdDef);
+                images.put(key, image);
+            } else {
+                hits++;
+            }
+        }
+        return image.stamp(rrdDef.getStartTime(), rrdDef.getStep());
+    }
+
+    private static String getKey(RrdDef rrdDef) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(rrdDef.getVersion()).append(' ').append(rrdDef.getStep());
+        for (DsDef dsDef : rrdDef.getDsDefs()) {
+            // Not using dump(), it rounds the limits
+            sb.append(" DS:").append(dsDef.getDsName()).append(':').append(dsDef.getDsType())
+              .append(':').append(dsDef.getHeartbeat())
+              .append(':').append(dsDef.getMinValue()).append(':').append(dsDef.getMaxValue());
+        }
+        for (ArcDef arcDef : rrdDef.getArcDefs()) {
+            sb.append(' ').append(arcDef.dump());
+        }
+        return sb.toString();
+    }
+
+    private static Image buildImage(RrdDef rrdDef) throws IOException {
+        try (RrdMemoryBackendFactory factory = new RrdMemoryBackendFactory()) {
+            RrdDef template = new RrdDef(factory.getUri("template"), rrdDef.getStartTime(), rrdDef.getStep(), rrdDef.getVersion());
+            template.addDatasource(rrdDef.getDsDefs());
+            template.addArchive(rrdDef.getArcDefs());
+            try (RrdDb rrdDb = RrdDb.getBuilder().setRrdDef(template).setBackendFactory(factory).build()) {
+                return new Image(rrdDb);
+            }
+        }
+    }
+
+    /**
+     * Creates many RRDs in parallel, using this cache.
+     *
+     * @param rrdDefs the definitions of the RRDs
+     * @param factory the factory used to store them, or null to find it from their URI
+     * @param parallelism the number of threads used to create them
+     * @throws IOException the first I/O error encountered, the RRDs already created are kept
+     */
+    public void createAll(Collection<RrdDef> rrdDefs, RrdBackendFactory factory, int parallelism) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(rrdDefs.size());
+            for (RrdDef rrdDef : rrdDefs) {
+                futures.add(executor.submit(() -> {
+                    RrdDb.getBuilder().setRrdDef(rrdDef).setBackendFactory(factory).setImageCache(this).build().close();
+                    return null;
+                }));
+            }
+            Throwable error = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    } else {
+                        error.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RrdException("Interrupted while creating RRDs", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of RRDs created from an image already in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of images built
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of images in the cache
+     */
+    public synchronized int getSize() {
+        return images.size();
+    }
+
+}
@@ -6,12 +6,12 @@ class RrdInt<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
     private int cache;
     private boolean cached = false;
 
-    RrdInt(RrdUpdater<U> updater, boolean isConstant) {
-        super(updater, RrdPrimitive.RRD_INT, isConstant);
+    RrdInt(RrdUpdater<U> updater, long pointer, boolean isConstant) {
+        super(updater, RrdPrimitive.RRD_INT, pointer, isConstant);
     }
 
-    RrdInt(RrdUpdater<U> updater) {
-        this(updater, false);
+    RrdInt(RrdUpdater<U> updater, long pointer) {
+        this(updater, pointer, false);
     }
 
     void set(int value) throws IOException {
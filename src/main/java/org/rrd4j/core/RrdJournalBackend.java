@@ -0,0 +1,261 @@
+package org.rrd4j.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backend which stores RRD data in ordinary files, like {@link RrdRandomAccessFileBackend}, but protects the updates
+ * with a journal shared by all the RRDs of a {@link RrdJournalBackendFactory}. Objects of this class are created by
+ * the factory, see it for more details.
+ * <p>
+ * The bytes written are kept in memory until they are committed to the journal, at the end of each update. They are
+ * applied to the file later, when enough of them are pending or when the journal is checkpointed.
+ *
+ * @since 3.10
+ */
+public class RrdJournalBackend extends RrdRandomAccessFileBackend {
+
+    private static final int PAGE_SIZE = 4096;
+
+    private static final class Range {
+        final long offset;
+        final byte[] bytes;
+        // The sequence number of the journal record, once committed
+        long sequence = 0;
+        Range(long offset, byte[] bytes) {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+    }
+
+    private final RrdJournalBackendFactory factory;
+    private final boolean readOnly;
+    // A copy of the pages written and not yet applied to the file
+    private final Map<Long, byte[]> pages = new HashMap<>();
+    // Written since the last commit
+    private final List<Range> pending = new ArrayList<>();
+    // Committed in the journal, but not yet applied to the file
+    private final List<Range> committed = new ArrayList<>();
+    private long committedBytes = 0;
+    private long committedSequence = 0;
+
+    /**
+     * Creates a backend for the given file path.
+     *
+     * @param path     Path to a file
+     * @param readOnly True, if file should be open in a read-only mode. False otherwise
+     * @param factory  the factory that manages the journal
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected RrdJournalBackend(String path, boolean readOnly, RrdJournalBackendFactory factory) throws IOException {
+        super(path, readOnly);
+        this.readOnly = readOnly;
+        this.factory = factory;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The bytes are only written in memory, they will reach the file after being committed in the journal.
+     */
+    @Override
+    protected synchronized void write(long offset, byte[] b) throws IOException {
+        if (readOnly) {
+            throw new RrdBackendException("Read only backend " + getPath());
+        }
+        copyToPages(offset, b);
+        pending.add(new Range(offset, b.clone()));
+    }
+
+    private void copyToPages(long offset, byte[] b) throws IOException {
+        int done = 0;
+        while (done < b.length) {
+            long page = (offset + done) / PAGE_SIZE;
+            int pageOffset = (int) ((offset + done) % PAGE_SIZE);
+            int length = Math.min(b.length - done, PAGE_SIZE - pageOffset);
+            System.arraycopy(b, done, loadPage(page), pageOffset, length);
+            done += length;
+        }
+    }
+
+    private byte[] loadPage(long page) throws IOException {
+        byte[] content = pages.get(page);
+        if (content == null) {
+            content = new byte[PAGE_SIZE];
+            long position = page * PAGE_SIZE;
+            long available = Math.min(PAGE_SIZE, rafile.length() - position);
+            if (available > 0) {
+                rafile.seek(position);
+                rafile.readFully(content, 0, (int) available);
+            }
+            pages.put(page, content);
+        }
+        return content;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The bytes not yet applied to the file are read from memory.
+     */
+    @Override
+    public synchronized void read(long offset, byte[] b) throws IOException {
+        if (pages.isEmpty()) {
+            super.read(offset, b);
+            return;
+        }
+        int done = 0;
+        while (done < b.length) {
+            long page = (offset + done) / PAGE_SIZE;
+            int pageOffset = (int) ((offset + done) % PAGE_SIZE);
+            int length = Math.min(b.length - done, PAGE_SIZE - pageOffset);
+            byte[] content = pages.get(page);
+            if (content != null) {
+                System.arraycopy(content, pageOffset, b, done, length);
+            } else {
+                byte[] fromFile = new byte[length];
+                super.read(offset + done, fromFile);
+                System.arraycopy(fromFile, 0, b, done, length);
+            }
+            done += length;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Not allowed, the other columns of the rewritten block would be journaled with the values.
+     */
+    @Override
+    protected boolean isStridedBlockWriteAllowed() {
+        return false;
+    }
+
+    /**
+     * Commits the writes of the update in the journal, and waits until it's durable.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    @Override
+    protected void updateDone() throws IOException {
+        long sequence = commit();
+        if (sequence > 0) {
+            factory.sync(sequence);
+            if (shouldApply()) {
+                apply(sequence);
+            }
+        }
+    }
+
+    /**
+     * Discards the writes of the failed update, they never reach the journal. The pages kept in memory are rebuilt
+     * from the file and the writes already committed.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    @Override
+    protected synchronized void updateFailed() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        pending.clear();
+        pages.clear();
+        for (Range range : committed) {
+            copyToPages(range.offset, range.bytes);
+        }
+    }
+
+    /**
+     * Moves the pending writes to the journal.
+     *
+     * @return the sequence number of the record in the journal, 0 if nothing was written
+     */
+    private synchronized long commit() throws IOException {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(buffer)) {
+            record.writeUTF(getPath());
+            record.writeLong(rafile.length());
+            record.writeInt(pending.size());
+            for (Range range : pending) {
+                record.writeLong(range.offset);
+                record.writeInt(range.bytes.length);
+                record.write(range.bytes);
+                committedBytes += range.bytes.length;
+            }
+        }
+        // The record is not durable yet, the ranges are tagged with its sequence number so they are not applied
+        // before the journal is synced
+        long sequence = factory.append(buffer.toByteArray());
+        for (Range range : pending) {
+            range.sequence = sequence;
+        }
+        committed.addAll(pending);
+        pending.clear();
+        committedSequence = sequence;
+        return sequence;
+    }
+
+    private synchronized boolean shouldApply() {
+        return committedBytes > factory.getApplyThreshold();
+    }
+
+    /**
+     * Applies the committed writes that are durable in the journal to the file, and syncs it. The writes of the
+     * records not yet synced are kept in memory.
+     *
+     * @param maxSequence the sequence number of the last record synced in the journal
+     * @return true if all the writes are applied
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    synchronized boolean apply(long maxSequence) throws IOException {
+        int applied = 0;
+        while (applied < committed.size() && committed.get(applied).sequence <= maxSequence) {
+            Range range = committed.get(applied++);
+            super.write(range.offset, range.bytes);
+            committedBytes -= range.bytes.length;
+        }
+        if (applied > 0) {
+            rafile.getFD().sync();
+            committed.subList(0, applied).clear();
+        }
+        if (committed.isEmpty() && pending.isEmpty()) {
+            pages.clear();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    protected synchronized void setLength(long length) throws IOException {
+        super.setLength(length);
+        pages.clear();
+    }
+
+    @Override
+    protected void close() throws IOException {
+        try {
+            if (!readOnly) {
+                commit();
+                long sequence;
+                synchronized (this) {
+                    sequence = committedSequence;
+                }
+                factory.sync(sequence);
+                apply(sequence);
+            }
+        } finally {
+            factory.closed(this);
+            super.close();
+        }
+    }
+
+}
@@ -0,0 +1,308 @@
+package org.rrd4j.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Factory class which creates {@link org.rrd4j.core.RrdJournalBackend} objects. RRDs are stored in ordinary files,
+ * but each update is first appended as a single record to a journal shared by all the RRDs of the factory:
+ * <ul>
+ * <li>an update is durable once its record is synced in the journal, the RRD file is written later. A crash can't
+ * leave a RRD with a partial update.
+ * <li>concurrent updates are group committed, many records are synced with a single fsync.
+ * <li>the writes are applied to the RRD files when enough of them are pending in a RRD, when it's closed, or when the
+ * journal is checkpointed because it's too big.
+ * <li>when the factory is created, the records of an existing journal are replayed, so the RRD files contain all the
+ * durable updates.
+ * </ul>
+ * <p>
+ * A journal must be used by a single factory at once. RRD files written by this factory must not be modified by
+ * another one while the journal is not empty.
+ *
+ * @since 3.10
+ */
+@RrdBackendAnnotation(name="JOURNAL", shouldValidateHeader=true)
+public class RrdJournalBackendFactory extends RrdFileBackendFactory {
+
+    /**
+     * The default size of the journal that triggers a checkpoint, 64 MiB.
+     */
+    public static final long DEFAULT_CHECKPOINT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The default number of committed bytes in a RRD that triggers writing them in the file, 1 MiB.
+     */
+    public static final long DEFAULT_APPLY_THRESHOLD = 1024L * 1024;
+
+    private final FileChannel channel;
+    private final long checkpointSize;
+    private final long applyThreshold;
+    private final Set<RrdJournalBackend> openBackends = ConcurrentHashMap.newKeySet();
+
+    // Records appended but not yet written, guarded by this
+    private ByteBuffer appendBuffer = ByteBuffer.allocate(64 * 1024);
+    private long appendedSequence = 0;
+
+    // Serializes the journal writes, the syncs and the checkpoints
+    private final Object syncLock = new Object();
+    private long syncedSequence = 0;
+    private long journalSize = 0;
+    private long syncCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a factory with the given journal file, replaying it if it exists.
+     *
+     * @param journal the journal file
+     * @throws java.io.IOException if the journal can't be replayed or opened
+     */
+    public RrdJournalBackendFactory(Path journal) throws IOException {
+        this(journal, DEFAULT_CHECKPOINT_SIZE, DEFAULT_APPLY_THRESHOLD);
+    }
+
+    /**
+     * Creates a factory with the given journal file, replaying it if it exists.
+     *
+     * @param journal the journal file
+     * @param checkpointSize the size of the journal that triggers a checkpoint
+     * @param applyThreshold the number of committed bytes in a RRD that triggers writing them in the file
+     * @throws java.io.IOException if the journal can't be replayed or opened
+     */
+    public RrdJournalBackendFactory(Path journal, long checkpointSize, long applyThreshold) throws IOException {
+        this.checkpointSize = checkpointSize;
+        this.applyThreshold = applyThreshold;
+        if (Files.exists(journal)) {
+            replay(journal);
+        }
+        channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    /**
+     * Applies the records of a journal to the RRD files. The replay stops at the first incomplete or corrupted record,
+     * the update it contains was never acknowledged.
+     *
+     * @param journal the journal to replay
+     * @return the number of records replayed
+     * @throws java.io.IOException if a RRD can't be written
+     */
+    static int replay(Path journal) throws IOException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    long crc = in.readInt() & 0xFFFFFFFFL;
+                    if (length < 0) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    CRC32 checksum = new CRC32();
+                    checksum.update(record);
+                    if (checksum.getValue() != crc) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                applyRecord(record);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void applyRecord(byte[] record) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            String path = in.readUTF();
+            long length = in.readLong();
+            try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+                if (file.length() < length) {
+                    file.setLength(length);
+                }
+                int ranges = in.readInt();
+                for (int i = 0; i < ranges; i++) {
+                    long offset = in.readLong();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    file.seek(offset);
+                    file.write(bytes);
+                }
+                file.getFD().sync();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates RrdJournalBackend object for the given file path.
+     */
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal factory closed");
+        }
+        RrdJournalBackend backend = newBackend(path, readOnly);
+        if (!readOnly) {
+            openBackends.add(backend);
+        }
+        return backend;
+    }
+
+    RrdJournalBackend newBackend(String path, boolean readOnly) throws IOException {
+        return new RrdJournalBackend(path, readOnly, this);
+    }
+
+    void closed(RrdJournalBackend backend) {
+        openBackends.remove(backend);
+    }
+
+    long getApplyThreshold() {
+        return applyThreshold;
+    }
+
+    /**
+     * Adds a record to the journal. It's not yet durable.
+     *
+     * @return the sequence number of the record, to be used with {@link #sync(long)}
+     */
+    synchronized long append(byte[] record) {
+        int needed = record.length + 8;
+        if (appendBuffer.remaining() < needed) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(appendBuffer.capacity() * 2, appendBuffer.position() + needed));
+            appendBuffer.flip();
+            newBuffer.put(appendBuffer);
+            appendBuffer = newBuffer;
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(record);
+        appendBuffer.putInt(record.length);
+        appendBuffer.putInt((int) checksum.getValue());
+        appendBuffer.put(record);
+        return ++appendedSequence;
+    }
+
+    private synchronized long drain(ByteBuffer[] drained) {
+        appendBuffer.flip();
+        drained[0] = appendBuffer;
+        appendBuffer = ByteBuffer.allocate(Math.max(64 * 1024, appendBuffer.capacity() / 2));
+        return appendedSequence;
+    }
+
+    /**
+     * Waits until a record is durable. The first waiting thread writes and syncs all the appended records, the
+     * other ones are released by the same sync.
+     *
+     * @param sequence the sequence number of the record
+     * @throws java.io.IOException if the journal can't be written
+     */
+    void sync(long sequence) throws IOException {
+        boolean checkpoint;
+        synchronized (syncLock) {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            if (closed) {
+                throw new IllegalStateException("Journal factory closed");
+            }
+            flush();
+            checkpoint = journalSize > checkpointSize;
+        }
+        if (checkpoint) {
+            checkpoint();
+        }
+    }
+
+    // Must be called with the syncLock held
+    private void flush() throws IOException {
+        ByteBuffer[] drained = new ByteBuffer[1];
+        long sequence = drain(drained);
+        if (sequence > syncedSequence) {
+            while (drained[0].hasRemaining()) {
+                journalSize += channel.write(drained[0]);
+            }
+            channel.force(false);
+            syncCount++;
+            syncedSequence = sequence;
+        }
+    }
+
+    /**
+     * Writes all the committed updates in the RRD files. The journal is emptied if no RRD is in the middle of an
+     * update, and no record was committed since it was synced.
+     *
+     * @throws java.io.IOException if a RRD or the journal can't be written
+     */
+    public void checkpoint() throws IOException {
+        synchronized (syncLock) {
+            if (closed) {
+                return;
+            }
+            // Only the records synced in the journal are applied, the ones committed since then are kept
+            flush();
+            boolean complete = true;
+            for (RrdJournalBackend backend : openBackends) {
+                complete &= backend.apply(syncedSequence);
+            }
+            if (complete) {
+                channel.truncate(0);
+                channel.position(0);
+                channel.force(true);
+                journalSize = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the current size of the journal, in bytes
+     */
+    public long getJournalSize() {
+        synchronized (syncLock) {
+            return journalSize;
+        }
+    }
+
+    /**
+     * @return the number of syncs of the journal since the factory was created. With group commit, it can be smaller
+     * than the number of updates.
+     */
+    public long getSyncCount() {
+        synchronized (syncLock) {
+            return syncCount;
+        }
+    }
+
+    /**
+     * Checkpoints the journal and closes it.
+     *
+     * @throws java.io.IOException if a RRD or the journal can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            if (closed) {
+                return;
+            }
+            checkpoint();
+            closed = true;
+            channel.close();
+        }
+    }
+
+}
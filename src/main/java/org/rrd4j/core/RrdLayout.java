@@ -0,0 +1,272 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The offsets of all the fields of a RRD. They depend only on its structure: the version, the number of datasources,
+ * and the steps and rows of each archive. A layout is computed once for each structure and shared by all the RRDs
+ * having it, so opening a RRD doesn't compute them again, and the archive states don't need an object for each
+ * field.
+ * <p>
+ * Instances are immutable and interned, up to {@link #MAX_INTERNED} structures.
+ *
+ * @since 3.10
+ */
+final class RrdLayout {
+
+    /**
+     * The maximum number of different structures kept. Layouts for the other structures are computed each time.
+     */
+    static final int MAX_INTERNED = 4096;
+
+    // Header fields, the same in all the versions
+    static final long SIGNATURE = 0;
+    static final long STEP = SIGNATURE + 2L * RrdPrimitive.STRING_LENGTH;
+    static final long DS_COUNT = STEP + 8;
+    static final long ARC_COUNT = DS_COUNT + 4;
+    static final long LAST_UPDATE_TIME = ARC_COUNT + 4;
+    static final long HEADER_SIZE = LAST_UPDATE_TIME + 8;
+
+    // Datasource definition fields, relative to the definition offset
+    static final long DS_NAME = 0;
+    static final long DS_TYPE = DS_NAME + 2L * RrdPrimitive.STRING_LENGTH;
+    static final long HEARTBEAT = DS_TYPE + 2L * RrdPrimitive.STRING_LENGTH;
+    static final long MIN_VALUE = HEARTBEAT + 8;
+    static final long MAX_VALUE = MIN_VALUE + 8;
+    static final long DS_DEFINITION_SIZE = MAX_VALUE + 8;
+
+    // Datasource state fields, relative to the state offset
+    static final long LAST_VALUE = 0;
+    static final long DS_ACCUM_VALUE = LAST_VALUE + 8;
+    static final long NAN_SECONDS = DS_ACCUM_VALUE + 8;
+    static final long DS_STATE_SIZE = NAN_SECONDS + 8;
+
+    // Archive definition fields, relative to the definition offset
+    static final long CONSOL_FUN = 0;
+    static final long XFF = CONSOL_FUN + 2L * RrdPrimitive.STRING_LENGTH;
+    static final long STEPS = XFF + 8;
+    static final long ROWS = STEPS + 4;
+    static final long ARC_DEFINITION_SIZE = ROWS + 4;
+
+    // Archive state fields of a datasource, relative to the state offset; the robin pointer is stored apart
+    static final long ARC_ACCUM_VALUE = 0;
+    static final long NAN_STEPS = ARC_ACCUM_VALUE + 8;
+    static final long ARC_STATE_SIZE = NAN_STEPS + 8;
+    static final long ROBIN_POINTER_SIZE = 4;
+
+    private static final ConcurrentMap<Key, RrdLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+    private static final class Key {
+        private final int version;
+        private final int dsCount;
+        private final int[] steps;
+        private final int[] rows;
+        private final int hash;
+
+        private Key(int version, int dsCount, int[] steps, int[] rows) {
+            this.version = version;
+            this.dsCount = dsCount;
+            this.steps = steps;
+            this.rows = rows;
+            this.hash = 31 * (31 * (31 * version + dsCount) + Arrays.hashCode(steps)) + Arrays.hashCode(rows);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return version == other.version && dsCount == other.dsCount
+                    && Arrays.equals(steps, other.steps) && Arrays.equals(rows, other.rows);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final Key key;
+    private final long[] dsDefinitions;
+    private final long[] dsStates;
+    private final long[] arcDefinitions;
+    // indexed by arcIndex * dsCount + dsIndex
+    private final long[] arcStates;
+    private final long[] robinPointers;
+    // one array of values for each robin in the version 1, one matrix for each archive otherwise
+    private final long[] robinValues;
+
+    private RrdLayout(Key key) {
+        this.key = key;
+        int dsCount = key.dsCount;
+        int arcCount = key.rows.length;
+        RrdAllocator allocator = new RrdAllocator();
+        allocator.allocate(HEADER_SIZE);
+        allocator.layout(key.version, dsCount, arcCount);
+        dsDefinitions = new long[dsCount];
+        dsStates = new long[dsCount];
+        for (int i = 0; i < dsCount; i++) {
+            dsDefinitions[i] = allocator.allocate(DS_DEFINITION_SIZE);
+            dsStates[i] = allocator.allocate(DS_STATE_SIZE, RrdAllocator.STATE);
+        }
+        arcDefinitions = new long[arcCount];
+        arcStates = new long[arcCount * dsCount];
+        robinPointers = new long[arcCount * dsCount];
+        robinValues = new long[key.version == 1 ? arcCount * dsCount : arcCount];
+        int valueSize = RrdPrimitive.RRD_PRIM_SIZES[key.version == 3 ? RrdPrimitive.RRD_FLOAT : RrdPrimitive.RRD_DOUBLE];
+        for (int i = 0; i < arcCount; i++) {
+            arcDefinitions[i] = allocator.allocate(ARC_DEFINITION_SIZE);
+            for (int j = 0; j < dsCount; j++) {
+                int k = i * dsCount + j;
+                if (key.version == 1) {
+                    arcStates[k] = allocator.allocate(ARC_STATE_SIZE);
+                    robinPointers[k] = allocator.allocate(ROBIN_POINTER_SIZE);
+                    robinValues[k] = allocator.allocate((long) valueSize * key.rows[i]);
+                } else {
+                    robinPointers[k] = allocator.allocate(ROBIN_POINTER_SIZE, RrdAllocator.STATE);
+                    arcStates[k] = allocator.allocate(ARC_STATE_SIZE, RrdAllocator.STATE);
+                }
+            }
+            if (key.version != 1) {
+                robinValues[i] = allocator.allocate((long) valueSize * key.rows[i] * dsCount, RrdAllocator.VALUES);
+            }
+        }
+    }
+
+    private static RrdLayout get(Key key) {
+        RrdLayout layout = LAYOUTS.get(key);
+        if (layout == null) {
+            layout = new RrdLayout(key);
+            if (LAYOUTS.size() < MAX_INTERNED) {
+                RrdLayout previous = LAYOUTS.putIfAbsent(key, layout);
+                if (previous != null) {
+                    layout = previous;
+                }
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Returns the layout of a RRD structure.
+     *
+     * @param version the RRD version
+     * @param dsCount the number of datasources
+     * @param steps the steps of each archive
+     * @param rows the rows of each archive
+     * @return the shared layout, which keeps the arrays
+     */
+    static RrdLayout get(int version, int dsCount, int[] steps, int[] rows) {
+        return get(new Key(version, dsCount, steps, rows));
+    }
+
+    /**
+     * Returns the layout of a new RRD.
+     *
+     * @param rrdDef the definition of the RRD
+     * @return the shared layout
+     */
+    static RrdLayout get(RrdDef rrdDef) {
+        ArcDef[] arcDefs = rrdDef.getArcDefs();
+        int[] steps = new int[arcDefs.length];
+        int[] rows = new int[arcDefs.length];
+        for (int i = 0; i < arcDefs.length; i++) {
+            steps[i] = arcDefs[i].getSteps();
+            rows[i] = arcDefs[i].getRows();
+        }
+        return get(new Key(rrdDef.getVersion(), rrdDef.getDsCount(), steps, rows));
+    }
+
+    /**
+     * Reads the structure of an existing RRD and returns its layout. Only the steps and rows of each archive are read,
+     * the position of each archive definition is found from the previous ones.
+     *
+     * @param backend the backend of the RRD
+     * @param version the RRD version, from its header
+     * @param dsCount the number of datasources, from its header
+     * @param arcCount the number of archives, from its header
+     * @return the shared layout
+     * @throws IOException if the archive definitions can't be read
+     */
+    static RrdLayout read(RrdBackend backend, int version, int dsCount, int arcCount) throws IOException {
+        int[] steps = new int[arcCount];
+        int[] rows = new int[arcCount];
+        long definition;
+        if (version == 4) {
+            definition = HEADER_SIZE + RrdAllocator.getStateSize(dsCount, arcCount) + DS_DEFINITION_SIZE * dsCount;
+        } else {
+            definition = HEADER_SIZE + (DS_DEFINITION_SIZE + DS_STATE_SIZE) * dsCount;
+        }
+        for (int i = 0; i < arcCount; i++) {
+            steps[i] = backend.readInt(definition + STEPS);
+            rows[i] = backend.readInt(definition + ROWS);
+            if (rows[i] <= 0 || steps[i] <= 0) {
+                throw new InvalidRrdException("Invalid archive " + i + " in " + backend.getPath() + ": steps=" + steps[i] + ", rows=" + rows[i]);
+            }
+            definition += ARC_DEFINITION_SIZE;
+            if (version == 1) {
+                definition += (ARC_STATE_SIZE + ROBIN_POINTER_SIZE + 8L * rows[i]) * dsCount;
+            } else if (version != 4) {
+                int valueSize = version == 3 ? 4 : 8;
+                definition += (ARC_STATE_SIZE + ROBIN_POINTER_SIZE + (long) valueSize * rows[i]) * dsCount;
+            }
+        }
+        return get(new Key(version, dsCount, steps, rows));
+    }
+
+    int getVersion() {
+        return key.version;
+    }
+
+    int getDsCount() {
+        return key.dsCount;
+    }
+
+    int getArcCount() {
+        return key.rows.length;
+    }
+
+    int getSteps(int arcIndex) {
+        return key.steps[arcIndex];
+    }
+
+    int getRows(int arcIndex) {
+        return key.rows[arcIndex];
+    }
+
+    long getDsDefinition(int dsIndex) {
+        return dsDefinitions[dsIndex];
+    }
+
+    long getDsState(int dsIndex) {
+        return dsStates[dsIndex];
+    }
+
+    long getArcDefinition(int arcIndex) {
+        return arcDefinitions[arcIndex];
+    }
+
+    long getArcState(int arcIndex, int dsIndex) {
+        return arcStates[arcIndex * key.dsCount + dsIndex];
+    }
+
+    long getRobinPointer(int arcIndex, int dsIndex) {
+        return robinPointers[arcIndex * key.dsCount + dsIndex];
+    }
+
+    /**
+     * Returns where the values of a robin are stored.
+     *
+     * @param arcIndex the archive index
+     * @param dsIndex the datasource index
+     * @return the offset of the robin array in the version 1, the offset of the archive matrix otherwise
+     */
+    long getRobinValues(int arcIndex, int dsIndex) {
+        return key.version == 1 ? robinValues[arcIndex * key.dsCount + dsIndex] : robinValues[arcIndex];
+    }
+
+}
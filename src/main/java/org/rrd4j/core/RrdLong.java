@@ -6,12 +6,12 @@ class RrdLong<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
     private long cache;
     private boolean cached = false;
 
-    RrdLong(RrdUpdater<U> updater, boolean isConstant) {
-        super(updater, RrdPrimitive.RRD_LONG, isConstant);
+    RrdLong(RrdUpdater<U> updater, long pointer, boolean isConstant) {
+        super(updater, RrdPrimitive.RRD_LONG, pointer, isConstant);
     }
 
-    RrdLong(RrdUpdater<U> updater) {
-        this(updater, false);
+    RrdLong(RrdUpdater<U> updater, long pointer) {
+        this(updater, pointer, false);
     }
 
     void set(long value) throws IOException {
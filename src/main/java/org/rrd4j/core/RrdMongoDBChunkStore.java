@@ -0,0 +1,89 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * A {@link RrdChunkStore} that keeps each chunk in a document of a MongoDB collection, in the form
+ * <code>{path: ..., chunk: index, data: bytes}</code>. The chunks of an update are written with a single unordered
+ * bulk of upserts.
+ * <p>
+ * Each chunk is written atomically, but not the whole set of chunks of an update.
+ *
+ * @since 3.10
+ */
+public class RrdMongoDBChunkStore implements RrdChunkStore {
+
+    private static final String PATH = "path";
+    private static final String CHUNK = "chunk";
+    private static final String DATA = "data";
+
+    private final MongoCollection<DBObject> chunkCollection;
+
+    /**
+     * Creates a store, and makes sure that the collection has a unique index on the path and the chunk index.
+     *
+     * @param chunkCollection the collection to use for storing chunks
+     */
+    public RrdMongoDBChunkStore(MongoCollection<DBObject> chunkCollection) {
+        this.chunkCollection = chunkCollection;
+        chunkCollection.createIndex(new BasicDBObject(PATH, 1).append(CHUNK, 1), new IndexOptions().unique(true));
+    }
+
+    @Override
+    public byte[][] load(String path) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        try {
+            for (DBObject document : chunkCollection.find(new BasicDBObject(PATH, path)).sort(new BasicDBObject(CHUNK, 1))) {
+                int index = ((Number) document.get(CHUNK)).intValue();
+                if (index != chunks.size()) {
+                    throw new RrdBackendException("Missing chunk " + chunks.size() + " of RRD " + path);
+                }
+                chunks.add((byte[]) document.get(DATA));
+            }
+        } catch (MongoException e) {
+            throw new RrdBackendException("Can't read RRD " + path, e);
+        }
+        return chunks.isEmpty() ? null : chunks.toArray(new byte[0][]);
+    }
+
+    @Override
+    public void store(String path, Map<Integer, byte[]> chunks, int chunkCount) throws IOException {
+        List<WriteModel<DBObject>> writes = new ArrayList<>(chunks.size() + 1);
+        ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+        for (Map.Entry<Integer, byte[]> e : chunks.entrySet()) {
+            DBObject document = new BasicDBObject(PATH, path).append(CHUNK, e.getKey()).append(DATA, e.getValue());
+            writes.add(new ReplaceOneModel<>(new BasicDBObject(PATH, path).append(CHUNK, e.getKey()), document, upsert));
+        }
+        writes.add(new DeleteManyModel<>(new BasicDBObject(PATH, path).append(CHUNK, new BasicDBObject("$gte", chunkCount))));
+        try {
+            chunkCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        } catch (MongoException e) {
+            throw new RrdBackendException("Can't write RRD " + path, e);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) throws IOException {
+        try {
+            return chunkCollection.countDocuments(new BasicDBObject(PATH, path), new CountOptions().limit(1)) != 0;
+        } catch (MongoException e) {
+            throw new RrdBackendException("Can't read RRD " + path, e);
+        }
+    }
+
+}
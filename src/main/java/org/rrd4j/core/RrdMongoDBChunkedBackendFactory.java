@@ -0,0 +1,72 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+
+import com.mongodb.DBObject;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+
+/**
+ * <p>{@link org.rrd4j.core.RrdBackendFactory} that uses <a href="http://www.mongodb.org/">MongoDB</a> for data storage,
+ * with each RRD split in chunks stored in separate documents by a {@link RrdMongoDBChunkStore}.</p>
+ *
+ * <p>Unlike {@link RrdMongoDBNewBackendFactory}, that replaces the whole RRD each time it's modified, only the chunks
+ * holding modified bytes are written when a RRD is closed. See {@link RrdChunkedBackendFactory} for the details.</p>
+ *
+ * <pre>
+ * MongoClient mongoClient = ...
+ * MongoCollection&lt;DBObject&gt; collection = ...
+ * RrdBackendFactory factory = new RrdMongoDBChunkedBackendFactory(mongoClient, collection);
+ * RrdBackendFactory.setActiveFactories(factory);
+ * RrdDef def = new RrdDef(factory.getUri(...));
+ * </pre>
+ *
+ * <p>A mongo factory is in the form <code>mongodb://host:port/dbName/collectionName/</code></p>
+ *
+ * @since 3.10
+ */
+@RrdBackendAnnotation(name="MONGODBCHUNKED", shouldValidateHeader=false, scheme = "mongodb")
+public class RrdMongoDBChunkedBackendFactory extends RrdMongoDBNewBackendFactory {
+
+    private final RrdChunkStore store;
+    private final int chunkSize;
+
+    /**
+     * Creates a factory using chunks of {@link RrdChunkedBackendFactory#DEFAULT_CHUNK_SIZE} bytes.
+     *
+     * @param client the client connection
+     * @param chunkCollection the collection to use for storing the chunks
+     */
+    public RrdMongoDBChunkedBackendFactory(MongoClient client, MongoCollection<DBObject> chunkCollection) {
+        this(client, chunkCollection, RrdChunkedBackendFactory.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param client the client connection
+     * @param chunkCollection the collection to use for storing the chunks
+     * @param chunkSize the size of the chunks, in bytes
+     */
+    public RrdMongoDBChunkedBackendFactory(MongoClient client, MongoCollection<DBObject> chunkCollection, int chunkSize) {
+        super(client, chunkCollection);
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Illegal chunk size: " + chunkSize);
+        }
+        this.store = new RrdMongoDBChunkStore(chunkCollection);
+        this.chunkSize = chunkSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        return new RrdChunkedBackend(path, store, chunkSize, readOnly);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean exists(String path) throws IOException {
+        return store.exists(path);
+    }
+
+}
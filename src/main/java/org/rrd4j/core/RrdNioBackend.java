@@ -9,6 +9,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
@@ -27,6 +28,8 @@ public class RrdNioBackend extends ByteBufferBackend implements RrdFileBackend {
     // The java 9+ methods
     private static final Method invokeCleaner;
     private static final Object unsafe;
+    // The java 13+ ranged force
+    private static final Method forceRange;
     static {
         // Temporary variable, because destinations variables are final
         // And it interferes with exceptions
@@ -58,17 +61,32 @@ public class RrdNioBackend extends ByteBufferBackend implements RrdFileBackend {
             invokeCleanerTemp = null;
             unsafeTemp = null;
         }
+        Method forceRangeTemp;
+        try {
+            forceRangeTemp = MappedByteBuffer.class.getMethod("force", int.class, int.class);
+        } catch (NoSuchMethodException | SecurityException e) {
+            forceRangeTemp = null;
+        }
+        forceRange = forceRangeTemp;
         cleanerMethod = cleanerMethodTemp;
         cleanMethod = cleanMethodTemp;
         invokeCleaner = invokeCleanerTemp;
         unsafe = unsafeTemp;
     }
 
-    private MappedByteBuffer byteBuffer;
+    /**
+     * Files bigger than 2 GiB are mapped in chunks of 1 GiB.
+     */
+    static final int CHUNK_SHIFT = 30;
+
+    private MappedByteBuffer[] mappings;
     private final FileChannel file;
     private final boolean readOnly;
+    private final RrdNioBackendFactory mappingFactory;
+    private long mappedLength = 0;
 
     private ScheduledFuture<?> syncRunnableHandle = null;
+    private long reportedDirtyBytes = 0;
 
     /**
      * Creates RrdFileBackend object for the given file path, backed by java.nio.* classes.
@@ -80,7 +98,25 @@ public class RrdNioBackend extends ByteBufferBackend implements RrdFileBackend {
      * @param threadPool a {@link org.rrd4j.core.RrdSyncThreadPool} object, it can be null.
      */
     protected RrdNioBackend(String path, boolean readOnly, RrdSyncThreadPool threadPool, int syncPeriod) throws IOException {
+        this(path, readOnly, threadPool, syncPeriod, null);
+    }
+
+    /**
+     * Creates RrdFileBackend object for the given file path, backed by java.nio.* classes, whose mapped bytes are
+     * accounted by a factory.
+     *
+     * @param path       Path to a file
+     * @param readOnly   True, if file should be open in a read-only mode. False otherwise
+     * @param threadPool a {@link org.rrd4j.core.RrdSyncThreadPool} object, it can be null.
+     * @param syncPeriod See {@link org.rrd4j.core.RrdNioBackendFactory#setSyncPeriod(int)} for explanation
+     * @param mappingFactory the factory accounting the mapped bytes, it can be null.
+     * @throws java.io.IOException Thrown in case of I/O error
+     * @since 3.10
+     */
+    protected RrdNioBackend(String path, boolean readOnly, RrdSyncThreadPool threadPool, int syncPeriod,
+                            RrdNioBackendFactory mappingFactory) throws IOException {
         super(path);
+        this.mappingFactory = mappingFactory;
         Set<StandardOpenOption> options = new HashSet<>(3);
         options.add(StandardOpenOption.READ);
         options.add(StandardOpenOption.CREATE);
@@ -114,36 +150,98 @@ public class RrdNioBackend extends ByteBufferBackend implements RrdFileBackend {
         if (length > 0) {
             FileChannel.MapMode mapMode =
                     readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
-            byteBuffer = file.map(mapMode, 0, length);
-            setByteBuffer(byteBuffer);
+            int chunkShift = length > Integer.MAX_VALUE ? CHUNK_SHIFT : MAX_CHUNK_SHIFT;
+            long chunkSize = 1L << chunkShift;
+            int chunkCount = (int) ((length + chunkSize - 1) >>> chunkShift);
+            if (mappingFactory != null) {
+                mappingFactory.mapping(this, length);
+            }
+            mappedLength = length;
+            mappings = new MappedByteBuffer[chunkCount];
+            try {
+                for (int i = 0; i < chunkCount; i++) {
+                    long position = i * chunkSize;
+                    mappings[i] = file.map(mapMode, position, Math.min(chunkSize, length - position));
+                }
+            } catch (IOException | RuntimeException ex) {
+                unmapFile();
+                throw ex;
+            }
+            setByteBuffers(mappings, chunkShift);
         }
     }
 
     private void unmapFile() {
-        if (byteBuffer != null && byteBuffer.isDirect()) {
+        if (mappings != null) {
+            for (MappedByteBuffer mapping : mappings) {
+                unmap(mapping);
+            }
+            mappings = null;
+            if (mappingFactory != null) {
+                mappingFactory.unmapped(this, mappedLength);
+            }
+            mappedLength = 0;
+        }
+    }
+
+    /**
+     * @return true if the file is not mapped, because it was released or because it's empty
+     */
+    boolean isUnmapped() {
+        return mappings == null;
+    }
+
+    /**
+     * Maps again a file released by {@link #release()}.
+     */
+    synchronized void remap() throws IOException {
+        if (mappings == null) {
+            mapFile(file.size());
+        }
+    }
+
+    /**
+     * Syncs and unmaps the file, to release the mapped memory. The caller must ensure that the backend is not
+     * accessed until {@link #remap()} is called.
+     */
+    synchronized void release() {
+        if (!readOnly) {
+            sync();
+        }
+        unmapFile();
+    }
+
+    /**
+     * Release a mapping or a direct buffer without waiting for the garbage collector. The buffer must not be used any
+     * more, and must not be a slice or a duplicate.
+     *
+     * @param buffer the buffer to unmap, can be null
+     */
+    static void unmap(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect()) {
             try {
                 if (cleanMethod != null) {
-                    Object cleaner = cleanerMethod.invoke(byteBuffer);
-                    cleanMethod.invoke(cleaner);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleanMethod.invoke(cleaner);
+                    }
                 } else {
-                    invokeCleaner.invoke(unsafe, byteBuffer);
+                    invokeCleaner.invoke(unsafe, buffer);
                 }
             } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
                 throw new RuntimeException(ex);
             }
         }
-        byteBuffer = null;
     }
 
     /**
      * {@inheritDoc}
      *
      * Sets length of the underlying RRD file. This method is called only once, immediately
-     * after a new RRD file gets created.
-     * @throws java.lang.IllegalArgumentException if the length is bigger that the possible mapping position (2GiB).
+     * after a new RRD file gets created. Files bigger than 2 GiB are mapped in many chunks.
      */
     protected synchronized void setLength(long newLength) throws IOException {
-        if (newLength < 0 || newLength > Integer.MAX_VALUE) {
+        if (newLength < 0) {
             throw new IllegalArgumentException("Illegal offset: " + newLength);
         }
 
@@ -176,11 +274,77 @@ public class RrdNioBackend extends ByteBufferBackend implements RrdFileBackend {
     /**
      * This method forces all data cached in memory but not yet stored in the file,
      * to be stored in it.
+     * <p>
+     * Only the pages written since the previous sync are forced when the JVM provides
+     * {@code MappedByteBuffer.force(int, int)}, the whole mapping otherwise.
      */
     protected synchronized void sync() {
-        if (byteBuffer != null) {
-            byteBuffer.force();
+        if (mappings != null) {
+            BitSet pages = takeDirtyPages();
+            long flushed;
+            if (mappings.length == 1) {
+                flushed = force(mappings[0], 0, mappings[0].capacity(), pages, getPageSize());
+            } else {
+                // Chunks are a multiple of the page size, split the dirty pages by chunk
+                int chunkPages = (1 << CHUNK_SHIFT) / getPageSize();
+                flushed = 0;
+                for (int i = 0; i < mappings.length; i++) {
+                    BitSet chunkDirtyPages = pages.get(i * chunkPages, (i + 1) * chunkPages);
+                    flushed += force(mappings[i], 0, mappings[i].capacity(), chunkDirtyPages, getPageSize());
+                }
+            }
+            addFlushedBytes(flushed);
+            long dirtyBytes = getDirtyBytes();
+            if (getFactory() instanceof RrdNioBackendFactory) {
+                ((RrdNioBackendFactory) getFactory()).addSyncStats(dirtyBytes - reportedDirtyBytes, flushed);
+            }
+            reportedDirtyBytes = dirtyBytes;
+        }
+    }
+
+    static boolean isRangedForceAvailable() {
+        return forceRange != null;
+    }
+
+    /**
+     * Forces the dirty pages of a region of a mapped buffer. If the ranged force is not available, the whole buffer
+     * is forced when any page is dirty.
+     *
+     * @param buffer the mapped buffer
+     * @param regionStart the offset of the region in the buffer
+     * @param regionLength the length of the region
+     * @param pages the dirty pages, relative to the start of the region
+     * @param pageSize the size of the dirty pages
+     * @return the number of bytes flushed
+     */
+    static long force(MappedByteBuffer buffer, int regionStart, int regionLength, BitSet pages, int pageSize) {
+        if (pages.isEmpty()) {
+            return 0;
+        } else if (forceRange == null) {
+            buffer.force();
+            return buffer.capacity();
+        }
+        long flushed = 0;
+        int start = pages.nextSetBit(0);
+        while (start >= 0) {
+            int end = pages.nextClearBit(start);
+            int index = start * pageSize;
+            int length = (int) Math.min((long) end * pageSize, regionLength) - index;
+            try {
+                forceRange.invoke(buffer, regionStart + index, length);
+            } catch (IllegalAccessException | IllegalArgumentException ex) {
+                throw new RuntimeException(ex);
+            } catch (InvocationTargetException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                } else {
+                    throw new RuntimeException(ex.getCause());
+                }
+            }
+            flushed += length;
+            start = pages.nextSetBit(end);
         }
+        return flushed;
     }
 
     @Override
@@ -1,7 +1,10 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Factory class which creates actual {@link org.rrd4j.core.RrdNioBackend} objects. This is the default factory since
@@ -12,6 +15,19 @@ import java.util.concurrent.ScheduledExecutorService;
  * destroy thread pools at the appropriate time in their application's life time. Failure to manage thread pools
  * appropriately may lead to the thread pool hanging around longer than necessary, which in turn may cause memory leaks.</p>
  * <p>if sync period is negative, no sync thread will be launched</p>
+ * <h2>Write amplification</h2>
+ * <p>The backends only force the pages modified since the previous sync. The number of bytes written by the
+ * backends and the number of bytes flushed to disk, summed over all the backends created by this factory,
+ * are available using {@link #getDirtyBytes()} and {@link #getFlushedBytes()}. They are updated on each sync.</p>
+ * <h2>Mapped memory</h2>
+ * <p>Each backend maps its whole file while it's open. The bytes mapped by the backends of this factory are available
+ * using {@link #getMappedBytes()} and {@link #getPeakMappedBytes()}. They can be limited with
+ * {@link #setMappedBytesLimit(long)}: when mapping a file would exceed the limit, the mappings of idle backends are
+ * synced and released, and they are mapped again on their next access. The victims are chosen with the clock
+ * algorithm: the mapped backends are scanned in the order they were mapped, and a backend accessed since the previous
+ * scan gets a second chance, it's skipped and goes back to the end of the scan. It approximates the least recently used
+ * order without tracking each access. The limit only applies to the backends opened after it's set, and can still be
+ * exceeded if no backend is idle.</p>
  *
  */
 @RrdBackendAnnotation(name="NIO", shouldValidateHeader=true)
@@ -82,6 +98,17 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
      */
     private RrdSyncThreadPool syncThreadPool;
 
+    private final LongAdder dirtyBytes = new LongAdder();
+    private final LongAdder flushedBytes = new LongAdder();
+
+    // The mapped memory accounting, guarded by this
+    private long mappedBytesLimit = 0;
+    private long mappedBytes = 0;
+    private long peakMappedBytes = 0;
+    private long releasedMappings = 0;
+    // The evictable backends currently mapped, in the order of the clock scan, the least recently mapped first
+    private final LinkedHashSet<RrdNioEvictableBackend> evictable = new LinkedHashSet<>();
+
     /**
      * Creates a new RrdNioBackendFactory with default settings.
      */
@@ -160,7 +187,11 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
      * Creates RrdNioBackend object for the given file path.
      */
     protected RrdBackend open(String path, boolean readOnly) throws IOException {
-        return new RrdNioBackend(path, readOnly, syncThreadPool, syncPeriod);
+        if (getMappedBytesLimit() > 0) {
+            return new RrdNioEvictableBackend(path, readOnly, syncThreadPool, syncPeriod, this);
+        } else {
+            return new RrdNioBackend(path, readOnly, syncThreadPool, syncPeriod, this);
+        }
     }
 
     /**
@@ -170,6 +201,111 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
         return syncThreadPool;
     }
 
+    void addSyncStats(long dirty, long flushed) {
+        dirtyBytes.add(dirty);
+        flushedBytes.add(flushed);
+    }
+
+    /**
+     * @return the number of bytes written by the backends of this factory, counted when they are synced.
+     * @since 3.10
+     */
+    public long getDirtyBytes() {
+        return dirtyBytes.sum();
+    }
+
+    /**
+     * @return the number of bytes flushed to disk by the backends of this factory.
+     * @since 3.10
+     */
+    public long getFlushedBytes() {
+        return flushedBytes.sum();
+    }
+
+    /**
+     * Sets the limit of the bytes mapped by the backends of this factory, enforced by releasing the mappings of idle
+     * backends, chosen with the clock algorithm. It applies to the backends opened after the call, the ones already
+     * open are accounted but their mapping is never released.
+     *
+     * @param mappedBytesLimit the limit in bytes, 0 or negative for no limit, the default
+     * @since 3.10
+     */
+    public synchronized void setMappedBytesLimit(long mappedBytesLimit) {
+        this.mappedBytesLimit = mappedBytesLimit;
+    }
+
+    /**
+     * @return the limit of the bytes mapped by the backends of this factory, 0 or negative if there is none.
+     * @since 3.10
+     */
+    public synchronized long getMappedBytesLimit() {
+        return mappedBytesLimit;
+    }
+
+    /**
+     * @return the number of bytes currently mapped by the backends of this factory.
+     * @since 3.10
+     */
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    /**
+     * @return the highest number of bytes mapped at once by the backends of this factory.
+     * @since 3.10
+     */
+    public synchronized long getPeakMappedBytes() {
+        return peakMappedBytes;
+    }
+
+    /**
+     * @return the number of mappings released to stay within the limit.
+     * @since 3.10
+     */
+    public synchronized long getReleasedMappings() {
+        return releasedMappings;
+    }
+
+    synchronized void register(RrdNioEvictableBackend backend) {
+        backend.registered = true;
+        if (!backend.isUnmapped()) {
+            evictable.add(backend);
+        }
+    }
+
+    /**
+     * Called by a backend before mapping its file, releases idle mappings if needed.
+     */
+    synchronized void mapping(RrdNioBackend backend, long length) {
+        if (mappedBytesLimit > 0) {
+            // Each backend can get a second chance, so two rounds are needed
+            int attempts = 2 * evictable.size();
+            while (mappedBytes + length > mappedBytesLimit && attempts-- > 0) {
+                Iterator<RrdNioEvictableBackend> i = evictable.iterator();
+                RrdNioEvictableBackend victim = i.next();
+                i.remove();
+                if (victim != backend && victim.tryRelease()) {
+                    releasedMappings++;
+                } else {
+                    evictable.add(victim);
+                }
+            }
+        }
+        mappedBytes += length;
+        peakMappedBytes = Math.max(peakMappedBytes, mappedBytes);
+        // Not registered yet when called from the constructor
+        if (backend instanceof RrdNioEvictableBackend && ((RrdNioEvictableBackend) backend).registered) {
+            evictable.add((RrdNioEvictableBackend) backend);
+        }
+    }
+
+    synchronized void unmapped(RrdNioBackend backend, long length) {
+        mappedBytes -= length;
+        if (backend instanceof RrdNioEvictableBackend) {
+            evictable.remove(backend);
+        }
+    }
+
     @Override
     public void close() {
         if (syncThreadPool != null) {
@@ -0,0 +1,318 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link RrdNioBackend} whose mapping can be released by its factory when the mapped bytes budget is reached, and
+ * that is mapped again on the next access. Each access holds a lock, so the mapping is never released while it's
+ * used. A backend that gave a view of its storage, with {@link #getDoubleView(long, int)}, is not released while the
+ * view is in use.
+ *
+ * @since 3.10
+ */
+class RrdNioEvictableBackend extends RrdNioBackend {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // All guarded by lock
+    private boolean referenced = true;
+    // Guarded by the factory
+    boolean registered = false;
+
+    RrdNioEvictableBackend(String path, boolean readOnly, RrdSyncThreadPool threadPool, int syncPeriod,
+                           RrdNioBackendFactory factory) throws IOException {
+        super(path, readOnly, threadPool, syncPeriod, factory);
+        factory.register(this);
+    }
+
+    private void acquire() throws IOException {
+        lock.lock();
+        try {
+            referenced = true;
+            if (isUnmapped()) {
+                remap();
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the mapping if the backend is idle and was not used since the previous attempt, giving it a second
+     * chance like the clock algorithm.
+     *
+     * @return true if the mapping was released
+     */
+    boolean tryRelease() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (hasViews() || isUnmapped()) {
+                return false;
+            } else if (referenced) {
+                referenced = false;
+                return false;
+            } else {
+                release();
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setLength(long newLength) throws IOException {
+        lock.lock();
+        try {
+            super.setLength(newLength);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            super.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void write(long offset, byte[] b) throws IOException {
+        acquire();
+        try {
+            super.write(offset, b);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeShort(long offset, short value) throws IOException {
+        acquire();
+        try {
+            super.writeShort(offset, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeInt(long offset, int value) throws IOException {
+        acquire();
+        try {
+            super.writeInt(offset, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeLong(long offset, long value) throws IOException {
+        acquire();
+        try {
+            super.writeLong(offset, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeDouble(long offset, double value) throws IOException {
+        acquire();
+        try {
+            super.writeDouble(offset, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeDouble(long offset, double value, int count) throws IOException {
+        acquire();
+        try {
+            super.writeDouble(offset, value, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeDouble(long offset, double[] values) throws IOException {
+        acquire();
+        try {
+            super.writeDouble(offset, values);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeString(long offset, String value, int length) throws IOException {
+        acquire();
+        try {
+            super.writeString(offset, value, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeStridedDouble(long offset, long stride, double[] values) throws IOException {
+        acquire();
+        try {
+            super.writeStridedDouble(offset, stride, values);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeStridedDouble(long offset, long stride, double value, int count) throws IOException {
+        acquire();
+        try {
+            super.writeStridedDouble(offset, stride, value, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void read(long offset, byte[] b) throws IOException {
+        acquire();
+        try {
+            super.read(offset, b);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected short readShort(long offset) throws IOException {
+        acquire();
+        try {
+            return super.readShort(offset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected int readInt(long offset) throws IOException {
+        acquire();
+        try {
+            return super.readInt(offset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected long readLong(long offset) throws IOException {
+        acquire();
+        try {
+            return super.readLong(offset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double readDouble(long offset) throws IOException {
+        acquire();
+        try {
+            return super.readDouble(offset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double[] readDouble(long offset, int count) throws IOException {
+        acquire();
+        try {
+            return super.readDouble(offset, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected double[] readStridedDouble(long offset, long stride, int count) throws IOException {
+        acquire();
+        try {
+            return super.readStridedDouble(offset, stride, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected double[] readStridedFloat(long offset, long stride, int count) throws IOException {
+        acquire();
+        try {
+            return super.readStridedFloat(offset, stride, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeStridedFloat(long offset, long stride, double[] values) throws IOException {
+        acquire();
+        try {
+            super.writeStridedFloat(offset, stride, values);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void writeStridedFloat(long offset, long stride, double value, int count) throws IOException {
+        acquire();
+        try {
+            super.writeStridedFloat(offset, stride, value, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The view can be used after the method returns, the mapping is kept until the view is released.
+     */
+    @Override
+    protected DoubleBuffer getDoubleView(long offset, int count) throws IOException {
+        acquire();
+        try {
+            return super.getDoubleView(offset, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The characters are copied, as the mapping might be released once the method returns.
+     */
+    @Override
+    protected CharBuffer getCharBuffer(long offset, int size) throws IOException {
+        acquire();
+        try {
+            return CharBuffer.wrap(super.getCharBuffer(offset, size).toString());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
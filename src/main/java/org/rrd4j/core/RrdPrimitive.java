@@ -1,30 +1,31 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 
 abstract class RrdPrimitive<U extends RrdUpdater<U>> {
     static final int STRING_LENGTH = 20;
-    static final int RRD_INT = 0, RRD_LONG = 1, RRD_DOUBLE = 2, RRD_STRING = 3;
-    static final int[] RRD_PRIM_SIZES = {4, 8, 8, 2 * STRING_LENGTH};
+    static final int RRD_INT = 0, RRD_LONG = 1, RRD_DOUBLE = 2, RRD_STRING = 3, RRD_FLOAT = 4;
+    static final int[] RRD_PRIM_SIZES = {4, 8, 8, 2 * STRING_LENGTH, 4};
 
     private final RrdBackend backend;
-    private final int byteCount;
+    private final long byteCount;
     private final long pointer;
     private final boolean cachingAllowed;
 
-    RrdPrimitive(RrdUpdater<U> updater, int type, boolean isConstant) {
-        this(updater, type, 1, isConstant);
+    RrdPrimitive(RrdUpdater<U> updater, int type, long pointer, boolean isConstant) {
+        this(updater, type, 1, pointer, isConstant);
     }
 
-    RrdPrimitive(RrdUpdater<U> updater, int type, int count, boolean isConstant) {
+    RrdPrimitive(RrdUpdater<U> updater, int type, int count, long pointer, boolean isConstant) {
         this.backend = updater.getRrdBackend();
-        this.byteCount = RRD_PRIM_SIZES[type] * count;
-        this.pointer = updater.getRrdAllocator().allocate(byteCount);
+        this.byteCount = (long) RRD_PRIM_SIZES[type] * count;
+        this.pointer = pointer;
         this.cachingAllowed = isConstant || backend.isCachingAllowed();
     }
 
     final byte[] readBytes() throws IOException {
-        byte[] b = new byte[byteCount];
+        byte[] b = new byte[(int) byteCount];
         backend.read(pointer, b);
         return b;
     }
@@ -55,12 +56,12 @@ abstract class RrdPrimitive<U extends RrdUpdater<U>> {
     }
 
     final double readDouble(int index) throws IOException {
-        long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
         return backend.readDouble(offset);
     }
 
     final double[] readDouble(int index, int count) throws IOException {
-        long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
         return backend.readDouble(offset, count);
     }
 
@@ -69,20 +70,65 @@ abstract class RrdPrimitive<U extends RrdUpdater<U>> {
     }
 
     final void writeDouble(int index,  double value) throws IOException {
-        long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
         backend.writeDouble(offset, value);
     }
 
     final void writeDouble(int index, double value, int count) throws IOException {
-        long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
         backend.writeDouble(offset, value, count);
     }
 
     final void writeDouble(int index, double[] values) throws IOException {
-        long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
         backend.writeDouble(offset, values);
     }
 
+    final double[] readStridedDouble(int index, int stride, int count) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        return backend.readStridedDouble(offset, (long) stride * RRD_PRIM_SIZES[RRD_DOUBLE], count);
+    }
+
+    final void writeStridedDouble(int index, int stride, double value, int count) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        backend.writeStridedDouble(offset, (long) stride * RRD_PRIM_SIZES[RRD_DOUBLE], value, count);
+    }
+
+    final void writeStridedDouble(int index, int stride, double[] values) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        backend.writeStridedDouble(offset, (long) stride * RRD_PRIM_SIZES[RRD_DOUBLE], values);
+    }
+
+    final double readFloat(int index) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_FLOAT];
+        return backend.readFloat(offset);
+    }
+
+    final void writeFloat(int index, double value) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_FLOAT];
+        backend.writeFloat(offset, (float) value);
+    }
+
+    final double[] readStridedFloat(int index, int stride, int count) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_FLOAT];
+        return backend.readStridedFloat(offset, (long) stride * RRD_PRIM_SIZES[RRD_FLOAT], count);
+    }
+
+    final void writeStridedFloat(int index, int stride, double value, int count) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_FLOAT];
+        backend.writeStridedFloat(offset, (long) stride * RRD_PRIM_SIZES[RRD_FLOAT], value, count);
+    }
+
+    final void writeStridedFloat(int index, int stride, double[] values) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_FLOAT];
+        backend.writeStridedFloat(offset, (long) stride * RRD_PRIM_SIZES[RRD_FLOAT], values);
+    }
+
+    final DoubleBuffer getDoubleView(int index, int count) throws IOException {
+        long offset = pointer + (long) index * RRD_PRIM_SIZES[RRD_DOUBLE];
+        return backend.getDoubleView(offset, count);
+    }
+
     final String readString() throws IOException {
         return backend.readString(pointer);
     }
@@ -111,4 +157,12 @@ abstract class RrdPrimitive<U extends RrdUpdater<U>> {
     final boolean isCachingAllowed() {
         return cachingAllowed;
     }
+
+    final long getPointer() {
+        return pointer;
+    }
+
+    final long getByteCount() {
+        return byteCount;
+    }
 }
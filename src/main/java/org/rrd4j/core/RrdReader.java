@@ -0,0 +1,277 @@
+package org.rrd4j.core;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+
+import org.rrd4j.ConsolFun;
+
+/**
+ * A lightweight read-only access to a RRD, used only to fetch data. Unlike a read-only {@link RrdDb}, it doesn't build
+ * the header, datasources and archives objects: only the step, the datasource names and the archive directory are
+ * read, and the archived values are read directly from the backend for each fetch request.
+ * <p>
+ * The directory is kept between the fetches, and read again only when the last update time or the length of the
+ * RRD change. A reader holds no open backend and can be kept, or shared between threads, for as long as needed;
+ * {@link RrdReaderCache} keeps them for many RRDs.
+ * <pre>
+ * RrdReader reader = RrdReader.of(uri, null);
+ * FetchRequest request = reader.createFetchRequest(ConsolFun.AVERAGE, start, end);
+ * FetchData fetchData = request.fetchData();
+ * </pre>
+ * The fetched data has no {@link FetchData#getMatchingArchive() matching archive}, and
+ * {@link FetchRequest#fetchView()} is not available.
+ * <p>
+ * Nothing is locked while reading: values written through a backend keeping them in memory, the state kept by a
+ * {@link RrdDb.Builder#setWriteBehind(int) write-behind}, or an update running at the same time, might not be seen.
+ *
+ * @since 3.10
+ */
+public class RrdReader {
+
+    private static final class Directory {
+        private final long lastUpdateTime;
+        private final long length;
+        private final long step;
+        private final String[] dsNames;
+        private final ConsolFun[] consolFuns;
+        private final long[] arcSteps;
+        private final RrdLayout layout;
+
+        private Directory(RrdBackend backend, boolean validateHeader) throws IOException {
+            String signature = backend.readString(RrdLayout.SIGNATURE);
+            if (validateHeader && !Header.isRrd4jSignature(signature)) {
+                throw new InvalidRrdException("Invalid file header. File [" + backend.getPath() + "] is not a RRD4J RRD file");
+            }
+            lastUpdateTime = backend.readLong(RrdLayout.LAST_UPDATE_TIME);
+            length = backend.getLength();
+            step = backend.readLong(RrdLayout.STEP);
+            int dsCount = backend.readInt(RrdLayout.DS_COUNT);
+            int arcCount = backend.readInt(RrdLayout.ARC_COUNT);
+            layout = RrdLayout.read(backend, Header.getVersion(signature), dsCount, arcCount);
+            dsNames = new String[dsCount];
+            for (int i = 0; i < dsCount; i++) {
+                dsNames[i] = backend.readString(layout.getDsDefinition(i) + RrdLayout.DS_NAME);
+            }
+            consolFuns = new ConsolFun[arcCount];
+            arcSteps = new long[arcCount];
+            for (int i = 0; i < arcCount; i++) {
+                String consolFun = backend.readString(layout.getArcDefinition(i) + RrdLayout.CONSOL_FUN);
+                try {
+                    consolFuns[i] = ConsolFun.valueOf(consolFun);
+                } catch (IllegalArgumentException e) {
+                    throw new InvalidRrdException("Invalid consolidation function " + consolFun + " in " + backend.getPath(), e);
+                }
+                arcSteps[i] = step * layout.getSteps(i);
+            }
+        }
+
+        private int getDsIndex(String dsName) {
+            for (int i = 0; i < dsNames.length; i++) {
+                if (dsNames[i].equals(dsName)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unknown datasource name: " + dsName);
+        }
+
+        private long getEndTime(int arcIndex) {
+            return Util.normalize(lastUpdateTime, arcSteps[arcIndex]);
+        }
+
+        private long getStartTime(int arcIndex) {
+            return getEndTime(arcIndex) - (layout.getRows(arcIndex) - 1L) * arcSteps[arcIndex];
+        }
+    }
+
+    private final URI uri;
+    private final RrdBackendFactory factory;
+    private volatile Directory directory;
+
+    private RrdReader(URI uri, RrdBackendFactory factory) {
+        this.uri = uri;
+        this.factory = factory;
+    }
+
+    /**
+     * Opens a reader and reads the directory of the RRD.
+     *
+     * @param uri the URI of the RRD
+     * @param factory the factory of the backend, or null to find it from the URI
+     * @return a new reader
+     * @throws FileNotFoundException if the RRD doesn't exist
+     * @throws IOException if the RRD can't be read, or is not a valid RRD
+     */
+    public static RrdReader of(URI uri, RrdBackendFactory factory) throws IOException {
+        if (factory == null) {
+            factory = RrdBackendFactory.findFactory(uri);
+        }
+        URI canonicalUri = factory.getCanonicalUri(uri);
+        if (!factory.exists(canonicalUri)) {
+            throw new FileNotFoundException("Could not open " + canonicalUri + " [non existent]");
+        }
+        RrdReader reader = new RrdReader(canonicalUri, factory);
+        RrdBackend backend = reader.open();
+        try {
+            reader.directory = new Directory(backend, factory.shouldValidateHeader(canonicalUri));
+        } finally {
+            backend.rrdClose();
+        }
+        return reader;
+    }
+
+    private RrdBackend open() throws IOException {
+        return factory.getBackend(null, uri, true);
+    }
+
+    /**
+     * Returns the directory of the RRD, read again if it changed since the last read.
+     */
+    private Directory refresh(RrdBackend backend) throws IOException {
+        Directory current = directory;
+        if (backend.readLong(RrdLayout.LAST_UPDATE_TIME) != current.lastUpdateTime || backend.getLength() != current.length) {
+            current = new Directory(backend, factory.shouldValidateHeader(uri));
+            directory = current;
+        }
+        return current;
+    }
+
+    /**
+     * Prepares a fetch request with the finest resolution available.
+     *
+     * @param consolFun Consolidation function to be used in fetch request.
+     * @param fetchStart Starting timestamp for fetch request.
+     * @param fetchEnd Ending timestamp for fetch request.
+     * @return Request object that should be used to actually fetch data from the RRD.
+     */
+    public FetchRequest createFetchRequest(ConsolFun consolFun, long fetchStart, long fetchEnd) {
+        return createFetchRequest(consolFun, fetchStart, fetchEnd, 1);
+    }
+
+    /**
+     * Prepares a fetch request.
+     *
+     * @param consolFun Consolidation function to be used in fetch request.
+     * @param fetchStart Starting timestamp for fetch request.
+     * @param fetchEnd Ending timestamp for fetch request.
+     * @param resolution Fetch resolution.
+     * @return Request object that should be used to actually fetch data from the RRD.
+     */
+    public FetchRequest createFetchRequest(ConsolFun consolFun, long fetchStart, long fetchEnd, long resolution) {
+        return new FetchRequest(this, consolFun, fetchStart, fetchEnd, resolution);
+    }
+
+    FetchData fetchData(FetchRequest request) throws IOException {
+        RrdBackend backend = open();
+        try {
+            Directory current = refresh(backend);
+            int arcCount = current.consolFuns.length;
+            long[] startTimes = new long[arcCount];
+            for (int i = 0; i < arcCount; i++) {
+                startTimes[i] = current.getStartTime(i);
+            }
+            int arcIndex = RrdDb.findMatchingArchive(request, current.consolFuns, current.arcSteps, startTimes);
+            FetchData fetchData = new FetchData(null, request, current.dsNames, current.arcSteps[arcIndex], current.getEndTime(arcIndex));
+            String[] dsToFetch = fetchData.getDsNames();
+            fetchData.fill(startTimes[arcIndex], (index, count) -> {
+                double[][] values = new double[dsToFetch.length][];
+                for (int i = 0; i < dsToFetch.length; i++) {
+                    values[i] = readValues(backend, current.layout, arcIndex, current.getDsIndex(dsToFetch[i]), index, count);
+                }
+                return values;
+            });
+            return fetchData;
+        } finally {
+            backend.rrdClose();
+        }
+    }
+
+    private static double[] readValues(RrdBackend backend, RrdLayout layout, int arcIndex, int dsIndex, int index, int count) throws IOException {
+        int rows = layout.getRows(arcIndex);
+        int startIndex = (backend.readInt(layout.getRobinPointer(arcIndex, dsIndex)) + index) % rows;
+        int tailReadCount = Math.min(rows - startIndex, count);
+        double[] values = readRows(backend, layout, arcIndex, dsIndex, startIndex, tailReadCount);
+        if (tailReadCount < count) {
+            double[] headValues = readRows(backend, layout, arcIndex, dsIndex, 0, count - tailReadCount);
+            double[] tailValues = values;
+            values = new double[count];
+            System.arraycopy(tailValues, 0, values, 0, tailReadCount);
+            System.arraycopy(headValues, 0, values, tailReadCount, headValues.length);
+        }
+        return values;
+    }
+
+    /**
+     * Reads values stored without a rollover.
+     */
+    private static double[] readRows(RrdBackend backend, RrdLayout layout, int arcIndex, int dsIndex, int row, int count) throws IOException {
+        long offset = layout.getRobinValues(arcIndex, dsIndex);
+        if (layout.getVersion() == 1) {
+            return backend.readDouble(offset + 8L * row, count);
+        }
+        long columns = layout.getDsCount();
+        if (layout.getVersion() == 3) {
+            return backend.readStridedFloat(offset + 4L * (columns * row + dsIndex), 4L * columns, count);
+        } else {
+            return backend.readStridedDouble(offset + 8L * (columns * row + dsIndex), 8L * columns, count);
+        }
+    }
+
+    /**
+     * @return the canonical URI of the RRD
+     */
+    public URI getCanonicalUri() {
+        return uri;
+    }
+
+    /**
+     * @return the factory of the RRD backend
+     */
+    public RrdBackendFactory getBackendFactory() {
+        return factory;
+    }
+
+    String getPath() {
+        return factory.getPath(uri);
+    }
+
+    /**
+     * @return the primary time step of the RRD, in seconds
+     */
+    public long getStep() {
+        return directory.step;
+    }
+
+    /**
+     * @return the datasource names, in the order of the RRD
+     */
+    public String[] getDsNames() {
+        return directory.dsNames.clone();
+    }
+
+    /**
+     * Returns the last update time of the RRD, as known by the last read of its directory. It's read again by each
+     * fetch request.
+     *
+     * @return the last update time, in seconds
+     */
+    public long getLastUpdateTime() {
+        return directory.lastUpdateTime;
+    }
+
+    /**
+     * Returns the last time when some of the archives was updated, as known by the last read of the directory. See
+     * {@link RrdDb#getLastArchiveUpdateTime()}.
+     *
+     * @return the last archive update time, in seconds
+     */
+    public long getLastArchiveUpdateTime() {
+        Directory current = directory;
+        long last = 0;
+        for (int i = 0; i < current.arcSteps.length; i++) {
+            last = Math.max(last, current.getEndTime(i));
+        }
+        return last;
+    }
+
+}
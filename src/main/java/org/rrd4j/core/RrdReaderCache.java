@@ -0,0 +1,116 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of {@link RrdReader}, keyed by the canonical URI of the RRDs. A reader is kept across many fetches, and
+ * reads the directory of its RRD again only when its last update time changes, so repeated fetches from the same
+ * RRDs don't open them again.
+ * <p>
+ * It's used with {@link org.rrd4j.data.DataProcessor#setReaderCache(RrdReaderCache)}, or directly:
+ * <pre>
+ * RrdReaderCache cache = new RrdReaderCache();
+ * FetchData fetchData = cache.getReader(uri, null).createFetchRequest(ConsolFun.AVERAGE, start, end).fetchData();
+ * </pre>
+ *
+ * @since 3.10
+ */
+public class RrdReaderCache {
+
+    /**
+     * The default number of readers kept by a cache.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Map<URI, RrdReader> readers;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Creates a cache keeping {@link #DEFAULT_CAPACITY} readers.
+     */
+    public RrdReaderCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity the number of readers kept, the least recently used are dropped first
+     */
+    public RrdReaderCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        readers = new LinkedHashMap<URI, RrdReader>(capacity + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, RrdReader> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the reader of a RRD, opening it if it's not in the cache.
+     *
+     * @param uri the URI of the RRD
+     * @param factory the factory of the backend, or null to find it from the URI
+     * @return the reader
+     * @throws java.io.FileNotFoundException if the RRD doesn't exist
+     * @throws IOException if the RRD can't be read, or is not a valid RRD
+     */
+    public RrdReader getReader(URI uri, RrdBackendFactory factory) throws IOException {
+        if (factory == null) {
+            factory = RrdBackendFactory.findFactory(uri);
+        }
+        URI canonicalUri = factory.getCanonicalUri(uri);
+        synchronized (this) {
+            RrdReader reader = readers.get(canonicalUri);
+            if (reader != null && reader.getBackendFactory() == factory) {
+                hits++;
+                return reader;
+            }
+            misses++;
+        }
+        // Read outside the lock, a concurrent miss for the same RRD only reads it twice
+        RrdReader reader = RrdReader.of(canonicalUri, factory);
+        synchronized (this) {
+            readers.put(canonicalUri, reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Drops the reader of a RRD, for example once it's deleted.
+     *
+     * @param uri the canonical URI of the RRD
+     */
+    public synchronized void remove(URI uri) {
+        readers.remove(uri);
+    }
+
+    /**
+     * @return the number of readers found in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of readers opened
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of readers in the cache
+     */
+    public synchronized int getSize() {
+        return readers.size();
+    }
+
+}
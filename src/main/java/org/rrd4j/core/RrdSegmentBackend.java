@@ -0,0 +1,80 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Backend that stores a RRD in a slot of a segment file shared with other RRDs. Objects of this class are
+ * created by {@link RrdSegmentBackendFactory}, see it for more details.
+ *
+ * @since 3.10
+ */
+public class RrdSegmentBackend extends ByteBufferBackend {
+
+    private final RrdSegmentBackendFactory factory;
+    private final boolean readOnly;
+    private RrdSegmentBackendFactory.Slot slot;
+
+    /**
+     * Creates a backend for a slot.
+     *
+     * @param path     the RRD path
+     * @param factory  the factory that manages the segments
+     * @param slot     the slot holding the RRD, null if the RRD does not exist yet
+     * @param readOnly true, if the RRD should be open in a read-only mode
+     */
+    protected RrdSegmentBackend(String path, RrdSegmentBackendFactory factory, RrdSegmentBackendFactory.Slot slot, boolean readOnly) {
+        super(path);
+        this.factory = factory;
+        this.readOnly = readOnly;
+        if (slot != null) {
+            attach(slot);
+        }
+    }
+
+    private void attach(RrdSegmentBackendFactory.Slot slot) {
+        this.slot = slot;
+        ByteBuffer buffer = slot.getBuffer();
+        setByteBuffer(readOnly ? buffer.asReadOnlyBuffer() : buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Allocates a slot in a segment for the RRD. This method is called only once, immediately
+     * after a new RRD gets created.
+     */
+    @Override
+    protected synchronized void setLength(long length) throws IOException {
+        if (readOnly) {
+            throw new RrdBackendException("Read only backend " + getPath());
+        }
+        attach(factory.allocate(this, length));
+    }
+
+    @Override
+    public synchronized long getLength() {
+        return slot != null ? slot.length : 0;
+    }
+
+    /**
+     * Forces to disk the pages of the slot written since the previous sync.
+     */
+    protected synchronized void sync() {
+        if (slot != null && !readOnly) {
+            addFlushedBytes(slot.force(takeDirtyPages(), getPageSize()));
+        }
+    }
+
+    @Override
+    protected synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            factory.closed(this);
+            slot = null;
+            super.close();
+        }
+    }
+
+}
@@ -0,0 +1,443 @@
+package org.rrd4j.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory class which creates {@link org.rrd4j.core.RrdSegmentBackend} objects. Instead of one file per RRD,
+ * the RRDs are packed in slots of a few large pre-allocated and memory-mapped segment files, stored in a single
+ * directory:
+ * <ul>
+ * <li><code>segment-N</code> files hold the RRDs, each one is mapped once, whatever the number of RRDs it contains.
+ * <li>the <code>index</code> file is an append-only log of the slot allocations and releases, that maps an RRD path
+ * to its slot. It's compacted each time the factory is created.
+ * </ul>
+ * <p>
+ * The size of a slot is the size of the RRD given when it's created, so a RRD can't be bigger than a segment.
+ * Released slots are reused for new RRDs of the same size. As RRDs sharing a definition have the same size, it
+ * avoids fragmentation in the common case.
+ * <p>
+ * Opening or closing a RRD doesn't need any file operation. The pages modified in each open RRD are
+ * periodically forced to disk by a single task, using the {@link RrdSyncThreadPool} given to the factory. Closing
+ * the factory syncs and unmaps all the segments, so all the RRDs must be closed before.
+ * <p>
+ * The URI handled by this factory are in the form <code>segment:/path</code>.
+ *
+ * @since 3.10
+ */
+@RrdBackendAnnotation(name="SEGMENT", shouldValidateHeader=true)
+public class RrdSegmentBackendFactory extends RrdBackendFactory {
+
+    /**
+     * The default size of segment files, 256 MiB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    private static final String INDEX_FILE = "index";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final byte ALLOCATE = 'A';
+    private static final byte RELEASE = 'R';
+    // Slots are aligned on doubles
+    private static final int ALIGNMENT = 8;
+
+    /**
+     * A region of a segment holding a RRD.
+     */
+    static final class Slot {
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        private Slot(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        ByteBuffer getBuffer() {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset);
+            buffer.limit(offset + length);
+            return buffer.slice();
+        }
+
+        long force(BitSet pages, int pageSize) {
+            return RrdNioBackend.force(segment.buffer, offset, length, pages, pageSize);
+        }
+
+        private void clear() {
+            ByteBuffer buffer = getBuffer();
+            while (buffer.remaining() >= 8) {
+                buffer.putLong(0);
+            }
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) 0);
+            }
+        }
+    }
+
+    private static final class Segment {
+        final int id;
+        final MappedByteBuffer buffer;
+        int used = 0;
+
+        private Segment(int id, MappedByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, Slot> slots = new HashMap<>();
+    private final Map<Integer, Deque<Slot>> freeSlots = new HashMap<>();
+    private final Set<RrdSegmentBackend> openBackends = ConcurrentHashMap.newKeySet();
+    private final DataOutputStream indexLog;
+    private final FileChannel indexChannel;
+    private final RrdSyncThreadPool syncThreadPool;
+    private final ScheduledFuture<?> syncHandle;
+    private boolean closed = false;
+
+    /**
+     * Creates a factory storing RRDs in the given directory, with segments of {@value #DEFAULT_SEGMENT_SIZE} bytes and
+     * a background sync every {@value RrdNioBackendFactory#DEFAULT_SYNC_PERIOD} seconds.
+     *
+     * @param directory the directory for the segments and the index, created if missing.
+     * @throws IOException if the index can't be read or the segments can't be mapped.
+     */
+    public RrdSegmentBackendFactory(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, RrdNioBackendFactory.DEFAULT_SYNC_PERIOD, new RrdSyncThreadPool(1));
+    }
+
+    /**
+     * Creates a factory storing RRDs in the given directory.
+     *
+     * @param directory the directory for the segments and the index, created if missing.
+     * @param segmentSize the size of segment files, it's also the maximum size of a RRD. It's used only for new
+     *                    segments.
+     * @param syncPeriod the sync period, in seconds.
+     * @param syncThreadPool If null, disable background sync. It will be shut down when the factory is closed.
+     * @throws IOException if the index can't be read or the segments can't be mapped.
+     */
+    public RrdSegmentBackendFactory(Path directory, int segmentSize, int syncPeriod, RrdSyncThreadPool syncThreadPool) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        if (syncThreadPool != null && syncPeriod <= 0) {
+            throw new IllegalArgumentException("Both thread pool defined and invalid sync period");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        openSegments();
+        compactIndex();
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        indexLog = new DataOutputStream(Channels.newOutputStream(indexChannel));
+        this.syncThreadPool = syncThreadPool;
+        if (syncThreadPool != null) {
+            syncHandle = syncThreadPool.scheduleWithFixedDelay(this::sync, syncPeriod, syncPeriod, TimeUnit.SECONDS);
+        } else {
+            syncHandle = null;
+        }
+    }
+
+    private void openSegments() throws IOException {
+        int id = 0;
+        Path segmentPath;
+        while (Files.exists(segmentPath = directory.resolve(SEGMENT_PREFIX + id))) {
+            try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segments.add(new Segment(id, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size())));
+            }
+            id++;
+        }
+        Path indexPath = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            while (true) {
+                byte operation;
+                try {
+                    operation = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    String path = in.readUTF();
+                    int segmentId = in.readInt();
+                    int offset = in.readInt();
+                    int length = in.readInt();
+                    if (segmentId < 0 || segmentId >= segments.size() || offset < 0 || length < 0
+                            || (long) offset + length > segments.get(segmentId).buffer.capacity()) {
+                        throw new InvalidRrdException("Corrupted segment index in " + directory);
+                    }
+                    Segment segment = segments.get(segmentId);
+                    Slot slot = new Slot(segment, offset, length);
+                    segment.used = Math.max(segment.used, align(offset + length));
+                    if (operation == ALLOCATE) {
+                        slots.put(path, slot);
+                    } else if (operation == RELEASE) {
+                        Slot current = slots.get(path);
+                        if (current != null && current.segment == segment && current.offset == offset) {
+                            slots.remove(path);
+                        }
+                        freeSlots.computeIfAbsent(length, k -> new ArrayDeque<>()).add(slot);
+                    } else {
+                        throw new InvalidRrdException("Corrupted segment index in " + directory);
+                    }
+                } catch (EOFException e) {
+                    // A truncated last record, the allocation was never synced
+                    break;
+                }
+            }
+        }
+    }
+
+    private void compactIndex() throws IOException {
+        Path indexPath = directory.resolve(INDEX_FILE);
+        Path newIndexPath = directory.resolve(INDEX_FILE + ".new");
+        try (OutputStream os = Files.newOutputStream(newIndexPath);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+            for (Map.Entry<String, Slot> e : slots.entrySet()) {
+                writeRecord(out, ALLOCATE, e.getKey(), e.getValue());
+            }
+            for (Deque<Slot> free : freeSlots.values()) {
+                for (Slot slot : free) {
+                    writeRecord(out, RELEASE, "", slot);
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(newIndexPath, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(newIndexPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeRecord(DataOutputStream out, byte operation, String path, Slot slot) throws IOException {
+        out.writeByte(operation);
+        out.writeUTF(path);
+        out.writeInt(slot.segment.id);
+        out.writeInt(slot.offset);
+        out.writeInt(slot.length);
+    }
+
+    private static int align(int offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    synchronized Slot allocate(RrdSegmentBackend owner, long length) throws IOException {
+        checkClosed();
+        String path = owner.getPath();
+        // The current slot is reused or released, it must not be used by another backend
+        checkNotOpen(path, owner);
+        if (length < 0 || length > segmentSize) {
+            throw new IllegalArgumentException("Invalid RRD size " + length + ", segment size is " + segmentSize);
+        }
+        Slot current = slots.get(path);
+        if (current != null && current.length == length) {
+            current.clear();
+            return current;
+        } else if (current != null) {
+            release(path, current);
+        }
+        Slot slot;
+        Deque<Slot> free = freeSlots.get((int) length);
+        if (free != null && !free.isEmpty()) {
+            slot = free.poll();
+            slot.clear();
+        } else {
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || (long) segment.used + length > segment.buffer.capacity()) {
+                segment = newSegment();
+            }
+            slot = new Slot(segment, segment.used, (int) length);
+            segment.used = align(segment.used + (int) length);
+        }
+        writeRecord(indexLog, ALLOCATE, path, slot);
+        indexLog.flush();
+        slots.put(path, slot);
+        return slot;
+    }
+
+    private void release(String path, Slot slot) throws IOException {
+        writeRecord(indexLog, RELEASE, path, slot);
+        indexLog.flush();
+        slots.remove(path);
+        freeSlots.computeIfAbsent(slot.length, k -> new ArrayDeque<>()).add(slot);
+    }
+
+    private Segment newSegment() throws IOException {
+        int id = segments.size();
+        Path segmentPath = directory.resolve(SEGMENT_PREFIX + id);
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath.toFile(), "rw")) {
+            file.setLength(segmentSize);
+            Segment segment = new Segment(id, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+            segments.add(segment);
+            return segment;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates a RrdSegmentBackend object for the given path.
+     */
+    @Override
+    protected synchronized RrdBackend open(String path, boolean readOnly) throws IOException {
+        checkClosed();
+        RrdSegmentBackend backend = new RrdSegmentBackend(path, this, slots.get(path), readOnly);
+        openBackends.add(backend);
+        return backend;
+    }
+
+    void closed(RrdSegmentBackend backend) {
+        openBackends.remove(backend);
+    }
+
+    @Override
+    public boolean canStore(URI uri) {
+        return getScheme().equals(uri.getScheme());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Checks if a slot is allocated for the given path.
+     */
+    @Override
+    protected synchronized boolean exists(String path) {
+        return slots.containsKey(path);
+    }
+
+    /**
+     * Releases the slot of a RRD.
+     *
+     * @param path the RRD path
+     * @return true if the RRD existed
+     * @throws IOException if the index can't be updated
+     * @throws IllegalStateException if the RRD is open
+     */
+    public synchronized boolean delete(String path) throws IOException {
+        checkClosed();
+        checkNotOpen(path, null);
+        Slot slot = slots.get(path);
+        if (slot != null) {
+            release(path, slot);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void checkNotOpen(String path, RrdSegmentBackend owner) {
+        for (RrdSegmentBackend backend : openBackends) {
+            if (backend != owner && backend.getPath().equals(path)) {
+                throw new IllegalStateException("RRD " + path + " is still open");
+            }
+        }
+    }
+
+    /**
+     * @return the number of segment files.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forces to disk the pages modified in the open RRDs and the index.
+     */
+    public void sync() {
+        for (RrdSegmentBackend backend : openBackends) {
+            backend.sync();
+        }
+        synchronized (this) {
+            if (!closed) {
+                try {
+                    indexChannel.force(false);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to sync segment index in " + directory, e);
+                }
+            }
+        }
+    }
+
+    private void checkClosed() {
+        if (closed) {
+            throw new IllegalStateException("Segment factory closed");
+        }
+    }
+
+    /**
+     * Syncs and unmaps all the segments. The sync task is waited for before, so it doesn't use the segments after
+     * they are unmapped.
+     *
+     * @throws IOException if the index can't be synced
+     * @throws IllegalStateException if some RRDs are still open, or if the thread was interrupted while waiting for
+     *         the sync task
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (!openBackends.isEmpty()) {
+                throw new IllegalStateException(openBackends.size() + " RRDs still open in segment factory");
+            }
+            // No RRD can be opened any more
+            closed = true;
+        }
+        if (syncHandle != null) {
+            syncHandle.cancel(false);
+        }
+        if (syncThreadPool != null) {
+            syncThreadPool.shutdown();
+            try {
+                syncThreadPool.awaitTermination();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the segment sync", e);
+            }
+        }
+        synchronized (this) {
+            indexChannel.force(false);
+            indexLog.close();
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                RrdNioBackend.unmap(segment.buffer);
+            }
+            segments.clear();
+            slots.clear();
+            freeSlots.clear();
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The state of a RRD modified by each update: the last update time, the state of each datasource, and the robin
+ * pointer and state of each archive. Each {@link RrdDb} has one, and all these fields are read and written through it.
+ * <p>
+ * When the backend allows caching, the fields are kept once read. They are written to the backend when they change,
+ * or, with the write-behind enabled, only when {@link #flush()} is called, explicitly or after a given number of
+ * updates. The version 4 keeps all of them in a single area, that is then written at once; the other versions write
+ * each modified field.
+ * <p>
+ * Values are kept as the bits written to the backend, doubles with {@link Double#doubleToLongBits(double)}, so the
+ * bytes stored don't depend on the caching.
+ * <p>
+ * The write-behind weakens what survives a crash. The archived rows are written by each update, but the state only
+ * when it's flushed, so after a crash the stored state can be older than the rows, by up to the number of pending
+ * updates. A flush itself is only atomic if the backend makes the writes between two
+ * {@link RrdBackend#updateDone()} transactional, like {@link RrdJournalBackend}. Otherwise a crash during a flush can
+ * leave some fields written and not others, even in the version 4 where the state area is written at once.
+ * <p>
+ * Only one thread updates the state, but fetches can read it at the same time. A field is loaded under the lock of
+ * the cache, as both a fetch and the update can load it, and the loaded flag is set after the value with a volatile
+ * write, so a thread that sees the flag also sees the value. Once loaded, a field is only modified by the update, and
+ * a fetch reading it at the same time is checked and done again by {@link RrdDb}.
+ *
+ * @since 3.10
+ */
+final class RrdStateCache {
+    // fields of a datasource or of a robin, in the order of the slots
+    private static final int LAST_VALUE = 0, DS_ACCUM_VALUE = 1, NAN_SECONDS = 2;
+    private static final int POINTER = 0, ARC_ACCUM_VALUE = 1, NAN_STEPS = 2;
+    private static final int FIELDS = 3;
+
+    private final RrdBackend backend;
+    private final RrdLayout layout;
+    private final boolean caching;
+    // slot 0 is the last update time, then the fields of each datasource, then the fields of each robin
+    private final AtomicLongArray values;
+    private final AtomicIntegerArray loaded;
+    // Only used by the update
+    private final boolean[] dirtyFields;
+    private int maxPendingUpdates = 0;
+    private int pendingUpdates = 0;
+    private boolean dirty = false;
+    private boolean batch = false;
+
+    RrdStateCache(RrdBackend backend, RrdLayout layout) {
+        this.backend = backend;
+        this.layout = layout;
+        this.caching = backend.isCachingAllowed();
+        int slots = 1 + FIELDS * layout.getDsCount() * (1 + layout.getArcCount());
+        values = caching ? new AtomicLongArray(slots) : null;
+        loaded = caching ? new AtomicIntegerArray(slots) : null;
+        dirtyFields = caching ? new boolean[slots] : null;
+    }
+
+    /**
+     * Enables the write-behind: the modified fields are written to the backend only after the given number of updates,
+     * or when flushed. It's ignored if the backend doesn't allow caching.
+     *
+     * @param maxPendingUpdates the number of updates kept in memory, 0 to write each field when it's modified
+     * @throws IOException if the pending fields can't be written
+     */
+    void setMaxPendingUpdates(int maxPendingUpdates) throws IOException {
+        if (maxPendingUpdates < 0) {
+            throw new IllegalArgumentException("Invalid number of pending updates: " + maxPendingUpdates);
+        }
+        if (maxPendingUpdates < this.maxPendingUpdates) {
+            flush();
+        }
+        this.maxPendingUpdates = caching ? maxPendingUpdates : 0;
+    }
+
+    int getMaxPendingUpdates() {
+        return maxPendingUpdates;
+    }
+
+    private int getDsSlot(int dsIndex, int field) {
+        return 1 + FIELDS * dsIndex + field;
+    }
+
+    private int getRobinSlot(int arcIndex, int dsIndex, int field) {
+        return 1 + FIELDS * (layout.getDsCount() * (1 + arcIndex) + dsIndex) + field;
+    }
+
+    private long getOffset(int slot) {
+        if (slot == 0) {
+            return RrdLayout.LAST_UPDATE_TIME;
+        }
+        int dsCount = layout.getDsCount();
+        int field = (slot - 1) % FIELDS;
+        int index = (slot - 1) / FIELDS;
+        if (index < dsCount) {
+            long state = layout.getDsState(index);
+            return state + (field == LAST_VALUE ? RrdLayout.LAST_VALUE : field == DS_ACCUM_VALUE ? RrdLayout.DS_ACCUM_VALUE : RrdLayout.NAN_SECONDS);
+        }
+        int arcIndex = index / dsCount - 1;
+        int dsIndex = index % dsCount;
+        if (field == POINTER) {
+            return layout.getRobinPointer(arcIndex, dsIndex);
+        }
+        return layout.getArcState(arcIndex, dsIndex) + (field == ARC_ACCUM_VALUE ? RrdLayout.ARC_ACCUM_VALUE : RrdLayout.NAN_STEPS);
+    }
+
+    private boolean isPointer(int slot) {
+        return slot >= getRobinSlot(0, 0, 0) && (slot - 1) % FIELDS == POINTER;
+    }
+
+    private long read(int slot) throws IOException {
+        return isPointer(slot) ? backend.readInt(getOffset(slot)) : backend.readLong(getOffset(slot));
+    }
+
+    private void write(int slot, long value) throws IOException {
+        if (isPointer(slot)) {
+            backend.writeInt(getOffset(slot), (int) value);
+        } else {
+            backend.writeLong(getOffset(slot), value);
+        }
+    }
+
+    private long get(int slot) throws IOException {
+        if (!caching) {
+            return read(slot);
+        }
+        if (loaded.get(slot) == 0) {
+            load(slot);
+        }
+        return values.get(slot);
+    }
+
+    private synchronized void load(int slot) throws IOException {
+        if (loaded.get(slot) == 0) {
+            values.set(slot, read(slot));
+            loaded.set(slot, 1);
+        }
+    }
+
+    private synchronized void init(int slot, long value) {
+        values.set(slot, value);
+        loaded.set(slot, 1);
+    }
+
+    private void set(int slot, long value) throws IOException {
+        if (!caching) {
+            write(slot, value);
+            return;
+        }
+        if (loaded.get(slot) == 0) {
+            init(slot, value);
+        } else if (values.get(slot) != value) {
+            values.set(slot, value);
+        } else {
+            return;
+        }
+        if (maxPendingUpdates > 0 || batch) {
+            dirtyFields[slot] = true;
+            dirty = true;
+        } else {
+            write(slot, value);
+        }
+    }
+
+    long getLastUpdateTime() throws IOException {
+        return get(0);
+    }
+
+    void setLastUpdateTime(long value) throws IOException {
+        set(0, value);
+    }
+
+    double getLastValue(int dsIndex) throws IOException {
+        return Double.longBitsToDouble(get(getDsSlot(dsIndex, LAST_VALUE)));
+    }
+
+    void setLastValue(int dsIndex, double value) throws IOException {
+        set(getDsSlot(dsIndex, LAST_VALUE), Double.doubleToLongBits(value));
+    }
+
+    double getAccumValue(int dsIndex) throws IOException {
+        return Double.longBitsToDouble(get(getDsSlot(dsIndex, DS_ACCUM_VALUE)));
+    }
+
+    void setAccumValue(int dsIndex, double value) throws IOException {
+        set(getDsSlot(dsIndex, DS_ACCUM_VALUE), Double.doubleToLongBits(value));
+    }
+
+    long getNanSeconds(int dsIndex) throws IOException {
+        return get(getDsSlot(dsIndex, NAN_SECONDS));
+    }
+
+    void setNanSeconds(int dsIndex, long value) throws IOException {
+        set(getDsSlot(dsIndex, NAN_SECONDS), value);
+    }
+
+    int getRobinPointer(int arcIndex, int dsIndex) throws IOException {
+        return (int) get(getRobinSlot(arcIndex, dsIndex, POINTER));
+    }
+
+    void setRobinPointer(int arcIndex, int dsIndex, int value) throws IOException {
+        set(getRobinSlot(arcIndex, dsIndex, POINTER), value);
+    }
+
+    double getAccumValue(int arcIndex, int dsIndex) throws IOException {
+        return Double.longBitsToDouble(get(getRobinSlot(arcIndex, dsIndex, ARC_ACCUM_VALUE)));
+    }
+
+    void setAccumValue(int arcIndex, int dsIndex, double value) throws IOException {
+        set(getRobinSlot(arcIndex, dsIndex, ARC_ACCUM_VALUE), Double.doubleToLongBits(value));
+    }
+
+    long getNanSteps(int arcIndex, int dsIndex) throws IOException {
+        return get(getRobinSlot(arcIndex, dsIndex, NAN_STEPS));
+    }
+
+    void setNanSteps(int arcIndex, int dsIndex, long value) throws IOException {
+        set(getRobinSlot(arcIndex, dsIndex, NAN_STEPS), value);
+    }
+
+    /**
+     * Called after each update, flushes the modified fields once enough updates are pending.
+     *
+     * @throws IOException if the fields can't be written
+     */
+    void updateDone() throws IOException {
+        if (maxPendingUpdates > 0 && ++pendingUpdates >= maxPendingUpdates) {
+            flush();
+        }
+    }
+
+    /**
+     * Keeps the modified fields in memory until {@link #endBatch()}, even without the write-behind, so that a batch of
+     * updates writes them once. It's ignored if the backend doesn't allow caching.
+     */
+    void startBatch() {
+        batch = caching;
+    }
+
+    /**
+     * Ends a batch of updates. The modified fields are written now, unless the write-behind keeps them.
+     *
+     * @throws IOException if the fields can't be written
+     */
+    void endBatch() throws IOException {
+        batch = false;
+        if (maxPendingUpdates == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Called after an update or a batch failed. The fields not waiting to be written are loaded again from the
+     * backend, as it might have discarded the writes of the update. Without the write-behind, the fields modified by a
+     * failed batch are dropped too. With the write-behind, the fields modified since the last flush are kept,
+     * including the ones modified by the failed update.
+     */
+    synchronized void updateFailed() {
+        if (!caching) {
+            return;
+        }
+        batch = false;
+        for (int slot = 0; slot < dirtyFields.length; slot++) {
+            if (maxPendingUpdates == 0 || !dirtyFields[slot]) {
+                loaded.set(slot, 0);
+                dirtyFields[slot] = false;
+            }
+        }
+        if (maxPendingUpdates == 0) {
+            dirty = false;
+            pendingUpdates = 0;
+        }
+    }
+
+    /**
+     * @return true if some modified fields are not yet written to the backend
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes the modified fields to the backend. In the version 4, the whole state area is written at once. The writes
+     * are followed by {@link RrdBackend#updateDone()}, so they are atomic only when the backend is transactional.
+     *
+     * @throws IOException if the fields can't be written, they are kept as modified
+     */
+    void flush() throws IOException {
+        if (!dirty) {
+            pendingUpdates = 0;
+            return;
+        }
+        if (layout.getVersion() == 4) {
+            long start = RrdLayout.LAST_UPDATE_TIME;
+            byte[] area = new byte[(int) (RrdLayout.HEADER_SIZE - start + RrdAllocator.getStateSize(layout.getDsCount(), layout.getArcCount()))];
+            backend.read(start, area);
+            ByteBuffer buffer = ByteBuffer.wrap(area).order(RrdBackend.BYTEORDER);
+            for (int slot = 0; slot < dirtyFields.length; slot++) {
+                if (dirtyFields[slot]) {
+                    int position = (int) (getOffset(slot) - start);
+                    if (isPointer(slot)) {
+                        buffer.putInt(position, (int) values.get(slot));
+                    } else {
+                        buffer.putLong(position, values.get(slot));
+                    }
+                }
+            }
+            backend.write(start, area);
+        } else {
+            for (int slot = 0; slot < dirtyFields.length; slot++) {
+                if (dirtyFields[slot]) {
+                    write(slot, values.get(slot));
+                }
+            }
+        }
+        Arrays.fill(dirtyFields, false);
+        dirty = false;
+        pendingUpdates = 0;
+        backend.updateDone();
+    }
+
+}
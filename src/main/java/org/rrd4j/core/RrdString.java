@@ -5,12 +5,12 @@ import java.io.IOException;
 class RrdString<U extends RrdUpdater<U>> extends RrdPrimitive<U> {
     private String cache;
 
-    RrdString(RrdUpdater<U> updater, boolean isConstant) {
-        super(updater, RrdPrimitive.RRD_STRING, isConstant);
+    RrdString(RrdUpdater<U> updater, long pointer, boolean isConstant) {
+        super(updater, RrdPrimitive.RRD_STRING, pointer, isConstant);
     }
 
-    RrdString(RrdUpdater<U> updater) {
-        this(updater, false);
+    RrdString(RrdUpdater<U> updater, long pointer) {
+        this(updater, pointer, false);
     }
 
     void set(String value) throws IOException {
@@ -117,6 +117,17 @@ public class RrdSyncThreadPool
         syncExecutor.shutdown();
     }
 
+    /**
+     * Waits until the tasks running after a {@link #shutdown()} are finished.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    void awaitTermination() throws InterruptedException {
+        while (!syncExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // Keep waiting, the running sync must not be interrupted
+        }
+    }
+
     ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
         return syncExecutor.scheduleWithFixedDelay(command, initialDelay, delay, unit);
     }
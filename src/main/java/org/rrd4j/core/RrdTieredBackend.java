@@ -0,0 +1,85 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+/**
+ * Backend which keeps a RRD resident in an off-heap buffer managed by a {@link RrdTieredBackendFactory}, and spilled
+ * to its file when it's evicted. Objects of this class are created by the factory, see it for more details.
+ *
+ * @since 3.10
+ */
+public class RrdTieredBackend extends ByteBufferBackend implements RrdFileBackend {
+
+    private final RrdTieredBackendFactory factory;
+    private final RrdTieredBackendFactory.Entry entry;
+    private final boolean readOnly;
+
+    /**
+     * Creates a backend for the given file path, promoting the RRD in memory if needed.
+     *
+     * @param path     Path to a file
+     * @param readOnly True, if the RRD should be open in a read-only mode. False otherwise
+     * @param factory  the factory managing the resident RRDs
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected RrdTieredBackend(String path, boolean readOnly, RrdTieredBackendFactory factory) throws IOException {
+        super(path, factory.getPageSize());
+        this.factory = factory;
+        this.readOnly = readOnly;
+        this.entry = factory.acquire(path);
+        if (entry.buffer.capacity() > 0) {
+            setByteBuffer(readOnly ? entry.buffer.asReadOnlyBuffer() : entry.buffer);
+        }
+    }
+
+    @Override
+    protected void setLength(long length) throws IOException {
+        if (readOnly) {
+            throw new RrdBackendException("Read only backend " + getPath());
+        }
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal length: " + length);
+        }
+        factory.resize(entry, (int) length);
+        setByteBuffer(entry.buffer);
+    }
+
+    @Override
+    public long getLength() {
+        return entry.buffer.capacity();
+    }
+
+    /**
+     * Reports the pages modified by the update to the factory, that will write them back.
+     */
+    @Override
+    protected void updateDone() {
+        reportDirtyPages();
+    }
+
+    /**
+     * Reports the pages modified since the previous report to the factory, that will write them back.
+     */
+    void reportDirtyPages() {
+        if (!readOnly) {
+            factory.markDirty(entry, takeDirtyPages());
+        }
+    }
+
+    /**
+     * Releases the RRD, that can be evicted from now on.
+     */
+    @Override
+    protected void close() throws IOException {
+        factory.release(this, entry, readOnly ? new BitSet() : takeDirtyPages());
+        super.close();
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return Paths.get(getPath()).toAbsolutePath().normalize().toString();
+    }
+
+}
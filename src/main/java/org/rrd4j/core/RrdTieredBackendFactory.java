@@ -0,0 +1,437 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Factory class which creates {@link org.rrd4j.core.RrdTieredBackend} objects. RRDs are stored in ordinary files, but
+ * the ones in use are kept resident in off-heap buffers, within a memory budget:
+ * <ul>
+ * <li>opening a RRD that is not resident reads its file in memory, it's promoted.
+ * <li>while the resident RRDs use more than the budget, the cold ones are evicted: their modified pages are written
+ * back to their file and their buffer is released. The RRDs currently open are never evicted, so the budget can be
+ * exceeded when too many are open at once.
+ * <li>the victims are chosen using the {@link Eviction eviction policy}, the least recently used or the least
+ * frequently used RRD.
+ * </ul>
+ * <p>
+ * The modifications of a resident RRD reach its file only when it's evicted, when {@link #sync()} is called or when
+ * the factory is closed. The files are written without holding the lock of the factory, so opening or closing other
+ * RRDs doesn't wait for them. The hit ratio, the resident bytes and the number of evictions are available to size the
+ * budget.
+ *
+ * @since 3.10
+ */
+@RrdBackendAnnotation(name="TIERED", shouldValidateHeader=true)
+public class RrdTieredBackendFactory extends RrdFileBackendFactory {
+
+    /**
+     * The policy used to choose the RRD to evict.
+     */
+    public enum Eviction {
+        /**
+         * Evicts the least recently opened RRD.
+         */
+        LRU,
+        /**
+         * Evicts the least frequently opened RRD, the least recently opened one among the ties.
+         */
+        LFU
+    }
+
+    /**
+     * A RRD known by the factory, resident while its buffer is not null.
+     */
+    static final class Entry {
+        final String path;
+        ByteBuffer buffer;
+        int pins = 0;
+        // The write backs in progress, the buffer is not released until they are done
+        int writers = 0;
+        long uses = 0;
+        final BitSet dirtyPages = new BitSet();
+
+        Entry(String path, ByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private final long memoryBudget;
+    private final Eviction eviction;
+    private final int pageSize = ByteBufferBackend.DEFAULT_PAGE_SIZE;
+    // Resident RRDs, in access order, guarded by this
+    private final LinkedHashMap<String, Entry> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private final Set<RrdTieredBackend> openBackends = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a factory using the LRU eviction policy.
+     *
+     * @param memoryBudget the memory used by the resident RRDs, in bytes
+     */
+    public RrdTieredBackendFactory(long memoryBudget) {
+        this(memoryBudget, Eviction.LRU);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param memoryBudget the memory used by the resident RRDs, in bytes
+     * @param eviction the policy used to choose the RRDs to evict
+     */
+    public RrdTieredBackendFactory(long memoryBudget, Eviction eviction) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("Invalid memory budget: " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        this.eviction = eviction;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates RrdTieredBackend object for the given file path.
+     */
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        RrdTieredBackend backend = new RrdTieredBackend(path, readOnly, this);
+        if (!readOnly) {
+            openBackends.add(backend);
+        }
+        return backend;
+    }
+
+    @Override
+    protected synchronized boolean exists(String path) {
+        return resident.containsKey(path) || super.exists(path);
+    }
+
+    /**
+     * Returns the resident RRD for a path, promoting it if needed. It can't be evicted until it's released.
+     */
+    Entry acquire(String path) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = resident.get(path);
+            if (entry != null) {
+                hits++;
+            } else {
+                misses++;
+                entry = new Entry(path, load(Paths.get(path)));
+                resident.put(path, entry);
+                residentBytes += entry.buffer.capacity();
+            }
+            entry.pins++;
+            entry.uses++;
+        }
+        evict();
+        return entry;
+    }
+
+    private static ByteBuffer load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return ByteBuffer.allocateDirect(0);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new RrdBackendException("File too big for the tiered backend: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new RrdBackendException("File truncated while reading: " + file);
+                }
+            }
+            buffer.clear();
+            return buffer;
+        }
+    }
+
+    /**
+     * Gives a new size to a resident RRD, the content is kept. The buffer is replaced, so it's refused while another
+     * backend uses the RRD.
+     */
+    void resize(Entry entry, int length) throws RrdBackendException {
+        synchronized (this) {
+            if (entry.pins > 1) {
+                throw new RrdBackendException("RRD " + entry.path + " is open by another backend, it can't be resized");
+            }
+            ByteBuffer newBuffer = ByteBuffer.allocateDirect(length);
+            ByteBuffer oldBuffer = entry.buffer.duplicate();
+            oldBuffer.clear().limit(Math.min(oldBuffer.capacity(), length));
+            newBuffer.put(oldBuffer).clear();
+            residentBytes += length - entry.buffer.capacity();
+            // The old buffer is left to the garbage collector, a write back in progress can still use it
+            entry.buffer = newBuffer;
+            // The whole file is written back, to give it the new length
+            entry.dirtyPages.set(0, (length + pageSize - 1) / pageSize);
+        }
+        evict();
+    }
+
+    synchronized void markDirty(Entry entry, BitSet pages) {
+        entry.dirtyPages.or(pages);
+    }
+
+    void release(RrdTieredBackend backend, Entry entry, BitSet pages) {
+        openBackends.remove(backend);
+        synchronized (this) {
+            entry.dirtyPages.or(pages);
+            entry.pins--;
+        }
+        evict();
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Evicts the cold RRDs while the budget is exceeded. The victim is chosen with the lock of the factory, but written
+     * back without it, and released only if it was not opened or modified meanwhile.
+     */
+    private void evict() {
+        while (true) {
+            Entry victim;
+            ByteBuffer buffer;
+            BitSet pages;
+            synchronized (this) {
+                if (residentBytes <= memoryBudget) {
+                    return;
+                }
+                victim = chooseVictim();
+                if (victim == null) {
+                    return;
+                }
+                victim.writers++;
+                buffer = victim.buffer;
+                pages = takeDirtyPages(victim);
+            }
+            boolean written = true;
+            try {
+                writeBack(victim, buffer, pages);
+            } catch (IOException e) {
+                written = false;
+            }
+            synchronized (this) {
+                victim.writers--;
+                if (!written) {
+                    // Kept resident, it will be retried later
+                    return;
+                }
+                if (victim.pins == 0 && victim.writers == 0 && victim.dirtyPages.isEmpty() && victim.buffer != null) {
+                    resident.remove(victim.path);
+                    residentBytes -= victim.buffer.capacity();
+                    RrdNioBackend.unmap(victim.buffer);
+                    victim.buffer = null;
+                    evictions++;
+                }
+            }
+        }
+    }
+
+    // Must be called with the lock of the factory held
+    private Entry chooseVictim() {
+        Entry victim = null;
+        for (Entry entry : resident.values()) {
+            if (entry.pins > 0 || entry.writers > 0) {
+                continue;
+            }
+            if (victim == null) {
+                victim = entry;
+                if (eviction == Eviction.LRU) {
+                    break;
+                }
+            } else if (entry.uses < victim.uses) {
+                victim = entry;
+            }
+        }
+        return victim;
+    }
+
+    // Must be called with the lock of the factory held
+    private static BitSet takeDirtyPages(Entry entry) {
+        BitSet pages = (BitSet) entry.dirtyPages.clone();
+        entry.dirtyPages.clear();
+        return pages;
+    }
+
+    /**
+     * Writes the given pages of a RRD to its file. On failure, they are marked dirty again.
+     */
+    private void writeBack(Entry entry, ByteBuffer buffer, BitSet pages) throws IOException {
+        try {
+            writeBack(entry.path, buffer, pages);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                entry.dirtyPages.or(pages);
+            }
+            throw e;
+        }
+    }
+
+    private void writeBack(String path, ByteBuffer buffer, BitSet pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        int length = buffer.capacity();
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+            for (int start = pages.nextSetBit(0); start >= 0; start = pages.nextSetBit(pages.nextClearBit(start))) {
+                int offset = start * pageSize;
+                int end = (int) Math.min((long) pages.nextClearBit(start) * pageSize, length);
+                if (offset >= end) {
+                    break;
+                }
+                ByteBuffer block = buffer.duplicate();
+                block.limit(end).position(offset);
+                while (block.hasRemaining()) {
+                    channel.write(block, block.position());
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Writes back the modifications of all the resident RRDs to their files, including the ones of the RRDs open and
+     * not yet reported by an update, like the creation of a RRD. The RRDs stay resident.
+     *
+     * @throws java.io.IOException if a file can't be written
+     */
+    public void sync() throws IOException {
+        for (RrdTieredBackend backend : openBackends) {
+            backend.reportDirtyPages();
+        }
+        List<Entry> entries = new ArrayList<>();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        List<BitSet> pages = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : resident.values()) {
+                if (!entry.dirtyPages.isEmpty()) {
+                    entry.writers++;
+                    entries.add(entry);
+                    buffers.add(entry.buffer);
+                    pages.add(takeDirtyPages(entry));
+                }
+            }
+        }
+        List<IOException> failures = new ArrayList<>();
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                try {
+                    writeBack(entries.get(i), buffers.get(i), pages.get(i));
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                for (Entry entry : entries) {
+                    entry.writers--;
+                }
+            }
+        }
+        evict();
+        if (!failures.isEmpty()) {
+            IOException failure = failures.get(0);
+            for (int i = 1; i < failures.size(); i++) {
+                failure.addSuppressed(failures.get(i));
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the memory budget, in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the memory used by the resident RRDs, in bytes
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return the number of resident RRDs
+     */
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * @return the number of opens that found the RRD resident
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of opens that had to read the RRD from its file
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the ratio of opens that found the RRD resident, NaN if nothing was opened
+     */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? Double.NaN : (double) hits / total;
+    }
+
+    /**
+     * @return the number of RRDs evicted
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Writes back the modifications of the resident RRDs and releases their memory. The RRDs must be closed before.
+     *
+     * @throws java.io.IOException if a file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (this) {
+            for (Iterator<Map.Entry<String, Entry>> i = resident.entrySet().iterator(); i.hasNext(); ) {
+                Entry entry = i.next().getValue();
+                if (entry.pins == 0 && entry.writers == 0) {
+                    residentBytes -= entry.buffer.capacity();
+                    RrdNioBackend.unmap(entry.buffer);
+                    entry.buffer = null;
+                    i.remove();
+                }
+            }
+        }
+    }
+
+}
@@ -521,6 +521,43 @@ public class RrdToolkit {
         }
     }
 
+    /**
+     * Creates a compressed, read-only, copy of a RRD file. The archived values are stored as blocks of XOR encoded
+     * doubles, runs of NaN or of constant values use a single bit per value. The copy can be read using a
+     * {@link RrdCompressedBackendFactory}, and converted back with {@link #decompress(String, String)}.
+     *
+     * @param sourcePath Path to the source RRD file (will not be modified)
+     * @param destPath   Path to the compressed RRD file (will be created)
+     * @throws java.io.IOException Thrown in case of I/O error
+     * @since 3.10
+     */
+    public static void compress(String sourcePath, String destPath) throws IOException {
+        if (Util.sameFilePath(sourcePath, destPath)) {
+            throw new IllegalArgumentException(SOURCE_AND_DESTINATION_PATHS_ARE_THE_SAME);
+        }
+        try (RrdDb rrdSource = RrdDb.getBuilder().setPath(sourcePath).readOnly().build()) {
+            RrdCompressedBackendFactory.compress(rrdSource, destPath);
+        }
+    }
+
+    /**
+     * Creates an ordinary RRD file from a file created by {@link #compress(String, String)}.
+     *
+     * @param sourcePath Path to the compressed RRD file (will not be modified)
+     * @param destPath   Path to the new RRD file (will be created)
+     * @throws java.io.IOException Thrown in case of I/O error
+     * @since 3.10
+     */
+    public static void decompress(String sourcePath, String destPath) throws IOException {
+        if (Util.sameFilePath(sourcePath, destPath)) {
+            throw new IllegalArgumentException(SOURCE_AND_DESTINATION_PATHS_ARE_THE_SAME);
+        }
+        try (RrdCompressedBackendFactory factory = new RrdCompressedBackendFactory();
+             RrdDb rrdSource = RrdDb.getBuilder().setPath(sourcePath).setBackendFactory(factory).readOnly().build()) {
+            Files.write(Paths.get(destPath), rrdSource.getBytes());
+        }
+    }
+
     /**
      * Returns list of canonical file names with the specified extension in the given directory. This
      * method is not RRD related, but might come handy to create a quick list of all RRD files
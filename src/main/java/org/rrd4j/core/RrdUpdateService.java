@@ -0,0 +1,533 @@
+package org.rrd4j.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Queues samples for many RRDs and stores them in batches, in the way of rrdcached. The callers of
+ * {@link #update(URI, long, double...)} don't wait for the RRD: the sample is added to the queue of its RRD, and
+ * returned immediately.</p>
+ * <p>The RRDs are spread among a few worker threads, by the hash of their URI. A worker stores the queue of a RRD once
+ * it holds enough samples, or once its oldest sample is old enough, opening the RRD from a {@link RrdDbPool} and
+ * using {@link RrdDb#storeBatch(long[], double[][])}. So the pool and each RRD are used once per batch instead of
+ * once per sample, and only by one thread.</p>
+ * <p>The number of queued samples is bounded: once it's reached, the queued samples are stored without waiting,
+ * {@link #update(URI, long, double...)} blocks until some are stored, and {@link #offer(URI, long, double...)} returns
+ * false.</p>
+ * <p>Samples that can't be stored, because the RRD can't be opened, or their time isn't after the previous one, are
+ * dropped. The errors are kept and thrown by the next {@link #flush(URI)} of the RRD, or {@link #flush()}. A flush also
+ * waits until the samples queued before are stored, so that a fetch that follows sees them.</p>
+ * <pre>
+ * RrdUpdateService service = RrdUpdateService.getBuilder().setPool(pool).build();
+ * ...
+ * service.update(uri, time, in, out);
+ * ...
+ * service.close();
+ * </pre>
+ *
+ * @since 3.10
+ */
+public class RrdUpdateService implements Closeable {
+
+    /**
+     * Builder for {@link RrdUpdateService} instances.
+     *
+     * @since 3.10
+     */
+    public static class Builder {
+        private RrdDbPool pool = null;
+        private int shards = Runtime.getRuntime().availableProcessors();
+        private int maxPendingSamples = 100000;
+        private int maxBatchSize = 1000;
+        private long maxDelay = TimeUnit.SECONDS.toNanos(10);
+
+        private Builder() {
+        }
+
+        /**
+         * @param pool the pool used to open the RRDs, {@link RrdDbPool#getInstance()} if not set
+         * @return the same builder
+         */
+        public Builder setPool(RrdDbPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * @param shards the number of worker threads, the number of processors by default
+         * @return the same builder
+         */
+        public Builder setShards(int shards) {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("Invalid number of shards: " + shards);
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param maxPendingSamples the number of samples queued before the updates are blocked, 100000 by default
+         * @return the same builder
+         */
+        public Builder setMaxPendingSamples(int maxPendingSamples) {
+            if (maxPendingSamples <= 0) {
+                throw new IllegalArgumentException("Invalid number of pending samples: " + maxPendingSamples);
+            }
+            this.maxPendingSamples = maxPendingSamples;
+            return this;
+        }
+
+        /**
+         * @param maxBatchSize the number of samples of a RRD that are stored without waiting, 1000 by default
+         * @return the same builder
+         */
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize <= 0) {
+                throw new IllegalArgumentException("Invalid batch size: " + maxBatchSize);
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param maxDelay the longest time a sample is queued, 10 seconds by default
+         * @param unit the unit of the delay
+         * @return the same builder
+         */
+        public Builder setMaxDelay(long maxDelay, TimeUnit unit) {
+            if (maxDelay < 0) {
+                throw new IllegalArgumentException("Invalid delay: " + maxDelay);
+            }
+            this.maxDelay = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * Creates the service and starts its worker threads.
+         *
+         * @return a new service
+         */
+        public RrdUpdateService build() {
+            return new RrdUpdateService(this);
+        }
+    }
+
+    /**
+     * @return a new builder
+     */
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * The samples queued for a RRD, stored together.
+     */
+    private static class Batch {
+        private final URI uri;
+        private final long created = System.nanoTime();
+        private long[] times = new long[16];
+        private double[][] values = new double[16][];
+        private int count = 0;
+        private boolean urgent = false;
+        private boolean done = false;
+
+        Batch(URI uri) {
+            this.uri = uri;
+        }
+
+        void add(long time, double[] sampleValues) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, 2 * count);
+                values = Arrays.copyOf(values, 2 * count);
+            }
+            times[count] = time;
+            values[count] = sampleValues;
+            count++;
+        }
+    }
+
+    private class Shard implements Runnable {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition ready = lock.newCondition();
+        private final Condition stored = lock.newCondition();
+        private final Map<URI, Batch> queued = new LinkedHashMap<>();
+        private final Map<URI, RrdException> errors = new LinkedHashMap<>();
+        private final Thread worker;
+        private Batch storing = null;
+        private boolean closing = false;
+
+        Shard(int index) {
+            worker = new Thread(this, "rrd4j-update-" + index);
+            worker.setDaemon(true);
+        }
+
+        void add(URI uri, long time, double[] values) {
+            lock.lock();
+            try {
+                if (closing) {
+                    pendingSamples.release();
+                    throw new IllegalStateException("Update service already closed");
+                }
+                Batch batch = queued.get(uri);
+                if (batch == null) {
+                    batch = new Batch(uri);
+                    queued.put(uri, batch);
+                    ready.signal();
+                }
+                batch.add(time, values);
+                if (batch.count == maxBatchSize) {
+                    ready.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Waits until the batches queued now are stored.
+         */
+        void flush(URI uri, List<RrdException> failures) throws InterruptedException {
+            lock.lock();
+            try {
+                List<Batch> targets = new ArrayList<>();
+                for (Batch batch : queued.values()) {
+                    if (uri == null || batch.uri.equals(uri)) {
+                        batch.urgent = true;
+                        targets.add(batch);
+                    }
+                }
+                if (storing != null && (uri == null || storing.uri.equals(uri))) {
+                    targets.add(storing);
+                }
+                ready.signal();
+                for (Batch batch : targets) {
+                    while (!batch.done) {
+                        stored.await();
+                    }
+                }
+                if (uri == null) {
+                    failures.addAll(errors.values());
+                    errors.clear();
+                } else if (errors.containsKey(uri)) {
+                    failures.add(errors.remove(uri));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stores the batches queued now without waiting, to release their samples.
+         */
+        void hurry() {
+            lock.lock();
+            try {
+                for (Batch batch : queued.values()) {
+                    batch.urgent = true;
+                }
+                ready.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closing = true;
+                ready.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the next batch to store, or null if the shard is closed and empty.
+         */
+        private Batch take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    long wait = Long.MAX_VALUE;
+                    for (Iterator<Batch> i = queued.values().iterator(); i.hasNext(); ) {
+                        Batch batch = i.next();
+                        long age = now - batch.created;
+                        if (closing || batch.urgent || batch.count >= maxBatchSize || age >= maxDelay) {
+                            i.remove();
+                            storing = batch;
+                            return batch;
+                        }
+                        wait = Math.min(wait, maxDelay - age);
+                    }
+                    if (closing) {
+                        return null;
+                    }
+                    if (wait == Long.MAX_VALUE) {
+                        ready.await();
+                    } else {
+                        ready.awaitNanos(wait);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void done(Batch batch, RrdException error) {
+            lock.lock();
+            try {
+                if (error != null && !errors.containsKey(batch.uri)) {
+                    errors.put(batch.uri, error);
+                }
+                batch.done = true;
+                storing = null;
+                stored.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Batch batch;
+                while ((batch = take()) != null) {
+                    RrdException error = null;
+                    try {
+                        error = store(batch);
+                    } catch (IOException | RuntimeException e) {
+                        failedSamples.addAndGet(batch.count);
+                        error = new RrdException("Failed to store " + batch.count + " samples in " + batch.uri, e);
+                    } finally {
+                        pendingSamples.release(batch.count);
+                        done(batch, error);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final RrdDbPool pool;
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final Shard[] shards;
+    private final Semaphore pendingSamples;
+    private final int maxPendingSamples;
+    private final AtomicLong storedSamples = new AtomicLong();
+    private final AtomicLong failedSamples = new AtomicLong();
+    private volatile boolean closed = false;
+
+    private RrdUpdateService(Builder builder) {
+        this.pool = builder.pool != null ? builder.pool : RrdDbPool.getInstance();
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxDelay = builder.maxDelay;
+        this.maxPendingSamples = builder.maxPendingSamples;
+        this.pendingSamples = new Semaphore(maxPendingSamples);
+        this.shards = new Shard[builder.shards];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+            shards[i].worker.start();
+        }
+    }
+
+    private Shard getShard(URI uri) {
+        return shards[(uri.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private void hurry() {
+        for (Shard shard : shards) {
+            shard.hurry();
+        }
+    }
+
+    private void checkClosed() {
+        if (closed) {
+            throw new IllegalStateException("Update service already closed");
+        }
+    }
+
+    /**
+     * Queues a sample, waiting if too many samples are already queued.
+     *
+     * @param uri the URI of an existing RRD
+     * @param time the timestamp of the sample, in seconds
+     * @param values the values of the sample, one for each datasource, in the order of their definition
+     * @throws java.lang.IllegalStateException if the service is closed, or the thread was interrupted
+     */
+    public void update(URI uri, long time, double... values) {
+        checkClosed();
+        try {
+            if (!pendingSamples.tryAcquire()) {
+                hurry();
+                pendingSamples.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Update interrupted", e);
+        }
+        getShard(uri).add(uri, time, values.clone());
+    }
+
+    /**
+     * Queues a sample, if not too many samples are already queued.
+     *
+     * @param uri the URI of an existing RRD
+     * @param time the timestamp of the sample, in seconds
+     * @param values the values of the sample, one for each datasource, in the order of their definition
+     * @return false if the sample was not queued, because too many samples are already queued.
+     * @throws java.lang.IllegalStateException if the service is closed
+     */
+    public boolean offer(URI uri, long time, double... values) {
+        checkClosed();
+        if (!pendingSamples.tryAcquire()) {
+            hurry();
+            return false;
+        }
+        getShard(uri).add(uri, time, values.clone());
+        return true;
+    }
+
+    /**
+     * Stores a batch, dropping the samples that are out of order.
+     *
+     * @return the error for the dropped samples, if any
+     */
+    private RrdException store(Batch batch) throws IOException {
+        try (RrdDb rrdDb = pool.requestRrdDb(batch.uri)) {
+            long lastTime = rrdDb.getLastUpdateTime();
+            int dsCount = rrdDb.getDsCount();
+            long[] times = new long[batch.count];
+            double[][] values = new double[batch.count][];
+            int valid = 0;
+            String invalid = null;
+            for (int i = 0; i < batch.count; i++) {
+                if (batch.times[i] <= lastTime) {
+                    invalid = "Bad sample time: " + batch.times[i] + ", previous time was " + lastTime;
+                } else if (batch.values[i].length != dsCount) {
+                    invalid = "Invalid number of values: " + batch.values[i].length + ", exactly " + dsCount + " needed";
+                } else {
+                    times[valid] = batch.times[i];
+                    values[valid] = batch.values[i];
+                    lastTime = times[valid];
+                    valid++;
+                }
+            }
+            if (valid < batch.count) {
+                times = Arrays.copyOf(times, valid);
+                values = Arrays.copyOf(values, valid);
+            }
+            rrdDb.storeBatch(times, values);
+            storedSamples.addAndGet(valid);
+            if (invalid == null) {
+                return null;
+            }
+            failedSamples.addAndGet(batch.count - valid);
+            return new RrdException("Dropped " + (batch.count - valid) + " samples for " + batch.uri + "; " + invalid);
+        }
+    }
+
+    private void flushShards(URI uri) throws IOException {
+        List<RrdException> failures = new ArrayList<>();
+        try {
+            if (uri != null) {
+                getShard(uri).flush(uri, failures);
+            } else {
+                for (Shard shard : shards) {
+                    shard.flush(null, failures);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Flush interrupted", e);
+        }
+        if (!failures.isEmpty()) {
+            RrdException first = failures.get(0);
+            for (int i = 1; i < failures.size(); i++) {
+                first.addSuppressed(failures.get(i));
+            }
+            throw first;
+        }
+    }
+
+    /**
+     * Waits until the samples of a RRD queued before are stored.
+     *
+     * @param uri the URI of the RRD
+     * @throws java.io.IOException if some samples of the RRD were dropped since the previous flush
+     * @throws java.lang.IllegalStateException if the thread was interrupted
+     */
+    public void flush(URI uri) throws IOException {
+        flushShards(uri);
+    }
+
+    /**
+     * Waits until all the samples queued before are stored.
+     *
+     * @throws java.io.IOException if some samples were dropped since the previous flush, the others errors are
+     * suppressed in the first one
+     * @throws java.lang.IllegalStateException if the thread was interrupted
+     */
+    public void flush() throws IOException {
+        flushShards(null);
+    }
+
+    /**
+     * @return the number of samples queued and not yet stored
+     */
+    public int getPendingSamples() {
+        return maxPendingSamples - pendingSamples.availablePermits();
+    }
+
+    /**
+     * @return the number of samples stored since the service was created
+     */
+    public long getStoredSamples() {
+        return storedSamples.get();
+    }
+
+    /**
+     * @return the number of samples dropped since the service was created
+     */
+    public long getFailedSamples() {
+        return failedSamples.get();
+    }
+
+    /**
+     * Stores all the queued samples and stops the worker threads. No more samples are accepted.
+     *
+     * @throws java.io.IOException if some samples were dropped since the previous flush
+     * @throws java.lang.IllegalStateException if the thread was interrupted
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (Shard shard : shards) {
+            shard.close();
+        }
+        try {
+            for (Shard shard : shards) {
+                shard.worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Close interrupted", e);
+        }
+        flushShards(null);
+    }
+
+}
@@ -22,6 +22,8 @@ interface RrdUpdater<T extends RrdUpdater<T>> {
      * <p>getRrdAllocator.</p>
      *
      * @return a {@link org.rrd4j.core.RrdAllocator} object.
+     * @deprecated The offsets come from the layout of the RRD, the allocator is not used any more.
      */
+    @Deprecated
     RrdAllocator getRrdAllocator();
 }
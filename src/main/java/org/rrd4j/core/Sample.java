@@ -3,6 +3,7 @@ package org.rrd4j.core;
 import java.io.IOException;
 import java.util.StringTokenizer;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>Class to represent data source values for the given timestamp. Objects of this
@@ -20,6 +21,7 @@ import java.util.Arrays;
  * <p>Newly created Sample object contains all data source values set to 'unknown'.
  * You should specify only 'known' data source values. However, if you want to specify
  * 'unknown' values too, use <code>Double.NaN</code>.</p>
+ * <p>To update the same RRD very often, a {@link SampleUpdater} can be created once and reused.</p>
  *
  * @author Sasa Markovic
  */
@@ -195,6 +197,30 @@ public class Sample {
         clearValues();
     }
 
+    /**
+     * Stores sample in the corresponding RRD, without waiting for the writes to reach the storage. If the update
+     * operation succeeds, all datasource values in the sample will be set to Double.NaN (unknown) values, before the
+     * returned future completes.
+     * <p>
+     * The calling thread is blocked only when the backend does I/O synchronously. With
+     * {@link org.rrd4j.core.RrdAsyncFileBackendFactory}, the sample is processed in memory and the future completes
+     * when the modified bytes are written in the file.
+     *
+     * @return a future, completed exceptionally if the update failed.
+     * @since 3.10
+     */
+    public CompletableFuture<Void> updateAsync() {
+        try {
+            CompletableFuture<Void> written = parentDb.storeAsync(this);
+            clearValues();
+            return written;
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
     /**
      * Creates sample with the timestamp and data source values supplied
      * in the argument string and stores sample in the corresponding RRD.
@@ -0,0 +1,214 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Accepts samples slightly out of order, and stores them in time order. It's created with
+ * {@link RrdDb#createReorderBuffer(long)}, and can be shared by many threads collecting samples for the same RRD:</p>
+ * <pre>
+ * SampleReorderBuffer buffer = rrdDb.createReorderBuffer(60);
+ * ...
+ * buffer.add(time, in, out);
+ * ...
+ * buffer.flush();
+ * rrdDb.close();
+ * </pre>
+ * <p>The samples are held until they are older than the window, relative to the newest sample added, and then stored
+ * together with {@link RrdDb#storeBatch(long[], double[][])}. A sample that is not after the last one stored, because
+ * it came later than the window, is refused.</p>
+ * <p>The samples are stored by the thread that adds a sample, while the collecting threads keep adding samples. If
+ * another thread is already storing, the samples out of the window are left for the next call. If storing fails, the
+ * samples are kept in the buffer, and stored again by the next call, and the exception is thrown to the caller that
+ * triggered the store.</p>
+ * <p>The samples still held are not stored when the RRD is closed, they must be stored by {@link #flush()} before.</p>
+ *
+ * @since 3.10
+ */
+public class SampleReorderBuffer {
+    private final RrdDb parentDb;
+    private final long window;
+    private final int dsCount;
+    // Protects the held samples
+    private final ReentrantLock lock = new ReentrantLock();
+    // Held while storing, always taken before lock, keeps the samples taken from the buffer stored in the same order
+    private final ReentrantLock storeLock = new ReentrantLock();
+    // The held samples, sorted by time
+    private long[] times = new long[16];
+    private double[][] values = new double[16][];
+    private int count = 0;
+    private long newestTime;
+    private long storedTime;
+
+    SampleReorderBuffer(RrdDb parentDb, long window) throws IOException {
+        if (window < 0) {
+            throw new IllegalArgumentException("Invalid reorder window: " + window);
+        }
+        this.parentDb = parentDb;
+        this.window = window;
+        this.dsCount = parentDb.getDsCount();
+        this.storedTime = parentDb.getLastUpdateTime();
+        this.newestTime = storedTime;
+    }
+
+    /**
+     * Adds a sample, and stores the samples that are now out of the window.
+     *
+     * @param time   Timestamp of the sample, in seconds.
+     * @param values Values of the sample, one for each datasource, in the order of their definition.
+     * @throws java.io.IOException Thrown in case of I/O error, while storing the samples out of the window. The
+     *         sample was added, and the samples are kept in the buffer.
+     * @throws java.lang.IllegalArgumentException if the time is not after the last sample stored, if a sample was
+     *         already added for this time, or if the number of values is wrong.
+     */
+    public void add(long time, double... values) throws IOException {
+        if (values.length != dsCount) {
+            throw new IllegalArgumentException("Invalid number of values: " + values.length +
+                    ", exactly " + dsCount + " needed");
+        }
+        double[] sampleValues = values.clone();
+        lock.lock();
+        try {
+            if (time <= storedTime) {
+                throw new IllegalArgumentException("Bad sample time: " + time +
+                        ". Samples are already stored up to " + storedTime + ", outside of the reorder window");
+            }
+            int index = Arrays.binarySearch(times, 0, count, time);
+            if (index >= 0) {
+                throw new IllegalArgumentException("Bad sample time: " + time + ". A sample was already added");
+            }
+            insert(-index - 1, time, sampleValues);
+            newestTime = Math.max(newestTime, time);
+        } finally {
+            lock.unlock();
+        }
+        // Checked again once the store lock is released, as a sample might have been left by another thread meanwhile
+        do {
+            if (!storeLock.tryLock()) {
+                return;
+            }
+            store(false);
+        } while (hasSamplesOutOfWindow());
+    }
+
+    private boolean hasSamplesOutOfWindow() {
+        lock.lock();
+        try {
+            return count > 0 && times[0] <= newestTime - window;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores all the samples held, waiting for another thread storing samples.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error, the samples are kept in the buffer.
+     */
+    public void flush() throws IOException {
+        storeLock.lock();
+        store(true);
+    }
+
+    private void insert(int index, long time, double[] sampleValues) {
+        if (count == times.length) {
+            times = Arrays.copyOf(times, 2 * count);
+            values = Arrays.copyOf(values, 2 * count);
+        }
+        System.arraycopy(times, index, times, index + 1, count - index);
+        System.arraycopy(values, index, values, index + 1, count - index);
+        times[index] = time;
+        values[index] = sampleValues;
+        count++;
+    }
+
+    /**
+     * Takes the samples out of the window, or all of them, from the buffer and stores them, until none is left. Called
+     * with the store lock held, and releases it. The lock is only held while taking the samples, so that samples can be
+     * added meanwhile.
+     */
+    private void store(boolean all) throws IOException {
+        try {
+            while (true) {
+                long[] batchTimes;
+                double[][] batchValues;
+                long previousTime;
+                lock.lock();
+                try {
+                    long limit = all ? Long.MAX_VALUE : newestTime - window;
+                    int index = Arrays.binarySearch(times, 0, count, limit);
+                    int taken = index >= 0 ? index + 1 : -index - 1;
+                    if (taken == 0) {
+                        return;
+                    }
+                    batchTimes = Arrays.copyOf(times, taken);
+                    batchValues = Arrays.copyOf(values, taken);
+                    System.arraycopy(times, taken, times, 0, count - taken);
+                    System.arraycopy(values, taken, values, 0, count - taken);
+                    Arrays.fill(values, count - taken, count, null);
+                    count -= taken;
+                    previousTime = storedTime;
+                    storedTime = batchTimes[taken - 1];
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    parentDb.storeBatch(batchTimes, batchValues);
+                } catch (IOException | RuntimeException e) {
+                    restore(batchTimes, batchValues, previousTime);
+                    throw e;
+                }
+            }
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    /**
+     * Puts back a batch that failed to be stored. The samples added meanwhile are all after it, as they are after the
+     * stored time.
+     */
+    private void restore(long[] batchTimes, double[][] batchValues, long previousTime) {
+        lock.lock();
+        try {
+            int taken = batchTimes.length;
+            if (count + taken > times.length) {
+                times = Arrays.copyOf(times, Math.max(2 * times.length, count + taken));
+                values = Arrays.copyOf(values, times.length);
+            }
+            System.arraycopy(times, 0, times, taken, count);
+            System.arraycopy(values, 0, values, taken, count);
+            System.arraycopy(batchTimes, 0, times, 0, taken);
+            System.arraycopy(batchValues, 0, values, 0, taken);
+            count += taken;
+            storedTime = previousTime;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of samples held, not yet stored.
+     *
+     * @return the number of samples
+     */
+    public int getPendingSamples() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the reorder window.
+     *
+     * @return the window, in seconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+}
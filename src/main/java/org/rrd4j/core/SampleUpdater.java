@@ -0,0 +1,104 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>A reusable alternative to {@link Sample}, for programs that update the same RRD very often. It's created once
+ * with {@link RrdDb#createSampleUpdater()}, and then used for all the updates of this RRD:</p>
+ * <pre>
+ * SampleUpdater updater = rrdDb.createSampleUpdater();
+ * int input = updater.getDsIndex("input");
+ * int output = updater.getDsIndex("output");
+ * ...
+ * updater.setTime(time).setValue(input, in).setValue(output, out).update();
+ * </pre>
+ * <p>The datasources are designated by their index, looked up once, and the values are kept in a buffer reused by
+ * each update. With a backend that allows caching, like the memory or NIO ones, an update allocates no memory.</p>
+ * <p>Like {@link Sample}, all the values are set back to 'unknown' after each update. An updater isn't thread safe,
+ * it must be used by one thread at a time.</p>
+ *
+ * @since 3.10
+ */
+public class SampleUpdater {
+    private final RrdDb parentDb;
+    private final String[] dsNames;
+    private final double[] values;
+    private long time;
+
+    SampleUpdater(RrdDb parentDb) throws IOException {
+        this.parentDb = parentDb;
+        this.dsNames = parentDb.getDsNames();
+        this.values = new double[dsNames.length];
+        clearValues();
+    }
+
+    private void clearValues() {
+        Arrays.fill(values, Double.NaN);
+    }
+
+    /**
+     * Returns the index of a datasource, to be used with {@link #setValue(int, double)}.
+     *
+     * @param dsName Datasource name.
+     * @return the index of the datasource in the RRD.
+     * @throws java.lang.IllegalArgumentException if the datasource doesn't exist.
+     */
+    public int getDsIndex(String dsName) {
+        for (int i = 0; i < dsNames.length; i++) {
+            if (dsNames[i].equals(dsName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Datasource " + dsName + " not found");
+    }
+
+    /**
+     * Sets the timestamp of the next update.
+     *
+     * @param time New timestamp, in seconds.
+     * @return This <code>SampleUpdater</code> object
+     */
+    public SampleUpdater setTime(long time) {
+        this.time = time;
+        return this;
+    }
+
+    /**
+     * Sets the value of a datasource for the next update.
+     *
+     * @param dsIndex Index of the datasource, as returned by {@link #getDsIndex(String)}.
+     * @param value   Data source value.
+     * @return This <code>SampleUpdater</code> object
+     * @throws java.lang.IllegalArgumentException if the index is out of bounds.
+     */
+    public SampleUpdater setValue(int dsIndex, double value) {
+        if (dsIndex < 0 || dsIndex >= values.length) {
+            throw new IllegalArgumentException("Sample datasource index " + dsIndex + " out of bounds");
+        }
+        values[dsIndex] = value;
+        return this;
+    }
+
+    /**
+     * Returns the timestamp of the next update.
+     *
+     * @return Timestamp in seconds.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Stores the values set since the previous update, with the timestamp set, and sets all the values back to
+     * 'unknown'.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error.
+     * @throws java.lang.IllegalArgumentException if the timestamp isn't after the last update time.
+     */
+    public void update() throws IOException {
+        parentDb.store(time, values);
+        clearValues();
+    }
+
+}
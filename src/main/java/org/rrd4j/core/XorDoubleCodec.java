@@ -0,0 +1,135 @@
+package org.rrd4j.core;
+
+import java.util.Arrays;
+
+/**
+ * Compresses doubles with the XOR encoding of the Gorilla time series database. Each value is compared to the value
+ * <code>stride</code> positions before it, the same datasource in the previous row of an archive, and only the
+ * meaningful bits of their XOR are stored. Identical values, like runs of NaN, use a single bit.
+ */
+final class XorDoubleCodec {
+
+    private XorDoubleCodec() {
+    }
+
+    private static final class BitWriter {
+        private byte[] buffer = new byte[64];
+        private long bitCount = 0;
+
+        void write(long bits, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                int index = (int) (bitCount >>> 3);
+                if (index == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                if (((bits >>> i) & 1) != 0) {
+                    buffer[index] |= (byte) (0x80 >>> (bitCount & 7));
+                }
+                bitCount++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (int) ((bitCount + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] buffer;
+        private long position = 0;
+
+        BitReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        long read(int count) {
+            long bits = 0;
+            for (int i = 0; i < count; i++) {
+                int bit = (buffer[(int) (position >>> 3)] >>> (7 - (position & 7))) & 1;
+                bits = (bits << 1) | bit;
+                position++;
+            }
+            return bits;
+        }
+    }
+
+    /**
+     * Encodes values.
+     *
+     * @param values the values to encode
+     * @param stride the distance between a value and the one it's compared to
+     * @return the encoded bytes
+     */
+    static byte[] encode(double[] values, int stride) {
+        BitWriter writer = new BitWriter();
+        int[] leadingZeros = new int[stride];
+        int[] trailingZeros = new int[stride];
+        Arrays.fill(leadingZeros, -1);
+        for (int i = 0; i < values.length; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            if (i < stride) {
+                writer.write(bits, 64);
+                continue;
+            }
+            long xor = bits ^ Double.doubleToRawLongBits(values[i - stride]);
+            if (xor == 0) {
+                writer.write(0, 1);
+                continue;
+            }
+            writer.write(1, 1);
+            int column = i % stride;
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (leadingZeros[column] >= 0 && leading >= leadingZeros[column] && trailing >= trailingZeros[column]) {
+                // The meaningful bits fit in the previous window of this column
+                writer.write(0, 1);
+                writer.write(xor >>> trailingZeros[column], 64 - leadingZeros[column] - trailingZeros[column]);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                writer.write(1, 1);
+                writer.write(leading, 5);
+                writer.write(meaningful - 1, 6);
+                writer.write(xor >>> trailing, meaningful);
+                leadingZeros[column] = leading;
+                trailingZeros[column] = trailing;
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decodes values encoded by {@link #encode(double[], int)}.
+     *
+     * @param encoded the encoded bytes
+     * @param count the number of values
+     * @param stride the stride used to encode them
+     * @return the values
+     */
+    static double[] decode(byte[] encoded, int count, int stride) {
+        BitReader reader = new BitReader(encoded);
+        long[] bits = new long[count];
+        int[] leadingZeros = new int[stride];
+        int[] trailingZeros = new int[stride];
+        for (int i = 0; i < count; i++) {
+            if (i < stride) {
+                bits[i] = reader.read(64);
+            } else if (reader.read(1) == 0) {
+                bits[i] = bits[i - stride];
+            } else {
+                int column = i % stride;
+                if (reader.read(1) != 0) {
+                    leadingZeros[column] = (int) reader.read(5);
+                    trailingZeros[column] = 64 - leadingZeros[column] - ((int) reader.read(6) + 1);
+                }
+                int meaningful = 64 - leadingZeros[column] - trailingZeros[column];
+                bits[i] = bits[i - stride] ^ (reader.read(meaningful) << trailingZeros[column]);
+            }
+        }
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = Double.longBitsToDouble(bits[i]);
+        }
+        return values;
+    }
+
+}
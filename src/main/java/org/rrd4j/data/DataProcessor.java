@@ -22,6 +22,8 @@ import org.rrd4j.core.FetchRequest;
 import org.rrd4j.core.RrdBackendFactory;
 import org.rrd4j.core.RrdDb;
 import org.rrd4j.core.RrdDbPool;
+import org.rrd4j.core.RrdReader;
+import org.rrd4j.core.RrdReaderCache;
 import org.rrd4j.core.Util;
 
 /**
@@ -61,6 +63,7 @@ public class DataProcessor implements DataHolder {
 
     private boolean poolUsed = DEFAULT_POOL_USAGE_POLICY;
     private RrdDbPool pool = null;
+    private RrdReaderCache readerCache = null;
 
     private long tStart;
     private long tEnd;
@@ -170,6 +173,26 @@ public class DataProcessor implements DataHolder {
         this.pool = pool;
     }
 
+    /**
+     * @return the cache of readers used to fetch data, or null if the RRD files are opened as {@link RrdDb}.
+     * @since 3.10
+     */
+    public RrdReaderCache getReaderCache() {
+        return readerCache;
+    }
+
+    /**
+     * Defines a cache of {@link org.rrd4j.core.RrdReader RrdReader} used to fetch data, instead of opening each
+     * RRD file as a read-only {@link RrdDb}. The pool is then not used. The cache can be shared by many data
+     * processors.
+     *
+     * @param readerCache the cache of readers, or null to open the RRD files as {@link RrdDb}.
+     * @since 3.10
+     */
+    public void setReaderCache(RrdReaderCache readerCache) {
+        this.readerCache = readerCache;
+    }
+
 
     /**
      * <p>Sets the number of pixels (target graph width). This number is used only to calculate pixel coordinates
@@ -975,6 +998,18 @@ public class DataProcessor implements DataHolder {
 
     private void fetchRrdData() throws IOException {
         long tEndFixed = (tEnd == 0) ? Util.getTime() : tEnd;
+        if (readerCache != null) {
+            for (int i = 0; i < defSources.length; i++) {
+                if (!defSources[i].isLoaded()) {
+                    RrdReader reader = readerCache.getReader(defSources[i].getCanonicalUri(), defSources[i].getBackend());
+                    fetchDef(i, reader.createFetchRequest(defSources[i].getConsolFun(), tStart, tEndFixed,
+                            fetchRequestResolution));
+                    // read after the fetch, that refreshed the reader
+                    lastRrdArchiveUpdateTime = Math.max(lastRrdArchiveUpdateTime, reader.getLastArchiveUpdateTime());
+                }
+            }
+            return;
+        }
         RrdDb[] batchRrd = new RrdDb[defSources.length];
         Map<URI, RrdDb> openRrd = new HashMap<>(defSources.length);
         Set<RrdDb> newDb = new HashSet<>(defSources.length);
@@ -1006,30 +1041,12 @@ public class DataProcessor implements DataHolder {
                 }
                 if (!defSources[i].isLoaded()) {
                     // not fetched yet
-                    Set<String> dsNames = new HashSet<>();
-                    dsNames.add(defSources[i].getDsName());
-                    // look for all other datasources with the same path and the same consolidation function
-                    for (int j = i + 1; j < defSources.length; j++) {
-                        if (defSources[i].isCompatibleWith(defSources[j])) {
-                            dsNames.add(defSources[j].getDsName());
-                        }
-                    }
-                    // now we have everything
                     lastRrdArchiveUpdateTime = Math.max(
                             lastRrdArchiveUpdateTime,
                             batchRrd[i].getLastArchiveUpdateTime());
-                    FetchRequest req = batchRrd[i].createFetchRequest(
+                    fetchDef(i, batchRrd[i].createFetchRequest(
                             defSources[i].getConsolFun(), tStart, tEndFixed,
-                            fetchRequestResolution);
-                    req.setFilter(dsNames);
-                    FetchData data = req.fetchData();
-                    assert data != null;
-                    defSources[i].setFetchData(data);
-                    for (int j = i + 1; j < defSources.length; j++) {
-                        if (defSources[i].isCompatibleWith(defSources[j])) {
-                            defSources[j].setFetchData(data);
-                        }
-                    }
+                            fetchRequestResolution));
                 }
             }
         } catch (UncheckedIOException ex){
@@ -1044,6 +1061,30 @@ public class DataProcessor implements DataHolder {
         }
     }
 
+    /**
+     * Fetches the data of a def, and of all the following defs using the same RRD and consolidation function.
+     */
+    private void fetchDef(int i, FetchRequest req) throws IOException {
+        Set<String> dsNames = new HashSet<>();
+        dsNames.add(defSources[i].getDsName());
+        // look for all other datasources with the same path and the same consolidation function
+        for (int j = i + 1; j < defSources.length; j++) {
+            if (defSources[i].isCompatibleWith(defSources[j])) {
+                dsNames.add(defSources[j].getDsName());
+            }
+        }
+        // now we have everything
+        req.setFilter(dsNames);
+        FetchData data = req.fetchData();
+        assert data != null;
+        defSources[i].setFetchData(data);
+        for (int j = i + 1; j < defSources.length; j++) {
+            if (defSources[i].isCompatibleWith(defSources[j])) {
+                defSources[j].setFetchData(data);
+            }
+        }
+    }
+
     private void fixZeroEndingTimestamp() {
         if (tEnd == 0) {
             if (defSources.length == 0) {
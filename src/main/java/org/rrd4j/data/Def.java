@@ -4,6 +4,7 @@ import java.net.URI;
 
 import org.rrd4j.ConsolFun;
 import org.rrd4j.core.FetchData;
+import org.rrd4j.core.FetchRequest;
 import org.rrd4j.core.RrdBackendFactory;
 import org.rrd4j.core.RrdDb;
 
@@ -20,9 +21,9 @@ class Def extends Source {
 
     Def(String name, String dsName, FetchData fetchData) {
         this(name,
-                fetchData.getRequest().getParentDb().getCanonicalUri(),
+                getCanonicalUri(fetchData.getRequest()),
                 dsName, fetchData.getRequest().getConsolFun(),
-                fetchData.getRequest().getParentDb().getRrdBackend().getFactory()
+                getBackend(fetchData.getRequest())
                 );
         this.fetchData = fetchData;
     }
@@ -35,6 +36,14 @@ class Def extends Source {
         this.backend = backend;
     }
 
+    private static URI getCanonicalUri(FetchRequest request) {
+        return request.getParentDb() != null ? request.getParentDb().getCanonicalUri() : request.getReader().getCanonicalUri();
+    }
+
+    private static RrdBackendFactory getBackend(FetchRequest request) {
+        return request.getParentDb() != null ? request.getParentDb().getRrdBackend().getFactory() : request.getReader().getBackendFactory();
+    }
+
     URI getCanonicalUri() {
        return rrdUri;
     }
@@ -58,6 +67,9 @@ class Def extends Source {
                         (backend != null && def.backend != null && backend.equals(def.backend)));
     }
 
+    /**
+     * @return the RRD of the fetched data, or null if it was fetched by a {@link org.rrd4j.core.RrdReader}
+     */
     RrdDb getRrdDb() {
         return fetchData.getRequest().getParentDb();
     }
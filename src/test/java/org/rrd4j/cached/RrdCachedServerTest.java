@@ -0,0 +1,123 @@
+package org.rrd4j.cached;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDbPool;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.RrdMemoryBackendFactory;
+
+public class RrdCachedServerTest {
+
+    private static final long START = 920804400L;
+
+    private final RrdMemoryBackendFactory factory = new RrdMemoryBackendFactory();
+    private final RrdDbPool pool = new RrdDbPool(factory);
+    private RrdCachedServer server;
+    private Socket socket;
+    private BufferedReader reader;
+    private Writer writer;
+
+    @Before
+    public void start() throws IOException {
+        server = RrdCachedServer.getBuilder().setPool(pool).setFactory(factory)
+                .setBasePath(Paths.get("/rrd")).setPort(0).setMaxDelay(1, TimeUnit.HOURS).build();
+        socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        RrdDef def = new RrdDef(factory.getUri("/rrd/test.rrd"), START, 300);
+        def.addDatasource("in", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addDatasource("out", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 100);
+        pool.requestRrdDb(def).close();
+    }
+
+    @After
+    public void stop() throws IOException {
+        socket.close();
+        server.close();
+    }
+
+    private String send(String command) throws IOException {
+        writer.write(command + "\n");
+        writer.flush();
+        return reader.readLine();
+    }
+
+    private long getLastUpdateTime() throws IOException {
+        try (RrdDb db = pool.requestRrdDb(factory.getUri("/rrd/test.rrd"))) {
+            return db.getLastUpdateTime();
+        }
+    }
+
+    @Test
+    public void testUpdate() throws IOException {
+        Assert.assertEquals("0 errors, enqueued 2 value(s).",
+                send("UPDATE test.rrd " + (START + 300) + ":1:2 " + (START + 600) + ":U:4"));
+        Assert.assertEquals(START, getLastUpdateTime());
+        Assert.assertEquals("0 Successfully flushed test.rrd.", send("FLUSH test.rrd"));
+        Assert.assertEquals(START + 600, getLastUpdateTime());
+        try (RrdDb db = pool.requestRrdDb(factory.getUri("/rrd/test.rrd"))) {
+            Assert.assertEquals(1.0, db.getArchive(0).getRobin(0).getValue(98), 0);
+            Assert.assertTrue(Double.isNaN(db.getArchive(0).getRobin(0).getValue(99)));
+            Assert.assertEquals(4.0, db.getArchive(0).getRobin(1).getValue(99), 0);
+        }
+
+        Assert.assertEquals("5 Statistics follow", send("STATS"));
+        Assert.assertEquals("QueueLength: 0", reader.readLine());
+        Assert.assertEquals("UpdatesReceived: 2", reader.readLine());
+        Assert.assertEquals("FlushesReceived: 1", reader.readLine());
+        Assert.assertEquals("UpdatesWritten: 2", reader.readLine());
+        Assert.assertEquals("UpdatesDropped: 0", reader.readLine());
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        Assert.assertEquals("0 Go ahead.  End with dot '.' on its own line.", send("BATCH"));
+        writer.write("UPDATE test.rrd " + (START + 300) + ":1:2\n");
+        writer.write("UPDATE test.rrd " + (START + 600) + ":x:2\n");
+        writer.write("UPDATE ../test.rrd " + (START + 600) + ":3:4\n");
+        writer.write("update test.rrd " + (START + 900) + ":5:6\n");
+        Assert.assertEquals("2 errors", send("."));
+        Assert.assertEquals("2 Invalid value: x", reader.readLine());
+        Assert.assertEquals("3 Access denied: ../test.rrd", reader.readLine());
+        Assert.assertEquals("0 Started flush.", send("FLUSHALL"));
+        Assert.assertEquals(START + 900, getLastUpdateTime());
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        Assert.assertEquals("0 errors, enqueued 1 value(s).", send("UPDATE test.rrd " + START + ":1:2"));
+        Assert.assertEquals("0 errors, enqueued 1 value(s).", send("UPDATE missing.rrd N:1:2"));
+        Assert.assertTrue(send("FLUSH test.rrd").startsWith("-1 Dropped 1 samples"));
+        Assert.assertTrue(send("FLUSHALL").startsWith("-1 "));
+        Assert.assertEquals("0 Started flush.", send("FLUSHALL"));
+        Assert.assertEquals("-1 Usage: UPDATE <filename> <values> [<values> ...]", send("UPDATE test.rrd"));
+        Assert.assertEquals("-1 Invalid timestamp: now", send("UPDATE test.rrd now:1:2"));
+        Assert.assertEquals("-1 Unknown command: FORGET", send("FORGET test.rrd"));
+        Assert.assertEquals("7 Command overview", send("HELP"));
+        for (int i = 0; i < 7; i++) {
+            Assert.assertNotNull(reader.readLine());
+        }
+        writer.write("QUIT\n");
+        writer.flush();
+        Assert.assertNull(reader.readLine());
+    }
+
+}
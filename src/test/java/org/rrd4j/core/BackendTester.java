@@ -27,6 +27,44 @@ public abstract class BackendTester {
         }
     }
 
+    public void testStrided(RrdBackendFactory factory, String path) throws IOException {
+        // Three interleaved columns, more rows than a block of the default implementation
+        int rows = 5000;
+        RrdBackend be = factory.open(path, false);
+        be.setLength(3L * 8 * rows);
+        double[] values = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = i;
+        }
+        be.writeStridedDouble(0, 24, -1.0, rows);
+        be.writeStridedDouble(16, 24, -2.0, rows);
+        be.writeStridedDouble(8, 24, values);
+        Assert.assertArrayEquals(values, be.readStridedDouble(8, 24, rows), 0);
+        double[] first = be.readStridedDouble(0, 24, rows);
+        double[] last = be.readStridedDouble(16, 24, rows);
+        for (int i = 0; i < rows; i++) {
+            Assert.assertEquals(-1.0, first[i], 0);
+            Assert.assertEquals(-2.0, last[i], 0);
+        }
+        Assert.assertArrayEquals(new double[] {-1.0, 0.0, -2.0, -1.0, 1.0}, be.readStridedDouble(0, 8, 5), 0);
+
+        // The same with floats
+        be.writeStridedFloat(0, 12, -1.0, rows);
+        be.writeStridedFloat(8, 12, -2.0, rows);
+        be.writeStridedFloat(4, 12, values);
+        Assert.assertArrayEquals(values, be.readStridedFloat(4, 12, rows), 0);
+        first = be.readStridedFloat(0, 12, rows);
+        last = be.readStridedFloat(8, 12, rows);
+        for (int i = 0; i < rows; i++) {
+            Assert.assertEquals(-1.0, first[i], 0);
+            Assert.assertEquals(-2.0, last[i], 0);
+        }
+        Assert.assertArrayEquals(new double[] {-1.0, 0.0, -2.0, -1.0, 1.0}, be.readStridedFloat(0, 4, 5), 0);
+        be.writeFloat(4, 0.1f);
+        Assert.assertEquals(0.1f, be.readFloat(4), 0);
+        be.close();
+    }
+
     public void testRrdDb(RrdDb db) throws IOException {
 
         Assert.assertNotNull(db.getBytes());
@@ -0,0 +1,116 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ByteBufferBackendTest {
+
+    private static class ChunkedBackend extends ByteBufferBackend {
+        private final long length;
+
+        ChunkedBackend(int chunkShift, int chunkCount) {
+            super("chunked");
+            ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                chunks[i] = ByteBuffer.allocate(1 << chunkShift);
+            }
+            setByteBuffers(chunks, chunkShift);
+            length = (long) chunkCount << chunkShift;
+        }
+
+        @Override
+        protected void setLength(long length) {
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+    }
+
+    @Test
+    public void testCrossingPrimitives() throws IOException {
+        // 16 bytes chunks, every offset from 9 to 15 crosses a boundary for a long
+        for (long offset = 8; offset < 17; offset++) {
+            ChunkedBackend backend = new ChunkedBackend(4, 4);
+            backend.writeLong(offset, 0x0102030405060708L);
+            Assert.assertEquals(0x0102030405060708L, backend.readLong(offset));
+            backend.writeDouble(offset + 16, Math.PI);
+            Assert.assertEquals(Math.PI, backend.readDouble(offset + 16), 0);
+            backend.writeInt(offset + 32, 0x01020304);
+            Assert.assertEquals(0x01020304, backend.readInt(offset + 32));
+            backend.writeShort(offset + 40, (short) 0x0102);
+            Assert.assertEquals((short) 0x0102, backend.readShort(offset + 40));
+        }
+    }
+
+    @Test
+    public void testCrossingBulk() throws IOException {
+        double[] values = new double[20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        for (long offset = 0; offset < 16; offset += 4) {
+            ChunkedBackend backend = new ChunkedBackend(5, 8);
+            backend.writeDouble(offset, values);
+            Assert.assertArrayEquals(values, backend.readDouble(offset, values.length), 0);
+            backend.writeDouble(offset + 8, Double.NaN, 10);
+            double[] read = backend.readDouble(offset, values.length);
+            Assert.assertEquals(0, read[0], 0);
+            for (int i = 1; i < 11; i++) {
+                Assert.assertTrue(Double.isNaN(read[i]));
+            }
+            Assert.assertEquals(11, read[11], 0);
+            Assert.assertEquals(8L * values.length + 8L * 10, backend.getDirtyBytes());
+        }
+    }
+
+    @Test
+    public void testCrossingStrings() throws IOException {
+        ChunkedBackend backend = new ChunkedBackend(5, 16);
+        backend.writeString(10, "a string");
+        Assert.assertEquals("a string", backend.readString(10));
+        String big = "a very long string, bigger than a chunk";
+        backend.writeString(60, big);
+        Assert.assertEquals(big, backend.readString(60));
+    }
+
+    @Test
+    public void testBytes() throws IOException {
+        ChunkedBackend backend = new ChunkedBackend(4, 4);
+        byte[] b = new byte[40];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) i;
+        }
+        backend.write(5, b);
+        byte[] read = new byte[40];
+        backend.read(5, read);
+        Assert.assertArrayEquals(b, read);
+    }
+
+    @Test
+    public void testCrossingStrided() throws IOException {
+        // 24 bytes stride on 64 bytes chunks, some values cross a boundary
+        ChunkedBackend backend = new ChunkedBackend(6, 8);
+        double[] values = new double[20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        backend.writeStridedDouble(4, 24, values);
+        Assert.assertArrayEquals(values, backend.readStridedDouble(4, 24, values.length), 0);
+        Assert.assertEquals(8L * values.length, backend.getDirtyBytes());
+        backend.writeStridedDouble(12, 24, Double.NaN, values.length);
+        Assert.assertArrayEquals(values, backend.readStridedDouble(4, 24, values.length), 0);
+        Assert.assertTrue(Double.isNaN(backend.readDouble(12 + 24 * 19)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfChunks() throws IOException {
+        ChunkedBackend backend = new ChunkedBackend(4, 4);
+        backend.writeLong(60, 1);
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-process stand-in for a database holding chunks, that counts the chunks written.
+ */
+class MemoryChunkStore implements RrdChunkStore {
+
+    private final Map<String, SortedMap<Integer, byte[]>> rrds = new ConcurrentHashMap<>();
+    private int storedChunks = 0;
+    private long storedBytes = 0;
+
+    @Override
+    public synchronized byte[][] load(String path) throws IOException {
+        SortedMap<Integer, byte[]> chunks = rrds.get(path);
+        if (chunks == null || chunks.isEmpty()) {
+            return null;
+        }
+        // A missing chunk is left null
+        byte[][] loaded = new byte[chunks.lastKey() + 1][];
+        for (Map.Entry<Integer, byte[]> e : chunks.entrySet()) {
+            loaded[e.getKey()] = e.getValue().clone();
+        }
+        return loaded;
+    }
+
+    @Override
+    public synchronized void store(String path, Map<Integer, byte[]> chunks, int chunkCount) {
+        SortedMap<Integer, byte[]> stored = rrds.computeIfAbsent(path, p -> new TreeMap<>());
+        for (Map.Entry<Integer, byte[]> e : chunks.entrySet()) {
+            stored.put(e.getKey(), e.getValue().clone());
+            storedChunks++;
+            storedBytes += e.getValue().length;
+        }
+        stored.tailMap(chunkCount).clear();
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return rrds.containsKey(path);
+    }
+
+    synchronized SortedMap<Integer, byte[]> getChunks(String path) {
+        return rrds.get(path);
+    }
+
+    synchronized int getStoredChunks() {
+        return storedChunks;
+    }
+
+    synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdAsyncFileBackendTest extends BackendTester {
+    private static final long START = Util.getTimestamp(2010, 4, 1);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDb create(RrdBackendFactory factory) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getAbsolutePath() + "/test.rrd", START, 300);
+        def.addDatasource("ds", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 100);
+        return RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build();
+    }
+
+    @Test
+    public void testBackendFactory() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        try (RrdAsyncFileBackendFactory factory = new RrdAsyncFileBackendFactory()) {
+            super.testBackendFactory(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
+    @Test
+    public void testStrided() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        try (RrdAsyncFileBackendFactory factory = new RrdAsyncFileBackendFactory()) {
+            super.testStrided(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
+    @Test
+    public void testRead2() throws IOException {
+        super.testRead2(new RrdAsyncFileBackendFactory());
+    }
+
+    @Test
+    public void testUpdateAsync() throws Exception {
+        String path;
+        try (RrdAsyncFileBackendFactory factory = new RrdAsyncFileBackendFactory();
+             RrdDb db = create(factory)) {
+            path = db.getPath();
+            List<CompletableFuture<Void>> updates = new ArrayList<>();
+            for (int i = 1; i <= 50; i++) {
+                updates.add(db.createSample(START + i * 300).setValue("ds", i).updateAsync());
+            }
+            CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0])).get();
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                FetchData fetched = db.createFetchRequest(AVERAGE, START + 300, START + 50 * 300).fetchDataAsync(executor).get();
+                Assert.assertEquals(50, fetched.getValues("ds")[fetched.getRowCount() - 1], 1e-10);
+            } finally {
+                executor.shutdown();
+            }
+
+            // The file already holds the updates, before the RRD is closed
+            try (RrdRandomAccessFileBackendFactory fileFactory = new RrdRandomAccessFileBackendFactory();
+                 RrdDb copy = RrdDb.getBuilder().setPath(path).setBackendFactory(fileFactory).readOnly().build()) {
+                Assert.assertEquals(START + 50 * 300, copy.getLastUpdateTime());
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateAsyncFailure() throws IOException {
+        try (RrdAsyncFileBackendFactory factory = new RrdAsyncFileBackendFactory();
+             RrdDb db = create(factory)) {
+            CompletableFuture<Void> update = db.createSample(START).setValue("ds", 1).updateAsync();
+            Assert.assertTrue(update.isCompletedExceptionally());
+            try {
+                update.get();
+                Assert.fail();
+            } catch (ExecutionException | InterruptedException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteFailure() throws Exception {
+        File file = testFolder.newFile("failing");
+        AtomicInteger failures = new AtomicInteger(1);
+        RrdAsyncFileBackend backend = new RrdAsyncFileBackend(file.getPath(), false, null) {
+            @Override
+            CompletableFuture<Void> writeAsync(long offset, byte[] bytes) {
+                if (failures.getAndDecrement() > 0) {
+                    CompletableFuture<Void> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new IOException("Simulated failure"));
+                    return failed;
+                }
+                return super.writeAsync(offset, bytes);
+            }
+        };
+        try {
+            backend.setLength(16);
+            // The extension of the file fails, it's reported
+            try {
+                backend.getPendingWrites().get();
+                Assert.fail("Failure not reported");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("Simulated failure", e.getCause().getMessage());
+            }
+            backend.writeLong(0, 1);
+            backend.updateDone();
+            // The next writes are done
+            backend.getPendingWrites().get();
+            failures.set(1);
+            backend.writeLong(8, 2);
+            backend.updateDone();
+            Assert.assertTrue(backend.getPendingWrites().isCompletedExceptionally());
+            backend.getPendingWrites().exceptionally(e -> null).get();
+        } finally {
+            // The failed page is written again
+            backend.close();
+        }
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(RrdBackend.BYTEORDER);
+        Assert.assertEquals(16, content.capacity());
+        Assert.assertEquals(1, content.getLong(0));
+        Assert.assertEquals(2, content.getLong(8));
+    }
+
+}
@@ -0,0 +1,179 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class RrdBerkeleyDbPagedBackendTest {
+
+    private static final long START = 920804400L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Environment env;
+    private Database database;
+
+    @Before
+    public void openDatabase() {
+        EnvironmentConfig cfg = new EnvironmentConfig();
+        cfg.setAllowCreate(true);
+        cfg.setTransactional(true);
+        env = new Environment(testFolder.getRoot(), cfg);
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(true);
+        dbConfig.setAllowCreate(true);
+        database = env.openDatabase(null, "rrd", dbConfig);
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+        env.close();
+    }
+
+    private RrdDef getDef(URI uri) {
+        RrdDef def = new RrdDef(uri, START, 300);
+        def.addDatasource("in", COUNTER, 600, 0, Double.NaN);
+        def.addDatasource("out", GAUGE, 600, Double.NaN, 100);
+        def.addArchive(AVERAGE, 0.5, 1, 2000);
+        def.addArchive(AVERAGE, 0.5, 6, 2000);
+        def.addArchive(MAX, 0.5, 6, 2000);
+        return def;
+    }
+
+    private void update(RrdDb db, int from, int to) throws IOException {
+        for (int i = from; i <= to; i++) {
+            db.createSample(START + i * 300L).setValues(i * 1000, i % 9 == 0 ? Double.NaN : i % 100).update();
+        }
+    }
+
+    private RrdDb open(String path, RrdBackendFactory factory) throws IOException {
+        return RrdDb.getBuilder().setPath(factory.getUri(path)).setBackendFactory(factory).build();
+    }
+
+    @Test
+    public void testSameBytes() throws IOException {
+        RrdBackendFactory fileFactory = new RrdRandomAccessFileBackendFactory();
+        RrdBerkeleyDbPagedBackendFactory factory = new RrdBerkeleyDbPagedBackendFactory(database, 1000);
+        String filePath = testFolder.newFile("same.rrd").getCanonicalPath();
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef(fileFactory.getUri(filePath))).setBackendFactory(fileFactory).build()) {
+            update(db, 1, 300);
+        }
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef(factory.getUri("same"))).setBackendFactory(factory).build()) {
+            update(db, 1, 150);
+        }
+        try (RrdDb db = open("same", factory)) {
+            update(db, 151, 300);
+        }
+        try (RrdDb file = RrdDb.getBuilder().setPath(filePath).setBackendFactory(fileFactory).readOnly().build();
+             RrdDb paged = RrdDb.getBuilder().setPath(factory.getUri("same")).setBackendFactory(factory).readOnly().build()) {
+            Assert.assertArrayEquals(file.getBytes(), paged.getBytes());
+        }
+    }
+
+    @Test
+    public void testDirtyPages() throws IOException {
+        RrdBerkeleyDbPagedBackendFactory factory = new RrdBerkeleyDbPagedBackendFactory(database, 1024);
+        long length;
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef(factory.getUri("dirty"))).setBackendFactory(factory).build()) {
+            length = db.getRrdBackend().getLength();
+        }
+        long pageCount = (length + 1023) / 1024;
+        Assert.assertEquals(pageCount, factory.getPagesWritten());
+
+        // A single update reads and writes only a few pages
+        long read = factory.getPagesRead();
+        try (RrdDb db = open("dirty", factory)) {
+            update(db, 6, 6);
+            int loaded = ((RrdBerkeleyDbPagedBackend) db.getRrdBackend()).getLoadedPages();
+            Assert.assertTrue("Too many pages loaded: " + loaded, loaded <= 8 && loaded < pageCount);
+        }
+        Assert.assertTrue(factory.getPagesRead() - read <= 8);
+        long written = factory.getPagesWritten() - pageCount;
+        Assert.assertTrue("Too many pages written: " + written, written > 0 && written <= 6);
+
+        // A factory with another page size still reads it
+        RrdBackendFactory otherFactory = new RrdBerkeleyDbPagedBackendFactory(database, 4096);
+        try (RrdDb db = RrdDb.getBuilder().setPath(otherFactory.getUri("dirty")).setBackendFactory(otherFactory).readOnly().build()) {
+            Assert.assertEquals(START + 6 * 300L, db.getLastUpdateTime());
+            Assert.assertEquals(length, db.getRrdBackend().getLength());
+        }
+    }
+
+    @Test
+    public void testPendingPages() throws IOException {
+        RrdBerkeleyDbPagedBackendFactory factory = new RrdBerkeleyDbPagedBackendFactory(database, 1024);
+        factory.setMaxPendingPages(1000);
+        for (int i = 0; i < 3; i++) {
+            try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef(factory.getUri("pending" + i))).setBackendFactory(factory).build()) {
+                update(db, 1, 10);
+            }
+        }
+        try (RrdDb db = open("pending1", factory)) {
+            Assert.assertEquals(START + 10 * 300L, db.getLastUpdateTime());
+            update(db, 11, 12);
+        }
+        // Nothing is in the database until it's committed
+        Assert.assertEquals(0, factory.getPagesWritten());
+        Assert.assertFalse(new RrdBerkeleyDbPagedBackendFactory(database).exists("pending1"));
+
+        factory.commit();
+        Assert.assertTrue(factory.getPagesWritten() > 0);
+        RrdBackendFactory otherFactory = new RrdBerkeleyDbPagedBackendFactory(database);
+        try (RrdDb db = RrdDb.getBuilder().setPath(otherFactory.getUri("pending1")).setBackendFactory(otherFactory).readOnly().build()) {
+            Assert.assertEquals(START + 12 * 300L, db.getLastUpdateTime());
+        }
+
+        // Lowering the limit commits the pending pages
+        try (RrdDb db = open("pending2", factory)) {
+            update(db, 11, 11);
+        }
+        long written = factory.getPagesWritten();
+        factory.setMaxPendingPages(0);
+        Assert.assertTrue(factory.getPagesWritten() > written);
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        RrdBerkeleyDbPagedBackendFactory factory = new RrdBerkeleyDbPagedBackendFactory(database, 1024);
+        for (String path : new String[] {"a", "ab"}) {
+            try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef(factory.getUri(path))).setBackendFactory(factory).build()) {
+                update(db, 1, 10);
+            }
+        }
+        factory.delete("a");
+        Assert.assertFalse(factory.exists("a"));
+        try (RrdDb db = open("ab", factory)) {
+            Assert.assertEquals(START + 10 * 300L, db.getLastUpdateTime());
+        }
+    }
+
+    @Test(expected = RrdBackendException.class)
+    public void testMissingPage() throws IOException {
+        RrdBerkeleyDbPagedBackendFactory factory = new RrdBerkeleyDbPagedBackendFactory(database, 1024);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef(factory.getUri("missing"))).setBackendFactory(factory).build()) {
+            update(db, 1, 10);
+        }
+        database.delete(null, new DatabaseEntry(new byte[] {'m', 'i', 's', 's', 'i', 'n', 'g', 0, 0, 0, 0}));
+        open("missing", factory).close();
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdChunkedBackendTest {
+
+    private static final long START = 920804400L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDef getDef(String path) {
+        RrdDef def = new RrdDef(path, START, 300);
+        def.addDatasource("in", COUNTER, 600, 0, Double.NaN);
+        def.addDatasource("out", GAUGE, 600, Double.NaN, 100);
+        def.addArchive(AVERAGE, 0.5, 1, 2000);
+        def.addArchive(AVERAGE, 0.5, 6, 2000);
+        def.addArchive(MAX, 0.5, 6, 2000);
+        return def;
+    }
+
+    private void update(RrdDb db, int from, int to) throws IOException {
+        for (int i = from; i <= to; i++) {
+            db.createSample(START + i * 300L).setValues(i * 1000, i % 9 == 0 ? Double.NaN : i % 100).update();
+        }
+    }
+
+    @Test
+    public void testSameBytes() throws IOException {
+        RrdBackendFactory fileFactory = new RrdRandomAccessFileBackendFactory();
+        MemoryChunkStore store = new MemoryChunkStore();
+        RrdChunkedBackendFactory factory = new RrdChunkedBackendFactory(store, 1024);
+        String filePath = testFolder.getRoot().getCanonicalPath() + "/same.rrd";
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef(filePath)).setBackendFactory(fileFactory).build()) {
+            update(db, 1, 300);
+        }
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef("/same")).setBackendFactory(factory).build()) {
+            update(db, 1, 300);
+        }
+        try (RrdDb file = RrdDb.getBuilder().setPath(filePath).setBackendFactory(fileFactory).readOnly().build();
+             RrdDb chunked = RrdDb.getBuilder().setPath("/same").setBackendFactory(factory).readOnly().build()) {
+            Assert.assertArrayEquals(file.getBytes(), chunked.getBytes());
+            Assert.assertEquals((chunked.getRrdBackend().getLength() + 1023) / 1024, store.getChunks("/same").size());
+        }
+    }
+
+    @Test
+    public void testDirtyChunks() throws IOException {
+        MemoryChunkStore store = new MemoryChunkStore();
+        RrdChunkedBackendFactory factory = new RrdChunkedBackendFactory(store, 1024);
+        long length;
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef("/dirty")).setBackendFactory(factory).build()) {
+            length = db.getRrdBackend().getLength();
+        }
+        int chunkCount = store.getChunks("/dirty").size();
+        Assert.assertEquals((length + 1023) / 1024, chunkCount);
+        Assert.assertEquals(chunkCount, store.getStoredChunks());
+
+        // A single update writes the header and state chunks, and a row in each archive
+        int before = store.getStoredChunks();
+        try (RrdDb db = RrdDb.getBuilder().setPath("/dirty").setBackendFactory(factory).build()) {
+            update(db, 6, 6);
+        }
+        int written = store.getStoredChunks() - before;
+        Assert.assertTrue("Too many chunks written: " + written, written <= 6);
+        Assert.assertEquals(chunkCount, store.getChunks("/dirty").size());
+
+        // Nothing is written without modifications
+        before = store.getStoredChunks();
+        try (RrdDb db = RrdDb.getBuilder().setPath("/dirty").setBackendFactory(factory).readOnly().build()) {
+            Assert.assertEquals(START + 6 * 300L, db.getLastUpdateTime());
+        }
+        Assert.assertEquals(before, store.getStoredChunks());
+    }
+
+    @Test
+    public void testChunkSizeChange() throws IOException {
+        MemoryChunkStore store = new MemoryChunkStore();
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef("/resize")).setBackendFactory(new RrdChunkedBackendFactory(store, 1000)).build()) {
+            update(db, 1, 10);
+        }
+        byte[] bytes;
+        // Opened with another chunk size, the RRD is written again whole
+        RrdChunkedBackendFactory factory = new RrdChunkedBackendFactory(store, 4096);
+        try (RrdDb db = RrdDb.getBuilder().setPath("/resize").setBackendFactory(factory).build()) {
+            update(db, 11, 20);
+            bytes = db.getBytes();
+        }
+        Assert.assertEquals((bytes.length + 4095) / 4096, store.getChunks("/resize").size());
+        for (byte[] chunk : store.getChunks("/resize").headMap(store.getChunks("/resize").lastKey()).values()) {
+            Assert.assertEquals(4096, chunk.length);
+        }
+        try (RrdDb db = RrdDb.getBuilder().setPath("/resize").setBackendFactory(factory).readOnly().build()) {
+            Assert.assertArrayEquals(bytes, db.getBytes());
+            Assert.assertEquals(START + 20 * 300L, db.getLastUpdateTime());
+        }
+    }
+
+    @Test(expected = RrdBackendException.class)
+    public void testMissingChunk() throws IOException {
+        MemoryChunkStore store = new MemoryChunkStore();
+        RrdChunkedBackendFactory factory = new RrdChunkedBackendFactory(store, 1024);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef("/missing")).setBackendFactory(factory).build()) {
+            update(db, 1, 10);
+        }
+        store.getChunks("/missing").remove(1);
+        RrdDb.getBuilder().setPath("/missing").setBackendFactory(factory).build().close();
+    }
+
+}
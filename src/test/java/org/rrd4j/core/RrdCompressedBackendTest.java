@@ -0,0 +1,150 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.data.DataProcessor;
+
+public class RrdCompressedBackendTest extends BackendTester {
+
+    static private RrdBackendFactory previousBackend;
+
+    @BeforeClass
+    public static void setBackendBefore() {
+        previousBackend = RrdBackendFactory.getDefaultFactory();
+        RrdBackendFactory.setActiveFactories(new RrdRandomAccessFileBackendFactory());
+    }
+
+    @AfterClass
+    public static void setBackendAfter() {
+        RrdBackendFactory.setActiveFactories(previousBackend);
+    }
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private String compress(String resource) throws IOException {
+        URL url = getClass().getResource(resource);
+        String compressed = testFolder.getRoot().getAbsolutePath() + "/compressed.rrd";
+        RrdToolkit.compress(url.getFile(), compressed);
+        return compressed;
+    }
+
+    private RrdDb open(RrdBackendFactory factory, String path) throws IOException {
+        return RrdDb.getBuilder().setPath(path).setBackendFactory(factory).readOnly().build();
+    }
+
+    @Test
+    public void testRead1() throws IOException {
+        String path = compress("/demo1.rrd");
+        try (RrdCompressedBackendFactory factory = new RrdCompressedBackendFactory(); RrdDb rrd = open(factory, path)) {
+            testRrdDb(rrd);
+            checkValues(rrd);
+            Assert.assertEquals("not expected version", 1, rrd.getRrdDef().getVersion());
+        }
+    }
+
+    @Test
+    public void testRead2() throws IOException {
+        String path = compress("/demo2.rrd");
+        // A single block in the cache, to decode them again and again
+        try (RrdCompressedBackendFactory factory = new RrdCompressedBackendFactory(1); RrdDb rrd = open(factory, path)) {
+            testRrdDb(rrd);
+            checkValues(rrd);
+            Assert.assertEquals("not expected version", 2, rrd.getRrdDef().getVersion());
+        }
+    }
+
+    @Test
+    public void testDecompress() throws IOException {
+        URL url = getClass().getResource("/demo2.rrd");
+        String path = compress("/demo2.rrd");
+        String decompressed = testFolder.getRoot().getAbsolutePath() + "/decompressed.rrd";
+        RrdToolkit.decompress(path, decompressed);
+        Assert.assertArrayEquals(Files.readAllBytes(Paths.get(url.getFile())), Files.readAllBytes(Paths.get(decompressed)));
+    }
+
+    @Test
+    public void testRatio() throws IOException {
+        long start = Util.getTimestamp(2010, 4, 1);
+        String path = testFolder.getRoot().getAbsolutePath() + "/cold.rrd";
+        RrdDef def = new RrdDef(path, start, 300);
+        def.addDatasource("in", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addDatasource("out", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 10000);
+        def.addArchive(AVERAGE, 0.5, 12, 10000);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).build()) {
+            // A decommissioned device, with a few days of data in archives full of NaN
+            for (int i = 1; i < 1000; i++) {
+                db.createSample(start + i * 300L).setValue("in", 100).setValue("out", i % 10).update();
+            }
+        }
+        String compressed = testFolder.getRoot().getAbsolutePath() + "/cold.rrdz";
+        RrdToolkit.compress(path, compressed);
+        long size = new File(path).length();
+        long compressedSize = new File(compressed).length();
+        Assert.assertTrue("Compressed size " + compressedSize + " for " + size, compressedSize * 5 < size);
+
+        try (RrdDb db = RrdDb.getBuilder().setPath(path).readOnly().build();
+             RrdCompressedBackendFactory factory = new RrdCompressedBackendFactory();
+             RrdDb copy = open(factory, compressed)) {
+            long end = start + 999 * 300L;
+            FetchData expected = db.createFetchRequest(AVERAGE, start, end).fetchData();
+            FetchData fetched = copy.createFetchRequest(AVERAGE, start, end).fetchData();
+            Assert.assertArrayEquals(expected.getValues(), fetched.getValues());
+            Assert.assertArrayEquals(expected.getTimestamps(), fetched.getTimestamps());
+
+            // DataProcessor reads it like any other RRD
+            DataProcessor dp = new DataProcessor(start, end);
+            dp.datasource("plain", path, "out", AVERAGE);
+            dp.datasource("compressed", compressed, "out", AVERAGE, factory);
+            dp.processData();
+            Assert.assertArrayEquals(dp.getValues("plain"), dp.getValues("compressed"), 0);
+        }
+    }
+
+    @Test(expected = RrdBackendException.class)
+    public void testReadOnly() throws IOException {
+        String path = compress("/demo2.rrd");
+        try (RrdCompressedBackendFactory factory = new RrdCompressedBackendFactory();
+             RrdDb rrd = RrdDb.getBuilder().setPath(path).setBackendFactory(factory).build()) {
+            rrd.createSample(rrd.getLastUpdateTime() + 300).setValue(0, 1).update();
+        }
+    }
+
+    @Test
+    public void testCodec() {
+        Random random = new Random(0);
+        double[] values = new double[3000];
+        for (int i = 0; i < values.length; i++) {
+            switch (i % 3) {
+            case 0:
+                values[i] = Double.NaN;
+                break;
+            case 1:
+                values[i] = random.nextDouble() * 1000;
+                break;
+            default:
+                values[i] = i / 300;
+            }
+        }
+        for (int stride : new int[] {1, 3, 7}) {
+            byte[] encoded = XorDoubleCodec.encode(values, stride);
+            Assert.assertArrayEquals(values, XorDoubleCodec.decode(encoded, values.length, stride), 0);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.FIRST;
+import static org.rrd4j.ConsolFun.LAST;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.ConsolFun.MIN;
+import static org.rrd4j.ConsolFun.TOTAL;
+import static org.rrd4j.DsType.ABSOLUTE;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.DERIVE;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdDbBatchTest {
+
+    private static final long START = 920804400L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDef getDef(String name, int version) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getCanonicalPath() + "/" + name + ".rrd", START, 300, version);
+        def.addDatasource("gauge", GAUGE, 600, 0, 90);
+        def.addDatasource("counter", COUNTER, 600, 0, Double.NaN);
+        def.addDatasource("derive", DERIVE, 900, Double.NaN, Double.NaN);
+        def.addDatasource("absolute", ABSOLUTE, 600, Double.NaN, Double.NaN);
+        def.addDatasource("zeros!", GAUGE, 400, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 10);
+        def.addArchive(AVERAGE, 0.5, 3, 50);
+        def.addArchive(MIN, 0.3, 2, 40);
+        def.addArchive(MAX, 0.9, 5, 7);
+        def.addArchive(FIRST, 0.5, 4, 20);
+        def.addArchive(LAST, 0.5, 1, 200);
+        def.addArchive(TOTAL, 0.5, 6, 15);
+        return def;
+    }
+
+    private static long[] getTimes(Random random, long from, int count) {
+        long[] times = new long[count];
+        long time = from;
+        for (int i = 0; i < count; i++) {
+            // mostly regular, with some gaps longer than the heartbeats
+            time += random.nextInt(10) == 0 ? 1 + random.nextInt(2000) : 150 + random.nextInt(300);
+            times[i] = time;
+        }
+        return times;
+    }
+
+    private static double[][] getValues(Random random, int count) {
+        double[][] values = new double[count][];
+        double counter = Math.pow(2, 32) - 1e6;
+        for (int i = 0; i < count; i++) {
+            counter += random.nextInt(5) == 0 ? -1000 : random.nextInt(3000);
+            values[i] = new double[] {
+                    random.nextInt(7) == 0 ? Double.NaN : random.nextInt(100),
+                    counter,
+                    random.nextInt(1000) - 500,
+                    random.nextInt(200),
+                    random.nextInt(4) == 0 ? Double.NaN : random.nextDouble(),
+            };
+        }
+        return values;
+    }
+
+    @Test
+    public void testSameBytes() throws IOException {
+        Random random = new Random(42);
+        for (int version = 1; version <= 4; version++) {
+            long[] times = getTimes(random, START, 1000);
+            double[][] values = getValues(random, 1000);
+            try (RrdDb sequential = RrdDb.getBuilder().setRrdDef(getDef("sequential" + version, version)).setBackendFactory(new RrdMemoryBackendFactory()).build();
+                 RrdDb batched = RrdDb.getBuilder().setRrdDef(getDef("batched" + version, version)).setBackendFactory(new RrdMemoryBackendFactory()).build()) {
+                for (int i = 0; i < times.length; i++) {
+                    sequential.createSample(times[i]).setValues(values[i]).update();
+                }
+                // batches of many sizes, mixed with single updates
+                int done = 0;
+                while (done < times.length) {
+                    int count = Math.min(times.length - done, random.nextInt(4) == 0 ? 1 : random.nextInt(300));
+                    if (count == 1 && random.nextBoolean()) {
+                        batched.createSample(times[done]).setValues(values[done]).update();
+                    } else {
+                        long[] batchTimes = new long[count];
+                        double[][] batchValues = new double[count][];
+                        System.arraycopy(times, done, batchTimes, 0, count);
+                        System.arraycopy(values, done, batchValues, 0, count);
+                        batched.storeBatch(batchTimes, batchValues);
+                    }
+                    done += count;
+                    Assert.assertEquals(times[done - 1], batched.getLastUpdateTime());
+                }
+                Assert.assertArrayEquals("Version " + version, sequential.getBytes(), batched.getBytes());
+            }
+        }
+    }
+
+    @Test
+    public void testFileBackend() throws IOException {
+        Random random = new Random(7);
+        long[] times = getTimes(random, START, 500);
+        double[][] values = getValues(random, 500);
+        RrdBackendFactory factory = new RrdRandomAccessFileBackendFactory();
+        try (RrdDb sequential = RrdDb.getBuilder().setRrdDef(getDef("sequential", 4)).setBackendFactory(factory).build();
+             RrdDb batched = RrdDb.getBuilder().setRrdDef(getDef("batched", 4)).setBackendFactory(factory).setWriteBehind(3).build()) {
+            for (int i = 0; i < times.length; i++) {
+                sequential.createSample(times[i]).setValues(values[i]).update();
+            }
+            batched.storeBatch(times, values);
+            Assert.assertArrayEquals(sequential.getBytes(), batched.getBytes());
+        }
+    }
+
+    @Test
+    public void testInvalidBatch() throws IOException {
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef("invalid", 2)).setBackendFactory(new RrdMemoryBackendFactory()).build()) {
+            byte[] before = db.getBytes();
+            double[] sample = {1, 2, 3, 4, 5};
+            try {
+                db.storeBatch(new long[] {START + 300, START + 600, START + 600}, new double[][] {sample, sample, sample});
+                Assert.fail("Unordered times accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                db.storeBatch(new long[] {START}, new double[][] {sample});
+                Assert.fail("Time before the last update accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                db.storeBatch(new long[] {START + 300, START + 600}, new double[][] {sample, {1, 2}});
+                Assert.fail("Missing values accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            // Nothing was stored
+            Assert.assertArrayEquals(before, db.getBytes());
+            db.storeBatch(new long[0], new double[0][]);
+            Assert.assertArrayEquals(before, db.getBytes());
+        }
+    }
+
+}
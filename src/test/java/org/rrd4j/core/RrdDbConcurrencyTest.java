@@ -0,0 +1,123 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdDbConcurrencyTest {
+
+    private static final long START = 920804400L;
+    private static final int UPDATES = 3000;
+    private static final int FETCHERS = 4;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private static double valueAt(long time) {
+        return (time - START) / 300;
+    }
+
+    /**
+     * Fetches while updating, each row fetched must be either empty or the value stored for its time.
+     */
+    private void checkConsistentFetches(RrdBackendFactory factory, int writeBehind) throws Exception {
+        RrdDef def = new RrdDef(factory.getUri(testFolder.getRoot().getCanonicalPath() + "/concurrent.rrd"), START, 300);
+        def.addDatasource("value", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addDatasource("double", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 100);
+        ExecutorService executor = Executors.newFixedThreadPool(FETCHERS);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).setWriteBehind(writeBehind).build()) {
+            AtomicBoolean done = new AtomicBoolean(false);
+            CountDownLatch started = new CountDownLatch(FETCHERS);
+            List<Future<Integer>> fetchers = new ArrayList<>();
+            for (int i = 0; i < FETCHERS; i++) {
+                fetchers.add(executor.submit(() -> {
+                    int fetches = 0;
+                    started.countDown();
+                    do {
+                        long end = db.getLastArchiveUpdateTime();
+                        FetchData data = db.createFetchRequest(AVERAGE, end - 50 * 300L, end).fetchData();
+                        long[] timestamps = data.getTimestamps();
+                        double[] values = data.getValues(0);
+                        double[] doubles = data.getValues(1);
+                        for (int j = 0; j < timestamps.length; j++) {
+                            if (!Double.isNaN(values[j])) {
+                                Assert.assertEquals(valueAt(timestamps[j]), values[j], 0);
+                                Assert.assertEquals(2 * valueAt(timestamps[j]), doubles[j], 0);
+                            }
+                        }
+                        fetches++;
+                    } while (!done.get());
+                    return fetches;
+                }));
+            }
+            // The updates are fast enough to be finished before the fetchers are started
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i <= UPDATES; i++) {
+                long time = START + i * 300L;
+                db.createSample(time).setValues(valueAt(time), 2 * valueAt(time)).update();
+            }
+            done.set(true);
+            for (Future<Integer> fetcher : fetchers) {
+                Assert.assertTrue(fetcher.get() > 0);
+            }
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testMemory() throws Exception {
+        checkConsistentFetches(new RrdMemoryBackendFactory(), 0);
+    }
+
+    @Test
+    public void testMemoryWriteBehind() throws Exception {
+        checkConsistentFetches(new RrdMemoryBackendFactory(), 10);
+    }
+
+    @Test
+    public void testNio() throws Exception {
+        try (RrdNioBackendFactory factory = new RrdNioBackendFactory(0)) {
+            checkConsistentFetches(factory, 0);
+        }
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        checkConsistentFetches(new RrdRandomAccessFileBackendFactory(), 0);
+    }
+
+    @Test
+    public void testFetchAfterClose() throws IOException {
+        RrdMemoryBackendFactory factory = new RrdMemoryBackendFactory();
+        RrdDef def = new RrdDef(factory.getUri("closed"), START, 300);
+        def.addDatasource("value", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 100);
+        RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build();
+        FetchRequest request = db.createFetchRequest(AVERAGE, START, START + 3000);
+        db.close();
+        try {
+            request.fetchData();
+            Assert.fail("Fetched a closed RRD");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+}
@@ -11,6 +11,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.DoubleBuffer;
 import java.util.Calendar;
 import java.util.Random;
 
@@ -222,6 +223,182 @@ public class RrdDbTest {
         Assert.assertEquals("not expected version", 2, rrdDb.getRrdDef().getVersion());
     }
 
+    @Test
+    public void testBuild3() throws IOException {
+        long start = START;
+
+        RrdDef rrdDef = new RrdDef(testFolder.newFile("testBuild.rrd").getCanonicalPath(), start - 1, 300);
+        rrdDef.setVersion(3);
+        rrdDef.addDatasource("sun", GAUGE, 600, 0, Double.NaN);
+        rrdDef.addDatasource("shade", GAUGE, 600, 0, Double.NaN);
+        rrdDef.addArchive(AVERAGE, 0.5, 1, 600);
+        rrdDef.addArchive(AVERAGE, 0.5, 6, 700);
+        rrdDef.addArchive(AVERAGE, 0.5, 24, 775);
+        rrdDef.addArchive(AVERAGE, 0.5, 288, 797);
+        rrdDef.addArchive(TOTAL, 0.5, 1, 600);
+        rrdDef.addArchive(TOTAL, 0.5, 6, 700);
+        rrdDef.addArchive(TOTAL, 0.5, 24, 775);
+        rrdDef.addArchive(TOTAL, 0.5, 288, 797);
+        rrdDef.addArchive(MAX, 0.5, 1, 600);
+        rrdDef.addArchive(MAX, 0.5, 6, 700);
+        rrdDef.addArchive(MAX, 0.5, 24, 775);
+        rrdDef.addArchive(MAX, 0.5, 288, 797);
+        long size3 = rrdDef.getEstimatedSize();
+        rrdDef.setVersion(2);
+        long size2 = rrdDef.getEstimatedSize();
+        rrdDef.setVersion(3);
+        RrdDb rrdDb = RrdDb.getBuilder().setRrdDef(rrdDef).build();
+        testRrdDb(rrdDb);
+
+        Assert.assertEquals("not expected version", 3, rrdDb.getRrdDef().getVersion());
+        Assert.assertEquals("not expected size", size3, rrdDb.getRrdBackend().getLength());
+        // The values use half of the space
+        Assert.assertEquals("not expected size", size2 - 4L * 2 * (600 + 700 + 775 + 797) * 3, size3);
+    }
+
+    @Test
+    public void testVersion3RoundTrip() throws IOException {
+        for (String factoryName : new String[] {"FILE", "NIO"}) {
+            RrdBackendFactory factory = RrdBackendFactory.getFactory(factoryName);
+            String path2 = testFolder.newFile(factoryName + "2.rrd").getCanonicalPath();
+            RrdDef rrdDef = new RrdDef(path2, START - 1, 300);
+            rrdDef.addDatasource("sun", GAUGE, 600, 0, Double.NaN);
+            rrdDef.addDatasource("shade", GAUGE, 600, 0, Double.NaN);
+            rrdDef.addArchive(AVERAGE, 0.5, 1, 600);
+            rrdDef.addArchive(MAX, 0.5, 6, 700);
+            try (RrdDb rrd2 = RrdDb.getBuilder().setRrdDef(rrdDef).setBackendFactory(factory).build()) {
+                Random random = new Random(SEED);
+                for (long t = START; t < START + 86400; t += 300) {
+                    rrd2.createSample(t).setValue(0, random.nextDouble() * 1000).setValue(1, t).update();
+                }
+
+                // Version 2 to version 3, the values are rounded to floats
+                RrdDef def3 = rrd2.getRrdDef();
+                def3.setPath(testFolder.newFile(factoryName + "3.rrd").getCanonicalPath());
+                def3.setVersion(3);
+                try (RrdDb rrd3 = RrdDb.getBuilder().setRrdDef(def3).setBackendFactory(factory).build()) {
+                    rrd2.copyStateTo(rrd3);
+                    Assert.assertEquals("not expected version", 3, rrd3.getRrdDef().getVersion());
+                    for (int arc = 0; arc < rrd2.getArcCount(); arc++) {
+                        for (int ds = 0; ds < rrd2.getDsCount(); ds++) {
+                            double[] values2 = rrd2.getArchive(arc).getRobin(ds).getValues();
+                            double[] values3 = rrd3.getArchive(arc).getRobin(ds).getValues();
+                            for (int i = 0; i < values2.length; i++) {
+                                Assert.assertEquals(Double.isNaN(values2[i]), Double.isNaN(values3[i]));
+                                Assert.assertEquals((float) values2[i], values3[i], 0);
+                            }
+                        }
+                    }
+                    FetchData fetched = rrd3.createFetchRequest(AVERAGE, START, START + 86400).fetchData();
+                    Assert.assertEquals((float) fetched.getValues(1)[10], fetched.getValues(1)[10], 0);
+
+                    // Version 3 to XML to version 2, XML keeps 10 significant digits
+                    String path1 = testFolder.newFile(factoryName + "1.rrd").getCanonicalPath();
+                    String xml = testFolder.newFile(factoryName + "3.xml").getCanonicalPath();
+                    rrd3.exportXml(xml);
+                    try (RrdDb imported = RrdDb.getBuilder().setPath(path1).setExternalPath("xml:/" + xml).setBackendFactory(factory).build()) {
+                        Assert.assertEquals("not expected version", 2, imported.getRrdDef().getVersion());
+                        for (int arc = 0; arc < rrd3.getArcCount(); arc++) {
+                            for (int ds = 0; ds < rrd3.getDsCount(); ds++) {
+                                Assert.assertArrayEquals(rrd3.getArchive(arc).getRobin(ds).getValues(),
+                                        imported.getArchive(arc).getRobin(ds).getValues(), 1e-6);
+                            }
+                        }
+                    }
+
+                    // Version 3 to version 1
+                    RrdDef def1 = rrd3.getRrdDef();
+                    def1.setPath(testFolder.newFile(factoryName + "v1.rrd").getCanonicalPath());
+                    def1.setVersion(1);
+                    try (RrdDb rrd1 = RrdDb.getBuilder().setRrdDef(def1).setBackendFactory(factory).build()) {
+                        rrd3.copyStateTo(rrd1);
+                        Assert.assertEquals(rrd3.getLastUpdateTime(), rrd1.getLastUpdateTime());
+                        for (int arc = 0; arc < rrd3.getArcCount(); arc++) {
+                            for (int ds = 0; ds < rrd3.getDsCount(); ds++) {
+                                Assert.assertArrayEquals(rrd3.getArchive(arc).getRobin(ds).getValues(),
+                                        rrd1.getArchive(arc).getRobin(ds).getValues(), 0);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBuild4() throws IOException {
+        long start = START;
+
+        RrdDef rrdDef = new RrdDef(testFolder.newFile("testBuild.rrd").getCanonicalPath(), start - 1, 300);
+        rrdDef.setVersion(4);
+        rrdDef.addDatasource("sun", GAUGE, 600, 0, Double.NaN);
+        rrdDef.addDatasource("shade", GAUGE, 600, 0, Double.NaN);
+        rrdDef.addArchive(AVERAGE, 0.5, 1, 600);
+        rrdDef.addArchive(AVERAGE, 0.5, 6, 700);
+        rrdDef.addArchive(AVERAGE, 0.5, 24, 775);
+        rrdDef.addArchive(AVERAGE, 0.5, 288, 797);
+        rrdDef.addArchive(TOTAL, 0.5, 1, 600);
+        rrdDef.addArchive(TOTAL, 0.5, 6, 700);
+        rrdDef.addArchive(TOTAL, 0.5, 24, 775);
+        rrdDef.addArchive(TOTAL, 0.5, 288, 797);
+        rrdDef.addArchive(MAX, 0.5, 1, 600);
+        rrdDef.addArchive(MAX, 0.5, 6, 700);
+        rrdDef.addArchive(MAX, 0.5, 24, 775);
+        rrdDef.addArchive(MAX, 0.5, 288, 797);
+        try (RrdDb rrdDb = RrdDb.getBuilder().setRrdDef(rrdDef).build()) {
+            testRrdDb(rrdDb);
+            Assert.assertEquals("not expected version", 4, rrdDb.getRrdDef().getVersion());
+            Assert.assertEquals("not expected size", rrdDef.getEstimatedSize(), rrdDb.getRrdBackend().getLength());
+            Assert.assertEquals("values not page aligned", 0, rrdDb.getArchive(0).getValueRegions()[0][0] % 4096);
+            for (long t = START; t < START + 86400; t += 300) {
+                rrdDb.createSample(t).setValue(0, t % 1000).setValue(1, 1).update();
+            }
+        }
+        try (RrdDb rrdDb = RrdDb.getBuilder().setPath(rrdDef.getPath()).readOnly().build()) {
+            testRrdDb(rrdDb);
+            Assert.assertEquals("not expected version", 4, rrdDb.getRrdDef().getVersion());
+            Assert.assertEquals(START + 86400 - 300, rrdDb.getLastUpdateTime());
+            double[] values = rrdDb.createFetchRequest(AVERAGE, START, START + 86400 - 300).fetchData().getValues("shade");
+            Assert.assertEquals(1.0, values[values.length - 1], 0);
+        }
+    }
+
+    @Test
+    public void testDirtyPagesPerUpdate() throws IOException {
+        double[] pages = new double[5];
+        for (int version = 2; version <= 4; version += 2) {
+            RrdDef rrdDef = new RrdDef(testFolder.newFile("testDirty" + version + ".rrd").getCanonicalPath(), START - 1, 300);
+            rrdDef.setVersion(version);
+            for (int i = 0; i < 20; i++) {
+                rrdDef.addDatasource("ds" + i, GAUGE, 600, 0, Double.NaN);
+            }
+            for (ConsolFun cf : new ConsolFun[] {AVERAGE, MAX}) {
+                rrdDef.addArchive(cf, 0.5, 1, 2016);
+                rrdDef.addArchive(cf, 0.5, 12, 1488);
+                rrdDef.addArchive(cf, 0.5, 288, 730);
+            }
+            try (RrdNioBackendFactory factory = new RrdNioBackendFactory(0);
+                 RrdDb rrdDb = RrdDb.getBuilder().setRrdDef(rrdDef).setBackendFactory(factory).build()) {
+                ByteBufferBackend backend = (ByteBufferBackend) rrdDb.getRrdBackend();
+                backend.takeDirtyPages();
+                long dirtyPages = 0;
+                int updates = 0;
+                for (long t = START; t < START + 86400; t += 300) {
+                    Sample sample = rrdDb.createSample(t);
+                    for (int i = 0; i < 20; i++) {
+                        sample.setValue(i, t % 1000 + i);
+                    }
+                    sample.update();
+                    dirtyPages += backend.takeDirtyPages().cardinality();
+                    updates++;
+                }
+                pages[version] = (double) dirtyPages / updates;
+            }
+        }
+        // One page for the state, and mostly one row of the two archives with one step
+        Assert.assertTrue("Dirty pages per update: v2 " + pages[2] + ", v4 " + pages[4], pages[4] < pages[2]);
+    }
+
     @Test
     public void testRead1() throws IOException {
         URL url = getClass().getResource("/demo1.rrd");
@@ -465,4 +642,100 @@ public class RrdDbTest {
         // The test just completes normally provided that no exceptions happened before.
     }
 
+    @Test
+    public void testFetchByRows() throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getAbsolutePath() + "/byrows.rrd", START, 300);
+        for (int i = 0; i < 8; i++) {
+            def.addDatasource("ds" + i, GAUGE, 600, Double.NaN, Double.NaN);
+        }
+        def.addArchive(AVERAGE, 0.5, 1, 100);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).build()) {
+            // More updates than rows, the robins wrap
+            Sample sample = db.createSample();
+            for (int t = 1; t <= 250; t++) {
+                sample.setTime(START + t * 300L);
+                for (int i = 0; i < 8; i++) {
+                    sample.setValue(i, t * 10 + i);
+                }
+                sample.update();
+            }
+            Archive archive = db.getArchive(0);
+            int[] dsIndexes = {0, 2, 3, 5, 6, 7};
+            for (int index = 0; index < 100; index += 30) {
+                double[][] byRows = archive.getValues(dsIndexes, index, 100 - index, true);
+                double[][] byColumns = archive.getValues(dsIndexes, index, 100 - index, false);
+                for (int i = 0; i < dsIndexes.length; i++) {
+                    Assert.assertArrayEquals(byColumns[i], byRows[i], 0);
+                    Assert.assertEquals(1510 + dsIndexes[i] + index * 10, byRows[i][0], 1e-7);
+                }
+            }
+            FetchData all = db.createFetchRequest(AVERAGE, START + 100 * 300L, START + 260 * 300L).fetchData();
+            FetchRequest request = db.createFetchRequest(AVERAGE, START + 100 * 300L, START + 260 * 300L);
+            request.setFilter("ds3");
+            FetchData single = request.fetchData();
+            Assert.assertArrayEquals(single.getValues("ds3"), all.getValues("ds3"), 0);
+            Assert.assertTrue(Double.isNaN(all.getValues("ds3")[0]));
+            Assert.assertEquals(2503, all.getValues("ds3")[150], 1e-7);
+        }
+    }
+
+    private void checkFetchView(RrdBackendFactory factory, int expectedSegments) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getAbsolutePath() + "/view" + factory.getName() + ".rrd", START, 300);
+        for (int i = 0; i < 4; i++) {
+            def.addDatasource("ds" + i, GAUGE, 600, Double.NaN, Double.NaN);
+        }
+        def.addArchive(AVERAGE, 0.5, 1, 100);
+        RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build();
+        FetchView view;
+        try {
+            Sample sample = db.createSample();
+            for (int t = 1; t <= 250; t++) {
+                sample.setTime(START + t * 300L);
+                for (int i = 0; i < 4; i++) {
+                    sample.setValue(i, t * 10 + i);
+                }
+                sample.update();
+            }
+            FetchRequest request = db.createFetchRequest(AVERAGE, START + 100 * 300L, START + 260 * 300L);
+            request.setFilter("ds3", "ds1");
+            FetchData data = request.fetchData();
+            view = request.fetchView();
+            Assert.assertEquals(data.getRowCount(), view.getRowCount());
+            Assert.assertEquals(expectedSegments, view.getSegments().length);
+            for (int row = 0; row < view.getRowCount(); row++) {
+                Assert.assertEquals(data.getTimestamps()[row], view.getTimestamp(row));
+                Assert.assertEquals(data.getValues("ds3")[row], view.getValue("ds3", row), 0);
+                Assert.assertEquals(data.getValues("ds1")[row], view.getValue(1, row), 0);
+            }
+            DoubleBuffer first = view.getSegments()[0];
+            Assert.assertEquals(view.getValue(0, view.getFirstStoredRow()), first.get(view.getColumn(0)), 0);
+        } finally {
+            db.close();
+        }
+        // The storage is kept by the view
+        Assert.assertEquals(view.getValue(0, view.getFirstStoredRow()), view.getSegments()[0].get(view.getColumn(0)), 0);
+        view.close();
+        try {
+            view.getValue(0, view.getFirstStoredRow());
+            Assert.fail("view still usable");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        view.close();
+    }
+
+    @Test
+    public void testFetchView() throws IOException {
+        try (RrdNioBackendFactory factory = new RrdNioBackendFactory(0)) {
+            checkFetchView(factory, 2);
+        }
+        try (RrdMemoryBackendFactory factory = new RrdMemoryBackendFactory()) {
+            checkFetchView(factory, 2);
+        }
+        // Copied values
+        try (RrdRandomAccessFileBackendFactory factory = new RrdRandomAccessFileBackendFactory()) {
+            checkFetchView(factory, 1);
+        }
+    }
+
 }
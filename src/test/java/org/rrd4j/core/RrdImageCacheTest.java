@@ -0,0 +1,110 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdImageCacheTest {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDef getDef(String name, long start, int version) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getCanonicalPath() + "/" + name + ".rrd", start, 300, version);
+        def.addDatasource("in", COUNTER, 600, 0, Double.NaN);
+        def.addDatasource("a datasource with a long name", GAUGE, 600, -1.5, 100);
+        def.addArchive(AVERAGE, 0.5, 1, 600);
+        def.addArchive(AVERAGE, 0.5, 7, 700);
+        def.addArchive(MAX, 0.5, 288, 797);
+        return def;
+    }
+
+    @Test
+    public void testSameBytes() throws IOException {
+        RrdImageCache cache = new RrdImageCache();
+        try (RrdRandomAccessFileBackendFactory factory = new RrdRandomAccessFileBackendFactory()) {
+            for (int version = 1; version <= 4; version++) {
+                // Start times that don't fall on the same steps
+                for (long start : new long[] {920804400L, 920804567L, 1278107831L}) {
+                    RrdDef expected = getDef("expected" + version + "-" + start, start, version);
+                    RrdDef copy = getDef("copy" + version + "-" + start, start, version);
+                    try (RrdDb rrdDb = RrdDb.getBuilder().setRrdDef(expected).setBackendFactory(factory).build()) {
+                        rrdDb.getLastUpdateTime();
+                    }
+                    try (RrdDb rrdDb = RrdDb.getBuilder().setRrdDef(copy).setBackendFactory(factory).setImageCache(cache).build()) {
+                        Assert.assertEquals(start, rrdDb.getLastUpdateTime());
+                        Assert.assertEquals(version, rrdDb.getRrdDef().getVersion());
+                        Assert.assertEquals("a datasource with a long name", rrdDb.getDatasource(1).getName());
+                    }
+                    Assert.assertArrayEquals("Version " + version + " started at " + start,
+                            Files.readAllBytes(Paths.get(expected.getPath())), Files.readAllBytes(Paths.get(copy.getPath())));
+                }
+            }
+        }
+        Assert.assertEquals(4, cache.getMisses());
+        Assert.assertEquals(8, cache.getHits());
+        Assert.assertEquals(4, cache.getSize());
+    }
+
+    @Test
+    public void testCapacity() throws IOException {
+        RrdImageCache cache = new RrdImageCache(1);
+        try (RrdRandomAccessFileBackendFactory factory = new RrdRandomAccessFileBackendFactory()) {
+            for (int version = 1; version <= 2; version++) {
+                for (int i = 0; i < 2; i++) {
+                    try (RrdDb rrdDb = RrdDb.getBuilder().setRrdDef(getDef(version + "-" + i, 920804400L, version))
+                            .setBackendFactory(factory).setImageCache(cache).build()) {
+                        rrdDb.getLastUpdateTime();
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testCreateAll() throws IOException {
+        RrdImageCache cache = new RrdImageCache();
+        List<RrdDef> defs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            defs.add(getDef("bulk" + i, 920804400L + i, 2));
+        }
+        try (RrdNioBackendFactory factory = new RrdNioBackendFactory(0)) {
+            cache.createAll(defs, factory, 4);
+            for (RrdDef def : defs) {
+                try (RrdDb rrdDb = RrdDb.getBuilder().setPath(def.getPath()).setBackendFactory(factory).build()) {
+                    Assert.assertEquals(def.getStartTime(), rrdDb.getLastUpdateTime());
+                    rrdDb.createSample(def.getStartTime() + 300).setValue("in", 10).update();
+                }
+            }
+        }
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(199, cache.getHits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateAllFailure() throws IOException {
+        RrdImageCache cache = new RrdImageCache();
+        List<RrdDef> defs = new ArrayList<>();
+        defs.add(getDef("good", 920804400L, 2));
+        defs.add(new RrdDef(testFolder.getRoot().getCanonicalPath() + "/empty.rrd", 300));
+        try (RrdNioBackendFactory factory = new RrdNioBackendFactory(0)) {
+            cache.createAll(defs, factory, 2);
+        }
+    }
+
+}
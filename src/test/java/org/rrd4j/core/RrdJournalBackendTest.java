@@ -0,0 +1,252 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdJournalBackendTest extends BackendTester {
+    private static final long START = Util.getTimestamp(2010, 4, 1);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Path journal() {
+        return testFolder.getRoot().toPath().resolve("journal");
+    }
+
+    private RrdDb create(RrdBackendFactory factory, String name) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getAbsolutePath() + "/" + name, START, 300);
+        def.addDatasource("ds", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 100);
+        return RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build();
+    }
+
+    private void update(RrdDb db, int count) throws IOException {
+        for (int i = 1; i <= count; i++) {
+            db.createSample(START + i * 300).setValue("ds", i).update();
+        }
+    }
+
+    private void check(String path, int count) throws IOException {
+        try (RrdRandomAccessFileBackendFactory factory = new RrdRandomAccessFileBackendFactory();
+             RrdDb db = RrdDb.getBuilder().setPath(path).setBackendFactory(factory).readOnly().build()) {
+            Assert.assertEquals(START + count * 300, db.getLastUpdateTime());
+            double[] values = db.getArchive(0).getRobin(0).getValues();
+            Assert.assertEquals(count, values[values.length - 1], 1e-10);
+        }
+    }
+
+    @Test
+    public void testBackendFactory() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        try (RrdJournalBackendFactory factory = new RrdJournalBackendFactory(journal())) {
+            super.testBackendFactory(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
+    @Test
+    public void testStrided() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        try (RrdJournalBackendFactory factory = new RrdJournalBackendFactory(journal())) {
+            super.testStrided(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
+    @Test
+    public void testStridedJournaled() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        try (RrdJournalBackendFactory factory = new RrdJournalBackendFactory(journal(), Long.MAX_VALUE, Long.MAX_VALUE)) {
+            RrdBackend backend = factory.open(rrdfile.getCanonicalPath(), false);
+            backend.setLength(64 * 1024);
+            backend.updateDone();
+            long journalSize = factory.getJournalSize();
+            // Only the values are journaled, not the other columns between them
+            backend.writeStridedDouble(0, 1024, new double[] {1, 2, 3, 4});
+            backend.updateDone();
+            Assert.assertTrue(factory.getJournalSize() - journalSize < 1024);
+            Assert.assertEquals(3, backend.readDouble(2048), 1e-10);
+            backend.close();
+        }
+    }
+
+    @Test
+    public void testUpdate() throws IOException {
+        String path;
+        try (RrdJournalBackendFactory factory = new RrdJournalBackendFactory(journal())) {
+            try (RrdDb db = create(factory, "test.rrd")) {
+                path = db.getPath();
+                update(db, 20);
+                Assert.assertEquals(START + 20 * 300, db.getLastUpdateTime());
+                Assert.assertTrue(factory.getJournalSize() > 0);
+            }
+            factory.checkpoint();
+            Assert.assertEquals(0, factory.getJournalSize());
+        }
+        check(path, 20);
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        Path copy = testFolder.getRoot().toPath().resolve("journal.copy");
+        RrdJournalBackendFactory factory = new RrdJournalBackendFactory(journal(), Long.MAX_VALUE, Long.MAX_VALUE);
+        RrdDb db = create(factory, "test.rrd");
+        String path = db.getPath();
+        update(db, 20);
+        // Nothing applied yet, the journal is the only copy of the data, as after a crash
+        Files.copy(journal(), copy);
+        Assert.assertEquals(0, Files.readAllBytes(new File(path).toPath())[0]);
+        Assert.assertEquals(20, RrdJournalBackendFactory.replay(copy));
+        check(path, 20);
+
+        // A torn record at the end is ignored
+        byte[] content = Files.readAllBytes(copy);
+        Files.write(copy, content, StandardOpenOption.APPEND);
+        Files.write(copy, new byte[] {0, 0, 0, 10, 1, 2}, StandardOpenOption.APPEND);
+        Assert.assertEquals(40, RrdJournalBackendFactory.replay(copy));
+        check(path, 20);
+
+        db.close();
+        factory.close();
+    }
+
+    @Test
+    public void testFailedUpdate() throws IOException {
+        String path;
+        try (RrdJournalBackendFactory factory = new RrdJournalBackendFactory(journal(), Long.MAX_VALUE, Long.MAX_VALUE)) {
+            RrdDef def = new RrdDef(testFolder.getRoot().getAbsolutePath() + "/failed.rrd", START, 300);
+            def.addDatasource("ds", GAUGE, 600, Double.NaN, Double.NaN);
+            def.addDatasource("other", GAUGE, 600, Double.NaN, Double.NaN);
+            def.addArchive(AVERAGE, 0.5, 1, 100);
+            try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build()) {
+                path = db.getPath();
+                update(db, 10);
+                long journalSize = factory.getJournalSize();
+                // Fails after the first datasource is processed
+                try {
+                    db.store(START + 11 * 300, new double[] {11});
+                    Assert.fail("Incomplete sample stored");
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    // expected
+                }
+                Assert.assertEquals(journalSize, factory.getJournalSize());
+                Assert.assertEquals(START + 10 * 300, db.getLastUpdateTime());
+                Assert.assertEquals(10, db.getDatasource(0).getLastValue(), 1e-10);
+            }
+        }
+        check(path, 10);
+    }
+
+    @Test
+    public void testCommitDuringCheckpoint() throws Exception {
+        Path copy = testFolder.getRoot().toPath().resolve("journal.copy");
+        AtomicReference<RrdDb> dbRef = new AtomicReference<>();
+        CountDownLatch committed = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Future<?>> updates = new ArrayList<>();
+        RrdJournalBackendFactory factory = new RrdJournalBackendFactory(journal(), Long.MAX_VALUE, Long.MAX_VALUE) {
+            @Override
+            public String getName() {
+                return "RACYJOURNAL";
+            }
+
+            @Override
+            void sync(long sequence) throws IOException {
+                if (!updates.isEmpty()) {
+                    committed.countDown();
+                }
+                super.sync(sequence);
+            }
+
+            @Override
+            RrdJournalBackend newBackend(String path, boolean readOnly) throws IOException {
+                return new RrdJournalBackend(path, readOnly, this) {
+                    @Override
+                    boolean apply(long maxSequence) throws IOException {
+                        if (updates.isEmpty()) {
+                            // Another update is committed after the checkpoint synced the journal
+                            updates.add(executor.submit(() -> {
+                                dbRef.get().createSample(START + 11 * 300).setValue("ds", 11).update();
+                                return null;
+                            }));
+                            try {
+                                committed.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        return super.apply(maxSequence);
+                    }
+                };
+            }
+        };
+        try {
+            RrdDb db = create(factory, "test.rrd");
+            dbRef.set(db);
+            String path = db.getPath();
+            update(db, 10);
+            factory.checkpoint();
+            // The update is not yet durable, it's not written in the file, and the journal is kept
+            check(path, 10);
+            updates.get(0).get();
+            Files.copy(journal(), copy);
+            Assert.assertEquals(11, RrdJournalBackendFactory.replay(copy));
+            check(path, 11);
+            db.close();
+            factory.checkpoint();
+            Assert.assertEquals(0, factory.getJournalSize());
+        } finally {
+            executor.shutdown();
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        int threads = 8;
+        int updates = 50;
+        try (RrdJournalBackendFactory factory = new RrdJournalBackendFactory(journal(), 16 * 1024, 4 * 1024)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<String>> results = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    String name = "test" + i + ".rrd";
+                    results.add(executor.submit(() -> {
+                        try (RrdDb db = create(factory, name)) {
+                            update(db, updates);
+                            return db.getPath();
+                        }
+                    }));
+                }
+                List<String> paths = new ArrayList<>();
+                for (Future<String> result : results) {
+                    paths.add(result.get());
+                }
+                // One record for each update, and the ones written when closing
+                Assert.assertTrue(factory.getSyncCount() <= threads * (updates + 1));
+                for (String path : paths) {
+                    check(path, updates);
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+}
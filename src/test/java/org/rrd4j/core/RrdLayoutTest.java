@@ -0,0 +1,99 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdLayoutTest {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDef getDef(String name, long step, int version, int rows) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getCanonicalPath() + "/" + name + ".rrd", 920804400L, step, version);
+        def.addDatasource(name + "-in", COUNTER, 2 * step, 0, Double.NaN);
+        def.addDatasource(name + "-out", GAUGE, 2 * step, Double.NaN, 100);
+        def.addArchive(AVERAGE, 0.5, 1, rows);
+        def.addArchive(MAX, 0.5, 12, 100);
+        return def;
+    }
+
+    @Test
+    public void testShared() throws IOException {
+        try (RrdRandomAccessFileBackendFactory factory = new RrdRandomAccessFileBackendFactory()) {
+            for (int version = 1; version <= 4; version++) {
+                RrdDef def1 = getDef("first" + version, 300, version, 600);
+                RrdDef def2 = getDef("second" + version, 60, version, 600);
+                RrdDef def3 = getDef("third" + version, 300, version, 601);
+                try (RrdDb db1 = RrdDb.getBuilder().setRrdDef(def1).setBackendFactory(factory).build();
+                     RrdDb db2 = RrdDb.getBuilder().setRrdDef(def2).setBackendFactory(factory).build();
+                     RrdDb db3 = RrdDb.getBuilder().setRrdDef(def3).setBackendFactory(factory).build()) {
+                    // Names and steps don't change the structure, rows do
+                    Assert.assertSame(db1.getLayout(), db2.getLayout());
+                    Assert.assertNotSame(db1.getLayout(), db3.getLayout());
+                    Assert.assertEquals(version, db1.getLayout().getVersion());
+                }
+                try (RrdDb db1 = RrdDb.getBuilder().setPath(def1.getPath()).setBackendFactory(factory).readOnly().build();
+                     RrdDb db3 = RrdDb.getBuilder().setPath(def3.getPath()).setBackendFactory(factory).readOnly().build()) {
+                    Assert.assertSame(RrdLayout.get(def1), db1.getLayout());
+                    Assert.assertSame(RrdLayout.get(def3), db3.getLayout());
+                    Assert.assertEquals(12, db1.getArchive(1).getSteps());
+                    Assert.assertEquals(601, db3.getArchive(0).getRows());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEstimatedSize() throws IOException {
+        for (int version = 1; version <= 4; version++) {
+            RrdDef def = getDef("size", 300, version, 600);
+            RrdLayout layout = RrdLayout.get(def);
+            int valueSize = version == 3 ? 4 : 8;
+            long end;
+            if (version == 1) {
+                end = layout.getRobinValues(1, 1) + valueSize * 100L;
+            } else {
+                end = layout.getRobinValues(1, 0) + valueSize * 100L * 2;
+            }
+            Assert.assertEquals("Version " + version, def.getEstimatedSize(), end);
+        }
+    }
+
+    @Test
+    public void testState() throws IOException {
+        RrdDef def = getDef("state", 300, 2, 600);
+        long start = def.getStartTime();
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(new RrdSafeFileBackendFactory()).build()) {
+            for (int i = 1; i <= 30; i++) {
+                db.createSample(start + i * 300L).setValues(i, i % 7 == 0 ? Double.NaN : i).update();
+            }
+        }
+        // Read back without the values cached by the archives
+        try (RrdDb db = RrdDb.getBuilder().setPath(def.getPath()).setBackendFactory(new RrdSafeFileBackendFactory()).readOnly().build();
+             RrdDb cached = RrdDb.getBuilder().setPath(def.getPath()).setBackendFactory(new RrdRandomAccessFileBackendFactory()).readOnly().build()) {
+            for (int i = 0; i < 2; i++) {
+                for (int j = 0; j < 2; j++) {
+                    ArcState state = db.getArchive(i).getArcState(j);
+                    ArcState cachedState = cached.getArchive(i).getArcState(j);
+                    Assert.assertEquals(cachedState.getAccumValue(), state.getAccumValue(), 0);
+                    Assert.assertEquals(cachedState.getNanSteps(), state.getNanSteps());
+                    Assert.assertArrayEquals(cached.getArchive(i).getRobin(j).getValues(), db.getArchive(i).getRobin(j).getValues(), 0);
+                }
+            }
+            // 30 updates: 2 full steps of 12 and 6 values accumulated in the MAX archive, one of them NaN
+            Assert.assertEquals(30, db.getArchive(1).getArcState(1).getAccumValue(), 0);
+            Assert.assertEquals(1, db.getArchive(1).getArcState(1).getNanSteps());
+            Assert.assertEquals(24, db.getArchive(1).getRobin(1).getValue(99), 0);
+        }
+    }
+
+}
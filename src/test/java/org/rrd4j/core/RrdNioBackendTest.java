@@ -11,6 +11,8 @@ import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
 
 public class RrdNioBackendTest extends BackendTester {
 
@@ -52,6 +54,43 @@ public class RrdNioBackendTest extends BackendTester {
         }
     }
 
+    @Test
+    public void testSyncDirtyPages() throws IOException {
+        try (RrdNioBackendFactory factory = new RrdNioBackendFactory(-1, 0)) {
+            File rrdfile = testFolder.newFile("testfile");
+            RrdNioBackend be = (RrdNioBackend) factory.open(rrdfile.getCanonicalPath(), false);
+            be.done(factory, null);
+            be.setLength(10L * ByteBufferBackend.DEFAULT_PAGE_SIZE);
+            be.writeDouble(0, 1.0);
+            be.writeLong(3L * ByteBufferBackend.DEFAULT_PAGE_SIZE + 8, 2L);
+            be.writeInt(3L * ByteBufferBackend.DEFAULT_PAGE_SIZE + 16, 3);
+            be.sync();
+            Assert.assertEquals(20, be.getDirtyBytes());
+            long expectedFlushed = RrdNioBackend.isRangedForceAvailable() ? 2L * ByteBufferBackend.DEFAULT_PAGE_SIZE : 10L * ByteBufferBackend.DEFAULT_PAGE_SIZE;
+            Assert.assertEquals(expectedFlushed, be.getFlushedBytes());
+            // Nothing written, nothing flushed
+            be.sync();
+            Assert.assertEquals(expectedFlushed, be.getFlushedBytes());
+            be.close();
+            Assert.assertEquals(20, factory.getDirtyBytes());
+            Assert.assertEquals(expectedFlushed, factory.getFlushedBytes());
+            try (DataInputStream is = new DataInputStream(Files.newInputStream(rrdfile.toPath()))) {
+                Assert.assertEquals(1.0, is.readDouble(), 1e-10);
+                Assert.assertEquals(3L * ByteBufferBackend.DEFAULT_PAGE_SIZE, is.skip(3L * ByteBufferBackend.DEFAULT_PAGE_SIZE));
+                Assert.assertEquals(2L, is.readLong());
+                Assert.assertEquals(3, is.readInt());
+            }
+        }
+    }
+
+    @Test
+    public void testStrided() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        try (RrdBackendFactory factory = new RrdNioBackendFactory(-1, 0)) {
+            super.testStrided(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
     @Test
     public void testRead1() throws IOException {
         super.testRead1(new RrdNioBackendFactory());
@@ -62,6 +101,64 @@ public class RrdNioBackendTest extends BackendTester {
         super.testRead2(new RrdNioBackendFactory());
     }
 
+    @Test
+    public void testBigFile() throws IOException {
+        try (RrdNioBackendFactory factory = new RrdNioBackendFactory(-1, 0)) {
+            File rrdfile = testFolder.newFile("testfile");
+            RrdNioBackend be = (RrdNioBackend) factory.open(rrdfile.getCanonicalPath(), false);
+            be.done(factory, null);
+            // A sparse file, only the written pages use space
+            long chunkSize = 1L << RrdNioBackend.CHUNK_SHIFT;
+            be.setLength(3 * chunkSize);
+            be.writeDouble(0, 1.0);
+            be.writeDouble(chunkSize - 4, 2.0);
+            be.writeDouble(2 * chunkSize + 8, new double[] {3.0, 4.0});
+            be.writeLong(3 * chunkSize - 8, 5L);
+            Assert.assertEquals(1.0, be.readDouble(0), 1e-10);
+            Assert.assertEquals(2.0, be.readDouble(chunkSize - 4), 1e-10);
+            Assert.assertArrayEquals(new double[] {3.0, 4.0}, be.readDouble(2 * chunkSize + 8, 2), 1e-10);
+            be.close();
+            Assert.assertEquals(3 * chunkSize, rrdfile.length());
+            be = (RrdNioBackend) factory.open(rrdfile.getCanonicalPath(), true);
+            Assert.assertEquals(2.0, be.readDouble(chunkSize - 4), 1e-10);
+            Assert.assertEquals(5L, be.readLong(3 * chunkSize - 8));
+            be.close();
+        }
+    }
+
+    @Test
+    public void testMappedBytesLimit() throws IOException {
+        long start = Util.getTimestamp(2010, 4, 1);
+        try (RrdNioBackendFactory factory = new RrdNioBackendFactory(-1, 0)) {
+            RrdDb[] dbs = new RrdDb[4];
+            for (int i = 0; i < dbs.length; i++) {
+                RrdDef def = new RrdDef(testFolder.getRoot().getAbsolutePath() + "/test" + i + ".rrd", start, 300);
+                def.addDatasource("ds", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+                def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 1000);
+                if (i == 0) {
+                    factory.setMappedBytesLimit(def.getEstimatedSize() * 2 + def.getEstimatedSize() / 2);
+                }
+                dbs[i] = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build();
+            }
+            long size = dbs[0].getRrdBackend().getLength();
+            // The backends are released and mapped again, to stay within the limit
+            for (int t = 1; t <= 20; t++) {
+                for (RrdDb db : dbs) {
+                    db.createSample(start + t * 300).setValue("ds", t).update();
+                    Assert.assertTrue(factory.getMappedBytes() <= factory.getMappedBytesLimit());
+                }
+            }
+            Assert.assertTrue(factory.getReleasedMappings() > 0);
+            Assert.assertTrue(factory.getPeakMappedBytes() <= 2 * size);
+            for (RrdDb db : dbs) {
+                Assert.assertEquals(start + 20 * 300, db.getLastUpdateTime());
+                Assert.assertEquals(20, db.getDatasource(0).getLastValue(), 1e-10);
+                db.close();
+            }
+            Assert.assertEquals(0, factory.getMappedBytes());
+        }
+    }
+
     @Test(expected=InvalidRrdException.class)
     public void testReadCorruptSignature() throws Exception {
         super.testReadCorruptSignature(new RrdNioBackendFactory());
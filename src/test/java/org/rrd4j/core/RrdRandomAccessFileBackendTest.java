@@ -20,6 +20,38 @@ public class RrdRandomAccessFileBackendTest extends BackendTester {
         }
     }
 
+    @Test
+    public void testStrided() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        try (RrdBackendFactory factory = new RrdRandomAccessFileBackendFactory()) {
+            super.testStrided(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
+    @Test
+    public void testStridedPerValue() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        // The default strided writes, without rewriting the other columns
+        try (RrdBackendFactory factory = new RrdRandomAccessFileBackendFactory() {
+            @Override
+            public String getName() {
+                return "PERVALUE";
+            }
+
+            @Override
+            protected RrdBackend open(String path, boolean readOnly) throws IOException {
+                return new RrdRandomAccessFileBackend(path, readOnly) {
+                    @Override
+                    protected boolean isStridedBlockWriteAllowed() {
+                        return false;
+                    }
+                };
+            }
+        }) {
+            super.testStrided(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
     @Test
     public void testRead1() throws IOException {
         super.testRead1(new RrdRandomAccessFileBackendFactory());
@@ -0,0 +1,137 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.data.DataProcessor;
+
+public class RrdReaderTest {
+
+    private static final long START = 920804400L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDef getDef(String name, int version) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getCanonicalPath() + "/" + name + ".rrd", START, 300, version);
+        def.addDatasource("in", COUNTER, 600, 0, Double.NaN);
+        def.addDatasource("out", GAUGE, 600, Double.NaN, 100);
+        def.addDatasource("load", GAUGE, 600, Double.NaN, Double.NaN);
+        // Small archives, to read values across the rollover
+        def.addArchive(AVERAGE, 0.5, 1, 50);
+        def.addArchive(AVERAGE, 0.5, 6, 30);
+        def.addArchive(MAX, 0.5, 6, 30);
+        return def;
+    }
+
+    private void update(RrdDb db, int from, int to) throws IOException {
+        for (int i = from; i <= to; i++) {
+            db.createSample(START + i * 300L).setValues(i * 1000, i % 11 == 0 ? Double.NaN : i % 100, i / 7.0).update();
+        }
+    }
+
+    private void assertSameFetch(RrdDb db, RrdReader reader, FetchRequest expected, FetchRequest fetched) throws IOException {
+        FetchData expectedData = expected.fetchData();
+        FetchData fetchedData = fetched.fetchData();
+        Assert.assertArrayEquals(expectedData.getDsNames(), fetchedData.getDsNames());
+        Assert.assertArrayEquals(expectedData.getTimestamps(), fetchedData.getTimestamps());
+        Assert.assertArrayEquals(expectedData.getValues(), fetchedData.getValues());
+        Assert.assertEquals(expectedData.getArcStep(), fetchedData.getArcStep());
+        Assert.assertEquals(expectedData.getArcEndTime(), fetchedData.getArcEndTime());
+        Assert.assertEquals(db.getLastArchiveUpdateTime(), reader.getLastArchiveUpdateTime());
+    }
+
+    @Test
+    public void testFetch() throws IOException {
+        for (int version = 1; version <= 4; version++) {
+            RrdDef def = getDef("fetch" + version, version);
+            try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(new RrdRandomAccessFileBackendFactory()).build()) {
+                update(db, 1, 200);
+                RrdReader reader = RrdReader.of(db.getUri(), db.getRrdBackend().getFactory());
+                Assert.assertEquals(db.getCanonicalUri(), reader.getCanonicalUri());
+                Assert.assertArrayEquals(db.getDsNames(), reader.getDsNames());
+                Assert.assertEquals(300, reader.getStep());
+                Assert.assertEquals(db.getLastUpdateTime(), reader.getLastUpdateTime());
+
+                long end = START + 200 * 300L;
+                long[][] windows = {{end - 3000, end}, {end - 20000, end - 5000}, {START, end + 3000}, {end - 200000, end}};
+                for (long[] window : windows) {
+                    for (long resolution : new long[] {1, 1800}) {
+                        assertSameFetch(db, reader, db.createFetchRequest(AVERAGE, window[0], window[1], resolution),
+                                reader.createFetchRequest(AVERAGE, window[0], window[1], resolution));
+                    }
+                    FetchRequest expected = db.createFetchRequest(MAX, window[0], window[1]);
+                    expected.setFilter("load", "in");
+                    FetchRequest fetched = reader.createFetchRequest(MAX, window[0], window[1]);
+                    fetched.setFilter("load", "in");
+                    assertSameFetch(db, reader, expected, fetched);
+                }
+
+                // The reader follows the updates
+                update(db, 201, 230);
+                long newEnd = START + 230 * 300L;
+                assertSameFetch(db, reader, db.createFetchRequest(AVERAGE, newEnd - 6000, newEnd),
+                        reader.createFetchRequest(AVERAGE, newEnd - 6000, newEnd));
+                Assert.assertEquals(newEnd, reader.getLastUpdateTime());
+            }
+        }
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        RrdDef def = getDef("cache", 2);
+        RrdBackendFactory factory = new RrdRandomAccessFileBackendFactory();
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build()) {
+            update(db, 1, 100);
+        }
+        URI uri = factory.getUri(def.getPath());
+        RrdReaderCache cache = new RrdReaderCache(2);
+        RrdReader reader = cache.getReader(uri, factory);
+        Assert.assertSame(reader, cache.getReader(uri, factory));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        long end = START + 100 * 300L;
+        DataProcessor plain = new DataProcessor(end - 6000, end);
+        plain.datasource("out", uri, "out", AVERAGE, factory);
+        plain.datasource("load", uri, "load", AVERAGE, factory);
+        plain.processData();
+        DataProcessor cached = new DataProcessor(end - 6000, end);
+        cached.setReaderCache(cache);
+        cached.datasource("out", uri, "out", AVERAGE, factory);
+        cached.datasource("load", uri, "load", AVERAGE, factory);
+        cached.processData();
+        Assert.assertArrayEquals(plain.getTimestamps(), cached.getTimestamps());
+        Assert.assertArrayEquals(plain.getValues("out"), cached.getValues("out"), 0);
+        Assert.assertArrayEquals(plain.getValues("load"), cached.getValues("load"), 0);
+        Assert.assertEquals(plain.getLastRrdArchiveUpdateTime(), cached.getLastRrdArchiveUpdateTime());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissing() throws IOException {
+        RrdBackendFactory factory = new RrdRandomAccessFileBackendFactory();
+        RrdReader.of(factory.getUri(testFolder.getRoot().getCanonicalPath() + "/missing.rrd"), factory);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNoView() throws IOException {
+        RrdDef def = getDef("view", 2);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(new RrdRandomAccessFileBackendFactory()).build()) {
+            update(db, 1, 10);
+            RrdReader.of(db.getUri(), db.getRrdBackend().getFactory()).createFetchRequest(AVERAGE, START, START + 3000).fetchView();
+        }
+    }
+
+}
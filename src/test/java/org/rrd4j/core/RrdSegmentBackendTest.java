@@ -0,0 +1,149 @@
+package org.rrd4j.core;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+
+public class RrdSegmentBackendTest extends BackendTester {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDef getDef(String path) {
+        RrdDef def = new RrdDef(path, 920804400L, 300);
+        def.addDatasource("speed", DsType.COUNTER, 600, Double.NaN, Double.NaN);
+        def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 24);
+        def.addArchive(ConsolFun.MAX, 0.5, 6, 10);
+        return def;
+    }
+
+    @Test
+    public void testPersistence() throws IOException {
+        File directory = testFolder.newFolder();
+        try (RrdSegmentBackendFactory factory = new RrdSegmentBackendFactory(directory.toPath(), 64 * 1024, 1, new RrdSyncThreadPool(1))) {
+            for (int i = 0; i < 10; i++) {
+                try (RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd" + i)).build()) {
+                    db.createSample(920804700L).setValue(0, i).update();
+                    db.createSample(920805000L).setValue(0, i + 300).update();
+                }
+            }
+            Assert.assertEquals(1, factory.getSegmentCount());
+        }
+        try (RrdSegmentBackendFactory factory = new RrdSegmentBackendFactory(directory.toPath(), 64 * 1024, 1, new RrdSyncThreadPool(1))) {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(factory.exists("/rrd" + i));
+                try (RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setPath("rrd" + i).readOnly().build()) {
+                    Assert.assertEquals(920805000L, db.getLastUpdateTime());
+                    Assert.assertEquals(i + 300, db.getDatasource(0).getLastValue(), 1e-7);
+                }
+            }
+            Assert.assertFalse(factory.exists("/rrd10"));
+        }
+    }
+
+    @Test
+    public void testSlotReuse() throws IOException {
+        File directory = testFolder.newFolder();
+        try (RrdSegmentBackendFactory factory = new RrdSegmentBackendFactory(directory.toPath(), (int) (2 * getDef("size").getEstimatedSize()), -1, null)) {
+            try (RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd1")).build()) {
+                db.createSample(920804700L).setValue(0, 1).update();
+            }
+            try (RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd2")).build()) {
+                db.createSample(920804700L).setValue(0, 2).update();
+            }
+            Assert.assertTrue(factory.delete("/rrd1"));
+            Assert.assertFalse(factory.delete("/rrd1"));
+            try (RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd3")).build()) {
+                Assert.assertEquals(920804400L, db.getLastUpdateTime());
+            }
+            Assert.assertEquals(1, factory.getSegmentCount());
+        }
+        // The released slot is kept in the compacted index
+        try (RrdSegmentBackendFactory factory = new RrdSegmentBackendFactory(directory.toPath(), 64 * 1024, -1, null)) {
+            Assert.assertFalse(factory.exists("/rrd1"));
+            try (RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setPath("rrd2").build()) {
+                Assert.assertEquals(2, db.getDatasource(0).getLastValue(), 1e-7);
+            }
+            Assert.assertTrue(factory.delete("/rrd3"));
+            try (RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd4")).build()) {
+                Assert.assertEquals(920804400L, db.getLastUpdateTime());
+            }
+            Assert.assertEquals(1, factory.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void testStillOpen() throws IOException {
+        File directory = testFolder.newFolder();
+        RrdSegmentBackendFactory factory = new RrdSegmentBackendFactory(directory.toPath(), 64 * 1024, 1, new RrdSyncThreadPool(1));
+        RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd")).build();
+        RrdDb reader = RrdDb.getBuilder().setBackendFactory(factory).setPath("rrd").readOnly().build();
+        db.createSample(920804700L).setValue(0, 1).update();
+        try {
+            factory.delete("/rrd");
+            Assert.fail("Open RRD deleted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        db.close();
+        try {
+            factory.close();
+            Assert.fail("Factory closed with an open RRD");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // Still usable
+        Assert.assertEquals(920804700L, reader.getLastUpdateTime());
+        reader.close();
+        Assert.assertTrue(factory.delete("/rrd"));
+        factory.close();
+        try {
+            RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd")).build();
+            Assert.fail("Closed factory used");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRecreateOpen() throws IOException {
+        File directory = testFolder.newFolder();
+        try (RrdSegmentBackendFactory factory = new RrdSegmentBackendFactory(directory.toPath(), 64 * 1024, -1, null)) {
+            try (RrdDb db = RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd")).build()) {
+                db.createSample(920804700L).setValue(0, 1).update();
+            }
+            try (RrdDb reader = RrdDb.getBuilder().setBackendFactory(factory).setPath("rrd").readOnly().build()) {
+                RrdDef bigger = getDef("rrd");
+                bigger.addArchive(ConsolFun.MIN, 0.5, 6, 10);
+                for (RrdDef def : new RrdDef[] {getDef("rrd"), bigger}) {
+                    try {
+                        RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(def).build();
+                        Assert.fail("Open RRD created again");
+                    } catch (IllegalStateException e) {
+                        // expected
+                    }
+                }
+                // The slot is neither wiped nor given to another RRD
+                try (RrdDb other = RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("other")).build()) {
+                    other.createSample(920804700L).setValue(0, 2).update();
+                }
+                Assert.assertEquals(920804700L, reader.getLastUpdateTime());
+                Assert.assertEquals(1, reader.getDatasource(0).getLastValue(), 1e-7);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooBig() throws IOException {
+        try (RrdSegmentBackendFactory factory = new RrdSegmentBackendFactory(testFolder.newFolder().toPath(), 256, -1, null)) {
+            RrdDb.getBuilder().setBackendFactory(factory).setRrdDef(getDef("rrd")).build();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdStateCacheTest {
+
+    private static final long START = 920804400L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDef getDef(String name, int version) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getCanonicalPath() + "/" + name + ".rrd", START, 300, version);
+        def.addDatasource("in", COUNTER, 600, 0, Double.NaN);
+        def.addDatasource("out", GAUGE, 600, Double.NaN, 100);
+        def.addArchive(AVERAGE, 0.5, 1, 60);
+        def.addArchive(MAX, 0.5, 12, 30);
+        return def;
+    }
+
+    private void update(RrdDb db, int from, int to) throws IOException {
+        for (int i = from; i <= to; i++) {
+            db.createSample(START + i * 300L).setValues(i * 1000, i % 9 == 0 ? Double.NaN : i % 100).update();
+        }
+    }
+
+    private long readLastUpdateTime(String path) throws IOException {
+        try (RrdDb db = RrdDb.getBuilder().setPath(path).setBackendFactory(new RrdRandomAccessFileBackendFactory()).readOnly().build()) {
+            return db.getLastUpdateTime();
+        }
+    }
+
+    @Test
+    public void testSameBytes() throws IOException {
+        RrdBackendFactory factory = new RrdRandomAccessFileBackendFactory();
+        for (int version = 1; version <= 4; version++) {
+            RrdDef plainDef = getDef("plain" + version, version);
+            RrdDef cachedDef = getDef("cached" + version, version);
+            try (RrdDb plain = RrdDb.getBuilder().setRrdDef(plainDef).setBackendFactory(factory).build();
+                 RrdDb cached = RrdDb.getBuilder().setRrdDef(cachedDef).setBackendFactory(factory).setWriteBehind(7).build()) {
+                update(plain, 1, 100);
+                update(cached, 1, 100);
+                Assert.assertArrayEquals("Version " + version, plain.getBytes(), cached.getBytes());
+                update(plain, 101, 150);
+                update(cached, 101, 150);
+            }
+            Assert.assertArrayEquals("Version " + version, Files.readAllBytes(Paths.get(plainDef.getPath())),
+                    Files.readAllBytes(Paths.get(cachedDef.getPath())));
+        }
+    }
+
+    @Test
+    public void testWriteBehind() throws IOException {
+        RrdDef def = getDef("behind", 4);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(new RrdRandomAccessFileBackendFactory()).setWriteBehind(10).build()) {
+            update(db, 1, 25);
+            // Flushed after 10 and 20 updates
+            Assert.assertEquals(START + 25 * 300L, db.getLastUpdateTime());
+            Assert.assertEquals(START + 20 * 300L, readLastUpdateTime(def.getPath()));
+            db.flush();
+            Assert.assertEquals(START + 25 * 300L, readLastUpdateTime(def.getPath()));
+            update(db, 26, 28);
+            Assert.assertEquals(START + 25 * 300L, readLastUpdateTime(def.getPath()));
+        }
+        Assert.assertEquals(START + 28 * 300L, readLastUpdateTime(def.getPath()));
+    }
+
+    @Test
+    public void testNoCaching() throws IOException {
+        RrdDef def = getDef("safe", 2);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(new RrdSafeFileBackendFactory()).setWriteBehind(10).build()) {
+            // The backend can be shared, the state is always written
+            Assert.assertEquals(0, db.getStateCache().getMaxPendingUpdates());
+            update(db, 1, 5);
+            Assert.assertFalse(db.getStateCache().isDirty());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalid() {
+        RrdDb.getBuilder().setWriteBehind(-1);
+    }
+
+}
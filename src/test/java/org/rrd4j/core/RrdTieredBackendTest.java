@@ -0,0 +1,222 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdTieredBackendTest extends BackendTester {
+    private static final long START = Util.getTimestamp(2010, 4, 1);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private String path(String name) {
+        return testFolder.getRoot().getAbsolutePath() + "/" + name;
+    }
+
+    private long create(RrdBackendFactory factory, String name) throws IOException {
+        RrdDef def = new RrdDef(path(name), START, 300);
+        def.addDatasource("ds", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 100);
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build()) {
+            db.createSample(START + 300).setValue("ds", 1).update();
+            return db.getRrdBackend().getLength();
+        }
+    }
+
+    private void touch(RrdBackendFactory factory, String name) throws IOException {
+        try (RrdDb db = RrdDb.getBuilder().setPath(path(name)).setBackendFactory(factory).build()) {
+            Assert.assertEquals(START + 300, db.getLastUpdateTime());
+        }
+    }
+
+    private void checkFile(String name) throws IOException {
+        try (RrdRandomAccessFileBackendFactory factory = new RrdRandomAccessFileBackendFactory();
+             RrdDb db = RrdDb.getBuilder().setPath(path(name)).setBackendFactory(factory).readOnly().build()) {
+            Assert.assertEquals(START + 300, db.getLastUpdateTime());
+        }
+    }
+
+    @Test
+    public void testBackendFactory() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        // Nothing can stay resident, so it's written back when closed
+        try (RrdTieredBackendFactory factory = new RrdTieredBackendFactory(0)) {
+            super.testBackendFactory(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
+    @Test
+    public void testStrided() throws IOException {
+        File rrdfile = testFolder.newFile("testfile");
+        try (RrdTieredBackendFactory factory = new RrdTieredBackendFactory(1024 * 1024)) {
+            super.testStrided(factory, rrdfile.getCanonicalPath());
+        }
+    }
+
+    @Test
+    public void testLruEviction() throws IOException {
+        try (RrdRandomAccessFileBackendFactory fileFactory = new RrdRandomAccessFileBackendFactory()) {
+            long size = create(fileFactory, "sizing.rrd");
+            try (RrdTieredBackendFactory factory = new RrdTieredBackendFactory(2 * size)) {
+                for (int i = 0; i < 4; i++) {
+                    create(factory, "test" + i + ".rrd");
+                }
+                Assert.assertEquals(2, factory.getResidentCount());
+                Assert.assertEquals(2 * size, factory.getResidentBytes());
+                Assert.assertEquals(2, factory.getEvictions());
+                // Evicted RRDs were written back
+                checkFile("test0.rrd");
+                checkFile("test1.rrd");
+
+                touch(factory, "test3.rrd");
+                Assert.assertEquals(1, factory.getHits());
+                touch(factory, "test0.rrd");
+                // test2 was the least recently used
+                Assert.assertEquals(3, factory.getEvictions());
+                touch(factory, "test3.rrd");
+                Assert.assertEquals(2, factory.getHits());
+                Assert.assertEquals(2.0 / 7.0, factory.getHitRatio(), 1e-10);
+            }
+            // Closing the factory writes back the resident RRDs
+            checkFile("test0.rrd");
+            checkFile("test3.rrd");
+        }
+    }
+
+    @Test
+    public void testLfuEviction() throws IOException {
+        try (RrdRandomAccessFileBackendFactory fileFactory = new RrdRandomAccessFileBackendFactory()) {
+            long size = create(fileFactory, "sizing.rrd");
+            try (RrdTieredBackendFactory factory = new RrdTieredBackendFactory(2 * size, RrdTieredBackendFactory.Eviction.LFU)) {
+                create(factory, "test0.rrd");
+                touch(factory, "test0.rrd");
+                touch(factory, "test0.rrd");
+                create(factory, "test1.rrd");
+                create(factory, "test2.rrd");
+                // test0 is the most frequently used, test1 is evicted even if test0 is older
+                Assert.assertEquals(1, factory.getEvictions());
+                touch(factory, "test0.rrd");
+                Assert.assertEquals(3, factory.getHits());
+                checkFile("test1.rrd");
+            }
+        }
+    }
+
+    @Test
+    public void testOpenNotEvicted() throws IOException {
+        try (RrdTieredBackendFactory factory = new RrdTieredBackendFactory(0)) {
+            RrdDef def = new RrdDef(path("test.rrd"), START, 300);
+            def.addDatasource("ds", GAUGE, 600, Double.NaN, Double.NaN);
+            def.addArchive(AVERAGE, 0.5, 1, 100);
+            try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build()) {
+                db.createSample(START + 300).setValue("ds", 1).update();
+                Assert.assertEquals(1, factory.getResidentCount());
+                Assert.assertEquals(0, factory.getEvictions());
+            }
+            Assert.assertEquals(0, factory.getResidentCount());
+            Assert.assertEquals(0, factory.getResidentBytes());
+            checkFile("test.rrd");
+        }
+    }
+
+    @Test
+    public void testReadOnly() throws IOException {
+        try (RrdTieredBackendFactory factory = new RrdTieredBackendFactory(1024 * 1024)) {
+            create(factory, "test.rrd");
+            try (RrdDb reader = RrdDb.getBuilder().setPath(path("test.rrd")).setBackendFactory(factory).readOnly().build()) {
+                try {
+                    reader.getRrdBackend().writeLong(RrdLayout.LAST_UPDATE_TIME, START);
+                    Assert.fail("Read only RRD written");
+                } catch (ReadOnlyBufferException e) {
+                    // expected
+                }
+                Assert.assertEquals(START + 300, reader.getLastUpdateTime());
+                // Can't be resized while the reader uses it
+                RrdDef def = new RrdDef(path("test.rrd"), START, 300);
+                def.addDatasource("ds", GAUGE, 600, Double.NaN, Double.NaN);
+                def.addArchive(AVERAGE, 0.5, 1, 200);
+                try {
+                    RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build();
+                    Assert.fail("Open RRD resized");
+                } catch (RrdBackendException e) {
+                    // expected
+                }
+                Assert.assertEquals(START + 300, reader.getLastUpdateTime());
+            }
+        }
+        checkFile("test.rrd");
+    }
+
+    @Test
+    public void testSyncOpen() throws IOException {
+        try (RrdTieredBackendFactory factory = new RrdTieredBackendFactory(1024 * 1024)) {
+            RrdDef def = new RrdDef(path("test.rrd"), START, 300);
+            def.addDatasource("ds", GAUGE, 600, Double.NaN, Double.NaN);
+            def.addArchive(AVERAGE, 0.5, 1, 100);
+            try (RrdDb db = RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build()) {
+                db.createSample(START + 300).setValue("ds", 1).update();
+                factory.sync();
+                checkFile("test.rrd");
+                // Not written by an update
+                db.getDatasource(0).setHeartbeat(1200);
+                factory.sync();
+                try (RrdRandomAccessFileBackendFactory fileFactory = new RrdRandomAccessFileBackendFactory();
+                     RrdDb file = RrdDb.getBuilder().setPath(path("test.rrd")).setBackendFactory(fileFactory).readOnly().build()) {
+                    Assert.assertEquals(1200, file.getDatasource(0).getHeartbeat());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentEviction() throws Exception {
+        int threads = 4;
+        int rrds = 10;
+        try (RrdRandomAccessFileBackendFactory fileFactory = new RrdRandomAccessFileBackendFactory()) {
+            long size = create(fileFactory, "sizing.rrd");
+            try (RrdTieredBackendFactory factory = new RrdTieredBackendFactory(2 * size)) {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    List<Future<?>> results = new ArrayList<>();
+                    for (int i = 0; i < threads; i++) {
+                        int thread = i;
+                        results.add(executor.submit(() -> {
+                            for (int j = 0; j < rrds; j++) {
+                                String name = "test" + thread + "-" + j + ".rrd";
+                                create(factory, name);
+                                touch(factory, name);
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> result : results) {
+                        result.get();
+                    }
+                } finally {
+                    executor.shutdown();
+                }
+                Assert.assertTrue(factory.getResidentBytes() <= 2 * size);
+            }
+        }
+        for (int i = 0; i < threads; i++) {
+            for (int j = 0; j < rrds; j++) {
+                checkFile("test" + i + "-" + j + ".rrd");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RrdUpdateServiceTest {
+
+    private static final long START = 920804400L;
+    private static final int RRDS = 10;
+    private static final int SAMPLES = 500;
+
+    private final RrdMemoryBackendFactory factory = new RrdMemoryBackendFactory();
+    private final RrdDbPool pool = new RrdDbPool(factory);
+
+    private RrdDef getDef(String name) {
+        RrdDef def = new RrdDef(factory.getUri(name), START, 300);
+        def.addDatasource("in", COUNTER, 600, 0, Double.NaN);
+        def.addDatasource("out", GAUGE, 600, Double.NaN, 100);
+        def.addArchive(AVERAGE, 0.5, 1, 60);
+        def.addArchive(MAX, 0.5, 12, 30);
+        return def;
+    }
+
+    private URI create(String name) throws IOException {
+        RrdDef def = getDef(name);
+        try (RrdDb db = pool.requestRrdDb(def)) {
+            return db.getUri();
+        }
+    }
+
+    private static double[] valuesAt(int rrd, int i) {
+        return new double[] {i * 1000 + rrd, i % 9 == 0 ? Double.NaN : (i + rrd) % 100};
+    }
+
+    private byte[] getBytes(URI uri) throws IOException {
+        try (RrdDb db = pool.requestRrdDb(uri)) {
+            return db.getBytes();
+        }
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        URI[] uris = new URI[RRDS];
+        URI[] expected = new URI[RRDS];
+        for (int i = 0; i < RRDS; i++) {
+            uris[i] = create("service" + i);
+            expected[i] = create("expected" + i);
+            try (RrdDb db = pool.requestRrdDb(expected[i])) {
+                for (int j = 1; j <= SAMPLES; j++) {
+                    db.createSample(START + j * 300L).setValues(valuesAt(i, j)).update();
+                }
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(RRDS);
+        try (RrdUpdateService service = RrdUpdateService.getBuilder().setPool(pool).setShards(3)
+                .setMaxBatchSize(64).setMaxPendingSamples(100).build()) {
+            // One collector thread for each RRD, they share the shards
+            List<Future<?>> collectors = new ArrayList<>();
+            for (int i = 0; i < RRDS; i++) {
+                int rrd = i;
+                collectors.add(executor.submit(() -> {
+                    for (int j = 1; j <= SAMPLES; j++) {
+                        service.update(uris[rrd], START + j * 300L, valuesAt(rrd, j));
+                    }
+                }));
+            }
+            for (Future<?> collector : collectors) {
+                collector.get();
+            }
+            service.flush();
+            Assert.assertEquals(0, service.getPendingSamples());
+            Assert.assertEquals(RRDS * SAMPLES, service.getStoredSamples());
+            Assert.assertEquals(0, service.getFailedSamples());
+            for (int i = 0; i < RRDS; i++) {
+                Assert.assertArrayEquals(getBytes(expected[i]), getBytes(uris[i]));
+            }
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testReadYourWrites() throws IOException {
+        URI uri = create("flushed");
+        try (RrdUpdateService service = RrdUpdateService.getBuilder().setPool(pool).setShards(2)
+                .setMaxDelay(1, TimeUnit.HOURS).build()) {
+            for (int j = 1; j <= 10; j++) {
+                service.update(uri, START + j * 300L, valuesAt(0, j));
+            }
+            Assert.assertEquals(10, service.getPendingSamples());
+            service.flush(uri);
+            Assert.assertEquals(0, service.getPendingSamples());
+            try (RrdDb db = pool.requestRrdDb(uri)) {
+                Assert.assertEquals(START + 10 * 300L, db.getLastUpdateTime());
+            }
+        }
+    }
+
+    @Test
+    public void testMaxDelay() throws Exception {
+        URI uri = create("delayed");
+        try (RrdUpdateService service = RrdUpdateService.getBuilder().setPool(pool).setShards(1)
+                .setMaxDelay(50, TimeUnit.MILLISECONDS).build()) {
+            service.update(uri, START + 300L, valuesAt(0, 1));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (service.getStoredSamples() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, service.getStoredSamples());
+        }
+    }
+
+    @Test
+    public void testBackPressure() throws IOException {
+        URI uri = create("full");
+        RrdUpdateService service = RrdUpdateService.getBuilder().setPool(pool).setShards(1)
+                .setMaxPendingSamples(5).setMaxDelay(1, TimeUnit.HOURS).build();
+        for (int j = 1; j <= 5; j++) {
+            Assert.assertTrue(service.offer(uri, START + j * 300L, valuesAt(0, j)));
+        }
+        Assert.assertFalse(service.offer(uri, START + 6 * 300L, valuesAt(0, 6)));
+        service.flush();
+        Assert.assertTrue(service.offer(uri, START + 6 * 300L, valuesAt(0, 6)));
+        // Closing stores the queued samples
+        service.close();
+        Assert.assertEquals(6, service.getStoredSamples());
+        try {
+            service.update(uri, START + 7 * 300L, valuesAt(0, 7));
+            Assert.fail("Update accepted after close");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        URI uri = create("errors");
+        URI missing = factory.getUri("missing");
+        try (RrdUpdateService service = RrdUpdateService.getBuilder().setPool(pool).setShards(2)
+                .setMaxDelay(1, TimeUnit.HOURS).build()) {
+            service.update(uri, START + 300L, valuesAt(0, 1));
+            service.update(uri, START + 300L, valuesAt(0, 1));
+            service.update(uri, START + 600L, 1.0);
+            service.update(uri, START + 900L, valuesAt(0, 3));
+            service.update(missing, START + 300L, valuesAt(0, 1));
+            try {
+                service.flush(uri);
+                Assert.fail("Invalid samples accepted");
+            } catch (RrdException e) {
+                // expected
+            }
+            // The valid samples were stored, the errors are reported once
+            Assert.assertEquals(2, service.getStoredSamples());
+            service.flush(uri);
+            try {
+                service.flush();
+                Assert.fail("Missing RRD accepted");
+            } catch (RrdException e) {
+                // expected
+            }
+            Assert.assertEquals(3, service.getFailedSamples());
+            service.flush();
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SampleReorderBufferTest {
+
+    private static final long START = 920804400L;
+    private static final int SAMPLES = 2000;
+
+    private final RrdMemoryBackendFactory factory = new RrdMemoryBackendFactory();
+
+    private RrdDb create(String name) throws IOException {
+        RrdDef def = new RrdDef(factory.getUri(name), START, 60);
+        def.addDatasource("in", COUNTER, 120, 0, Double.NaN);
+        def.addDatasource("out", GAUGE, 120, Double.NaN, 100);
+        def.addArchive(AVERAGE, 0.5, 1, 200);
+        def.addArchive(MAX, 0.5, 10, 50);
+        return RrdDb.getBuilder().setRrdDef(def).setBackendFactory(factory).build();
+    }
+
+    private static double[] valuesAt(int i) {
+        return new double[] {i * 1000, i % 7 == 0 ? Double.NaN : i % 100};
+    }
+
+    @Test
+    public void testReorder() throws IOException {
+        try (RrdDb expected = create("expected"); RrdDb reordered = create("reordered")) {
+            for (int i = 1; i <= SAMPLES; i++) {
+                expected.store(START + i * 60L, valuesAt(i));
+            }
+            // Shuffle the samples in blocks of 4, moving them by less than the window
+            Random random = new Random(0);
+            int[] order = new int[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                order[i] = i + 1;
+            }
+            for (int i = 0; i < SAMPLES; i++) {
+                int j = i - i % 4 + random.nextInt(4);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            SampleReorderBuffer buffer = reordered.createReorderBuffer(300);
+            for (int i : order) {
+                buffer.add(START + i * 60L, valuesAt(i));
+            }
+            Assert.assertTrue(buffer.getPendingSamples() > 0);
+            Assert.assertTrue(reordered.getLastUpdateTime() < START + SAMPLES * 60L);
+            buffer.flush();
+            Assert.assertEquals(0, buffer.getPendingSamples());
+            Assert.assertArrayEquals(expected.getBytes(), reordered.getBytes());
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (RrdDb expected = create("expected"); RrdDb reordered = create("reordered")) {
+            for (int i = 1; i <= SAMPLES; i++) {
+                expected.store(START + i * 60L, valuesAt(i));
+            }
+            SampleReorderBuffer buffer = reordered.createReorderBuffer(SAMPLES * 60L);
+            // Each thread collects one sample out of four
+            List<Future<?>> collectors = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t + 1;
+                collectors.add(executor.submit(() -> {
+                    for (int i = first; i <= SAMPLES; i += threads) {
+                        buffer.add(START + i * 60L, valuesAt(i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> collector : collectors) {
+                collector.get();
+            }
+            buffer.flush();
+            Assert.assertArrayEquals(expected.getBytes(), reordered.getBytes());
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testInvalid() throws IOException {
+        try (RrdDb db = create("invalid")) {
+            SampleReorderBuffer buffer = db.createReorderBuffer(120);
+            buffer.add(START + 300, valuesAt(5));
+            buffer.add(START + 200, valuesAt(3));
+            Assert.assertEquals(2, buffer.getPendingSamples());
+            // Already out of the window, stored at once
+            buffer.add(START + 120, valuesAt(2));
+            Assert.assertEquals(START + 120, db.getLastUpdateTime());
+            // Moves the window, storing the sample at 200
+            buffer.add(START + 360, valuesAt(6));
+            Assert.assertEquals(START + 200, db.getLastUpdateTime());
+            Assert.assertEquals(2, buffer.getPendingSamples());
+            expectInvalid(buffer, START + 60, valuesAt(1));
+            expectInvalid(buffer, START + 120, valuesAt(2));
+            expectInvalid(buffer, START + 300, valuesAt(5));
+            expectInvalid(buffer, START + 400, 1.0);
+            buffer.add(START + 240, valuesAt(4));
+            buffer.flush();
+            Assert.assertEquals(START + 360, db.getLastUpdateTime());
+            Assert.assertEquals(0, buffer.getPendingSamples());
+            expectInvalid(buffer, START + 330, valuesAt(5));
+        }
+        try (RrdDb db = create("negative")) {
+            db.createReorderBuffer(-1);
+            Assert.fail("Negative window accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStoreFailure() throws IOException {
+        try (RrdDb db = create("failure")) {
+            SampleReorderBuffer buffer = db.createReorderBuffer(120);
+            buffer.add(START + 120, valuesAt(2));
+            buffer.add(START + 180, valuesAt(3));
+            // Updated behind the buffer, the held samples can't be stored any more
+            db.store(START + 150, valuesAt(1));
+            try {
+                buffer.add(START + 300, valuesAt(5));
+                Assert.fail("Failure not reported");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            // Nothing lost, and the samples before the failed batch are still accepted
+            Assert.assertEquals(3, buffer.getPendingSamples());
+            try {
+                buffer.add(START + 60, valuesAt(1));
+                Assert.fail("Failure not reported");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            Assert.assertEquals(4, buffer.getPendingSamples());
+            try {
+                buffer.flush();
+                Assert.fail("Failure not reported");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            Assert.assertEquals(4, buffer.getPendingSamples());
+            Assert.assertEquals(START + 150, db.getLastUpdateTime());
+        }
+    }
+
+    private static void expectInvalid(SampleReorderBuffer buffer, long time, double... values) throws IOException {
+        try {
+            buffer.add(time, values);
+            Assert.fail("Sample accepted at " + time);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.rrd4j.core;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+import static org.rrd4j.ConsolFun.MAX;
+import static org.rrd4j.ConsolFun.TOTAL;
+import static org.rrd4j.DsType.COUNTER;
+import static org.rrd4j.DsType.GAUGE;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SampleUpdaterTest {
+
+    private static final long START = 920804400L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private RrdDef getDef(String name, int version) throws IOException {
+        RrdDef def = new RrdDef(testFolder.getRoot().getCanonicalPath() + "/" + name + ".rrd", START, 300, version);
+        def.addDatasource("in", COUNTER, 600, 0, Double.NaN);
+        def.addDatasource("out", GAUGE, 600, Double.NaN, 100);
+        def.addDatasource("zeros!", GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(AVERAGE, 0.5, 1, 60);
+        def.addArchive(MAX, 0.5, 12, 30);
+        def.addArchive(TOTAL, 0.5, 288, 10);
+        return def;
+    }
+
+    private static double outValue(int i) {
+        return i % 9 == 0 ? Double.NaN : i % 100;
+    }
+
+    private static void update(SampleUpdater updater, int in, int out, int from, int to) throws IOException {
+        for (int i = from; i <= to; i++) {
+            // some gaps longer than the heartbeat, and bulk stores
+            long time = START + i * 300L + (i / 500) * 3000L;
+            updater.setTime(time).setValue(in, i * 1000).setValue(out, outValue(i)).update();
+        }
+    }
+
+    @Test
+    public void testSameBytes() throws IOException {
+        for (int version = 1; version <= 4; version++) {
+            try (RrdDb samples = RrdDb.getBuilder().setRrdDef(getDef("samples" + version, version)).setBackendFactory(new RrdMemoryBackendFactory()).build();
+                 RrdDb updated = RrdDb.getBuilder().setRrdDef(getDef("updater" + version, version)).setBackendFactory(new RrdMemoryBackendFactory()).build()) {
+                for (int i = 1; i <= 1000; i++) {
+                    long time = START + i * 300L + (i / 500) * 3000L;
+                    samples.createSample(time).setValue("in", i * 1000).setValue("out", outValue(i)).update();
+                }
+                SampleUpdater updater = updated.createSampleUpdater();
+                update(updater, updater.getDsIndex("in"), updater.getDsIndex("out"), 1, 1000);
+                Assert.assertArrayEquals("Version " + version, samples.getBytes(), updated.getBytes());
+            }
+        }
+    }
+
+    @Test
+    public void testInvalid() throws IOException {
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef("invalid", 2)).setBackendFactory(new RrdMemoryBackendFactory()).build()) {
+            SampleUpdater updater = db.createSampleUpdater();
+            try {
+                updater.getDsIndex("missing");
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                updater.setValue(3, 1.0);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                updater.setTime(START).update();
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private void checkAllocations(RrdBackendFactory factory, int version) throws IOException {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        try (RrdDb db = RrdDb.getBuilder().setRrdDef(getDef("allocation" + version, version)).setBackendFactory(factory).build()) {
+            SampleUpdater updater = db.createSampleUpdater();
+            int in = updater.getDsIndex("in");
+            int out = updater.getDsIndex("out");
+            // Warm up, so that the allocations done once, like the loading of the state, are excluded
+            update(updater, in, out, 1, 5000);
+            // The JIT compiler sometimes allocates a few objects in the thread it's optimizing, so the best of a few
+            // rounds is kept; an allocation in the update path would show in each of them
+            long allocated = Long.MAX_VALUE;
+            for (int round = 0; round < 5 && allocated > 0; round++) {
+                int from = 5001 + round * 2000;
+                long before = threadBean.getThreadAllocatedBytes(threadId);
+                update(updater, in, out, from, from + 1999);
+                allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(threadId) - before);
+            }
+            Assert.assertEquals(factory.getName() + " version " + version + " allocated bytes", 0, allocated);
+        }
+    }
+
+    @Test
+    public void testNoAllocation() throws IOException {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        Assume.assumeTrue(((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).isThreadAllocatedMemoryEnabled());
+        for (int version = 1; version <= 4; version++) {
+            checkAllocations(new RrdMemoryBackendFactory(), version);
+            try (RrdNioBackendFactory factory = new RrdNioBackendFactory(0)) {
+                checkAllocations(factory, version);
+            }
+        }
+    }
+
+}